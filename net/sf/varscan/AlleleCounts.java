@@ -0,0 +1,366 @@
+/**
+ * @(#)AlleleCounts.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.util.Arrays;
+
+/**
+ * Read counts, qualities, and strands for each allele observed at one pileup position
+ *
+ * Alleles live in fixed slots: the reference in slot 0, A/C/G/T in slots 1-4, and any indel
+ * alleles from slot 5 onwards. Indel alleles keep the legacy key format (INS-2-AC, DEL-1-G)
+ * so that they sort and print exactly as before.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class AlleleCounts {
+
+	static final int REF = 0;
+	static final int FIRST_INDEL = 5;
+
+	private static final String[] BASE_KEYS = {"", "A", "C", "G", "T"};
+	private static final int[] NO_SLOTS = new int[0];
+
+	String refBase;
+	int numSlots = FIRST_INDEL;
+	int[] reads = new int[8];
+	int[] readsPlus = new int[8];
+	int[] readsMinus = new int[8];
+	int[] qualitySum = new int[8];
+	int[] mapQualitySum = new int[8];
+	boolean[] indelInsertion = new boolean[8];
+	int[] indelSize = new int[8];
+	String[] indelBases = new String[8];
+	String[] indelKeys = new String[8];
+
+	/** Reference-supporting reads that contain an indel at the next base */
+	int reads1indel = 0;
+
+
+	/**
+	 * Constructor for an empty set of counts
+	 *
+	 * @param	refBase		Reference base at this position
+	 */
+	public AlleleCounts(String refBase)
+	{
+		this.refBase = refBase;
+	}
+
+
+	/**
+	 * Returns the slot for a SNP base character, or -1 if it is not A/C/G/T
+	 *
+	 * @param	base	Base character in either case
+	 * @return			Slot number
+	 */
+	static int baseSlot(char base)
+	{
+		switch(base)
+		{
+			case 'A': case 'a': return(1);
+			case 'C': case 'c': return(2);
+			case 'G': case 'g': return(3);
+			case 'T': case 't': return(4);
+			default: return(-1);
+		}
+	}
+
+
+	/**
+	 * Counts one read for an allele slot
+	 *
+	 * @param	slot			Allele slot
+	 * @param	plusStrand		True if the read was on the plus strand
+	 * @param	baseQuality		Base quality of the read
+	 * @param	mapQuality		Mapping quality of the read
+	 */
+	final void count(int slot, boolean plusStrand, int baseQuality, int mapQuality)
+	{
+		reads[slot]++;
+		if(plusStrand)
+			readsPlus[slot]++;
+		else
+			readsMinus[slot]++;
+		qualitySum[slot] += baseQuality;
+		mapQualitySum[slot] += mapQuality;
+	}
+
+
+	/**
+	 * Finds the slot of an indel allele, adding one if it has not been seen
+	 *
+	 * @param	isInsertion		True for insertions, false for deletions
+	 * @param	size			Indel size as written in the pileup
+	 * @param	buffer			Upper-case indel bases
+	 * @param	length			Number of valid characters in buffer
+	 * @return					Slot number
+	 */
+	int indelSlot(boolean isInsertion, int size, char[] buffer, int length)
+	{
+		for(int slot = FIRST_INDEL; slot < numSlots; slot++)
+		{
+			if(indelInsertion[slot] == isInsertion && indelSize[slot] == size && sameBases(indelBases[slot], buffer, length))
+				return(slot);
+		}
+
+		if(numSlots == reads.length)
+		{
+			int newLength = numSlots * 2;
+			reads = Arrays.copyOf(reads, newLength);
+			readsPlus = Arrays.copyOf(readsPlus, newLength);
+			readsMinus = Arrays.copyOf(readsMinus, newLength);
+			qualitySum = Arrays.copyOf(qualitySum, newLength);
+			mapQualitySum = Arrays.copyOf(mapQualitySum, newLength);
+			indelInsertion = Arrays.copyOf(indelInsertion, newLength);
+			indelSize = Arrays.copyOf(indelSize, newLength);
+			indelBases = Arrays.copyOf(indelBases, newLength);
+			indelKeys = Arrays.copyOf(indelKeys, newLength);
+		}
+
+		int slot = numSlots++;
+		indelInsertion[slot] = isInsertion;
+		indelSize[slot] = size;
+		indelBases[slot] = new String(buffer, 0, length);
+		indelKeys[slot] = (isInsertion ? "INS-" : "DEL-") + size + "-" + indelBases[slot];
+		return(slot);
+	}
+
+
+	/**
+	 * Compares a stored indel allele to the bases in a scratch buffer
+	 *
+	 * @param	bases		Stored indel bases
+	 * @param	buffer		Buffer holding the bases just parsed
+	 * @param	length		Number of valid characters in the buffer
+	 * @return				True if they are identical
+	 */
+	static boolean sameBases(String bases, char[] buffer, int length)
+	{
+		if(bases.length() != length)
+			return(false);
+
+		for(int k = 0; k < length; k++)
+		{
+			if(bases.charAt(k) != buffer[k])
+				return(false);
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Returns the slot that holds the reference allele's counts
+	 *
+	 * A read base that spells out the reference (rather than . or ,) is counted under its own
+	 * letter, and that entry takes the place of the reference counts, as it always has.
+	 *
+	 * @return	Slot number of the reference allele
+	 */
+	int refSlot()
+	{
+		if(refBase.length() == 1)
+		{
+			int slot = baseSlot(refBase.charAt(0));
+			if(slot > 0 && reads[slot] > 0 && refBase.charAt(0) == BASE_KEYS[slot].charAt(0))
+				return(slot);
+		}
+
+		return(REF);
+	}
+
+
+	/**
+	 * Returns the observed non-reference allele slots in allele-key sort order
+	 *
+	 * @return	Array of slot numbers
+	 */
+	int[] variantSlots()
+	{
+		int refSlot = refSlot();
+		int numVariants = 0;
+		for(int slot = 1; slot < numSlots; slot++)
+		{
+			if(reads[slot] > 0 && slot != refSlot)
+				numVariants++;
+		}
+
+		if(numVariants == 0)
+			return(NO_SLOTS);
+
+		int[] slots = new int[numVariants];
+		int index = 0;
+		for(int slot = 1; slot < numSlots; slot++)
+		{
+			if(reads[slot] > 0 && slot != refSlot)
+				slots[index++] = slot;
+		}
+
+		// Only indels need sorting against one another; bases sort around them //
+		if(numSlots > FIRST_INDEL)
+		{
+			for(int i = 1; i < slots.length; i++)
+			{
+				int slot = slots[i];
+				int k = i - 1;
+				while(k >= 0 && getAllele(slots[k]).compareTo(getAllele(slot)) > 0)
+				{
+					slots[k + 1] = slots[k];
+					k--;
+				}
+				slots[k + 1] = slot;
+			}
+		}
+
+		return(slots);
+	}
+
+
+	/**
+	 * Returns the slot holding an allele given its key, or -1 if it was not observed
+	 *
+	 * @param	allele	Allele key such as the reference base, A, or INS-2-AC
+	 * @return			Slot number
+	 */
+	int findAllele(String allele)
+	{
+		if(allele.equals(refBase))
+			return(refSlot());
+
+		if(allele.length() == 1)
+		{
+			int slot = baseSlot(allele.charAt(0));
+			if(slot > 0 && reads[slot] > 0 && allele.equals(BASE_KEYS[slot]))
+				return(slot);
+		}
+		else
+		{
+			for(int slot = FIRST_INDEL; slot < numSlots; slot++)
+			{
+				if(reads[slot] > 0 && allele.equals(indelKeys[slot]))
+					return(slot);
+			}
+		}
+
+		return(-1);
+	}
+
+
+	/**
+	 * Returns the allele key for a slot
+	 *
+	 * @param	slot	Allele slot
+	 * @return			The reference base, A/C/G/T, or an indel key such as INS-2-AC
+	 */
+	String getAllele(int slot)
+	{
+		if(slot == REF)
+			return(refBase);
+		if(slot < FIRST_INDEL)
+			return(BASE_KEYS[slot]);
+		return(indelKeys[slot]);
+	}
+
+	/**
+	 * Returns true if the slot holds an indel allele
+	 */
+	boolean isIndel(int slot)
+	{
+		return(slot >= FIRST_INDEL);
+	}
+
+	int getReads(int slot)
+	{
+		return(reads[slot]);
+	}
+
+	int getReadsPlus(int slot)
+	{
+		return(readsPlus[slot]);
+	}
+
+	int getReadsMinus(int slot)
+	{
+		return(readsMinus[slot]);
+	}
+
+	int getStrands(int slot)
+	{
+		int strands = 0;
+		if(readsPlus[slot] > 0)
+			strands++;
+		if(readsMinus[slot] > 0)
+			strands++;
+		return(strands);
+	}
+
+	int getAvgQual(int slot)
+	{
+		if(reads[slot] > 0)
+			return(qualitySum[slot] / reads[slot]);
+		return(0);
+	}
+
+	int getAvgMapQual(int slot)
+	{
+		if(reads[slot] > 0)
+			return(mapQualitySum[slot] / reads[slot]);
+		return(0);
+	}
+
+	/**
+	 * Returns the number of reference reads that carried an indel at the next base
+	 *
+	 * @return	Reads, or 0 if the reference counts came from a spelled-out base
+	 */
+	int getReads1indel()
+	{
+		if(refSlot() == REF)
+			return(reads1indel);
+		return(0);
+	}
+
+
+	/**
+	 * Returns the total number of reads across the reference and all observed alleles
+	 *
+	 * @return	Total read count
+	 */
+	int getTotalReads()
+	{
+		int refSlot = refSlot();
+		int total = reads[refSlot];
+		for(int slot = 1; slot < numSlots; slot++)
+		{
+			if(slot != refSlot)
+				total += reads[slot];
+		}
+		return(total);
+	}
+
+
+	/**
+	 * Formats the counts for one slot as a tab-delimited string
+	 *
+	 * @param	slot	Allele slot
+	 * @return			reads, strands, avg qual, avg map qual, plus reads, minus reads (and reads1indel for the reference)
+	 */
+	String format(int slot)
+	{
+		String result = reads[slot] + "\t" + getStrands(slot) + "\t" + getAvgQual(slot) + "\t" + getAvgMapQual(slot) + "\t" + readsPlus[slot] + "\t" + readsMinus[slot];
+		if(slot == REF)
+			result += "\t" + reads1indel;
+		return(result);
+	}
+
+}
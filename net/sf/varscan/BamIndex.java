@@ -0,0 +1,232 @@
+/**
+ * @(#)BamIndex.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The .bai index of a BAM file, which says where in the file the reads of a region start and end
+ *
+ * Each reference sequence has a binning index, whose bins list the chunks of the file holding reads
+ * that fall within them, and a linear index of the earliest read overlapping each 16 kb window.
+ * Both are read into memory once per BAM file and shared, since they never change.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class BamIndex {
+
+	private static final byte[] MAGIC = {'B', 'A', 'I', 1};
+
+	/** Bin that holds a reference's metadata rather than reads */
+	private static final int METADATA_BIN = 37450;
+
+	/** Bases in each window of the linear index */
+	private static final int LINEAR_SHIFT = 14;
+
+	private static final HashMap<String, BamIndex> loaded = new HashMap<String, BamIndex>();
+
+	// For each reference: the chunks of each bin, as pairs of begin and end virtual offsets, and the linear index //
+	private final ArrayList<HashMap<Integer, long[]>> bins;
+	private final long[][] linear;
+
+
+	/**
+	 * Constructor that reads an index file
+	 *
+	 * @param	indexFile	The .bai file
+	 */
+	BamIndex(File indexFile) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(indexFile), 1 << 16);
+		try
+		{
+			byte[] magic = readBytes(in, indexFile, MAGIC.length);
+			for(int i = 0; i < MAGIC.length; i++)
+			{
+				if(magic[i] != MAGIC[i])
+					throw new IOException(indexFile.getPath() + " is not a BAM index");
+			}
+
+			int numRefs = readInt(in, indexFile);
+			bins = new ArrayList<HashMap<Integer, long[]>>(numRefs);
+			linear = new long[numRefs][];
+
+			for(int ref = 0; ref < numRefs; ref++)
+			{
+				HashMap<Integer, long[]> refBins = new HashMap<Integer, long[]>();
+				bins.add(refBins);
+
+				int numBins = readInt(in, indexFile);
+				for(int b = 0; b < numBins; b++)
+				{
+					int bin = readInt(in, indexFile);
+					int numChunks = readInt(in, indexFile);
+					long[] chunks = new long[2 * numChunks];
+					for(int c = 0; c < chunks.length; c++)
+						chunks[c] = readLong(in, indexFile);
+
+					if(bin != METADATA_BIN)
+						refBins.put(bin, chunks);
+				}
+
+				int numWindows = readInt(in, indexFile);
+				linear[ref] = new long[numWindows];
+				for(int w = 0; w < numWindows; w++)
+					linear[ref][w] = readLong(in, indexFile);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Finds and loads the index of a BAM file, named file.bam.bai or file.bai
+	 *
+	 * @param	bamFile	BAM file
+	 * @return			The index, or null if there is none
+	 */
+	static synchronized BamIndex find(File bamFile) throws IOException
+	{
+		String key = bamFile.getAbsolutePath();
+		if(loaded.containsKey(key))
+			return(loaded.get(key));
+
+		File indexFile = new File(bamFile.getPath() + ".bai");
+		if(!indexFile.isFile() && bamFile.getName().endsWith(".bam"))
+			indexFile = new File(bamFile.getPath().substring(0, bamFile.getPath().length() - 4) + ".bai");
+
+		BamIndex index = null;
+		if(indexFile.isFile())
+			index = new BamIndex(indexFile);
+
+		loaded.put(key, index);
+		return(index);
+	}
+
+
+	/**
+	 * Returns where to start and stop reading for the reads that overlap a region
+	 *
+	 * Every read overlapping the region is in coordinate order between the two offsets, so reading
+	 * from the first until the reads pass the region's end, or until the second, finds them all.
+	 *
+	 * @param	refId	Reference id
+	 * @param	start	0-based first position
+	 * @param	end		0-based position after the last
+	 * @return			Virtual offsets of the start of the first chunk that may hold such reads and of the end of the last, or null if there are none
+	 */
+	long[] getSpan(int refId, int start, int end)
+	{
+		if(refId < 0 || refId >= bins.size() || end <= start)
+			return(null);
+
+		// Chunks ending before the earliest read overlapping the start cannot hold any //
+		long minOffset = 0;
+		long[] windows = linear[refId];
+		if(windows.length > 0)
+			minOffset = windows[Math.min(start >> LINEAR_SHIFT, windows.length - 1)];
+
+		long startOffset = -1;
+		long endOffset = -1;
+		for(int bin : regionToBins(start, end))
+		{
+			long[] chunks = bins.get(refId).get(bin);
+			if(chunks == null)
+				continue;
+
+			for(int c = 0; c < chunks.length; c += 2)
+			{
+				if(chunks[c + 1] <= minOffset)
+					continue;
+
+				long chunkStart = Math.max(chunks[c], minOffset);
+				if(startOffset < 0 || chunkStart < startOffset)
+					startOffset = chunkStart;
+				if(chunks[c + 1] > endOffset)
+					endOffset = chunks[c + 1];
+			}
+		}
+
+		if(startOffset < 0)
+			return(null);
+
+		return(new long[] {startOffset, endOffset});
+	}
+
+
+	/**
+	 * Lists the bins that may hold reads overlapping a region, as in the SAM specification
+	 *
+	 * @param	start	0-based first position
+	 * @param	end		0-based position after the last
+	 */
+	static int[] regionToBins(int start, int end)
+	{
+		int last = end - 1;
+		int[] levelStarts = {1, 9, 73, 585, 4681};
+		int[] levelShifts = {26, 23, 20, 17, 14};
+
+		int numBins = 1;
+		for(int level = 0; level < levelStarts.length; level++)
+			numBins += (last >> levelShifts[level]) - (start >> levelShifts[level]) + 1;
+
+		int[] regionBins = new int[numBins];
+		int n = 0;
+		regionBins[n++] = 0;
+		for(int level = 0; level < levelStarts.length; level++)
+		{
+			for(int k = levelStarts[level] + (start >> levelShifts[level]); k <= levelStarts[level] + (last >> levelShifts[level]); k++)
+				regionBins[n++] = k;
+		}
+
+		return(regionBins);
+	}
+
+
+	private static byte[] readBytes(InputStream in, File file, int length) throws IOException
+	{
+		byte[] bytes = new byte[length];
+		int total = 0;
+		while(total < length)
+		{
+			int numRead = in.read(bytes, total, length - total);
+			if(numRead < 0)
+				throw new IOException("Truncated BAM index " + file.getPath());
+			total += numRead;
+		}
+
+		return(bytes);
+	}
+
+
+	private static int readInt(InputStream in, File file) throws IOException
+	{
+		return((int) BamReader.readUnsigned(readBytes(in, file, 4), 0, 4));
+	}
+
+
+	private static long readLong(InputStream in, File file) throws IOException
+	{
+		byte[] bytes = readBytes(in, file, 8);
+		return(BamReader.readUnsigned(bytes, 0, 4) | (BamReader.readUnsigned(bytes, 4, 4) << 32));
+	}
+
+}
@@ -0,0 +1,895 @@
+/**
+ * @(#)BamPileup.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Piles up the reads of one or more BAM files, one sample per file, a reference position at a time
+ *
+ * Reads are filtered as samtools mpileup does by default: unmapped, secondary, QC-failed and duplicate
+ * reads are skipped, as are paired reads not in a proper pair, and a read's base is left out of a
+ * position if its quality is below 13. Where the two reads of a pair overlap, each base is counted
+ * once, as samtools does: the mate that agrees or has the better quality keeps the base and the
+ * other's quality is set to 0. Each read covering a position is reduced to its allele, base and
+ * mapping qualities, strand and any indel that follows, which PileupSample counts for the callers.
+ * BAQ is not computed and depth is not capped, so the counts match those of samtools mpileup -B -d 0.
+ *
+ * The pileup may be limited to a list of regions. If every BAM file has a .bai index, each region
+ * is read from where the index says its reads start, and the regions can be split into windows that
+ * are piled up on separate threads, each by a BamPileup of its own.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class BamPileup implements PileupSource {
+
+	/** Lowest base quality piled up, as samtools mpileup's default -Q */
+	static final int MIN_BASE_QUAL = 13;
+
+	/** Highest base quality, as samtools mpileup prints qualities */
+	static final int MAX_BASE_QUAL = 93;
+
+	/** Most reference bases in a window piled up on one thread */
+	static final int WINDOW_BASES = 1 << 18;
+
+	private static final int SKIP_FLAGS = BamReader.Record.FLAG_UNMAPPED | BamReader.Record.FLAG_SECONDARY
+			| BamReader.Record.FLAG_QC_FAIL | BamReader.Record.FLAG_DUPLICATE;
+
+	private final List<File> bamFiles;
+	private final BamReader[] readers;
+	private final FastaReference reference;
+	private final int minMapQual;
+	private final String[] refNames;
+	private final Sample[] samples;
+
+	// Regions to pile up in order, or null for the whole files, and the current one as 0-based positions //
+	private List<Region> regions = null;
+	private int regionIndex = -1;
+	private int regionRefId = -1;
+	private int regionStart = 0;
+	private int regionEnd = Integer.MAX_VALUE;
+
+	// Place among the windows of a larger pileup, if this is one //
+	private WindowOrder windowOrder = null;
+	private int windowIndex = 0;
+
+	// Current position //
+	private boolean started = false;
+	private int refId = -1;
+	private int position = -1;
+	private String chrom = null;
+	private String refBase = null;
+	private long numPositions = 0;
+
+
+	/**
+	 * Constructor that opens the BAM files to pile up
+	 *
+	 * @param	bamFiles	BAM files sorted by coordinate, one for each sample, with the same reference sequences
+	 * @param	reference	Reference the reads were aligned to
+	 * @param	minMapQual	Minimum mapping quality of a read
+	 */
+	public BamPileup(List<File> bamFiles, FastaReference reference, int minMapQual) throws IOException
+	{
+		this(bamFiles, reference, minMapQual, false);
+	}
+
+
+	/**
+	 * Constructor that opens the BAM files to pile up
+	 *
+	 * @param	bamFiles		BAM files sorted by coordinate, one for each sample, with the same reference sequences
+	 * @param	reference		Reference the reads were aligned to
+	 * @param	minMapQual		Minimum mapping quality of a read
+	 * @param	inflateInline	True to inflate the files on the calling thread, as for a window on a worker thread
+	 */
+	BamPileup(List<File> bamFiles, FastaReference reference, int minMapQual, boolean inflateInline) throws IOException
+	{
+		this.bamFiles = bamFiles;
+		this.reference = reference;
+		this.minMapQual = minMapQual;
+
+		readers = new BamReader[bamFiles.size()];
+		samples = new Sample[bamFiles.size()];
+		for(int i = 0; i < readers.length; i++)
+		{
+			readers[i] = new BamReader(bamFiles.get(i), inflateInline);
+			samples[i] = new Sample();
+
+			if(i > 0 && !Arrays.equals(readers[i].getRefNames(), readers[0].getRefNames()))
+				throw new IOException(bamFiles.get(i).getPath() + " and " + bamFiles.get(0).getPath() + " have different reference sequences");
+		}
+
+		refNames = readers[0].getRefNames();
+	}
+
+
+	/**
+	 * Restricts the pileup to a list of regions, which are sorted into reference order and merged where they overlap
+	 *
+	 * @param	regionList	Regions, counting from 1
+	 */
+	public void setRegions(List<Region> regionList) throws IOException
+	{
+		ArrayList<Region> sorted = new ArrayList<Region>(regionList);
+		Collections.sort(sorted, new Comparator<Region>() {
+			public int compare(Region a, Region b)
+			{
+				int refA = getRefId(a.chrom);
+				int refB = getRefId(b.chrom);
+				if(refA != refB)
+					return(refA < refB ? -1 : 1);
+				return(a.start < b.start ? -1 : (a.start == b.start ? 0 : 1));
+			}
+		});
+
+		regions = new ArrayList<Region>();
+		int[] refLengths = readers[0].getRefLengths();
+		for(Region region : sorted)
+		{
+			int id = getRefId(region.chrom);
+			if(id < 0)
+				throw new IOException(region.chrom + " is not a reference sequence of " + readers[0].getFile().getPath());
+			if(region.end > refLengths[id] && refLengths[id] >= region.start)
+				region = new Region(region.chrom, region.start, refLengths[id]);
+
+			Region last = regions.isEmpty() ? null : regions.get(regions.size() - 1);
+			if(last != null && last.chrom.equals(region.chrom) && region.start <= last.end)
+				regions.set(regions.size() - 1, new Region(last.chrom, last.start, Math.max(last.end, region.end)));
+			else
+				regions.add(region);
+		}
+	}
+
+
+	/**
+	 * Returns the id of a reference sequence, or -1 if the BAM files do not have it
+	 */
+	private int getRefId(String name)
+	{
+		for(int i = 0; i < refNames.length; i++)
+		{
+			if(refNames[i].equals(name))
+				return(i);
+		}
+
+		return(-1);
+	}
+
+
+	/**
+	 * Returns true if every BAM file has an index, so that the pileup can be split into windows
+	 */
+	boolean isIndexed()
+	{
+		for(BamReader reader : readers)
+		{
+			if(!reader.isIndexed())
+				return(false);
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Splits the regions, or the whole reference sequences if none are set, into windows of at most WINDOW_BASES
+	 *
+	 * Small regions next to one another share a window, so that a panel of short targets is not opened once per target.
+	 *
+	 * @return	Windows in reference order, each a list of regions
+	 */
+	List<List<Region>> getWindows()
+	{
+		List<Region> pieces = new ArrayList<Region>();
+		if(regions != null)
+		{
+			pieces.addAll(regions);
+		}
+		else
+		{
+			int[] refLengths = readers[0].getRefLengths();
+			for(int i = 0; i < refNames.length; i++)
+				pieces.add(new Region(refNames[i], 1, Math.max(1, refLengths[i])));
+		}
+
+		List<List<Region>> windows = new ArrayList<List<Region>>();
+		List<Region> window = new ArrayList<Region>();
+		long windowBases = 0;
+
+		for(Region piece : pieces)
+		{
+			for(long start = piece.start; start <= piece.end; start += WINDOW_BASES)
+			{
+				int end = (int) Math.min(piece.end, start + WINDOW_BASES - 1);
+				long bases = end - start + 1;
+				if(windowBases + bases > WINDOW_BASES && !window.isEmpty())
+				{
+					windows.add(window);
+					window = new ArrayList<Region>();
+					windowBases = 0;
+				}
+
+				window.add(new Region(piece.chrom, (int) start, end));
+				windowBases += bases;
+			}
+		}
+
+		if(!window.isEmpty())
+			windows.add(window);
+
+		return(windows);
+	}
+
+
+	/**
+	 * Opens a pileup of one window, with readers of its own so that it can run on another thread
+	 *
+	 * The readers inflate on the window's own thread, so that the windows in flight do not all wait
+	 * on the shared BGZF inflating pool.
+	 *
+	 * @param	window	Regions of the window
+	 * @param	order	Tracks which windows have positions, for isFirstLine()
+	 * @param	index	Number of the window, counting from 0
+	 * @return			The window's pileup
+	 */
+	BamPileup openWindow(List<Region> window, WindowOrder order, int index) throws IOException
+	{
+		BamPileup pileup = new BamPileup(bamFiles, new FastaReference(reference.getFile()), minMapQual, true);
+		pileup.regions = window;
+		pileup.windowOrder = order;
+		pileup.windowIndex = index;
+		return(pileup);
+	}
+
+
+	/**
+	 * Returns true, as a BAM file always has a header to read
+	 */
+	public boolean hasInput()
+	{
+		return(true);
+	}
+
+
+	/**
+	 * Advances to the next position covered by a read of any sample
+	 *
+	 * @return	False when the reads or regions run out
+	 */
+	public boolean next() throws IOException
+	{
+		if(!started)
+		{
+			started = true;
+			if(regions == null)
+			{
+				for(int i = 0; i < samples.length; i++)
+					samples[i].pending = readNext(i);
+			}
+			else if(!nextRegion())
+			{
+				return(endOfInput());
+			}
+		}
+
+		while(true)
+		{
+			// Step along the reads in the pileup, or jump to the next read once they are done //
+			if(hasActiveReads())
+			{
+				position++;
+			}
+			else
+			{
+				BamReader.Record first = null;
+				for(Sample sample : samples)
+				{
+					BamReader.Record record = sample.pending;
+					if(record != null && (first == null || record.refId < first.refId || (record.refId == first.refId && record.pos < first.pos)))
+						first = record;
+				}
+
+				if(first == null || (regions != null && isPastRegion(first)))
+				{
+					if(regions == null || !nextRegion())
+						return(endOfInput());
+					continue;
+				}
+
+				if(first.refId != refId)
+				{
+					refId = first.refId;
+					chrom = refNames[refId];
+					if(!reference.hasSequence(chrom))
+						throw new IOException(chrom + " is not in the reference sequence");
+				}
+
+				position = (regions != null) ? Math.max(first.pos, regionStart) : first.pos;
+			}
+
+			if(regions != null && position > regionEnd)
+			{
+				if(!nextRegion())
+					return(endOfInput());
+				continue;
+			}
+
+			// Take in the reads that start here and let go of those that have ended //
+			for(int i = 0; i < samples.length; i++)
+			{
+				Sample sample = samples[i];
+				while(sample.pending != null && sample.pending.refId == refId && sample.pending.pos <= position)
+				{
+					ActiveRead read = new ActiveRead(sample.pending);
+					sample.active.add(read);
+					sample.addMate(read);
+					sample.pending = readNext(i);
+				}
+
+				sample.dropReads(refId, position);
+			}
+
+			if(!hasActiveReads())
+				continue;
+
+			refBase = String.valueOf(reference.getBase(chrom, position + 1));
+
+			int depth = 0;
+			for(Sample sample : samples)
+			{
+				pileUp(sample);
+				depth += sample.numReads;
+			}
+
+			// Positions where every read was filtered out are not reported //
+			if(depth > 0)
+			{
+				numPositions++;
+				if(numPositions == 1 && windowOrder != null)
+					windowOrder.reached(windowIndex, true);
+				return(true);
+			}
+		}
+	}
+
+
+	/**
+	 * Moves on to the next region, seeking to its reads if the files are indexed
+	 *
+	 * @return	False if there are no more regions
+	 */
+	private boolean nextRegion() throws IOException
+	{
+		regionIndex++;
+		if(regionIndex >= regions.size())
+			return(false);
+
+		Region region = regions.get(regionIndex);
+		regionRefId = getRefId(region.chrom);
+		regionStart = Math.max(0, region.start - 1);
+		regionEnd = (region.end == Integer.MAX_VALUE) ? region.end : region.end - 1;
+
+		for(int i = 0; i < samples.length; i++)
+		{
+			Sample sample = samples[i];
+			if(readers[i].seek(regionRefId, regionStart, (regionEnd == Integer.MAX_VALUE) ? regionEnd : regionEnd + 1))
+			{
+				sample.active.clear();
+				sample.mates.clear();
+				sample.pending = readNext(i);
+			}
+			else
+			{
+				// Without an index, reading goes on from the start, and reads still in the pileup may reach into this region //
+				sample.dropReads(regionRefId, regionStart);
+				if(regionIndex == 0 || (sample.pending != null && isBeforeRegion(sample.pending)))
+					sample.pending = readNext(i);
+			}
+		}
+
+		// Reads kept from the last region step on from the start of this one //
+		refId = regionRefId;
+		chrom = refNames[refId];
+		if(!reference.hasSequence(chrom))
+			throw new IOException(chrom + " is not in the reference sequence");
+		position = regionStart - 1;
+
+		return(true);
+	}
+
+
+	/**
+	 * Ends the input, letting later windows know if this one had no positions
+	 */
+	private boolean endOfInput()
+	{
+		if(windowOrder != null)
+			windowOrder.reached(windowIndex, numPositions > 0);
+
+		return(false);
+	}
+
+
+	private boolean isBeforeRegion(BamReader.Record record)
+	{
+		return(record.refId < regionRefId || (record.refId == regionRefId && record.end <= regionStart));
+	}
+
+
+	private boolean isPastRegion(BamReader.Record record)
+	{
+		return(record.refId > regionRefId || (record.refId == regionRefId && record.pos > regionEnd));
+	}
+
+
+	/**
+	 * Returns true if any sample has a read at or beyond the current position
+	 */
+	private boolean hasActiveReads()
+	{
+		for(Sample sample : samples)
+		{
+			if(sample.active.size() > 0)
+				return(true);
+		}
+
+		return(false);
+	}
+
+
+	/**
+	 * Reads a sample's next record that passes the read filters and does not end before the region
+	 *
+	 * @param	index	Sample number
+	 * @return			The record, or null when there are none left
+	 */
+	private BamReader.Record readNext(int index) throws IOException
+	{
+		BamReader.Record record;
+		while((record = readers[index].next()) != null)
+		{
+			// Unplaced reads come last, so none are left to pile up //
+			if(record.refId < 0)
+				return(null);
+
+			// Reads that end before the region cannot be piled up in it //
+			if(regions != null && isBeforeRegion(record))
+				continue;
+
+			if((record.flag & SKIP_FLAGS) != 0)
+				continue;
+			if((record.flag & BamReader.Record.FLAG_PAIRED) != 0 && (record.flag & BamReader.Record.FLAG_PROPER_PAIR) == 0)
+				continue;
+			if(record.mapQuality < minMapQual || record.seqLength == 0 || record.end <= record.pos)
+				continue;
+
+			return(record);
+		}
+
+		return(null);
+	}
+
+
+	/**
+	 * Fills in a sample's reads at the current position
+	 */
+	private void pileUp(Sample sample) throws IOException
+	{
+		sample.numReads = 0;
+		sample.ensureCapacity(sample.active.size());
+
+		for(ActiveRead read : sample.active)
+		{
+			BamReader.Record record = read.record;
+			if(!read.locate(position))
+				continue;
+
+			int op = record.getCigarOp(read.opIndex);
+			int opLength = record.getCigarLength(read.opIndex);
+			int n = sample.numReads;
+
+			// Spliced-out bases are not piled up //
+			if(op == BamReader.Record.CIGAR_N)
+				continue;
+
+			if(op == BamReader.Record.CIGAR_D)
+			{
+				// A deleted base has no allele, and takes the quality of the base after the deletion //
+				int queryIndex = Math.min(read.opQueryStart, record.seqLength - 1);
+				sample.alleles[n] = PileupSample.NO_ALLELE;
+				sample.baseQualities[n] = (byte) record.getQuality(queryIndex);
+				sample.indels[n] = null;
+			}
+			else
+			{
+				int offset = position - read.opRefStart;
+				int queryIndex = read.opQueryStart + offset;
+				int quality = record.getQuality(queryIndex);
+				if(quality < MIN_BASE_QUAL)
+					continue;
+
+				char base = record.getBase(queryIndex);
+				if(base == refBase.charAt(0))
+					sample.alleles[n] = AlleleCounts.REF;
+				else
+					sample.alleles[n] = (byte) Math.max(PileupSample.NO_ALLELE, AlleleCounts.baseSlot(base));
+				sample.baseQualities[n] = (byte) quality;
+				sample.indels[n] = null;
+
+				// An indel is reported at the last base before it //
+				if(offset == opLength - 1)
+					addIndel(sample, n, record, read.opIndex + 1, queryIndex + 1);
+			}
+
+			sample.mapQualities[n] = (byte) record.mapQuality;
+			sample.reverse[n] = record.isReverse();
+			sample.numReads++;
+		}
+	}
+
+
+	/**
+	 * Records the indel, if any, that a read's next CIGAR operation makes after the current position
+	 *
+	 * @param	sample		Sample being piled up
+	 * @param	n			Read slot in the sample
+	 * @param	record		The read
+	 * @param	opIndex		Index of the operation after the current base
+	 * @param	queryIndex	Read position after the current base
+	 */
+	private void addIndel(Sample sample, int n, BamReader.Record record, int opIndex, int queryIndex) throws IOException
+	{
+		while(opIndex < record.numCigarOps && record.getCigarOp(opIndex) == BamReader.Record.CIGAR_P)
+			opIndex++;
+
+		if(opIndex >= record.numCigarOps)
+			return;
+
+		int op = record.getCigarOp(opIndex);
+		int length = record.getCigarLength(opIndex);
+
+		if(op == BamReader.Record.CIGAR_I)
+		{
+			char[] bases = new char[length];
+			for(int i = 0; i < length; i++)
+				bases[i] = record.getBase(queryIndex + i);
+
+			sample.insertion[n] = true;
+			sample.indels[n] = new String(bases);
+		}
+		else if(op == BamReader.Record.CIGAR_D)
+		{
+			sample.insertion[n] = false;
+			sample.indels[n] = reference.getBases(chrom, position + 2, length);
+		}
+	}
+
+
+	public boolean hasPosition()
+	{
+		return(true);
+	}
+
+
+	public boolean isUncovered()
+	{
+		return(false);
+	}
+
+
+	public String getChrom()
+	{
+		return(chrom);
+	}
+
+
+	public int getPosition()
+	{
+		return(position + 1);
+	}
+
+
+	public String getRefBase()
+	{
+		return(refBase);
+	}
+
+
+	public int getNumSamples()
+	{
+		return(samples.length);
+	}
+
+
+	public PileupSample getSample(int index)
+	{
+		Sample sample = samples[index];
+		return(new PileupSample(sample.numReads, sample.alleles, sample.baseQualities, sample.mapQualities, sample.reverse, sample.insertion, sample.indels));
+	}
+
+
+	/**
+	 * Returns true at the first position of the input, which for a window means no earlier window has positions
+	 */
+	public boolean isFirstLine()
+	{
+		if(numPositions != 1)
+			return(false);
+		if(windowOrder == null)
+			return(true);
+
+		try
+		{
+			return(windowOrder.isFirst(windowIndex));
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return(false);
+		}
+	}
+
+
+	public long getLineNumber()
+	{
+		return(numPositions);
+	}
+
+
+	public String getLine()
+	{
+		return(chrom + "\t" + (position + 1) + "\t" + refBase);
+	}
+
+
+	public void close() throws IOException
+	{
+		for(BamReader reader : readers)
+			reader.close();
+		reference.close();
+	}
+
+
+	/**
+	 * Counts the bases where the two reads of a pair overlap only once, as samtools mpileup does
+	 *
+	 * Where the mates agree, the first keeps the base with their summed quality; where they do not,
+	 * the one with the better quality keeps its base at 80% of that quality. Either way the other's
+	 * quality is set to 0, so that the base is not piled up twice.
+	 *
+	 * @param	first	The mate that entered the pileup first
+	 * @param	second	The mate that entered it second
+	 */
+	private static void tweakOverlap(BamReader.Record first, BamReader.Record second)
+	{
+		ActiveRead a = new ActiveRead(first);
+		ActiveRead b = new ActiveRead(second);
+		int overlapEnd = Math.min(first.end, second.end);
+
+		for(int refPosition = Math.max(first.pos, second.pos); refPosition < overlapEnd; refPosition++)
+		{
+			if(!a.locate(refPosition) || !b.locate(refPosition) || !a.isAligned() || !b.isAligned())
+				continue;
+
+			int aIndex = a.opQueryStart + refPosition - a.opRefStart;
+			int bIndex = b.opQueryStart + refPosition - b.opRefStart;
+			int aQual = first.getQuality(aIndex);
+			int bQual = second.getQuality(bIndex);
+
+			if(first.getBase(aIndex) == second.getBase(bIndex))
+			{
+				first.setQuality(aIndex, Math.min(aQual + bQual, MAX_BASE_QUAL));
+				second.setQuality(bIndex, 0);
+			}
+			else if(aQual >= bQual)
+			{
+				first.setQuality(aIndex, (int) (0.8 * aQual));
+				second.setQuality(bIndex, 0);
+			}
+			else
+			{
+				second.setQuality(bIndex, (int) (0.8 * bQual));
+				first.setQuality(aIndex, 0);
+			}
+		}
+	}
+
+
+	/**
+	 * One sample's reads: the next record to pile up, those covering the position, and what they show there
+	 */
+	private static class Sample
+	{
+		BamReader.Record pending = null;
+		ArrayList<ActiveRead> active = new ArrayList<ActiveRead>();
+		HashMap<String, ActiveRead> mates = new HashMap<String, ActiveRead>();		// Reads whose mates may overlap them, by name
+
+		int numReads = 0;
+		byte[] alleles = new byte[0];
+		byte[] baseQualities = new byte[0];
+		byte[] mapQualities = new byte[0];
+		boolean[] reverse = new boolean[0];
+		boolean[] insertion = new boolean[0];
+		String[] indels = new String[0];
+
+		/**
+		 * Lets go of the reads that end before a position or are on another reference sequence
+		 */
+		void dropReads(int refId, int position)
+		{
+			int kept = 0;
+			for(int r = 0; r < active.size(); r++)
+			{
+				ActiveRead read = active.get(r);
+				if(read.record.refId == refId && read.record.end > position)
+					active.set(kept++, read);
+				else if(read.mateName != null && mates.get(read.mateName) == read)
+					mates.remove(read.mateName);
+			}
+			while(active.size() > kept)
+				active.remove(active.size() - 1);
+		}
+
+		/**
+		 * Holds a paired read until its mate enters the pileup, then counts their overlap once
+		 */
+		void addMate(ActiveRead read)
+		{
+			BamReader.Record record = read.record;
+			if((record.flag & BamReader.Record.FLAG_PAIRED) == 0)
+				return;
+
+			// As samtools does, skip pairs on two references, or far enough apart that they cannot overlap //
+			if((record.mateRefId >= 0 && record.mateRefId != record.refId)
+					|| (Math.abs((long) record.insertSize) >= 2L * record.seqLength && record.matePos >= record.end))
+				return;
+
+			String name = record.getName();
+			ActiveRead mate = mates.remove(name);
+			if(mate != null)
+			{
+				tweakOverlap(mate.record, record);
+			}
+			else
+			{
+				read.mateName = name;
+				mates.put(name, read);
+			}
+		}
+
+		void ensureCapacity(int capacity)
+		{
+			if(alleles.length >= capacity)
+				return;
+
+			int length = Math.max(capacity, alleles.length * 2);
+			alleles = new byte[length];
+			baseQualities = new byte[length];
+			mapQualities = new byte[length];
+			reverse = new boolean[length];
+			insertion = new boolean[length];
+			indels = new String[length];
+		}
+	}
+
+
+	/**
+	 * Which windows of a pileup split across threads have positions, so that only the first position of all is reported as the first line
+	 */
+	static class WindowOrder
+	{
+		private final CountDownLatch[] reached;
+		private final boolean[] hasPositions;
+
+		WindowOrder(int numWindows)
+		{
+			reached = new CountDownLatch[numWindows];
+			hasPositions = new boolean[numWindows];
+			for(int i = 0; i < numWindows; i++)
+				reached[i] = new CountDownLatch(1);
+		}
+
+		/**
+		 * Records, once, whether a window has a position, from the window's own thread
+		 */
+		void reached(int window, boolean positions)
+		{
+			if(reached[window].getCount() > 0)
+			{
+				hasPositions[window] = positions;
+				reached[window].countDown();
+			}
+		}
+
+		/**
+		 * Waits for each earlier window to find its first position or end, which windows started before this one always do
+		 *
+		 * @return	True if none of them have positions
+		 */
+		boolean isFirst(int window) throws InterruptedException
+		{
+			for(int i = 0; i < window; i++)
+			{
+				reached[i].await();
+				if(hasPositions[i])
+					return(false);
+			}
+
+			return(true);
+		}
+	}
+
+
+	/**
+	 * A read in the pileup, with the CIGAR operation that covers the current position
+	 */
+	private static class ActiveRead
+	{
+		final BamReader.Record record;
+		String mateName = null;		// Name under which the read waits for its mate
+		int opIndex = 0;
+		int opRefStart;				// Reference position where the operation starts
+		int opQueryStart = 0;		// Read position where the operation starts
+
+		ActiveRead(BamReader.Record record)
+		{
+			this.record = record;
+			this.opRefStart = record.pos;
+		}
+
+		/**
+		 * Returns true if the current operation aligns a read base to the reference
+		 */
+		boolean isAligned()
+		{
+			int op = record.getCigarOp(opIndex);
+			return(op == BamReader.Record.CIGAR_M || op == BamReader.Record.CIGAR_EQ || op == BamReader.Record.CIGAR_X);
+		}
+
+		/**
+		 * Moves to the operation covering a reference position, which never goes backwards
+		 *
+		 * @param	refPosition	0-based reference position
+		 * @return				False if no operation covers it
+		 */
+		boolean locate(int refPosition)
+		{
+			while(opIndex < record.numCigarOps)
+			{
+				int op = record.getCigarOp(opIndex);
+				int length = record.getCigarLength(opIndex);
+				boolean consumesReference = BamReader.Record.consumesReference(op);
+
+				if(consumesReference && refPosition < opRefStart + length)
+					return(refPosition >= opRefStart);
+
+				if(consumesReference)
+					opRefStart += length;
+				if(BamReader.Record.consumesQuery(op))
+					opQueryStart += length;
+				opIndex++;
+			}
+
+			return(false);
+		}
+	}
+
+}
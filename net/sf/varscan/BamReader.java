@@ -0,0 +1,466 @@
+/**
+ * @(#)BamReader.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the header and alignment records of a BAM file
+ *
+ * The file's BGZF blocks are inflated by BgzfInputStream, and each record is kept as the bytes
+ * of its BAM encoding, with its fields decoded from them only when they are asked for. If the file
+ * has a .bai index, the reader can seek to the reads of a region instead of reading up to them.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class BamReader {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final byte[] MAGIC = {'B', 'A', 'M', 1};
+
+	private final File file;
+	private final BamIndex index;
+	private final boolean inflateInline;
+	private BgzfInputStream in;
+	private boolean regionEmpty = false;		// The index has no reads for the region sought
+	private long regionEndOffset = -1;			// Virtual offset past the last chunk of the region sought
+	private final String headerText;
+	private final String[] refNames;
+	private final int[] refLengths;
+	private final byte[] number = new byte[4];
+	private Record previous = null;
+
+
+	/**
+	 * Constructor that opens a BAM file and reads its header
+	 *
+	 * @param	file	BAM file
+	 */
+	public BamReader(File file) throws IOException
+	{
+		this(file, false);
+	}
+
+
+	/**
+	 * Constructor that opens a BAM file and reads its header
+	 *
+	 * @param	file			BAM file
+	 * @param	inflateInline	True to inflate on the calling thread, as for a reader used on a worker thread of its own
+	 */
+	BamReader(File file, boolean inflateInline) throws IOException
+	{
+		this.file = file;
+		this.index = BamIndex.find(file);
+		this.inflateInline = inflateInline;
+
+		InputStream opened = BgzfInputStream.open(file);
+		if(!(opened instanceof BgzfInputStream))
+		{
+			opened.close();
+			throw new IOException(file.getPath() + " is not a BAM file");
+		}
+
+		this.in = (BgzfInputStream) opened;
+		if(inflateInline)
+			in.setInflateInline();
+
+		byte[] magic = new byte[MAGIC.length];
+		if(readFully(magic, magic.length) < magic.length || !sameBytes(magic, MAGIC))
+		{
+			in.close();
+			throw new IOException(file.getPath() + " is not a BAM file");
+		}
+
+		byte[] text = readBytes(readInt());
+		int textLength = text.length;
+		while(textLength > 0 && text[textLength - 1] == 0)
+			textLength--;
+		headerText = new String(text, 0, textLength, ISO_8859_1);
+
+		int numRefs = readInt();
+		refNames = new String[numRefs];
+		refLengths = new int[numRefs];
+		for(int i = 0; i < numRefs; i++)
+		{
+			byte[] name = readBytes(readInt());
+			refNames[i] = new String(name, 0, Math.max(0, name.length - 1), ISO_8859_1);
+			refLengths[i] = readInt();
+		}
+	}
+
+
+	/**
+	 * Returns true if a file is a BAM file
+	 */
+	static boolean isBam(File file)
+	{
+		if(!file.isFile())
+			return(false);
+
+		try
+		{
+			InputStream in = BgzfInputStream.open(file);
+			try
+			{
+				if(!(in instanceof BgzfInputStream))
+					return(false);
+
+				byte[] magic = new byte[MAGIC.length];
+				int length = 0;
+				while(length < magic.length)
+				{
+					int numRead = in.read(magic, length, magic.length - length);
+					if(numRead < 0)
+						break;
+					length += numRead;
+				}
+
+				return(length == magic.length && sameBytes(magic, MAGIC));
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			return(false);
+		}
+	}
+
+
+	File getFile()
+	{
+		return(file);
+	}
+
+
+	/**
+	 * Returns the SAM header text
+	 */
+	String getHeaderText()
+	{
+		return(headerText);
+	}
+
+
+	/**
+	 * Returns the names of the reference sequences, whose indexes are the records' reference ids
+	 */
+	String[] getRefNames()
+	{
+		return(refNames);
+	}
+
+
+	int[] getRefLengths()
+	{
+		return(refLengths);
+	}
+
+
+	/**
+	 * Returns true if the file has an index to seek with
+	 */
+	boolean isIndexed()
+	{
+		return(index != null);
+	}
+
+
+	/**
+	 * Moves to the first read that may overlap a region, using the index
+	 *
+	 * Reads then continue in coordinate order from there, so the caller stops once they pass the region.
+	 * They also end after the region's last chunk in the index, so no blocks past it are read ahead.
+	 *
+	 * @param	refId	Reference id
+	 * @param	start	0-based first position
+	 * @param	end		0-based position after the last
+	 * @return			False if the file has no index, in which case reading goes on from where it was
+	 */
+	boolean seek(int refId, int start, int end) throws IOException
+	{
+		if(index == null)
+			return(false);
+
+		long[] span = index.getSpan(refId, start, end);
+		regionEmpty = (span == null);
+		previous = null;
+
+		if(!regionEmpty)
+		{
+			in.close();
+			in = BgzfInputStream.open(file, span[0], span[1], inflateInline);
+			regionEndOffset = span[1];
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Reads the next record, checking that the file is sorted by coordinate
+	 *
+	 * @return	The record, or null at the end of the file or of a region with no reads
+	 */
+	Record next() throws IOException
+	{
+		if(regionEmpty)
+			return(null);
+
+		// Reads after the region's last chunk cannot overlap it //
+		if(regionEndOffset >= 0)
+		{
+			long offset = in.getVirtualOffset();
+			if(offset < 0 || offset >= regionEndOffset)
+				return(null);
+		}
+
+		int length = readFully(number, 4);
+		if(length == 0)
+			return(null);
+		if(length < 4)
+			throw new IOException("Truncated BAM record in " + file.getPath());
+
+		int size = (int) readUnsigned(number, 0, 4);
+		if(size < Record.FIXED_LENGTH)
+			throw new IOException("Invalid BAM record in " + file.getPath());
+
+		byte[] data = new byte[size];
+		if(readFully(data, size) < size)
+			throw new IOException("Truncated BAM record in " + file.getPath());
+
+		Record record = new Record(data);
+
+		// Unplaced reads come last, in any order //
+		if(previous != null && record.refId >= 0 && (previous.refId < 0 || record.refId < previous.refId || (record.refId == previous.refId && record.pos < previous.pos)))
+			throw new IOException(file.getPath() + " is not sorted by coordinate");
+
+		previous = record;
+		return(record);
+	}
+
+
+	void close() throws IOException
+	{
+		in.close();
+	}
+
+
+	private int readInt() throws IOException
+	{
+		if(readFully(number, 4) < 4)
+			throw new IOException("Truncated BAM header in " + file.getPath());
+
+		return((int) readUnsigned(number, 0, 4));
+	}
+
+
+	private byte[] readBytes(int length) throws IOException
+	{
+		if(length < 0)
+			throw new IOException("Invalid BAM header in " + file.getPath());
+
+		byte[] bytes = new byte[length];
+		if(readFully(bytes, length) < length)
+			throw new IOException("Truncated BAM header in " + file.getPath());
+
+		return(bytes);
+	}
+
+
+	/**
+	 * Reads until a buffer holds length bytes or the input ends
+	 *
+	 * @return	Number of bytes read
+	 */
+	private int readFully(byte[] bytes, int length) throws IOException
+	{
+		int total = 0;
+		while(total < length)
+		{
+			int numRead = in.read(bytes, total, length - total);
+			if(numRead < 0)
+				break;
+			total += numRead;
+		}
+
+		return(total);
+	}
+
+
+	private static boolean sameBytes(byte[] bytes, byte[] expected)
+	{
+		for(int i = 0; i < expected.length; i++)
+		{
+			if(bytes[i] != expected[i])
+				return(false);
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Reads a little-endian unsigned value of up to 4 bytes
+	 */
+	static long readUnsigned(byte[] bytes, int offset, int length)
+	{
+		long value = 0;
+		for(int i = length - 1; i >= 0; i--)
+			value = (value << 8) | (bytes[offset + i] & 0xFF);
+
+		return(value);
+	}
+
+
+	/**
+	 * One alignment record, decoded from its BAM bytes as its fields are needed
+	 */
+	static class Record
+	{
+		static final int FIXED_LENGTH = 32;
+
+		// CIGAR operations, as numbered in BAM //
+		static final int CIGAR_M = 0;
+		static final int CIGAR_I = 1;
+		static final int CIGAR_D = 2;
+		static final int CIGAR_N = 3;
+		static final int CIGAR_S = 4;
+		static final int CIGAR_H = 5;
+		static final int CIGAR_P = 6;
+		static final int CIGAR_EQ = 7;
+		static final int CIGAR_X = 8;
+
+		// Flag bits //
+		static final int FLAG_PAIRED = 0x1;
+		static final int FLAG_PROPER_PAIR = 0x2;
+		static final int FLAG_UNMAPPED = 0x4;
+		static final int FLAG_REVERSE = 0x10;
+		static final int FLAG_SECONDARY = 0x100;
+		static final int FLAG_QC_FAIL = 0x200;
+		static final int FLAG_DUPLICATE = 0x400;
+
+		private static final String BASES = "=ACMGRSVTWYHKDBN";
+
+		final byte[] data;
+		final int refId;
+		final int pos;				// 0-based leftmost reference position
+		final int mapQuality;
+		final int flag;
+		final int numCigarOps;
+		final int seqLength;
+		final int mateRefId;
+		final int matePos;
+		final int insertSize;
+		final int end;				// Reference position after the last aligned base
+		private final int nameLength;
+		private final int cigarOffset;
+		private final int seqOffset;
+		private final int qualOffset;
+
+		Record(byte[] data) throws IOException
+		{
+			this.data = data;
+			refId = (int) readUnsigned(data, 0, 4);
+			pos = (int) readUnsigned(data, 4, 4);
+			nameLength = data[8] & 0xFF;
+			mapQuality = data[9] & 0xFF;
+			numCigarOps = (int) readUnsigned(data, 12, 2);
+			flag = (int) readUnsigned(data, 14, 2);
+			seqLength = (int) readUnsigned(data, 16, 4);
+			mateRefId = (int) readUnsigned(data, 20, 4);
+			matePos = (int) readUnsigned(data, 24, 4);
+			insertSize = (int) readUnsigned(data, 28, 4);
+
+			cigarOffset = FIXED_LENGTH + nameLength;
+			seqOffset = cigarOffset + 4 * numCigarOps;
+			qualOffset = seqOffset + (seqLength + 1) / 2;
+			if(seqLength < 0 || qualOffset + seqLength > data.length)
+				throw new IOException("Invalid BAM record at reference " + refId + " position " + (pos + 1));
+
+			int refEnd = pos;
+			for(int i = 0; i < numCigarOps; i++)
+			{
+				if(consumesReference(getCigarOp(i)))
+					refEnd += getCigarLength(i);
+			}
+			end = refEnd;
+		}
+
+		/**
+		 * Returns the read name
+		 */
+		String getName()
+		{
+			return(new String(data, FIXED_LENGTH, Math.max(0, nameLength - 1), ISO_8859_1));
+		}
+
+		int getCigarOp(int index)
+		{
+			return(data[cigarOffset + 4 * index] & 0xF);
+		}
+
+		int getCigarLength(int index)
+		{
+			return((int) (readUnsigned(data, cigarOffset + 4 * index, 4) >>> 4));
+		}
+
+		/**
+		 * Returns the upper-case base at a position in the read
+		 */
+		char getBase(int index)
+		{
+			int packed = data[seqOffset + index / 2];
+			int code = (index % 2 == 0) ? (packed >> 4) & 0xF : packed & 0xF;
+			return(BASES.charAt(code));
+		}
+
+		/**
+		 * Returns the base quality at a position in the read, or 0 if the read has none
+		 */
+		int getQuality(int index)
+		{
+			int quality = data[qualOffset + index] & 0xFF;
+			return(quality == 0xFF ? 0 : quality);
+		}
+
+		/**
+		 * Changes the base quality at a position in the read
+		 */
+		void setQuality(int index, int quality)
+		{
+			data[qualOffset + index] = (byte) quality;
+		}
+
+		boolean isReverse()
+		{
+			return((flag & FLAG_REVERSE) != 0);
+		}
+
+		static boolean consumesReference(int op)
+		{
+			return(op == CIGAR_M || op == CIGAR_D || op == CIGAR_N || op == CIGAR_EQ || op == CIGAR_X);
+		}
+
+		static boolean consumesQuery(int op)
+		{
+			return(op == CIGAR_M || op == CIGAR_I || op == CIGAR_S || op == CIGAR_EQ || op == CIGAR_X);
+		}
+	}
+
+}
@@ -0,0 +1,221 @@
+/**
+ * @(#)BaselineSignificanceTable.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A precomputed table of p-values for read counts versus baseline error
+ *
+ * VarScan.getSignificance(reads1, reads2) depends only on the two counts, so every p-value up to a
+ * depth cap can be worked out once. Each depth gets a row indexed by reads2, stored back to back in
+ * one array. A row ends at the first p-value that is exactly zero, since all larger reads2 are zero
+ * too, which keeps the table to a few values per depth beyond the low-coverage region.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class BaselineSignificanceTable {
+
+	private static final int FILE_MAGIC = 0x56534254;	// "VSBT"
+	private static final int FILE_VERSION = 1;
+
+	private final int maxDepth;
+	private final int[] rowStart;		// Offset of each depth's row in values, with one extra entry at the end
+	private final double[] values;
+
+
+	/**
+	 * Constructor for a table that has already been filled
+	 */
+	private BaselineSignificanceTable(int maxDepth, int[] rowStart, double[] values)
+	{
+		this.maxDepth = maxDepth;
+		this.rowStart = rowStart;
+		this.values = values;
+	}
+
+
+	/**
+	 * Computes the table for every depth up to a cap
+	 *
+	 * @param	maxDepth	Highest total read count to cover
+	 * @return				The filled table
+	 */
+	static BaselineSignificanceTable build(int maxDepth)
+	{
+		int[] rowStart = new int[maxDepth + 2];
+		double[] values = new double[Math.max(1024, maxDepth * 4)];
+		int numValues = 0;
+
+		for(int depth = 0; depth <= maxDepth; depth++)
+		{
+			rowStart[depth] = numValues;
+
+			for(int reads2 = 0; reads2 <= depth; reads2++)
+			{
+				double pValue = VarScan.computeSignificance(depth - reads2, reads2);
+				if(pValue == 0.0)
+					break;
+
+				if(numValues == values.length)
+					values = Arrays.copyOf(values, values.length * 2);
+
+				values[numValues++] = pValue;
+			}
+		}
+
+		rowStart[maxDepth + 1] = numValues;
+
+		return(new BaselineSignificanceTable(maxDepth, rowStart, Arrays.copyOf(values, numValues)));
+	}
+
+
+	/**
+	 * Loads the table from a cache file if it matches the depth cap, or else builds it and saves it there
+	 *
+	 * @param	maxDepth	Highest total read count to cover
+	 * @param	fileName	Cache file, or null to always build
+	 * @return				The table
+	 */
+	static BaselineSignificanceTable loadOrBuild(int maxDepth, String fileName)
+	{
+		if(fileName != null)
+		{
+			File cacheFile = new File(fileName);
+			if(cacheFile.exists())
+			{
+				try
+				{
+					BaselineSignificanceTable table = read(cacheFile);
+					if(table.maxDepth == maxDepth)
+						return(table);
+
+					System.err.println("P-value table in " + fileName + " covers depth " + table.maxDepth + ", so it will be rebuilt for depth " + maxDepth);
+				}
+				catch(IOException e)
+				{
+					System.err.println("Warning: Unable to read p-value table from " + fileName + ": " + e.getLocalizedMessage());
+				}
+			}
+		}
+
+		BaselineSignificanceTable table = build(maxDepth);
+
+		if(fileName != null)
+		{
+			try
+			{
+				table.write(new File(fileName));
+			}
+			catch(IOException e)
+			{
+				System.err.println("Warning: Unable to save p-value table to " + fileName + ": " + e.getLocalizedMessage());
+			}
+		}
+
+		return(table);
+	}
+
+
+	/**
+	 * Reads a table saved by write()
+	 */
+	private static BaselineSignificanceTable read(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try
+		{
+			if(in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+				throw new IOException("not a VarScan p-value table");
+
+			int maxDepth = in.readInt();
+			if(maxDepth < 0)
+				throw new IOException("invalid depth " + maxDepth);
+
+			int[] rowStart = new int[maxDepth + 2];
+			for(int i = 0; i < rowStart.length; i++)
+				rowStart[i] = in.readInt();
+
+			double[] values = new double[rowStart[maxDepth + 1]];
+			for(int i = 0; i < values.length; i++)
+				values[i] = in.readDouble();
+
+			return(new BaselineSignificanceTable(maxDepth, rowStart, values));
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Saves the table so that later runs can skip building it
+	 */
+	private void write(File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try
+		{
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(maxDepth);
+			for(int i = 0; i < rowStart.length; i++)
+				out.writeInt(rowStart[i]);
+			for(int i = 0; i < values.length; i++)
+				out.writeDouble(values[i]);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Returns the highest total read count the table covers
+	 */
+	int getMaxDepth()
+	{
+		return(maxDepth);
+	}
+
+
+	/**
+	 * Looks up the p-value of read counts versus baseline error
+	 *
+	 * @param	reads1	Reads supporting allele 1 (non-negative)
+	 * @param	reads2	Reads supporting allele 2 (non-negative)
+	 * @return			The p-value, or NaN if the depth is beyond the table
+	 */
+	double get(int reads1, int reads2)
+	{
+		int depth = reads1 + reads2;
+		if(depth > maxDepth)
+			return(Double.NaN);
+
+		int i = rowStart[depth] + reads2;
+		if(i < rowStart[depth + 1])
+			return(values[i]);
+
+		return(0.0);
+	}
+
+}
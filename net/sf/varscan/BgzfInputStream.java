@@ -0,0 +1,497 @@
+/**
+ * @(#)BgzfInputStream.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF (bgzip) file, inflating its blocks in parallel
+ *
+ * BGZF is a series of gzip members of at most 64 KB each, whose headers give their compressed size.
+ * This thread reads the compressed blocks ahead of the caller and a small shared pool of daemon
+ * threads inflates them, while the caller takes the inflated blocks back in file order. A stream
+ * that is already read on a worker thread of its own inflates each block on that thread instead,
+ * so that many such streams do not queue behind the shared pool. open() recognizes BGZF and plain
+ * gzip by their magic bytes, so callers can read any of them like text.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class BgzfInputStream extends InputStream {
+
+	/** Most threads used to inflate blocks, shared by all open streams */
+	private static final int MAX_INFLATE_THREADS = 4;
+
+	/** Blocks read ahead of the caller, per inflating thread */
+	private static final int BLOCKS_PER_THREAD = 8;
+
+	/** Bytes needed to recognize a gzip or BGZF header */
+	private static final int MAGIC_LENGTH = 14;
+
+	private static final int GZIP_ID1 = 31;
+	private static final int GZIP_ID2 = 139;
+	private static final int GZIP_FEXTRA = 4;
+
+	private static ExecutorService inflaters = null;
+	private static int numInflaters = 1;
+
+	private static final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+		protected Inflater initialValue()
+		{
+			return(new Inflater(true));
+		}
+	};
+
+	private final InputStream in;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private final ArrayDeque<Long> pendingOffsets = new ArrayDeque<Long>();
+	private boolean inflateInline = false;	// Inflate on the reading thread, without reading ahead
+	private long blockOffset = 0;			// File offset of the next compressed block to read
+	private long lastBlockOffset = -1;		// File offset of the last block to read, or -1 to read to the end
+	private boolean endOfBlocks = false;
+	private byte[] block = new byte[0];		// Inflated block being read
+	private long currentOffset = 0;			// File offset of the block being read
+	private int blockPosition = 0;
+
+
+	/**
+	 * Constructor for a BGZF stream
+	 *
+	 * @param	in	Compressed input, which is closed by close()
+	 */
+	public BgzfInputStream(InputStream in)
+	{
+		this.in = new BufferedInputStream(in, 1 << 16);
+	}
+
+
+	/**
+	 * Opens a file for reading as text, decompressing it if it is gzip or BGZF
+	 *
+	 * @param	file	Input file
+	 * @return			Stream of the file's uncompressed bytes
+	 */
+	static InputStream open(File file) throws IOException
+	{
+		return(open(new FileInputStream(file)));
+	}
+
+
+	/**
+	 * Wraps a stream to decompress it if it starts with gzip or BGZF magic bytes
+	 *
+	 * @param	in	Input that may be compressed
+	 * @return		Stream of the uncompressed bytes, which closes in when closed
+	 */
+	static InputStream open(InputStream in) throws IOException
+	{
+		PushbackInputStream peek = new PushbackInputStream(in, MAGIC_LENGTH);
+		byte[] magic = new byte[MAGIC_LENGTH];
+		int length = readFully(peek, magic, 0, MAGIC_LENGTH);
+		if(length > 0)
+			peek.unread(magic, 0, length);
+
+		if(isBgzf(magic, length))
+			return(new BgzfInputStream(peek));
+
+		if(length >= 2 && (magic[0] & 0xFF) == GZIP_ID1 && (magic[1] & 0xFF) == GZIP_ID2)
+			return(new GZIPInputStream(peek, 1 << 16));
+
+		return(peek);
+	}
+
+
+	/**
+	 * Opens a BGZF file between two virtual offsets from an index, as for a BAM region
+	 *
+	 * Blocks after the one holding the end offset are not read, so the stream ends there rather
+	 * than reading ahead to the end of the file.
+	 *
+	 * @param	file			BGZF file
+	 * @param	virtualOffset	File offset of a block shifted left 16 bits, plus an offset into its inflated bytes
+	 * @param	endOffset		Virtual offset past the last byte needed
+	 * @param	inline			True to inflate on the reading thread, as for a stream read on a worker thread
+	 * @return					Stream of the uncompressed bytes from that point
+	 */
+	static BgzfInputStream open(File file, long virtualOffset, long endOffset, boolean inline) throws IOException
+	{
+		FileInputStream fileIn = new FileInputStream(file);
+		BgzfInputStream in = null;
+
+		try
+		{
+			fileIn.getChannel().position(virtualOffset >>> 16);
+			in = new BgzfInputStream(fileIn);
+			in.inflateInline = inline;
+			in.blockOffset = virtualOffset >>> 16;
+			in.lastBlockOffset = endOffset >>> 16;
+
+			int skip = (int) (virtualOffset & 0xFFFF);
+			byte[] skipped = new byte[skip];
+			if(readFully(in, skipped, 0, skip) < skip)
+				throw new IOException("Invalid offset " + virtualOffset + " into " + file.getPath());
+		}
+		catch(IOException e)
+		{
+			fileIn.close();
+			throw e;
+		}
+
+		return(in);
+	}
+
+
+	/**
+	 * Returns true if a file starts with gzip or BGZF magic bytes, so it cannot be read in place as text
+	 */
+	static boolean isCompressed(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			return(in.read() == GZIP_ID1 && in.read() == GZIP_ID2);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Returns true if a header is a gzip member with the BGZF "BC" extra field first
+	 */
+	private static boolean isBgzf(byte[] header, int length)
+	{
+		return(length >= MAGIC_LENGTH && (header[0] & 0xFF) == GZIP_ID1 && (header[1] & 0xFF) == GZIP_ID2
+				&& header[2] == 8 && (header[3] & GZIP_FEXTRA) != 0 && header[12] == 'B' && header[13] == 'C');
+	}
+
+
+	/**
+	 * Inflates each block on the reading thread, without reading ahead, for a stream that is already read on a worker thread
+	 *
+	 * Takes effect only before the first read.
+	 */
+	void setInflateInline()
+	{
+		inflateInline = true;
+	}
+
+
+	/**
+	 * Returns the virtual offset of the next byte to read, moving on to the next block if this one is used up
+	 *
+	 * @return	File offset of the byte's block shifted left 16 bits, plus its offset in the inflated block, or -1 at the end
+	 */
+	long getVirtualOffset() throws IOException
+	{
+		if(!nextBlock())
+			return(-1);
+
+		return((currentOffset << 16) | blockPosition);
+	}
+
+
+	public int read() throws IOException
+	{
+		if(!nextBlock())
+			return(-1);
+
+		return(block[blockPosition++] & 0xFF);
+	}
+
+
+	public int read(byte[] bytes, int offset, int length) throws IOException
+	{
+		if(length == 0)
+			return(0);
+		if(!nextBlock())
+			return(-1);
+
+		int numRead = Math.min(length, block.length - blockPosition);
+		System.arraycopy(block, blockPosition, bytes, offset, numRead);
+		blockPosition += numRead;
+		return(numRead);
+	}
+
+
+	/**
+	 * Returns the bytes left in the current block, or 1 if there may be more blocks, as InflaterInputStream does
+	 */
+	public int available() throws IOException
+	{
+		if(blockPosition < block.length)
+			return(block.length - blockPosition);
+
+		return((endOfBlocks && pending.isEmpty()) ? 0 : 1);
+	}
+
+
+	public void close() throws IOException
+	{
+		for(Future<byte[]> future : pending)
+			future.cancel(false);
+		pending.clear();
+		pendingOffsets.clear();
+		endOfBlocks = true;
+		in.close();
+	}
+
+
+	/**
+	 * Makes the next inflated block current once the current one is used up
+	 *
+	 * @return	False at the end of the file
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		while(blockPosition >= block.length)
+		{
+			if(inflateInline)
+			{
+				long offset = blockOffset;
+				byte[] compressed = readCompressedBlock();
+				if(compressed == null)
+				{
+					endOfBlocks = true;
+					return(false);
+				}
+
+				block = inflate(compressed, offset);
+				currentOffset = offset;
+				blockPosition = 0;
+				continue;
+			}
+
+			readAhead();
+			if(pending.isEmpty())
+				return(false);
+
+			try
+			{
+				currentOffset = pendingOffsets.poll();
+				block = pending.poll().get();
+				blockPosition = 0;
+			}
+			catch(ExecutionException e)
+			{
+				throw new IOException(e.getCause().getLocalizedMessage(), e.getCause());
+			}
+			catch(InterruptedException e)
+			{
+				throw new InterruptedIOException("Interrupted while inflating BGZF input");
+			}
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Reads compressed blocks and queues them for inflating until enough are in flight
+	 */
+	private void readAhead() throws IOException
+	{
+		ExecutorService pool = getInflaters();
+
+		while(!endOfBlocks && pending.size() < numInflaters * BLOCKS_PER_THREAD)
+		{
+			final long offset = blockOffset;
+			final byte[] compressed = readCompressedBlock();
+			if(compressed == null)
+			{
+				endOfBlocks = true;
+				break;
+			}
+
+			pending.add(pool.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException
+				{
+					return(inflate(compressed, offset));
+				}
+			}));
+			pendingOffsets.add(offset);
+		}
+	}
+
+
+	/**
+	 * Reads one whole compressed block, checking its header
+	 *
+	 * @return	The block's bytes, or null at the end of the file or past the last block to read
+	 */
+	private byte[] readCompressedBlock() throws IOException
+	{
+		if(endOfBlocks || (lastBlockOffset >= 0 && blockOffset > lastBlockOffset))
+			return(null);
+
+		byte[] header = new byte[12];
+		int length = readFully(in, header, 0, header.length);
+		if(length == 0)
+			return(null);
+
+		if(length < header.length || (header[0] & 0xFF) != GZIP_ID1 || (header[1] & 0xFF) != GZIP_ID2 || header[2] != 8 || (header[3] & GZIP_FEXTRA) == 0)
+			throw new IOException("Invalid BGZF block header at offset " + blockOffset);
+
+		// Find the block size in the BC subfield of the extra field //
+		int extraLength = readShort(header, 10);
+		byte[] extra = new byte[extraLength];
+		if(readFully(in, extra, 0, extraLength) < extraLength)
+			throw new IOException("Truncated BGZF block at offset " + blockOffset);
+
+		int blockSize = -1;
+		for(int i = 0; i + 4 <= extraLength; i += 4 + readShort(extra, i + 2))
+		{
+			if(extra[i] == 'B' && extra[i + 1] == 'C' && readShort(extra, i + 2) == 2 && i + 6 <= extraLength)
+				blockSize = readShort(extra, i + 4) + 1;
+		}
+
+		int headerLength = header.length + extraLength;
+		if(blockSize < headerLength + 8)
+			throw new IOException("Invalid BGZF block size at offset " + blockOffset);
+
+		byte[] compressed = new byte[blockSize];
+		System.arraycopy(header, 0, compressed, 0, header.length);
+		System.arraycopy(extra, 0, compressed, header.length, extraLength);
+		if(readFully(in, compressed, headerLength, blockSize - headerLength) < blockSize - headerLength)
+			throw new IOException("Truncated BGZF block at offset " + blockOffset);
+
+		blockOffset += blockSize;
+		return(compressed);
+	}
+
+
+	/**
+	 * Inflates a compressed block and checks its length and CRC
+	 *
+	 * @param	compressed	The whole block, header included
+	 * @param	offset		File offset of the block, for messages
+	 * @return				The uncompressed bytes
+	 */
+	private static byte[] inflate(byte[] compressed, long offset) throws IOException
+	{
+		int dataStart = 12 + readShort(compressed, 10);
+		int dataEnd = compressed.length - 8;
+		long crc = readInt(compressed, dataEnd);
+		int size = (int) readInt(compressed, dataEnd + 4);
+
+		byte[] bytes = new byte[size];
+		Inflater decompressor = inflater.get();
+		decompressor.reset();
+		decompressor.setInput(compressed, dataStart, dataEnd - dataStart);
+
+		try
+		{
+			int length = 0;
+			while(length < size)
+			{
+				int numInflated = decompressor.inflate(bytes, length, size - length);
+				if(numInflated == 0 && (decompressor.finished() || decompressor.needsInput() || decompressor.needsDictionary()))
+					break;
+				length += numInflated;
+			}
+
+			if(length != size)
+				throw new IOException("Corrupt BGZF block at offset " + offset + ": expected " + size + " bytes but found " + length);
+		}
+		catch(DataFormatException e)
+		{
+			throw new IOException("Corrupt BGZF block at offset " + offset + ": " + e.getLocalizedMessage());
+		}
+
+		CRC32 check = new CRC32();
+		check.update(bytes, 0, size);
+		if(check.getValue() != crc)
+			throw new IOException("Corrupt BGZF block at offset " + offset + ": CRC mismatch");
+
+		return(bytes);
+	}
+
+
+	/**
+	 * Returns the shared inflating pool, starting it on first use
+	 */
+	private static synchronized ExecutorService getInflaters()
+	{
+		if(inflaters == null)
+		{
+			numInflaters = Math.max(1, Math.min(MAX_INFLATE_THREADS, Runtime.getRuntime().availableProcessors()));
+			inflaters = Executors.newFixedThreadPool(numInflaters, new ThreadFactory() {
+				public Thread newThread(Runnable task)
+				{
+					// Daemon threads, so that an unclosed stream does not keep VarScan running //
+					Thread thread = new Thread(task, "bgzf-inflater");
+					thread.setDaemon(true);
+					return(thread);
+				}
+			});
+		}
+
+		return(inflaters);
+	}
+
+
+	/**
+	 * Reads until a buffer range is full or the input ends
+	 *
+	 * @return	Number of bytes read
+	 */
+	private static int readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException
+	{
+		int total = 0;
+		while(total < length)
+		{
+			int numRead = in.read(bytes, offset + total, length - total);
+			if(numRead < 0)
+				break;
+			total += numRead;
+		}
+
+		return(total);
+	}
+
+
+	/**
+	 * Reads a little-endian unsigned 16-bit value
+	 */
+	private static int readShort(byte[] bytes, int offset)
+	{
+		return((bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8));
+	}
+
+
+	/**
+	 * Reads a little-endian unsigned 32-bit value
+	 */
+	private static long readInt(byte[] bytes, int offset)
+	{
+		return((readShort(bytes, offset) | ((long) readShort(bytes, offset + 2) << 16)));
+	}
+
+}
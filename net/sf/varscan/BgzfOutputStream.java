@@ -0,0 +1,390 @@
+/**
+ * @(#)BgzfOutputStream.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BGZF (bgzip) output, deflating its blocks in parallel
+ *
+ * Output is cut into blocks of exactly BLOCK_DATA_SIZE bytes, apart from the last, and each block is
+ * deflated as its own gzip member by a shared pool of daemon threads. Blocks are written in order as
+ * they finish, followed by the standard empty end-of-file block. Because every block but the last
+ * holds the same amount of data, the BGZF virtual offset of any uncompressed position can be worked
+ * out once the blocks before it are written, which lets a TabixIndex be built as lines go past.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class BgzfOutputStream extends OutputStream {
+
+	/** Uncompressed bytes per block, as bgzip uses */
+	static final int BLOCK_DATA_SIZE = 0xff00;
+
+	/** Largest BGZF block, header and footer included */
+	private static final int MAX_BLOCK_SIZE = 0x10000;
+
+	private static final int HEADER_SIZE = 18;
+	private static final int FOOTER_SIZE = 8;
+
+	/** Blocks deflated ahead of being written, per deflating thread */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	/** The empty block that marks the end of a BGZF file */
+	private static final byte[] EOF_BLOCK = {
+		31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 66, 67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private static ExecutorService deflaters = null;
+	private static int numDeflaters = 1;
+
+	private static final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+		protected Deflater initialValue()
+		{
+			return(new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+		}
+	};
+
+	private final OutputStream out;
+	private final TabixIndex index;
+	private final File indexFile;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private byte[] block = new byte[BLOCK_DATA_SIZE];
+	private int blockLength = 0;
+	private long uncompressedOffset = 0;		// Bytes written to this stream so far
+	private long compressedOffset = 0;			// Bytes written to the underlying stream so far
+	private long[] blockOffsets = new long[64];	// Compressed offset of each block written, in order
+	private int numBlocksWritten = 0;
+	private boolean closed = false;
+
+
+	/**
+	 * Constructor for a BGZF stream without an index
+	 *
+	 * @param	out	Destination, which is closed by close()
+	 */
+	public BgzfOutputStream(OutputStream out)
+	{
+		this(out, null, null);
+	}
+
+
+	/**
+	 * Constructor for a BGZF stream that also indexes the lines written to it
+	 *
+	 * @param	out			Destination, which is closed by close()
+	 * @param	index		Index to add each line to, or null
+	 * @param	indexFile	File the index is saved to on close(), or null
+	 */
+	public BgzfOutputStream(OutputStream out, TabixIndex index, File indexFile)
+	{
+		this.out = new BufferedOutputStream(out, 1 << 16);
+		this.index = index;
+		this.indexFile = indexFile;
+	}
+
+
+	/**
+	 * Opens an output file, compressed with BGZF and indexed if --output-compression bgzf was given
+	 *
+	 * A compressed file gets a .gz suffix unless it already has one, and its index is written beside it
+	 * with a .tbi suffix when it is closed.
+	 *
+	 * @param	fileName	Output file name
+	 * @param	params		Command-line parameters
+	 * @return				Stream for the file's lines
+	 */
+	static PrintStream openOutput(String fileName, HashMap<String, String> params) throws IOException
+	{
+		if(!isCompressing(params))
+			return(new PrintStream(new FileOutputStream(fileName)));
+
+		if(!fileName.endsWith(".gz") && !fileName.endsWith(".bgz"))
+			fileName += ".gz";
+
+		return(new PrintStream(new BgzfOutputStream(new FileOutputStream(fileName), new TabixIndex(), new File(fileName + TabixIndex.SUFFIX))));
+	}
+
+
+	/**
+	 * Returns true if --output-compression asks for BGZF, exiting if it names an unknown compression
+	 */
+	static boolean isCompressing(HashMap<String, String> params)
+	{
+		if(!params.containsKey("output-compression") || params.get("output-compression").equals("none"))
+			return(false);
+
+		if(!params.get("output-compression").equals("bgzf"))
+		{
+			System.err.println("ERROR: --output-compression must be none or bgzf");
+			System.exit(1);
+		}
+
+		return(true);
+	}
+
+
+	public void write(int b) throws IOException
+	{
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		if(closed)
+			throw new IOException("Stream closed");
+
+		if(index != null)
+			index.scan(bytes, offset, length, uncompressedOffset);
+
+		uncompressedOffset += length;
+
+		while(length > 0)
+		{
+			int numCopied = Math.min(length, BLOCK_DATA_SIZE - blockLength);
+			System.arraycopy(bytes, offset, block, blockLength, numCopied);
+			blockLength += numCopied;
+			offset += numCopied;
+			length -= numCopied;
+
+			if(blockLength == BLOCK_DATA_SIZE)
+				submitBlock();
+		}
+	}
+
+
+	/**
+	 * Writes the blocks deflated so far; a partly filled block is kept, so that every block but the last stays full
+	 */
+	public void flush() throws IOException
+	{
+		while(!pending.isEmpty())
+			writeBlock();
+
+		out.flush();
+	}
+
+
+	/**
+	 * Writes the last block, the end-of-file marker, and the index if there is one
+	 */
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+
+		if(blockLength > 0)
+			submitBlock();
+
+		while(!pending.isEmpty())
+			writeBlock();
+
+		recordBlockOffset();
+		out.write(EOF_BLOCK);
+		out.close();
+		closed = true;
+
+		if(index != null && indexFile != null)
+			index.write(indexFile, this);
+	}
+
+
+	/**
+	 * Returns the BGZF virtual offset of an uncompressed position, which must be in a block already written
+	 *
+	 * @param	position	Offset in the uncompressed output
+	 * @return				Compressed offset of the position's block shifted left 16 bits, plus the position within the block
+	 */
+	long getVirtualOffset(long position)
+	{
+		// The end of a last block that is full falls at the start of the end-of-file block //
+		int blockNumber = (int) (position / BLOCK_DATA_SIZE);
+		int withinBlock = (int) (position % BLOCK_DATA_SIZE);
+
+		return((blockOffsets[blockNumber] << 16) | withinBlock);
+	}
+
+
+	/**
+	 * Hands the current block to a deflating thread and starts a new one
+	 */
+	private void submitBlock() throws IOException
+	{
+		ExecutorService pool = getDeflaters();
+
+		// Write finished blocks, and wait for the oldest if too many are in flight //
+		while(!pending.isEmpty() && (pending.peek().isDone() || pending.size() >= numDeflaters * BLOCKS_PER_THREAD))
+			writeBlock();
+
+		final byte[] data = block;
+		final int length = blockLength;
+		pending.add(pool.submit(new Callable<byte[]>() {
+			public byte[] call()
+			{
+				return(deflate(data, length));
+			}
+		}));
+
+		block = new byte[BLOCK_DATA_SIZE];
+		blockLength = 0;
+	}
+
+
+	/**
+	 * Writes the oldest block in flight once it is deflated
+	 */
+	private void writeBlock() throws IOException
+	{
+		byte[] compressed;
+		try
+		{
+			compressed = pending.poll().get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new IOException(e.getCause().getLocalizedMessage(), e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while deflating BGZF output");
+		}
+
+		recordBlockOffset();
+		out.write(compressed);
+		compressedOffset += compressed.length;
+	}
+
+
+	/**
+	 * Notes the compressed offset of the next block to be written
+	 */
+	private void recordBlockOffset()
+	{
+		if(numBlocksWritten == blockOffsets.length)
+			blockOffsets = Arrays.copyOf(blockOffsets, numBlocksWritten * 2);
+
+		blockOffsets[numBlocksWritten++] = compressedOffset;
+	}
+
+
+	/**
+	 * Deflates one block into a complete gzip member with the BGZF extra field
+	 *
+	 * @param	data	Uncompressed bytes
+	 * @param	length	Number of bytes of data to use
+	 * @return			The compressed block
+	 */
+	private static byte[] deflate(byte[] data, int length)
+	{
+		byte[] compressed = new byte[MAX_BLOCK_SIZE];
+		Deflater compressor = deflater.get();
+		int dataLength = compress(compressor, data, length, compressed);
+
+		// Data that does not compress may not fit; store it instead //
+		if(dataLength < 0)
+		{
+			Deflater store = new Deflater(Deflater.NO_COMPRESSION, true);
+			dataLength = compress(store, data, length, compressed);
+			store.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+
+		int blockSize = HEADER_SIZE + dataLength + FOOTER_SIZE;
+		byte[] header = {
+			31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 66, 67, 2, 0,
+			(byte) ((blockSize - 1) & 0xFF), (byte) ((blockSize - 1) >> 8)
+		};
+		System.arraycopy(header, 0, compressed, 0, HEADER_SIZE);
+
+		int footer = HEADER_SIZE + dataLength;
+		writeInt(compressed, footer, crc.getValue());
+		writeInt(compressed, footer + 4, length);
+
+		return(Arrays.copyOf(compressed, blockSize));
+	}
+
+
+	/**
+	 * Deflates data into a block after the header
+	 *
+	 * @return	Length of the deflated data, or -1 if it does not fit in a block
+	 */
+	private static int compress(Deflater compressor, byte[] data, int length, byte[] compressed)
+	{
+		int space = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+
+		compressor.reset();
+		compressor.setInput(data, 0, length);
+		compressor.finish();
+		int dataLength = compressor.deflate(compressed, HEADER_SIZE, space);
+
+		if(!compressor.finished())
+			return(-1);
+
+		return(dataLength);
+	}
+
+
+	/**
+	 * Returns the shared deflating pool, starting it on first use
+	 */
+	private static synchronized ExecutorService getDeflaters()
+	{
+		if(deflaters == null)
+		{
+			numDeflaters = Math.max(1, Runtime.getRuntime().availableProcessors());
+			deflaters = Executors.newFixedThreadPool(numDeflaters, new ThreadFactory() {
+				public Thread newThread(Runnable task)
+				{
+					// Daemon threads, so that they do not keep VarScan running after its output is closed //
+					Thread thread = new Thread(task, "bgzf-deflater");
+					thread.setDaemon(true);
+					return(thread);
+				}
+			});
+		}
+
+		return(deflaters);
+	}
+
+
+	/**
+	 * Writes a little-endian 32-bit value
+	 */
+	static void writeInt(byte[] bytes, int offset, long value)
+	{
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >> 8);
+		bytes[offset + 2] = (byte) (value >> 16);
+		bytes[offset + 3] = (byte) (value >> 24);
+	}
+
+}
@@ -11,6 +11,7 @@ package net.sf.varscan;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.PrintStream;
 import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.lang.Math;
@@ -25,11 +26,40 @@ import java.lang.Math;
  */
 public class CallMpileup {
 
+	private static final String NEWLINE = System.getProperty("line.separator");
+
+	private static final ThreadLocal<DecimalFormat> pvalueFormat = new ThreadLocal<DecimalFormat>() {
+		protected DecimalFormat initialValue()
+		{
+			return(new DecimalFormat("0.####E0"));
+		}
+	};
+
+	// Calling parameters, which are only read once calling begins //
+
+	HashMap<String, String> params;
+	int minCoverage = 8;
+	int minReads2 = 2;
+	int minAvgQual = 15;
+	double minVarFreq = 0.01;
+	double minFreqForHom = 0.75;
+	double pValueThreshold = 0.99;
+	double strandPvalueThreshold = 0.01;
+	boolean variantsOnly = false;
+	boolean snpsOnly = false;
+	boolean indelsOnly = false;
+	boolean strandFilter = true;
+	String sampleList = "";
+	String vcfHeader = "##fileformat=VCFv4.1";
+	int numThreads = 1;
+	PrintStream out = System.out;
+
 	public CallMpileup(String[] args, String callType)
 	{
 		// Define the usage message //
-		String usage = "USAGE: java -jar VarScan.jar mpileup2cns [pileup file] OPTIONS\n" +
+		String usage = "USAGE: java -jar VarScan.jar mpileup2cns [pileup file | BAM files] OPTIONS\n" +
 		"\tmpileup file - The SAMtools mpileup file\n" +
+		"\tBAM files - Or one BAM file for each sample, sorted by coordinate and piled up directly\n" +
 		"\n" +
 		"\tOPTIONS:\n" +
 		"\t--min-coverage\tMinimum read depth at a position to make a call [8]\n" +
@@ -41,15 +71,21 @@ public class CallMpileup {
 		"\t--strand-filter\tIgnore variants with >90% support on one strand [1]\n" +
 		"\t--output-vcf\tIf set to 1, outputs in VCF format\n" +
 		"\t--vcf-sample-list\tFor VCF output, a list of sample names in order, one per line\n" +
-		"\t--variants\tReport only variant (SNP/indel) positions [0]";
+		"\t--variants\tReport only variant (SNP/indel) positions [0]\n" +
+		"\t--pvalue-table-depth\tPrecompute p-values for depths up to this cap, e.g. 5000 [0]\n" +
+		"\t--pvalue-table-file\tCache file to load the p-value table from, or save it to\n" +
+		"\t--fisher-approx-margin\tUse a normal approximation for significance tests whose margins all reach this, with exact tests near thresholds [0]\n" +
+		"\t--threads\tNumber of threads for calling positions; output stays in input order [1]\n" +
+		"\t--region\tOnly call chrom:start-end, reading from the position using the index made by the index command\n" +
+		"\t--regions-file\tOnly call the intervals of a BED file; BAM input, read from each interval using .bai indexes if present\n" +
+		"\t--reference\tIndexed FASTA reference, needed for BAM input\n" +
+		"\t--min-map-qual\tMinimum mapping quality of reads piled up from BAM input [0]\n" +
+		"\t--output-file\tWrite calls to this file instead of standard output\n" +
+		"\t--output-compression\tnone or bgzf; a bgzf output file gets a .gz suffix and a tabix index [none]";
 
 		// Set parameter defaults //
 
-		HashMap<String, String> params = VarScan.getParams(args);
-
-
-		// Set up formatting for p-values //
-		DecimalFormat pvalueFormat = new DecimalFormat("0.####E0");
+		params = VarScan.getParams(args);
 
 		// If mpileup2snp or mpileup2indel was called, set the variants parameter //
 
@@ -62,21 +98,6 @@ public class CallMpileup {
 		if(args[0].equals("mpileup2vcf"))
 				params.put("output-vcf", "1");
 
-		// Set parameter defaults //
-
-		int minCoverage = 8;
-		int minReads2 = 2;
-		int minAvgQual = 15;
-		double minVarFreq = 0.01;
-		double minFreqForHom = 0.75;
-		double pValueThreshold = 0.99;
-		double strandPvalueThreshold = 0.01;
-		boolean variantsOnly = false;
-		boolean snpsOnly = false;
-		boolean indelsOnly = false;
-		boolean strandFilter = true;
-		String sampleList = "";
-
 		if(callType.equals("CNS"))
 		{
 			// Set more rigorous parameters for consensus calling
@@ -106,6 +127,9 @@ public class CallMpileup {
 			if(params.containsKey("p-value"))
 				 pValueThreshold = Double.parseDouble(params.get("p-value"));
 
+			if(params.containsKey("threads"))
+				 numThreads = Integer.parseInt(params.get("threads"));
+
 			if(params.containsKey("strand-filter"))
 			{
 				int filter = Integer.parseInt(params.get("strand-filter"));
@@ -178,6 +202,11 @@ public class CallMpileup {
 			 System.err.println("Min var freq:\t" + minVarFreq);
 			 System.err.println("Min avg qual:\t" + minAvgQual);
 			 System.err.println("P-value thresh:\t" + pValueThreshold);
+			 if(numThreads > 1)
+				 System.err.println("Threads:\t" + numThreads);
+
+			VarScan.loadBaselineTable(params);
+			VarScan.setApproximation(params);
 		}
 		catch(Exception e)
 		{
@@ -193,21 +222,6 @@ public class CallMpileup {
 			return;
 		}
 
-	    // Define the statistics hash and reset counters //
-
-
-		long numBases = 0;
-		long numVariantPositions = 0;
-		long numSNPpositions = 0;
-		long numIndelPositions = 0;
-		long numFailStrandFilter = 0;
-		long numVariantsReported = 0;
-		long numSNPsReported = 0;
-		long numIndelsReported = 0;
-
-
-		int numParsingExceptions = 0;
-
 		// Parse piped input or user-provided pileup file //
 
 	    try
@@ -215,8 +229,7 @@ public class CallMpileup {
 
 	    	// Declare file-parsing variables //
 
-	    	BufferedReader in = VarScan.getInfile(args);
-	    	String line;
+	    	PileupSource in = VarScan.getPileupSource(args);
 
 	    	// If no input, print usage //
 
@@ -226,33 +239,21 @@ public class CallMpileup {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-		    		System.err.println("Exception while trying to get input" + e.getMessage());
-		    		System.exit(1);
-		    	}
-	    	}
-
 	    	// Proceed if input stream is ready //
-			String vcfHeader = "##fileformat=VCFv4.1";
 
-	    	if(in != null && in.ready())
+	    	if(in != null && in.hasInput())
 	    	{
+	    		// Open the output, compressed if requested //
+	    		if(params.containsKey("output-file"))
+	    		{
+	    			out = BgzfOutputStream.openOutput(params.get("output-file"), params);
+	    		}
+	    		else if(BgzfOutputStream.isCompressing(params))
+	    		{
+	    			System.err.println("Note: compressed standard output is not indexed; use --output-file for a tabix index");
+	    			out = new PrintStream(new BgzfOutputStream(System.out));
+	    		}
+
 	    		// Print a file header //
 	    		if(!params.containsKey("no-headers"))
 	    		{
@@ -287,669 +288,811 @@ public class CallMpileup {
 	    			else
 	    			{
 	    				// Output VarScan Header //
-		    			System.out.println("Chrom\tPosition\tRef\tVar\tCons:Cov:Reads1:Reads2:Freq:P-value\tStrandFilter:R1+:R1-:R2+:R2-:pval\tSamplesRef\tSamplesHet\tSamplesHom\tSamplesNC\tCons:Cov:Reads1:Reads2:Freq:P-value");
+		    			out.println("Chrom\tPosition\tRef\tVar\tCons:Cov:Reads1:Reads2:Freq:P-value\tStrandFilter:R1+:R1-:R2+:R2-:pval\tSamplesRef\tSamplesHet\tSamplesHom\tSamplesNC\tCons:Cov:Reads1:Reads2:Freq:P-value");
 	    			}
 
 	    		}
 
 
 
-	    		// Parse the infile line by line //
+	    		// Call each line, on several threads if requested //
 
-	    		while ((line = in.readLine()) != null)
-	    		{
-	    			numBases++;//stats.put("numBases", (stats.get("numBases") + 1));
+	    		CallCounts totals = new CallCounts();
+	    		boolean completed = false;
 
-	    			// Output progress line //
-	    			if(params.containsKey("verbose") && (numBases % 100000) == 0)
-		        		System.err.println(numBases + " positions parsed...");
+	    		if(numThreads > 1 && PileupPipeline.canSplit(in))
+	    			completed = callParallel(in, totals);
+	    		else
+	    			completed = callSerial(in, totals);
 
-	    			// Begin try-catch for line parsing //
+	    		// Finish the output, which for compressed output writes its last block and index //
+	    		out.flush();
+	    		if(out != System.out)
+	    			out.close();
 
-	    			try
-	    			{
-	    				String[] lineContents = line.split("\t", -1);
-
-	    				// Output VCF header if desired //
-
-	    				if(numBases == 1 && params.containsKey("output-vcf"))
-    	    			{
-    	    				vcfHeader += "\n" + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT";
-    	    				if(sampleList.length() > 0)
-    	    				{
-    	    					vcfHeader += "\t" + sampleList;
-    	    				}
-    	    				else
-    	    				{
-	    	    				// print the VCF sample header //
-	    	    				int sampleCounter = 0;
-	    	    				for(int colCounter = 3; colCounter <= (lineContents.length - 3); colCounter += 3)
-	    	    				{
-	    	    					sampleCounter++;
-	    	    					vcfHeader += "\tSample" + sampleCounter;
-	    	    				}
-
-    	    				}
-
-    	    				System.out.println(vcfHeader);
-    	    			}
-
-	    				// Verify expected pileup format //
-
-	    				if(lineContents.length > 5 && lineContents[0].length() > 0 && lineContents[1].length() > 0 && lineContents[2].length() > 0 && lineContents[3].length() > 0)
-	    				{
-	    					String refName = lineContents[0];
-	    					String position = lineContents[1];
-	    					String refBase = lineContents[2].toUpperCase();
-	    					String callDepths = "";
-	    					String callResults = "";
-	    					String vcfResults = "";
-	    					HashMap<String, Integer> varAlleles = new HashMap<String, Integer>();
-	    					boolean variantFlag = false;
-	    					boolean snpFlag = false;
-	    					boolean indelFlag = false;
-	    					int samplesRef = 0;
-	    					int samplesHet = 0;
-	    					int samplesHom = 0;
-	    					int samplesUncalled = 0;
-
-	    					// Declare variables for cross-sample calling and strand filter //
-	    					int allReadDepth = 0;
-	    					int allReads1plus = 0;
-	    					int allReads1minus = 0;
-	    					int allReads2plus = 0;
-	    					int allReads2minus = 0;
-	    					double strandPvalue = 1.00;
-	    					String allReadBases = "";
-	    					String allReadQualities = "";
-
-	    					// Call Individual Genotypes for All Samples in Mpileup //
-
-	    					for(int colCounter = 3; colCounter <= (lineContents.length - 3); colCounter += 3)
-	    					{
-		    					int readDepth = 0;
-		    					String readBases = "";
-		    					String readQualities = "";
-		    					String mapQualities = "";
-
-			    	        	readDepth = Integer.parseInt(lineContents[colCounter]);
-			    	        	readBases = lineContents[colCounter + 1];
-			    	        	readQualities = lineContents[colCounter + 2];
-
-			    	        	// Append to our long-running total //
-
-			    	        	allReadDepth += readDepth;
-			    	        	allReadBases = allReadBases + readBases;
-			    	        	allReadQualities = allReadQualities + readQualities;
-
-			    	        	// Determine if this sample's depth meets our minimum //
-			    	        	int qualityDepth = 0;
-		    	        		qualityDepth = VarScan.qualityDepth(readQualities, minAvgQual);
-
-		    	        		String thisCall = "N" + ":" + qualityDepth + ":-:-:-:-";
-		    	        		String thisVCF = "./.:.:" + qualityDepth;
-
-			    	        	if(readDepth >= minCoverage && qualityDepth >= minCoverage)
-			    	        	{
-			    	        		HashMap<String, String> readCounts = VarScan.getReadCounts(refBase, readBases, readQualities, minAvgQual, mapQualities);
-			    	        		String positionCall = VarScan.callPosition(refBase, readCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
-
-			    	        		if(positionCall.length() > 0)
-			    	        		{
-			    	        			String[] callLines = positionCall.split("\n");
-
-			    	        			// Go thru each line in resulting call list //
-			    	        			for(int lineCounter = 0; lineCounter < callLines.length; lineCounter++)
-			    	        			{
-			    	        				// Determine type of call that was made //
-			    	        				String[] callContents = callLines[lineCounter].split("\t");
-			    	        				String consBase = callContents[0];
-			    	        				int reads1 = Integer.parseInt(callContents[1]);
-			    	        				int reads2 = Integer.parseInt(callContents[2]);
-			    	        				String varFreq = callContents[3];
-			    	        				int strands1 = Integer.parseInt(callContents[4]);
-			    	        				int strands2 = Integer.parseInt(callContents[5]);
-			    	        				int qual1 = Integer.parseInt(callContents[6]);
-			    	        				int qual2 = Integer.parseInt(callContents[7]);
-			    	        				double pValue = Double.parseDouble(callContents[8]);
-			    	        				int reads1plus = Integer.parseInt(callContents[11]);
-			    	        				int reads1minus = Integer.parseInt(callContents[12]);
-			    	        				int reads2plus = Integer.parseInt(callContents[13]);
-			    	        				int reads2minus = Integer.parseInt(callContents[14]);
-			    	        				String varAllele = "";
-
-			    	        				double logP = 0;
-			    	        				try {
-				    	        				logP = 0 - (10 * java.lang.Math.log10(pValue));
-				    	        				if(logP > 255)
-				    	        					logP = 255;
-			    	        				}
-			    	        				catch(Exception e)
-			    	        				{
-			    	        					// Stick with default logP value
-			    	        				}
-
-
-			    	        				// Capture the variant allele if there is one //
-
-			    	        				if(!consBase.equals(refBase) && !consBase.equals("N") && callContents.length > 15)
-			    	        				{
-			    	        					varAllele = callContents[15];
-
-			    	        					// Determine how many variant alleles have been seen //
-
-			    	        					int varAlleleNumber = 0;
-
-			    	        					// Determine if we've seen the variant and what its number is ##
-
-				    	        				if(varAlleles.containsKey(varAllele))
-				    	        				{
-				    	        					varAlleleNumber = varAlleles.get(varAllele);
-				    	        				}
-				    	        				else
-				    	        				{
-				    	        					// IF no variants yet seen, this is variant allele 1 //
-				    	        					varAlleleNumber = varAlleles.size() + 1;
-				    	        					varAlleles.put(varAllele, varAlleleNumber);
-				    	        				}
-
-			    	        					if(VarScan.isHomozygous(consBase))
-			    	        					{
-			    	        						samplesHom++;
-			    	        						thisVCF = varAlleleNumber + "/" + varAlleleNumber;
-			    	        					}
-			    	        					else
-			    	        					{
-			    	        						samplesHet++;
-			    	        						thisVCF = "0" + "/" + varAlleleNumber;
-			    	        					}
-
-			    	        					thisVCF += ":" + (int) logP + ":" + readDepth + ":" + qualityDepth;
-		    	        						thisVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
-		    	        						thisVCF += ":" + qual1 + ":" + qual2;
-		    	        						thisVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
-			    	        				}
-			    	        				else if(consBase.equals(refBase))
-			    	        				{
-			    	        					// A reference call - recalculate p-value against a possible het //
-			    	        					int expReads1 = (reads1 + reads2) / 2;
-			    	        					int expReads2 = (reads1 + reads2) - expReads1;
-			    	        					double newPvalue = VarScan.getSignificance(reads1, reads2, expReads1, expReads2);
-			    	        					double newLogP = 0;
-				    	        				try {
-					    	        				newLogP = 0 - (10 * java.lang.Math.log10(newPvalue));
-				    	        				}
-				    	        				catch(Exception e)
-				    	        				{
-				    	        					// Stick with default logP value
-				    	        				}
-			    	        					thisVCF = "0" + "/" + "0";
-			    	        					thisVCF += ":" + (int) newLogP + ":" + readDepth + ":" + qualityDepth;
-		    	        						thisVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
-		    	        						thisVCF += ":" + qual1 + ":" + qual2;
-		    	        						thisVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
-
-			    	        				}
-
-
-			    	        				thisCall = consBase + ":" + qualityDepth + ":" + reads1 + ":" + reads2 + ":" + varFreq;
-			    	        				thisCall += ":" + pvalueFormat.format(pValue);
-
-			    	        				if(!consBase.equals(refBase) && !consBase.equals("N"))
-			    	        				{
-			    	        					variantFlag = true;
-
-			    	        					// Flag what type of variant was observed //
-			    	        					if(consBase.length() > 1)
-			    	        						indelFlag = true;
-			    	        					else
-			    	        						snpFlag = true;
-
-			    	        					// Save reads1plus and reads1minus //
-
-			    	        					allReads1plus += reads1plus;
-			    	        					allReads1minus += reads1minus;
-			    	        					allReads2plus += reads2plus;
-			    	        					allReads2minus += reads2minus;
-
-
-			    	        				}
-			    	        				else
-			    	        				{
-			    	        					samplesRef++;
-			    	        				}
-			    	        			}
-
-			    	        		}
-			    	        		else
-			    	        		{
-			    	        			samplesUncalled++;
-			    	        		}
-
-
-			    	        	}
-			    	        	else
-			    	        	{
-			    	        		samplesUncalled++;
-			    	        	}
-
-
-			    	        	// Add this depth to the list //
-
-			    	        	if(callDepths.length() > 0)
-			    	        		callDepths += " ";
-
-			    	        	callDepths += readDepth;
-
-		    	        		// Add this call to the list //
-		    	        		if(callResults.length() > 0)
-		    	        			callResults = callResults + " ";
-
-		    	        		callResults = callResults + thisCall;
-
-		    	        		// Add this to the sample VCF string //
-
-		    	        		if(vcfResults.length() > 0)
-		    	        			vcfResults = vcfResults + "\t";
-
-		    	        		vcfResults = vcfResults + thisVCF;
-	    					}
-
-
-	    					// Call the cross-sample pileup //
-
-		    	        	int qualityDepth = 0;
-	    	        		qualityDepth = VarScan.qualityDepth(allReadQualities, minAvgQual);
-		    	        	String allMapQualities = "";
-		    	        	String allConsensusCall = "N:" + qualityDepth + ":-:-:-:-";
-
-
-
-		    	        	if(params.containsKey("output-vcf"))
-		    	        	{
-		    	        		// Skip this if we're outputting VCF //
-
-		    	        	}
-		    	        	else if(allReadDepth >= minCoverage && qualityDepth >= minCoverage)
-		    	        	{
-		    	        		HashMap<String, String> readCounts = VarScan.getReadCounts(refBase, allReadBases, allReadQualities, minAvgQual, allMapQualities);
-		    	        		String positionCall = VarScan.callPosition(refBase, readCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
+	    		if(!completed)
+	    			return;
 
-		    	        		if(positionCall.length() > 0)
-		    	        		{
-		    	        			String[] callLines = positionCall.split("\n");
+				in.close();
 
-		    	        			// Go thru each line in resulting call list //
-		    	        			for(int lineCounter = 0; lineCounter < callLines.length; lineCounter++)
-		    	        			{
-		    	        				// Determine type of call that was made //
-		    	        				String[] callContents = callLines[lineCounter].split("\t");
-		    	        				String consBase = callContents[0];
-		    	        				int reads1 = Integer.parseInt(callContents[1]);
-		    	        				int reads2 = Integer.parseInt(callContents[2]);
-		    	        				String varFreq = callContents[3];
-		    	        				double pValue = Double.parseDouble(callContents[8]);
-		    	        				String varAllele = "";
+				System.err.println(totals.numBases + " bases in pileup file");
+				System.err.println(totals.numVariantPositions + " variant positions (" + totals.numSNPpositions + " SNP, " + totals.numIndelPositions + " indel)");
+				System.err.println(totals.numFailStrandFilter + " were failed by the strand-filter");
+				System.err.println(totals.numVariantsReported + " variant positions reported (" + totals.numSNPsReported + " SNP, " + totals.numIndelsReported + " indel)");
+				if(params.containsKey("verbose"))
+					System.err.println("P-value cache: " + VarScan.significanceCache);
+	    	}
+	    	// Insufficient input was provided, so print usage //
+	    	else
+	    	{
+				 System.err.println("Please provide an input file!\n" + usage);
+				 System.exit(10);
+	    	}
+	    }
+	    catch(Exception e)
+	    {
+	    	System.err.println("Exception: " + e.getLocalizedMessage());
+	    	e.printStackTrace(System.err);
+	    	System.exit(11);
+	    }
+	}
 
-		    	        				// Capture the variant allele if there is one //
 
-		    	        				if(!consBase.equals(refBase) && callContents.length > 15)
-		    	        				{
-		    	        					varAllele = callContents[15];
-		    	        					if(varAlleles.containsKey(varAllele))
-			    	        				{
-//			    	        					varAlleles.put(varAllele, (varAlleles.get(varAllele) + 1));
-			    	        				}
-			    	        				else
-			    	        				{
-			    	        					// IF no variants yet seen, this is variant allele 1 //
-			    	        					int varAlleleNumber = varAlleles.size() + 1;
-			    	        					varAlleles.put(varAllele, varAlleleNumber);
-			    	        				}
+	/**
+	 * Calls each line in turn on this thread
+	 *
+	 * @param	in		Pileup input
+	 * @param	totals	Counts to add every line to
+	 * @return			False if calling stopped on an invalid line
+	 */
+	boolean callSerial(PileupSource in, CallCounts totals) throws Exception
+	{
+		StringBuilder output = new StringBuilder();
 
-		    	        				}
+		while (in.next())
+		{
+			totals.numBases++;
 
+			// Output progress line //
+			if(params.containsKey("verbose") && (totals.numBases % 100000) == 0)
+				System.err.println(totals.numBases + " positions parsed...");
 
-		    	        				allConsensusCall = consBase + ":" + qualityDepth + ":" + reads1 + ":" + reads2 + ":" + varFreq;
-		    	        				allConsensusCall += ":" + pvalueFormat.format(pValue);
+			String error = callLine(in, totals, output);
 
-		    	        				if(!consBase.equals(refBase) && !consBase.equals("N"))
-		    	        				{
-		    	        					variantFlag = true;
+			if(output.length() > 0)
+			{
+				out.print(output);
+				output.setLength(0);
+			}
 
-		    	        					// Flag what type of variant was observed //
-		    	        					if(consBase.length() > 1)
-		    	        						indelFlag = true;
-		    	        					else
-		    	        						snpFlag = true;
-
-		    	        				}
-		    	        			}
+			if(error != null)
+			{
+				System.err.println(error);
+				return(false);
+			}
+		}
 
-		    	        		}
-		    	        		else
-		    	        		{
-		    	        			// NO call made from all-sample pileup //
-		    	        		}
+		return(true);
+	}
 
 
-		    	        	}
-		    	        	else
-		    	        	{
-		    	        		// All-sample pileup failed to meet min depth //
-		    	        	}
-
-
-	    					// Get All Variant alleles observed //
-
-	    					String varBases = "";
-	    					// First, obtain their unique keys which are in alphanumeric order //
-	    					String[] sortedKeys = (String[]) varAlleles.keySet().toArray(new String[0]);
-
-	    					// Create an empty array to put these into sorted order //
-	    					String[] alleleKeys = new String[sortedKeys.length];
-
-	    					// Put alleles into this array in their order of occurrence in VCF line //
-	    					for(String allele : sortedKeys)
-	    					{
-	    						int arrayIndex = varAlleles.get(allele) - 1;
-    							alleleKeys[arrayIndex] = allele;
-	    					}
-
-	    					// Export all variant alleles into a comma-separated string//
-	    					// This is what's provided in native output, or converted to VCF format //
-	    					for(String allele : alleleKeys)
-	    					{
-	    						if(varBases.length() > 0)
-	    							varBases += ",";
-
-	    						varBases += allele;
-	    					}
-
-	    					// It's possible that we see no variant here, so we need the proper empty character //
-	    					if(varBases.length() == 0)
-	    						varBases = ".";
-
-	    					// Count whether there was a variant //
-    						if(variantFlag)
-    							numVariantPositions++;
-    						if(snpFlag)
-    							numSNPpositions++;
-    						if(indelFlag)
-    							numIndelPositions++;
-
-	    					// Determine strand filter status if it's turned on  //
-	    					String strandFilterStatus = "Pass:" + allReads1plus + ":" + allReads1minus + ":" + allReads2plus + ":" + allReads2minus + ":" + pvalueFormat.format(strandPvalue);
-	    					boolean failedStrandFilter = false;
-
-    						if(strandFilter && variantFlag && (allReads1plus > 0 || allReads1minus > 0 || allReads2plus > 0 || allReads2plus > 0))
-	    					{
-    	    					double refStrandPlus = 0.50;
-    	    					double varStrandPlus = 0.50;
-
-    	    					// Calculate strandedness for variant allele //
-
-    	    					if((allReads2plus + allReads2minus) > 0)
-    	    						varStrandPlus = (double) allReads2plus / (double) (allReads2plus + allReads2minus);
-
-    	    					// To save time, only calculate p-value if var strandedness is biased //
-
-    	    					if(varStrandPlus < 0.10 || varStrandPlus > 0.90)
-    	    					{
-    	    						// Calculate strandedness for reference allele if we have 2+ reads //
-
-        	    					if((allReads1plus + allReads1minus) > 1)
-        	    					{
-        	    						refStrandPlus = (double) allReads1plus / (double) (allReads1plus + allReads1minus);
-        	    						strandPvalue = VarScan.getSignificance(allReads1plus, allReads1minus, allReads2plus, allReads2minus);
-        	    					}
-        	    					// Otherwise, only homozygous-variant reads seen, so compare to a 50/50 distribution //
-    	    						else
-    	    						{
-    	    							// Compare to expected 50/50 distribution //
-    	    							int testReads1plus = (int) (allReads2plus + allReads2minus) / 2;
-    	    							int testReads1minus = (allReads2plus + allReads2minus) - testReads1plus;
-    	    							strandPvalue = VarScan.getSignificance(testReads1plus, testReads1minus, allReads2plus, allReads2minus);
-    	    						}
-
-        	    					strandFilterStatus = "Pass:" + varStrandPlus + ":" + allReads1plus + ":" + allReads1minus + ":" + allReads2plus + ":" + allReads2minus + ":" + pvalueFormat.format(strandPvalue);
-
-    	    						// If ref allele had good strandedness, and var allele did not, this may be a failure //
-    	    						if(refStrandPlus >= 0.10 && refStrandPlus <= 0.90 && !(varStrandPlus >= 0.10 && varStrandPlus <= 0.90))
-    	    						{
-    	    							if(strandPvalue < strandPvalueThreshold)
-    	    	    					{
-    	    	    						strandFilterStatus = "Fail:" + allReads1plus + ":" + allReads1minus + ":" + allReads2plus + ":" + allReads2minus + ":" + pvalueFormat.format(strandPvalue);
-    	    	    						numFailStrandFilter++;
-    	    	    						failedStrandFilter = true;
-    	    	    					}
-    	    						}
-    	    					}
-
-	    					}
-
-    						// BEGIN BUILDING OUTPUT LINE //
-
-	    					String outLine = refName + "\t" + position + "\t";
-
-	    					if(params.containsKey("output-vcf"))
-	    					{
-	    						// Calculate average sample depth //
-	    						int avgQualityDepth = 0;
-	    						if((samplesRef + samplesHet + samplesHom + samplesUncalled) > 0)
-	    							avgQualityDepth = qualityDepth / (samplesRef + samplesHet + samplesHom + samplesUncalled);
-
-	    						String refColumn = "";
-	    						String varColumn = "";
-
-	    						// Handle complex positions with multiple alleles including at least one indel //
-
-	    						if(varBases.contains(",") && (varBases.contains("-") || varBases.contains("+")))
-	    						{
-	    							// Multi-allele indel //
-	    							int maxDelSize = 0;
-	    							String maxDelBases = "";
-	    							// Go through each varAllele to find longest deletion //
-	    							String[] varBaseContents = varBases.split(",");
-	    							for(String varAllele : varBaseContents)
-	    							{
-	    								if(varAllele.startsWith("-"))
-	    								{
-	    									varAllele = varAllele.replace("-", "");
-	    									if(varAllele.length() > maxDelSize)
-	    									{
-	    										maxDelBases = varAllele;
-	    										maxDelSize = varAllele.length();
-	    									}
-	    								}
-	    							}
-
-	    							// Set refBase to maximum del //
-	    							refColumn = refBase + maxDelBases;
-
-	    							// Establish each allele in var Column //
-	    							varColumn = "";
-
-	    							for(String varAllele : varBaseContents)
-	    							{
-    									if(varColumn.length() > 0)
-    										varColumn = varColumn + ",";
-
-	    								if(varAllele.startsWith("-"))
-	    								{
-	    									varAllele = varAllele.replace("-", "");
-
-	    									// For the smaller deletion, determine ref bases to add //
-	    									if(varAllele.length() < maxDelSize)
-	    									{
-	    										String varEntry = maxDelBases.replace(varAllele, "");
-	    										varColumn = varColumn + refBase + varEntry;
-	    									}
-	    									else
-	    									{
-	    										varColumn = varColumn + refBase;
-	    									}
-	    								}
-	    								else if(varAllele.startsWith("+"))
-	    								{
-	    									varAllele = varAllele.replace("+", "");
-	    									String varEntry = refBase + varAllele + maxDelBases;
-	    									varColumn = varColumn + varEntry;
-	    								}
-	    								else
-	    								{
-	    									String varEntry = varAllele + maxDelBases;
-	    									varColumn = varColumn + varEntry;
-	    								}
-	    							}
-
-
-	    						}
-
-	    						else if(varBases.startsWith("+"))
-		    					{
-		    						// INSERTION //
-		    						// Ref = ref base; Var = ref base followed by inserted bases //
-	    							refColumn = refBase;
-		    						varColumn = refBase + varBases.replace("+", "");
-		    					}
-		    					else if(varBases.startsWith("-"))
-		    					{
-		    						// DELETION //
-		    						// Ref = ref base followed by deleted bases; var = ref base //
-		    						refColumn = refBase + varBases.replace("-", "");
-		    						varColumn = refBase;
-		    					}
-		    					else
-		    					{
-		    						refColumn = refBase;
-		    						varColumn = varBases;
-		    					}
-
-	    						// Ensure that varColumn does not contain any +/- //
-	    						varColumn = varColumn.replace("+", "");
-	    						varColumn = varColumn.replace("-", "");
-
-
-	    						outLine += "." + "\t" + refColumn + "\t" + varColumn + "\t.\t";
-
-	    						if(strandFilterStatus.contains("Pass"))
-	    							outLine += "PASS\t";
-	    						else
-	    							outLine += "str10\t";
-	    						outLine += "ADP=" + avgQualityDepth + ";WT=" + samplesRef + ";HET=" + samplesHet + ";HOM=" + samplesHom + ";NC=" + samplesUncalled;
-	    						outLine += "\t" + "GT:GQ:SDP:DP:RD:AD:FREQ:PVAL:RBQ:ABQ:RDF:RDR:ADF:ADR" + "\t";
-	    						outLine += vcfResults;
-	    					}
-	    					else
-	    					{
-	    						outLine += refBase + "\t" + varBases + "\t";
-		    					outLine += allConsensusCall + "\t" + strandFilterStatus + "\t";
-		    					outLine += samplesRef + "\t" + samplesHet + "\t" + samplesHom + "\t" + samplesUncalled + "\t";
-		    					outLine += callResults;
-	    					}
-
-
-
-    						// If there was a variant, but strand-filter failed, and only reporting variants:
-	    					boolean reportFlag = false;
-
-    						if(variantFlag && strandFilter && failedStrandFilter)
-    						{
-    							// Do not print a variant that failed strand-filter unless in CNS mode //
-    							if(!variantsOnly && !snpsOnly && !indelsOnly)
-    								reportFlag = true;
-    						}
-    						else if((variantsOnly || snpsOnly || indelsOnly) && !variantFlag)
-    						{
-    							// Do not print if reporting variants, but no variant was seen //
-    						}
-    						else if(!variantsOnly && !snpsOnly && !indelsOnly)
-	    					{
-    							// Print consensus if in consensus calling mode //
-    							reportFlag = true;
-	    					}
-    						else if(variantFlag && variantsOnly)
-    						{
-    							// Print any variant if variants flag set //
-    							reportFlag = true;
-    						}
-    						else if(snpFlag && snpsOnly)
-    						{
-    							// Print SNP variant if SNPs-only flag set //
-    							reportFlag = true;
-    						}
-    						else if(indelFlag && indelsOnly)
-    						{
-    							// Print indel variant if indels-only flag set //
-    							reportFlag = true;
-    						}
-    						else
-    						{
-    							// Don't report a consensus call if limited to variant reporting //
-    						}
-
-    						if(reportFlag)
-    						{
-	    						System.out.println(outLine);
-
-	    						if(variantFlag)
-	    							numVariantsReported++;
-	    						if(snpFlag)
-	    							numSNPsReported++;
-	    						if(indelFlag)
-	    							numIndelsReported++;
-    						}
+	/**
+	 * Calls lines on a pool of worker threads, a block at a time, and prints the blocks in input order
+	 *
+	 * Output and counts are the same as calling on one thread, including where calling stops on an invalid line.
+	 *
+	 * @param	in		Pileup input
+	 * @param	totals	Counts to add every line to
+	 * @return			False if calling stopped on an invalid line
+	 */
+	boolean callParallel(PileupSource in, final CallCounts totals) throws Exception
+	{
+		final boolean verbose = params.containsKey("verbose");
 
-	    				}
-	    				else
-	    				{
-	    					if(lineContents.length >= 4 && lineContents[3].equals("0"))
-	    					{
-	    						// A pileup line with 0x coverage, so ignore
-	    					}
-	    					else
-	    					{
-		    					System.err.println("Warning: Line ignored: Invalid format for pileup at line " + numBases + "\n" + line + "\n");
-		    					return;
-	    					}
+		PileupPipeline.Worker<CallBlock> worker = new PileupPipeline.Worker<CallBlock>() {
+			public CallBlock process(PileupSource lines) throws Exception
+			{
+				CallBlock block = new CallBlock();
 
-	    				}
-	    			}
-	    			catch(Exception e)
-	    		    {
-	    		    	System.err.println("Parsing Exception on line:\n" + line + "\n" + e.getLocalizedMessage());
-	    				numParsingExceptions++;
-	    				if(numParsingExceptions >= 5)
-	    				{
-	    					System.err.println("Too many parsing exceptions encountered; exiting");
-	    					return;
-	    				}
-	    		    	return;
-	    		    }
+				// Stop at the first invalid line, as calling on one thread would //
+				while(block.error == null && lines.next())
+				{
+					block.counts.numBases++;
+					block.error = callLine(lines, block.counts, block.output);
+				}
 
+				return(block);
+			}
+		};
 
-	    		}
+		PileupPipeline.Writer<CallBlock> writer = new PileupPipeline.Writer<CallBlock>() {
+			long progress = 0;
 
-				in.close();
+			public boolean write(CallBlock block)
+			{
+				out.print(block.output);
+				totals.add(block.counts);
 
-				System.err.println(numBases + " bases in pileup file");
-				System.err.println(numVariantPositions + " variant positions (" + numSNPpositions + " SNP, " + numIndelPositions + " indel)");
-				System.err.println(numFailStrandFilter + " were failed by the strand-filter");
-				System.err.println(numVariantsReported + " variant positions reported (" + numSNPsReported + " SNP, " + numIndelsReported + " indel)");
-	    	}
-	    	// Insufficient input was provided, so print usage //
-	    	else
-	    	{
-				 System.err.println("Please provide an input file!\n" + usage);
-				 System.exit(10);
-	    	}
-	    }
-	    catch(Exception e)
-	    {
-	    	System.err.println("Exception: " + e.getLocalizedMessage());
-	    	e.printStackTrace(System.err);
-	    	System.exit(11);
-	    }
+				// Output progress lines //
+				while(verbose && progress + 100000 <= totals.numBases)
+				{
+					progress += 100000;
+					System.err.println(progress + " positions parsed...");
+				}
+
+				if(block.error != null)
+				{
+					System.err.println(block.error);
+					return(false);
+				}
+
+				return(true);
+			}
+		};
+
+		return(PileupPipeline.run(in, numThreads, worker, writer));
+	}
+
+
+	/**
+	 * Calls one mpileup line and adds its output to a buffer, after the VCF header if it is the first line
+	 *
+	 * @param	in		Pileup input at the line
+	 * @param	counts	Counts to add the line's calls to
+	 * @param	output	Buffer for the lines to print
+	 * @return			An error message if calling should stop at this line, otherwise null
+	 */
+	String callLine(PileupSource in, CallCounts counts, StringBuilder output)
+	{
+		try
+		{
+			// Output VCF header if desired //
+
+			if(in.isFirstLine() && params.containsKey("output-vcf"))
+			{
+				String header = vcfHeader + "\n" + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT";
+				if(sampleList.length() > 0)
+				{
+					header += "\t" + sampleList;
+				}
+				else
+				{
+					// print the VCF sample header //
+					for(int sampleCounter = 1; sampleCounter <= in.getNumSamples(); sampleCounter++)
+					{
+						header += "\tSample" + sampleCounter;
+					}
+
+				}
+
+				output.append(header).append(NEWLINE);
+			}
+
+			// Verify expected pileup format //
+
+			if(in.hasPosition())
+			{
+				String refName = in.getChrom();
+				String position = Integer.toString(in.getPosition());
+				String refBase = in.getRefBase();
+				HashMap<String, Integer> varAlleles = new HashMap<String, Integer>();
+				boolean variantFlag = false;
+				boolean snpFlag = false;
+				boolean indelFlag = false;
+				int samplesRef = 0;
+				int samplesHet = 0;
+				int samplesHom = 0;
+				int samplesUncalled = 0;
+
+				// Declare variables for cross-sample calling and strand filter //
+				int allReadDepth = 0;
+				int allReads1plus = 0;
+				int allReads1minus = 0;
+				int allReads2plus = 0;
+				int allReads2minus = 0;
+				double strandPvalue = 1.00;
+				int allQualityDepth = 0;
+
+				// The cross-sample pileup is only called for native output //
+				boolean callAllSamples = !params.containsKey("output-vcf");
+
+				// Call Individual Genotypes for All Samples in Mpileup //
+				// Calls are kept so that their output, and the p-values it needs, is only built for reported positions //
+
+				int numSamples = in.getNumSamples();
+				PileupSample[] samples = new PileupSample[numSamples];
+				PositionCall[] sampleCalls = new PositionCall[numSamples];
+				int[] sampleDepths = new int[numSamples];
+				int[] sampleQualityDepths = new int[numSamples];
+				int sampleCounter = 0;
+
+				boolean referenceOnly = true;
+				for(int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++)
+				{
+					samples[sampleIndex] = in.getSample(sampleIndex);
+					referenceOnly = referenceOnly && samples[sampleIndex].isReferenceOnly();
+				}
+
+				// Without a non-reference read in any sample there is no variant to report //
+				if(referenceOnly && (variantsOnly || snpsOnly || indelsOnly))
+					return(null);
+
+				while(sampleCounter < numSamples)
+				{
+					PileupSample sample = samples[sampleCounter];
+					int readDepth = sample.getDepth();
+
+					// Append to our long-running total //
+
+					allReadDepth += readDepth;
+
+					// Determine if this sample's depth meets our minimum //
+					int qualityDepth = sample.getQualityDepth(minAvgQual);
+					allQualityDepth += qualityDepth;
+
+					sampleDepths[sampleCounter] = readDepth;
+					sampleQualityDepths[sampleCounter] = qualityDepth;
+
+					if(readDepth >= minCoverage && qualityDepth >= minCoverage)
+					{
+						AlleleCounts readCounts = sample.getCounts(refBase, minAvgQual);
+						PositionCall positionCall = VarScan.callPosition(refBase, readCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
+						sampleCalls[sampleCounter] = positionCall;
+
+						if(positionCall != null)
+						{
+							// Go thru each call made at this position //
+							for(PositionCall call = positionCall; call != null; call = call.next)
+							{
+								// Determine type of call that was made //
+								String consBase = call.genotype;
+
+								// Capture the variant allele if there is one //
+
+								if(!consBase.equals(refBase) && !consBase.equals("N") && call.hasVarAllele())
+								{
+									// Determine if we've seen the variant; if not, give it the next number //
+
+									if(!varAlleles.containsKey(call.varAllele))
+									{
+										varAlleles.put(call.varAllele, varAlleles.size() + 1);
+									}
+
+									if(VarScan.isHomozygous(consBase))
+										samplesHom++;
+									else
+										samplesHet++;
+								}
+
+								if(!consBase.equals(refBase) && !consBase.equals("N"))
+								{
+									variantFlag = true;
+
+									// Flag what type of variant was observed //
+									if(consBase.length() > 1)
+										indelFlag = true;
+									else
+										snpFlag = true;
+
+									// Save reads1plus and reads1minus //
+
+									allReads1plus += call.reads1plus;
+									allReads1minus += call.reads1minus;
+									allReads2plus += call.reads2plus;
+									allReads2minus += call.reads2minus;
+
+
+								}
+								else
+								{
+									samplesRef++;
+								}
+							}
+
+						}
+						else
+						{
+							samplesUncalled++;
+						}
+
+
+					}
+					else
+					{
+						samplesUncalled++;
+					}
+
+					sampleCounter++;
+				}
+
+
+				// Call the cross-sample pileup //
+
+				int qualityDepth = allQualityDepth;
+				PositionCall allCall = null;
+
+
+
+				if(params.containsKey("output-vcf"))
+				{
+					// Skip this if we're outputting VCF //
+
+				}
+				else if(allReadDepth >= minCoverage && qualityDepth >= minCoverage)
+				{
+					AlleleCounts readCounts = PileupSample.combine(samples).getCounts(refBase, minAvgQual);
+					allCall = VarScan.callPosition(refBase, readCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
+
+					if(allCall != null)
+					{
+						// Go thru each call made at this position //
+						for(PositionCall call = allCall; call != null; call = call.next)
+						{
+							// Determine type of call that was made //
+							String consBase = call.genotype;
+
+							// Capture the variant allele if there is one //
+
+							if(!consBase.equals(refBase) && call.hasVarAllele())
+							{
+								if(!varAlleles.containsKey(call.varAllele))
+								{
+									// IF no variants yet seen, this is variant allele 1 //
+									int varAlleleNumber = varAlleles.size() + 1;
+									varAlleles.put(call.varAllele, varAlleleNumber);
+								}
+
+							}
+
+							if(!consBase.equals(refBase) && !consBase.equals("N"))
+							{
+								variantFlag = true;
+
+								// Flag what type of variant was observed //
+								if(consBase.length() > 1)
+									indelFlag = true;
+								else
+									snpFlag = true;
+
+							}
+						}
+
+					}
+					else
+					{
+						// NO call made from all-sample pileup //
+					}
+
+
+				}
+				else
+				{
+					// All-sample pileup failed to meet min depth //
+				}
+
+
+				// Get All Variant alleles observed //
+
+				String varBases = "";
+				// First, obtain their unique keys which are in alphanumeric order //
+				String[] sortedKeys = (String[]) varAlleles.keySet().toArray(new String[0]);
+
+				// Create an empty array to put these into sorted order //
+				String[] alleleKeys = new String[sortedKeys.length];
+
+				// Put alleles into this array in their order of occurrence in VCF line //
+				for(String allele : sortedKeys)
+				{
+					int arrayIndex = varAlleles.get(allele) - 1;
+					alleleKeys[arrayIndex] = allele;
+				}
+
+				// Export all variant alleles into a comma-separated string//
+				// This is what's provided in native output, or converted to VCF format //
+				for(String allele : alleleKeys)
+				{
+					if(varBases.length() > 0)
+						varBases += ",";
+
+					varBases += allele;
+				}
+
+				// It's possible that we see no variant here, so we need the proper empty character //
+				if(varBases.length() == 0)
+					varBases = ".";
+
+				// Count whether there was a variant //
+				if(variantFlag)
+					counts.numVariantPositions++;
+				if(snpFlag)
+					counts.numSNPpositions++;
+				if(indelFlag)
+					counts.numIndelPositions++;
+
+				// Determine strand filter status if it's turned on  //
+				String strandFilterStatus = "Pass:" + allReads1plus + ":" + allReads1minus + ":" + allReads2plus + ":" + allReads2minus + ":" + pvalueFormat.get().format(strandPvalue);
+				boolean failedStrandFilter = false;
+
+				if(strandFilter && variantFlag && (allReads1plus > 0 || allReads1minus > 0 || allReads2plus > 0 || allReads2plus > 0))
+				{
+					double refStrandPlus = 0.50;
+					double varStrandPlus = 0.50;
+
+					// Calculate strandedness for variant allele //
+
+					if((allReads2plus + allReads2minus) > 0)
+						varStrandPlus = (double) allReads2plus / (double) (allReads2plus + allReads2minus);
+
+					// To save time, only calculate p-value if var strandedness is biased //
+
+					if(varStrandPlus < 0.10 || varStrandPlus > 0.90)
+					{
+						// Calculate strandedness for reference allele if we have 2+ reads //
+
+						if((allReads1plus + allReads1minus) > 1)
+						{
+							refStrandPlus = (double) allReads1plus / (double) (allReads1plus + allReads1minus);
+							strandPvalue = VarScan.getSignificance(allReads1plus, allReads1minus, allReads2plus, allReads2minus);
+						}
+						// Otherwise, only homozygous-variant reads seen, so compare to a 50/50 distribution //
+						else
+						{
+							// Compare to expected 50/50 distribution //
+							int testReads1plus = (int) (allReads2plus + allReads2minus) / 2;
+							int testReads1minus = (allReads2plus + allReads2minus) - testReads1plus;
+							strandPvalue = VarScan.getSignificance(testReads1plus, testReads1minus, allReads2plus, allReads2minus);
+						}
+
+						strandFilterStatus = "Pass:" + varStrandPlus + ":" + allReads1plus + ":" + allReads1minus + ":" + allReads2plus + ":" + allReads2minus + ":" + pvalueFormat.get().format(strandPvalue);
+
+						// If ref allele had good strandedness, and var allele did not, this may be a failure //
+						if(refStrandPlus >= 0.10 && refStrandPlus <= 0.90 && !(varStrandPlus >= 0.10 && varStrandPlus <= 0.90))
+						{
+							if(strandPvalue < strandPvalueThreshold)
+							{
+								strandFilterStatus = "Fail:" + allReads1plus + ":" + allReads1minus + ":" + allReads2plus + ":" + allReads2minus + ":" + pvalueFormat.get().format(strandPvalue);
+								counts.numFailStrandFilter++;
+								failedStrandFilter = true;
+							}
+						}
+					}
+
+				}
+
+				// If there was a variant, but strand-filter failed, and only reporting variants:
+				boolean reportFlag = false;
+
+				if(variantFlag && strandFilter && failedStrandFilter)
+				{
+					// Do not print a variant that failed strand-filter unless in CNS mode //
+					if(!variantsOnly && !snpsOnly && !indelsOnly)
+						reportFlag = true;
+				}
+				else if((variantsOnly || snpsOnly || indelsOnly) && !variantFlag)
+				{
+					// Do not print if reporting variants, but no variant was seen //
+				}
+				else if(!variantsOnly && !snpsOnly && !indelsOnly)
+				{
+					// Print consensus if in consensus calling mode //
+					reportFlag = true;
+				}
+				else if(variantFlag && variantsOnly)
+				{
+					// Print any variant if variants flag set //
+					reportFlag = true;
+				}
+				else if(snpFlag && snpsOnly)
+				{
+					// Print SNP variant if SNPs-only flag set //
+					reportFlag = true;
+				}
+				else if(indelFlag && indelsOnly)
+				{
+					// Print indel variant if indels-only flag set //
+					reportFlag = true;
+				}
+				else
+				{
+					// Don't report a consensus call if limited to variant reporting //
+				}
+
+				if(reportFlag)
+				{
+					String callResults = "";
+					String vcfResults = "";
+
+					// Compute the p-values for every sample's calls at once //
+					PositionCall.computePValues(sampleCalls);
+
+					for(int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++)
+					{
+						int readDepth = sampleDepths[sampleIndex];
+						int sampleQualityDepth = sampleQualityDepths[sampleIndex];
+
+						String thisCall = "N" + ":" + sampleQualityDepth + ":-:-:-:-";
+						String thisVCF = "./.:.:" + sampleQualityDepth;
+
+						for(PositionCall call = sampleCalls[sampleIndex]; call != null; call = call.next)
+						{
+							String consBase = call.genotype;
+							int reads1 = call.reads1;
+							int reads2 = call.reads2;
+							String varFreq = call.getVarFreq();
+							int qual1 = call.avgQual1;
+							int qual2 = call.avgQual2;
+							double pValue = call.getPValue();
+							int reads1plus = call.reads1plus;
+							int reads1minus = call.reads1minus;
+							int reads2plus = call.reads2plus;
+							int reads2minus = call.reads2minus;
+
+							double logP = 0;
+							try {
+								logP = 0 - (10 * java.lang.Math.log10(pValue));
+								if(logP > 255)
+									logP = 255;
+							}
+							catch(Exception e)
+							{
+								// Stick with default logP value
+							}
+
+							if(!consBase.equals(refBase) && !consBase.equals("N") && call.hasVarAllele())
+							{
+								int varAlleleNumber = varAlleles.get(call.varAllele);
+
+								if(VarScan.isHomozygous(consBase))
+								{
+									thisVCF = varAlleleNumber + "/" + varAlleleNumber;
+								}
+								else
+								{
+									thisVCF = "0" + "/" + varAlleleNumber;
+								}
+
+								thisVCF += ":" + (int) logP + ":" + readDepth + ":" + sampleQualityDepth;
+								thisVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.get().format(pValue);
+								thisVCF += ":" + qual1 + ":" + qual2;
+								thisVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
+							}
+							else if(consBase.equals(refBase))
+							{
+								// A reference call - recalculate p-value against a possible het //
+								int expReads1 = (reads1 + reads2) / 2;
+								int expReads2 = (reads1 + reads2) - expReads1;
+								double newPvalue = VarScan.getSignificance(reads1, reads2, expReads1, expReads2);
+								double newLogP = 0;
+								try {
+									newLogP = 0 - (10 * java.lang.Math.log10(newPvalue));
+								}
+								catch(Exception e)
+								{
+									// Stick with default logP value
+								}
+								thisVCF = "0" + "/" + "0";
+								thisVCF += ":" + (int) newLogP + ":" + readDepth + ":" + sampleQualityDepth;
+								thisVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.get().format(pValue);
+								thisVCF += ":" + qual1 + ":" + qual2;
+								thisVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
+							}
+
+							thisCall = consBase + ":" + sampleQualityDepth + ":" + reads1 + ":" + reads2 + ":" + varFreq;
+							thisCall += ":" + pvalueFormat.get().format(pValue);
+						}
+
+						// Add this call to the list //
+						if(callResults.length() > 0)
+							callResults = callResults + " ";
+
+						callResults = callResults + thisCall;
+
+						// Add this to the sample VCF string //
+
+						if(vcfResults.length() > 0)
+							vcfResults = vcfResults + "\t";
+
+						vcfResults = vcfResults + thisVCF;
+					}
+
+					// Format the cross-sample call //
+
+					String allConsensusCall = "N:" + qualityDepth + ":-:-:-:-";
+					for(PositionCall call = allCall; call != null; call = call.next)
+					{
+						allConsensusCall = call.genotype + ":" + qualityDepth + ":" + call.reads1 + ":" + call.reads2 + ":" + call.getVarFreq();
+						allConsensusCall += ":" + pvalueFormat.get().format(call.getPValue());
+					}
+
+					// BEGIN BUILDING OUTPUT LINE //
+
+					String outLine = refName + "\t" + position + "\t";
+
+					if(params.containsKey("output-vcf"))
+					{
+						// Calculate average sample depth //
+						int avgQualityDepth = 0;
+						if((samplesRef + samplesHet + samplesHom + samplesUncalled) > 0)
+							avgQualityDepth = qualityDepth / (samplesRef + samplesHet + samplesHom + samplesUncalled);
+
+						String refColumn = "";
+						String varColumn = "";
+
+						// Handle complex positions with multiple alleles including at least one indel //
+
+						if(varBases.contains(",") && (varBases.contains("-") || varBases.contains("+")))
+						{
+							// Multi-allele indel //
+							int maxDelSize = 0;
+							String maxDelBases = "";
+							// Go through each varAllele to find longest deletion //
+							String[] varBaseContents = varBases.split(",");
+							for(String varAllele : varBaseContents)
+							{
+								if(varAllele.startsWith("-"))
+								{
+									varAllele = varAllele.replace("-", "");
+									if(varAllele.length() > maxDelSize)
+									{
+										maxDelBases = varAllele;
+										maxDelSize = varAllele.length();
+									}
+								}
+							}
+
+							// Set refBase to maximum del //
+							refColumn = refBase + maxDelBases;
+
+							// Establish each allele in var Column //
+							varColumn = "";
+
+							for(String varAllele : varBaseContents)
+							{
+								if(varColumn.length() > 0)
+									varColumn = varColumn + ",";
+
+								if(varAllele.startsWith("-"))
+								{
+									varAllele = varAllele.replace("-", "");
+
+									// For the smaller deletion, determine ref bases to add //
+									if(varAllele.length() < maxDelSize)
+									{
+										String varEntry = maxDelBases.replace(varAllele, "");
+										varColumn = varColumn + refBase + varEntry;
+									}
+									else
+									{
+										varColumn = varColumn + refBase;
+									}
+								}
+								else if(varAllele.startsWith("+"))
+								{
+									varAllele = varAllele.replace("+", "");
+									String varEntry = refBase + varAllele + maxDelBases;
+									varColumn = varColumn + varEntry;
+								}
+								else
+								{
+									String varEntry = varAllele + maxDelBases;
+									varColumn = varColumn + varEntry;
+								}
+							}
+
+
+						}
+
+						else if(varBases.startsWith("+"))
+						{
+							// INSERTION //
+							// Ref = ref base; Var = ref base followed by inserted bases //
+							refColumn = refBase;
+							varColumn = refBase + varBases.replace("+", "");
+						}
+						else if(varBases.startsWith("-"))
+						{
+							// DELETION //
+							// Ref = ref base followed by deleted bases; var = ref base //
+							refColumn = refBase + varBases.replace("-", "");
+							varColumn = refBase;
+						}
+						else
+						{
+							refColumn = refBase;
+							varColumn = varBases;
+						}
+
+						// Ensure that varColumn does not contain any +/- //
+						varColumn = varColumn.replace("+", "");
+						varColumn = varColumn.replace("-", "");
+
+
+						outLine += "." + "\t" + refColumn + "\t" + varColumn + "\t.\t";
+
+						if(strandFilterStatus.contains("Pass"))
+							outLine += "PASS\t";
+						else
+							outLine += "str10\t";
+						outLine += "ADP=" + avgQualityDepth + ";WT=" + samplesRef + ";HET=" + samplesHet + ";HOM=" + samplesHom + ";NC=" + samplesUncalled;
+						outLine += "\t" + "GT:GQ:SDP:DP:RD:AD:FREQ:PVAL:RBQ:ABQ:RDF:RDR:ADF:ADR" + "\t";
+						outLine += vcfResults;
+					}
+					else
+					{
+						outLine += refBase + "\t" + varBases + "\t";
+						outLine += allConsensusCall + "\t" + strandFilterStatus + "\t";
+						outLine += samplesRef + "\t" + samplesHet + "\t" + samplesHom + "\t" + samplesUncalled + "\t";
+						outLine += callResults;
+					}
+
+					output.append(outLine).append(NEWLINE);
+
+					if(variantFlag)
+						counts.numVariantsReported++;
+					if(snpFlag)
+						counts.numSNPsReported++;
+					if(indelFlag)
+						counts.numIndelsReported++;
+				}
+
+			}
+			else
+			{
+				if(in.isUncovered())
+				{
+					// A pileup line with 0x coverage, so ignore
+				}
+				else
+				{
+					return("Warning: Line ignored: Invalid format for pileup at line " + in.getLineNumber() + "\n" + in.getLine() + "\n");
+				}
+
+			}
+		}
+		catch(Exception e)
+		{
+			return("Parsing Exception on line:\n" + in.getLine() + "\n" + e.getLocalizedMessage());
+		}
+
+		return(null);
+	}
+
+
+	/**
+	 * Output and counts from the lines of one block, and the error that stopped it if any
+	 */
+	static class CallBlock
+	{
+		final CallCounts counts = new CallCounts();
+		final StringBuilder output = new StringBuilder();
+		String error = null;
+	}
+
+
+	/**
+	 * Counts of positions parsed, called, and reported
+	 */
+	static class CallCounts
+	{
+		long numBases = 0;
+		long numVariantPositions = 0;
+		long numSNPpositions = 0;
+		long numIndelPositions = 0;
+		long numFailStrandFilter = 0;
+		long numVariantsReported = 0;
+		long numSNPsReported = 0;
+		long numIndelsReported = 0;
+
+		void add(CallCounts other)
+		{
+			numBases += other.numBases;
+			numVariantPositions += other.numVariantPositions;
+			numSNPpositions += other.numSNPpositions;
+			numIndelPositions += other.numIndelPositions;
+			numFailStrandFilter += other.numFailStrandFilter;
+			numVariantsReported += other.numVariantsReported;
+			numSNPsReported += other.numSNPsReported;
+			numIndelsReported += other.numIndelsReported;
+		}
 	}
 }
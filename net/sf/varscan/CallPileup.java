@@ -34,7 +34,10 @@ public class CallPileup {
 		"\t--min-var-freq\tMinimum variant allele frequency threshold [0.01]\n" +
 		"\t--min-freq-for-hom\tMinimum frequency to call homozygote [0.75]\n" +
 		"\t--p-value\tDefault p-value threshold for calling variants [99e-02]\n" +
-		"\t--variants\tReport only variant (SNP/indel) positions [0]";
+		"\t--variants\tReport only variant (SNP/indel) positions [0]\n" +
+		"\t--pvalue-table-depth\tPrecompute p-values for depths up to this cap, e.g. 5000 [0]\n" +
+		"\t--pvalue-table-file\tCache file to load the p-value table from, or save it to\n" +
+		"\t--fisher-approx-margin\tUse a normal approximation for significance tests whose margins all reach this, with exact tests near thresholds [0]";
 
 		// Set parameter defaults //
 
@@ -83,6 +86,9 @@ public class CallPileup {
 			 System.err.println("Min var freq:\t" + minVarFreq);
 			 System.err.println("Min avg qual:\t" + minAvgQual);
 			 System.err.println("P-value thresh:\t" + pValueThreshold);
+
+			VarScan.loadBaselineTable(params);
+			VarScan.setApproximation(params);
 		}
 		catch(Exception e)
 		{
@@ -134,31 +140,9 @@ public class CallPileup {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-		    		System.err.println("Exception while trying to get input" + e.getMessage());
-		    		System.exit(1);
-		    	}
-	    	}
-
 	    	// Proceed if input stream is ready //
 
-	    	if(in != null && in.ready())
+	    	if(in != null && VarScan.hasInput(in))
 	    	{
 	    		// Print a file header //
 	    		if(!params.containsKey("no-headers"))
@@ -231,21 +215,19 @@ public class CallPileup {
 
 		    	        		// Build brief pileup string //
 
-		    	        		HashMap<String, String> readCounts = VarScan.getReadCounts(refBase, readBases, readQualities, minAvgQual, mapQualities);
+		    	        		AlleleCounts readCounts = VarScan.getReadCounts(refBase, readBases, readQualities, minAvgQual, mapQualities);
 
-		    	        		String positionCall = VarScan.callPosition(refBase, readCounts, callType, minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
+		    	        		PositionCall positionCall = VarScan.callPosition(refBase, readCounts, callType, minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
 
-		    	        		if(positionCall.length() > 0)
+		    	        		if(positionCall != null)
 		    	        		{
 	    	        				numCalled++;
-		    	        			String[] callLines = positionCall.split("\n");
 
-		    	        			// Go thru each line in resulting call list //
-		    	        			for(int lineCounter = 0; lineCounter < callLines.length; lineCounter++)
+		    	        			// Go thru each call made at this position //
+		    	        			for(PositionCall call = positionCall; call != null; call = call.next)
 		    	        			{
 		    	        				// Determine type of call that was made //
-		    	        				String[] callContents = callLines[lineCounter].split("\t");
-		    	        				String consBase = callContents[0];
+		    	        				String consBase = call.genotype;
 
 		    	        				if(consBase.equals(refBase))
 		    	        				{
@@ -267,7 +249,7 @@ public class CallPileup {
 		    	        				}
 		    	        				else
 		    	        				{
-		    	        					System.out.println(refName + "\t" + position + "\t" + refBase + "\t" + callLines[lineCounter]);
+		    	        					System.out.println(refName + "\t" + position + "\t" + refBase + "\t" + call);
 		    	        				}
 		    	        			}
 		    	        		}
@@ -0,0 +1,180 @@
+/**
+ * @(#)ContigOrder.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+
+/**
+ * The order of the contigs that sorted input follows, taken from a sequence dictionary
+ *
+ * The dictionary may be a FASTA .fai index, a Picard .dict file, or a VCF whose header has contig
+ * lines. Each contig is given an integer id in dictionary order once, so comparing two contigs is a
+ * comparison of ids. Contigs that are not in the dictionary come after those that are, in lexical
+ * order, and without a dictionary all contigs are in lexical order as VarScan has always assumed.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class ContigOrder {
+
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	private final String source;
+
+
+	/**
+	 * Constructor for lexical order, when there is no dictionary
+	 */
+	public ContigOrder()
+	{
+		this.source = null;
+	}
+
+
+	/**
+	 * Constructor that reads a sequence dictionary
+	 *
+	 * @param	file	A .fai, .dict, or VCF file, which may be compressed
+	 */
+	public ContigOrder(File file) throws IOException
+	{
+		this.source = file.getPath();
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(BgzfInputStream.open(file)));
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				if(line.startsWith("#CHROM"))
+				{
+					// The VCF header is over //
+					break;
+				}
+				else if(line.startsWith("##contig=<"))
+				{
+					for(String field : line.substring(10).replace(">", "").split(","))
+					{
+						if(field.startsWith("ID="))
+							addContig(field.substring(3));
+					}
+				}
+				else if(line.startsWith("@SQ\t"))
+				{
+					for(String field : line.split("\t"))
+					{
+						if(field.startsWith("SN:"))
+							addContig(field.substring(3));
+					}
+				}
+				else if(line.length() > 0 && !line.startsWith("#") && !line.startsWith("@"))
+				{
+					// A .fai line, whose first column is the name //
+					String[] fields = line.split("\t");
+					if(fields.length < 2 || !fields[1].matches("[0-9]+"))
+						throw new IOException("Invalid line in sequence dictionary " + file.getPath() + ": " + line);
+					addContig(fields[0]);
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		if(ids.isEmpty())
+			throw new IOException("No contigs found in sequence dictionary " + file.getPath());
+	}
+
+
+	private void addContig(String name)
+	{
+		if(!ids.containsKey(name))
+			ids.put(name, ids.size());
+	}
+
+
+	/**
+	 * Returns true if the order comes from a dictionary rather than from the names
+	 */
+	boolean hasDictionary()
+	{
+		return(source != null);
+	}
+
+
+	/**
+	 * Returns the number of contigs in the dictionary
+	 */
+	int size()
+	{
+		return(ids.size());
+	}
+
+
+	/**
+	 * Returns a contig's id, its place in the dictionary, or -1 if it is not there
+	 */
+	int getId(String contig)
+	{
+		Integer id = ids.get(contig);
+		if(id == null)
+			return(-1);
+
+		return(id);
+	}
+
+
+	/**
+	 * Compares two contigs by their place in the order
+	 *
+	 * @return	Negative if contig1 comes first, 0 if they are the same, and positive if contig2 comes first
+	 */
+	int compare(String contig1, String contig2)
+	{
+		if(contig1.equals(contig2))
+			return(0);
+
+		int id1 = getId(contig1);
+		int id2 = getId(contig2);
+
+		if(id1 >= 0 && id2 >= 0)
+			return(id1 < id2 ? -1 : 1);
+		if(id1 >= 0)
+			return(-1);
+		if(id2 >= 0)
+			return(1);
+
+		return(contig1.compareTo(contig2));
+	}
+
+
+	/**
+	 * Returns true if contig1 comes before contig2, or is the same contig
+	 */
+	boolean inOrder(String contig1, String contig2)
+	{
+		return(compare(contig1, contig2) <= 0);
+	}
+
+
+	public String toString()
+	{
+		if(source == null)
+			return("lexical order");
+
+		return(source + " (" + ids.size() + " contigs)");
+	}
+
+}
@@ -179,31 +179,11 @@ public class CopyCaller {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	if(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-	    		}
-		    	catch(Exception e)
-		    	{
-
-		    	}
-	    	}
-
 
 			boolean gcWarned = false;
 	    	// If input input was provided, begin parsing it //
 
-	    	if(in.ready())
+	    	if(VarScan.hasInput(in))
 	    	{
 	    		while ((line = in.readLine()) != null)
 	    		{
@@ -367,7 +347,7 @@ public class CopyCaller {
 	    	// If input input was provided, begin parsing it //
 
 
-	    	if(in.ready())
+	    	if(VarScan.hasInput(in))
 	    	{
 	    		while ((line = in.readLine()) != null)
 	    		{
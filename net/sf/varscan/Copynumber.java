@@ -1,12 +1,10 @@
 package net.sf.varscan;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
-import java.util.Arrays;
 import java.util.HashMap;
 /**
  * A class for calling copy number variants between a tumor and a matched normal sample
@@ -22,17 +20,21 @@ public class Copynumber {
 	////////////////////////////////////////////////////////////////////////////////////////////////////
 	public Copynumber(String[] args, boolean isMpileup)
 	{
-		String usage = "USAGE: java -jar VarScan.jar copynumber [normal-tumor.mpileup] [Opt: output] OPTIONS\n" +
+		String usage = "USAGE: java -jar VarScan.jar copynumber [normal-tumor.mpileup | normal.bam tumor.bam] [Opt: output] OPTIONS\n" +
 			"\tnormal-tumor.mpileup - The SAMtools mpileup file for Normal and Tumor\n" +
+			"\tnormal.bam tumor.bam - Or the Normal and Tumor BAMs themselves, sorted by coordinate and piled up directly\n" +
 			"\toutput - Output base name for files\n" +
 			"\nOPTIONS:\n" +
 			"\t--min-base-qual - Minimum base quality to count for coverage [20]\n" +
-			"\t--min-map-qual - Minimum read mapping quality to count for coverage [20]\n" +
+			"\t--min-map-qual - Minimum read mapping quality of reads piled up from BAM input [0]\n" +
 			"\t--min-coverage - Minimum coverage threshold for copynumber segments [20]\n" +
 			"\t--min-segment-size - Minimum number of consecutive bases to report a segment [10]\n" +
 			"\t--max-segment-size - Max size before a new segment is made [100]\n" +
 			"\t--p-value - P-value threshold for significant copynumber change-point [0.01]\n" +
-			"\t--data-ratio - The normal/tumor input data ratio for copynumber adjustment [1.0]\n";
+			"\t--data-ratio - The normal/tumor input data ratio for copynumber adjustment [1.0]\n" +
+			"\t--region - Only read chrom:start-end, starting at the position using the index made by the index command\n" +
+			"\t--regions-file - Only read the intervals of a BED file; BAM input, read from each interval using .bai indexes if present\n" +
+			"\t--reference - Indexed FASTA reference, needed for BAM input\n";
 
 		if(args.length < 2)
 		{
@@ -49,9 +51,19 @@ public class Copynumber {
 
 		String outputName = "output";
 
-		if(args.length >= 3 && !args[2].startsWith("-"))
+		// The output name follows the input, which may be a normal and a tumor BAM //
+		int numBams = VarScan.getBamFiles(args).size();
+		int outputIndex = 1 + Math.max(1, numBams);
+
+		if(numBams == 1 || numBams > 2)
+		{
+			System.err.println("ERROR: BAM input needs a normal BAM and a tumor BAM\n" + usage);
+			System.exit(10);
+		}
+
+		if(args.length > outputIndex && !args[outputIndex].startsWith("-"))
 		{
-			outputName = args[2];
+			outputName = args[outputIndex];
 		}
 
 		//	Set parameter defaults //
@@ -121,8 +133,7 @@ public class Copynumber {
 	    {
 	    	// Declare file-parsing variables //
 
-	    	BufferedReader in = VarScan.getInfile(args);
-	    	String line;
+	    	PileupSource in = VarScan.getPileupSource(args);
 
 	    	// If no input, print usage //
 
@@ -132,31 +143,9 @@ public class Copynumber {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-		    		System.err.println("Exception while trying to get input" + e.getMessage());
-		    		System.exit(1);
-		    	}
-	    	}
-
 	    	// Proceed if input stream is ready //
 
-	    	if(in != null && in.ready())
+	    	if(in != null && in.hasInput())
 	    	{
 				// Declare output file //
 		 	 	PrintStream outCopySegments = null; // declare a print stream object for copynumber segments
@@ -197,42 +186,33 @@ public class Copynumber {
 
 	    		// Parse the infile line by line //
 
-	    		while ((line = in.readLine()) != null)
+	    		while (in.next())
 	    		{
 
 	    			// Begin try-catch for line parsing //
 
 	    			try
 	    			{
-	    				String[] lineContents = line.split("\t");
-
 	    				// Verify expected pileup format //
 
-	    				if(lineContents.length > 5 && lineContents[0].length() > 0 && lineContents[1].length() > 0 && lineContents[2].length() > 0 && lineContents[3].length() > 0)
+	    				if(in.hasPosition())
 	    				{
 	    					sharedPositions++;
 
 	    					// Parse common fields from line //
-	    					String refName = lineContents[0];
-	    					int position = Integer.parseInt(lineContents[1]);
-	    					refBase = lineContents[2].toUpperCase();
+	    					String refName = in.getChrom();
+	    					int position = in.getPosition();
+	    					refBase = in.getRefBase();
 
 	    					chromNormal = refName;
 	    					chromTumor = refName;
 	    					posNormal = position;
 	    					posTumor = position;
 
-	    					// Parse normal, which should be first sample //
-	    					int normalOffset = 3;
-	    					int pileupDepthNormal = Integer.parseInt(lineContents[normalOffset]);
-		    	        	//String normalBases = lineContents[normalOffset + 1];
-		    	        	String normalQualities = lineContents[normalOffset + 2];
-
-	    					// Parse tumor, which should be second sample //
-	    					int tumorOffset = 6;
-	    					int pileupDepthTumor = Integer.parseInt(lineContents[tumorOffset]);
-		    	        	//String tumorBases = lineContents[tumorOffset + 1];
-		    	        	String tumorQualities = lineContents[tumorOffset + 2];
+	    					// Normal should be the first sample, and tumor the second //
+	    					PileupSample normal = in.getSample(0);
+	    					PileupSample tumor = in.getSample(1);
+	    					int pileupDepthNormal = normal.getDepth();
 
 
 		    	        	// If either sample met the minimum coverage and both had at least one read //
@@ -240,15 +220,13 @@ public class Copynumber {
 //		    	        	if((pileupDepthNormal >= minCoverage || pileupDepthTumor >= minCoverage) && normalQualities.length() > 0)// && tumorQualities.length() > 0)
 
 		    	        	// We want the normal sample to meet the minimum coverage because that's the comparator //
-		    	        	if(pileupDepthNormal >= minCoverage && normalQualities.length() > 0)// && tumorQualities.length() > 0)
+		    	        	if(pileupDepthNormal >= minCoverage && normal.hasQualities())// && tumor.hasQualities())
 	    					{
 	    						comparedPositions++;
 	    						// Get the depth of bases above minimum quality //
 
-	    	    				int normalDepth = VarScan.qualityDepth(normalQualities, minBaseQual);
-	    	    				int tumorDepth = 0;
-	    	    				if(tumorQualities.length() > 0)
-	    	    					tumorDepth = VarScan.qualityDepth(tumorQualities, minBaseQual);
+	    	    				int normalDepth = normal.getQualityDepth(minBaseQual);
+	    	    				int tumorDepth = tumor.getQualityDepth(minBaseQual);
 
 	    	    				// Determine if we have a copy changepoint //
 	    	    				// If this base is not contiguous with the copyRegion
@@ -374,13 +352,13 @@ public class Copynumber {
 	    				}
 	    				else
 	    				{
-	    					System.err.println("Error: Invalid format or not enough samples in mpileup: " + line + "\n");
+	    					System.err.println("Error: Invalid format or not enough samples in mpileup: " + in.getLine() + "\n");
 	    					return;
 	    				}
 	    			}
 	    			catch(Exception e)
 	    		    {
-	    		    	System.err.println("Parsing Exception on line:\n" + line + "\n" + e.getLocalizedMessage());
+	    		    	System.err.println("Parsing Exception on line:\n" + in.getLine() + "\n" + e.getLocalizedMessage());
 	    				numParsingExceptions++;
 	    				if(numParsingExceptions >= 5)
 	    				{
@@ -413,6 +391,8 @@ public class Copynumber {
 			    System.err.println(comparedPositions + " had sufficient coverage for comparison"); //stats.get("comparedPositions")
 			    System.err.println(rawCopySegments + " raw copynumber segments with size > " + minSegmentSize);
 			    System.err.println(goodCopySegments + " good copynumber segments with depth > " + minCoverage);
+			    if(params.containsKey("verbose"))
+			    	System.err.println("P-value cache: " + VarScan.significanceCache);
 
 	    	}
 	    	else
@@ -452,7 +432,8 @@ public class Copynumber {
 			"\t--min-segment-size - Minimum number of consecutive bases to report a segment [10]\n" +
 			"\t--max-segment-size - Max size before a new segment is made [100]\n" +
 			"\t--p-value - P-value threshold for significant copynumber change-point [0.01]\n" +
-			"\t--data-ratio - The normal/tumor input data ratio for copynumber adjustment [1.0]\n";
+			"\t--data-ratio - The normal/tumor input data ratio for copynumber adjustment [1.0]\n" +
+			"\t--sequence-dictionary - .fai, .dict or VCF file listing the contigs in the order the pileups are sorted [lexical order]\n";
 
 		if(args.length < 3)
 		{
@@ -486,6 +467,12 @@ public class Copynumber {
 		// Parse command-line parameters //
 		HashMap<String, String> params = VarScan.getParams(args);
 
+		if(params.containsKey("region"))
+		{
+			System.err.println("Error: --region needs a single indexed mpileup input (--mpileup 1), not separate normal and tumor pileups");
+			System.exit(1);
+		}
+
 		// Try adjusting any provided parameters based on user inut //
 		try
 		{
@@ -555,47 +542,20 @@ public class Copynumber {
 
 	 		// Prepare file readers for normal and tumor pileups //
 
-	 		BufferedReader normal = new BufferedReader(new FileReader(normalPileupFile));
-		    BufferedReader tumor = new BufferedReader(new FileReader(tumorPileupFile));
-
-		    if(!(normal.ready() && tumor.ready()))
-		    {
-		    	// Delay a few seconds to let SAMtools pileup start outputting //
-		    	try {
-			    	Thread.sleep(5000);
-
-			    	if(!(normal.ready() && tumor.ready()))
-			    		Thread.sleep(5000);
-
-			    	if(!(normal.ready() && tumor.ready()))
-			    		Thread.sleep(5000);
-
-			    	if(!(normal.ready() && tumor.ready()))
-			    		Thread.sleep(5000);
-		    	}
-		    	catch(Exception e)
-		    	{
+	 		PileupLineReader normalPileup = new PileupLineReader(new File(normalPileupFile));
+		    PileupLineReader tumorPileup = new PileupLineReader(new File(tumorPileupFile));
 
-		    	}
+		    // Reading waits for the pileups to start, as when they come from a running samtools //
 
-		    }
-
-		    // Exit if files not ready after waiting //
-
-		    if(!(normal.ready() && tumor.ready()))
+		    if(!(normalPileup.hasInput() && tumorPileup.hasInput()))
 		    {
 		    	System.err.println("ERROR: Invalid input file(s)");
 		    	System.exit(10);
 		    }
 
-		    String lineNormal;
-		    String lineTumor;
-		    String chromNormal = "";
+		    ContigOrder contigOrder = VarScan.getContigOrder(params);
 		    String chromTumor = "";
-		    String prevChromNormal = "";
-		    String prevChromTumor = "";
 		    String refBase = "";
-		    int posNormal = 0;
 		    int posTumor = 0;
 
 		    // Parameters for copy number calling //
@@ -613,350 +573,165 @@ public class Copynumber {
 		    DecimalFormat threeDigits = new DecimalFormat("#0.000");
 
 
-		    // Get first line of Normal //
+		    // Loop through the positions found in both pileups, reading each file once //
 
-		    if((lineNormal = normal.readLine()) != null)
-		    {
-		    	String[] normalContents = lineNormal.split("\t");
+		    PileupMerge merge = new PileupMerge(normalPileup, normalPileupFile, tumorPileup, tumorPileupFile, contigOrder);
 
-		    	if(normalContents.length > 1)
-		    	{
-			    	chromNormal = normalContents[0];
-			    	posNormal = Integer.parseInt(normalContents[1]);
-		    	}
-		    }
+	    	while(merge.next())
+	    	{
+	    		PileupLineReader normalLine = merge.getNormal();
+	    		PileupLineReader tumorLine = merge.getTumor();
+	    		chromTumor = merge.getContig();
+	    		posTumor = merge.getPosition();
 
-		    // Loop through lines in tumor //
+		    	//stats.put("sharedPositions", (stats.get("sharedPositions") + 1));
+		    	sharedPositions++;
+		    	refBase = tumorLine.getColumnString(2);
 
-	    	while ((lineTumor = tumor.readLine()) != null)
-	    	{
-	    		tumorPositions++;
-	    		String[] tumorContents = lineTumor.split("\t");
-
-		    	if(tumorContents.length > 1)
-		    	{
-			    	chromTumor = tumorContents[0];
-			    	posTumor = Integer.parseInt(tumorContents[1]);
-		    	}
-
-		    	// Parse normal lines until we get the same chromosome //
-		    	boolean flagEOF = false;
-		    	boolean normalWasReset = false;
-
-		    	//	Advance in normal file if tumor is changed but normal is not, or if tumor is higher //
-		    	while(!chromNormal.equals(chromTumor) && !chromTumor.equals(prevChromTumor) && !flagEOF && (chromNormal.equals(prevChromTumor) || inSortOrder(chromNormal, chromTumor)))
-		    	{
-		    		//System.err.println("Normal (" + chromNormal + ") catching up to " + chromTumor);
-		    		// Get next line from normal pileup //
-		    		if((lineNormal = normal.readLine()) != null)
-		    		{
-		    			String[] normalContents = lineNormal.split("\t");
-
-				    	if(normalContents.length > 1)
-				    	{
-					    	chromNormal = normalContents[0];
-					    	posNormal = Integer.parseInt(normalContents[1]);
-				    	}
-		    		}
-		    		else
-		    		{
-		    			flagEOF = true;
-		    		}
-
-
-		    	}
-
-		    	// If chromosomes match and are non-blank, attempt to get matching positions //
-		    	if(chromNormal.equals(chromTumor) && !chromNormal.equals(""))
-		    	{
-		    		normalWasReset = false;
-		    		// Seek to matching Normal Position //
-
-		    		while(chromNormal.equals(chromTumor) && posNormal < posTumor && ((lineNormal = normal.readLine()) != null))
-		    		{
-		    			String[] normalContents = lineNormal.split("\t");
-				    	if(normalContents.length > 1)
-				    	{
-					    	chromNormal = normalContents[0];
-					    	posNormal = Integer.parseInt(normalContents[1]);
-
-					    	// If still less than tumor position, look for homozygous del //
-					    	if(posNormal < posTumor)
-					    	{
-					    		int pileupDepthNormal = 0;
-					    		String normalQualities = "";
-
-			    				// Pileup Files have 6-7 columns //
-		    					if(normalContents.length <= 7)
-		    					{
-		    						pileupDepthNormal = Integer.parseInt(normalContents[3]);
-		    						normalQualities = normalContents[5];
-		    					}
-		    					// Pileup lines in CNS files have 10-11 columns
-		    					else if (normalContents.length >= 10 && normalContents.length <= 11)
-		    					{
-		    						pileupDepthNormal = Integer.parseInt(normalContents[7]);
-		    						normalQualities = normalContents[9];
-		    					}
+	    		// Each line may be a pileup line or a CNS line //
+	    		PileupSample normal = normalLine.getLineSample();
+	    		PileupSample tumor = tumorLine.getLineSample();
+	    		int pileupDepthNormal = normal.getDepth();
 
-					    	}
-					    	else
-					    	{
-
-					    	}
-				    	}
-		    		}
-
-		    		// Seek to matching Tumor Position //
-
-		    		while(chromNormal.equals(chromTumor) && posTumor < posNormal && ((lineTumor = tumor.readLine()) != null))
-		    		{
-		    			tumorContents = lineTumor.split("\t");
-				    	if(tumorContents.length > 1)
-				    	{
-					    	chromTumor = tumorContents[0];
-					    	posTumor = Integer.parseInt(tumorContents[1]);
-				    	}
-		    		}
-
-		    		// Proceed if normal and tumor positions match //
-
-		    		if(chromNormal.equals(chromTumor) && chromNormal.equals(chromTumor) && posNormal == posTumor)
-		    		{
-		    			//stats.put("sharedPositions", (stats.get("sharedPositions") + 1));
-		    			sharedPositions++;
-		    			refBase = tumorContents[2];
-
-//		    			 Parse out base qualities //
-	    				String[] normalContents = lineNormal.split("\t");
-	    				int pileupDepthNormal = 0;
-	    				int pileupDepthTumor = 0;
-	    				String normalQualities = "";
-	    				String tumorQualities = "";
-
-	    				// Pileup Files have 6-7 columns //
-    					if(normalContents.length >= 6 && normalContents.length <= 7)
-    					{
-    						pileupDepthNormal = Integer.parseInt(normalContents[3]);
-    						normalQualities = normalContents[5];
-    					}
-    					// Pileup lines in CNS files have 10-11 columns
-    					else if (normalContents.length >= 10 && normalContents.length <= 11)
-    					{
-    						pileupDepthNormal = Integer.parseInt(normalContents[7]);
-    						normalQualities = normalContents[9];
-    					}
-
-	    				// Pileup Files have 6-7 columns //
-    					if(tumorContents.length >= 6 && tumorContents.length <= 7)
-    					{
-    						tumorQualities = tumorContents[5];
-    						pileupDepthTumor = Integer.parseInt(tumorContents[3]);
-    					}
-    					// Pileup lines in CNS files have 10-11 columns
-    					else if (tumorContents.length >= 10 && tumorContents.length <= 11)
-    					{
-    						tumorQualities = tumorContents[9];
-    						pileupDepthTumor = Integer.parseInt(tumorContents[7]);
-    					}
-
-    					// If either sample met the minimum coverage and both had at least one read //
+    			// If either sample met the minimum coverage and both had at least one read //
 
 //    					if((pileupDepthNormal >= minCoverage || pileupDepthTumor >= minCoverage) && normalQualities.length() > 0 && tumorQualities.length() > 0)
 
-    					// We want the normal sample to meet the minimum coverage because that's the comparator //
-    					if(pileupDepthNormal >= minCoverage && normalQualities.length() > 0) // && tumorQualities.length() > 0)
-    					{
-    						comparedPositions++;
+    			// We want the normal sample to meet the minimum coverage because that's the comparator //
+    			if(pileupDepthNormal >= minCoverage && normal.hasQualities()) // && tumor.hasQualities())
+    			{
+    				comparedPositions++;
 //    						 Get the depth of bases above minimum quality //
 
-    	    				int normalDepth = VarScan.qualityDepth(normalQualities, minBaseQual);
-    	    				int tumorDepth = VarScan.qualityDepth(tumorQualities, minBaseQual);
-
-    	    				// Determine if we have a copy changepoint //
-    	    				// If this base is not contiguous with the copyRegion
-    	    				// If the normal or tumor depth changes //
-
-    	    				int diffNormal = Math.abs(copyDepthNormal - normalDepth);
-    	    				int diffTumor = Math.abs(copyDepthTumor - tumorDepth);
-    	    				int posDiff = posTumor - copyStop;
-
-    	    				// DETERMINE IF WE CONTINUE THIS REGION OR PROCESS IT AND START A NEW ONE //
-
-    	    				boolean continueFlag = false;
-
-    	    				// If chromosomes differ or contiguity broken, process the region //
-
-    	    				if(posDiff > 2 || !(copyChrom.equals(chromTumor)))
-    	    				{
-    	    					continueFlag = false;
-    	    				}
-    	    				else
-    	    				{
-    	    					if(copyPositions >= maxSegmentSize)
-    	    					{
-    	    						continueFlag = false;
-    	    					}
-    	    					else if(diffNormal <= 2 && diffTumor <= 2)
-    	    					{
-    	    						continueFlag = true;
-    	    					}
-    	    					else
-    	    					{
-    	    						// Do a Fisher's exact test on the copy number changes. ##
-
-        	    					double changePvalue = VarScan.getSignificance(copyDepthNormal, copyDepthTumor, normalDepth, tumorDepth);
-
-        	    					// If depth change not significant, continue with region //
-        	    					if(changePvalue >= pValueThreshold)
-        	    					{
-        	    						continueFlag = true;
-        	    					}
-        	    					else
-        	    					{
-        	    						continueFlag = false;
-        	    					}
-
-    	    					}
-    	    				}
-
-
-    	    				// If continuing, extend this region and don't process yet //
-
-    	    				if(continueFlag)
-    	    				{
-    	    					copySumNormal += normalDepth;
-    	    					copySumTumor += tumorDepth;
-    	    					copyPositions++;
-    	    					if(refBase.equals("G") || refBase.equals("C") || refBase.equals("g") || refBase.equals("c"))
-    	    						copyPositionsGC++;
-    	    					copyStop = posTumor;
-    	    				}
-
-    	    				// Otherwise, process this region (if it qualifies) and start a new one //
-
-    	    				else
-    	    				{
-    	    					if(copyPositions >= minSegmentSize)
-    	    					{
-    	    						rawCopySegments++;
-    	    						String regionResults = processCopyRegion(copyChrom, copyStart, copyStop, copyPositions, copyPositionsGC, copySumNormal, copySumTumor, minCoverage, dataRatio);
-
-    	    						if(regionResults.length() > 0)
-    	    						{
-    	    							outCopySegments.println(regionResults);
-    	    							goodCopySegments++;
-    	    						}
-    	    					}
-
-    	    					// Start a new copyNumber region //
-    	    					copyChrom = chromTumor;
-    	    					copyStart = posTumor;
-    	    					copyStop = posTumor;
-    	    					copyDepthNormal = normalDepth;
-    	    					copyDepthTumor = tumorDepth;
-    	    					copySumNormal = normalDepth;
-    	    					copySumTumor = tumorDepth;
-    	    					copyPositions = 1;
-    	    					if(refBase.equals("G") || refBase.equals("C") || refBase.equals("g") || refBase.equals("c"))
-    	    						copyPositionsGC = 1;
-    	    					else
-    	    						copyPositionsGC = 0;
-    	    				}
-
-
-    					}
-    					else
-    					{
-    						// If minimum coverage was not met, print region //
-	    					// If we had a copyNumber region that met minimum coverage, report it //
-	    					if(copyPositions >= minSegmentSize)
-	    					{
-	    						rawCopySegments++;
-	    						String regionResults = processCopyRegion(copyChrom, copyStart, copyStop, copyPositions, copyPositionsGC, copySumNormal, copySumTumor, minCoverage, dataRatio);
-
-	    						if(regionResults.length() > 0)
-	    						{
-	    							outCopySegments.println(regionResults);
-	    							goodCopySegments++;
-	    						}
-	    					}
+        				int normalDepth = normal.getQualityDepth(minBaseQual);
+        				int tumorDepth = tumor.getQualityDepth(minBaseQual);
+
+        				// Determine if we have a copy changepoint //
+        				// If this base is not contiguous with the copyRegion
+        				// If the normal or tumor depth changes //
+
+        				int diffNormal = Math.abs(copyDepthNormal - normalDepth);
+        				int diffTumor = Math.abs(copyDepthTumor - tumorDepth);
+        				int posDiff = posTumor - copyStop;
+
+        				// DETERMINE IF WE CONTINUE THIS REGION OR PROCESS IT AND START A NEW ONE //
+
+        				boolean continueFlag = false;
+
+        				// If chromosomes differ or contiguity broken, process the region //
+
+        				if(posDiff > 2 || !(copyChrom.equals(chromTumor)))
+        				{
+        					continueFlag = false;
+        				}
+        				else
+        				{
+        					if(copyPositions >= maxSegmentSize)
+        					{
+        						continueFlag = false;
+        					}
+        					else if(diffNormal <= 2 && diffTumor <= 2)
+        					{
+        						continueFlag = true;
+        					}
+        					else
+        					{
+        						// Do a Fisher's exact test on the copy number changes. ##
+
+            					double changePvalue = VarScan.getSignificance(copyDepthNormal, copyDepthTumor, normalDepth, tumorDepth);
+
+            					// If depth change not significant, continue with region //
+            					if(changePvalue >= pValueThreshold)
+            					{
+            						continueFlag = true;
+            					}
+            					else
+            					{
+            						continueFlag = false;
+            					}
+
+        					}
+        				}
+
+
+        				// If continuing, extend this region and don't process yet //
+
+        				if(continueFlag)
+        				{
+        					copySumNormal += normalDepth;
+        					copySumTumor += tumorDepth;
+        					copyPositions++;
+        					if(refBase.equals("G") || refBase.equals("C") || refBase.equals("g") || refBase.equals("c"))
+        						copyPositionsGC++;
+        					copyStop = posTumor;
+        				}
+
+        				// Otherwise, process this region (if it qualifies) and start a new one //
+
+        				else
+        				{
+        					if(copyPositions >= minSegmentSize)
+        					{
+        						rawCopySegments++;
+        						String regionResults = processCopyRegion(copyChrom, copyStart, copyStop, copyPositions, copyPositionsGC, copySumNormal, copySumTumor, minCoverage, dataRatio);
+
+        						if(regionResults.length() > 0)
+        						{
+        							outCopySegments.println(regionResults);
+        							goodCopySegments++;
+        						}
+        					}
+
+        					// Start a new copyNumber region //
+        					copyChrom = chromTumor;
+        					copyStart = posTumor;
+        					copyStop = posTumor;
+        					copyDepthNormal = normalDepth;
+        					copyDepthTumor = tumorDepth;
+        					copySumNormal = normalDepth;
+        					copySumTumor = tumorDepth;
+        					copyPositions = 1;
+        					if(refBase.equals("G") || refBase.equals("C") || refBase.equals("g") || refBase.equals("c"))
+        						copyPositionsGC = 1;
+        					else
+        						copyPositionsGC = 0;
+        				}
 
-	    					// Reset the copyNumber region //
-	    					copyChrom = "";
-	    					copyStart = 0;
-	    					copyStop = 0;
-	    					copyDepthNormal = 0;
-	    					copyDepthTumor = 0;
-	    					copySumNormal = 0;
-	    					copySumTumor = 0;
-	    					copyPositions = 0;
-	    					copyPositionsGC = 0;
-    					}
-
-	    				// Record this chromosome //
-
-				    	prevChromNormal = chromNormal;
-				    	prevChromTumor = chromTumor;
-		    		}
-		    		else
-		    		{
-		    			//System.err.println("Failed to match positions " + chromNormal + " " + posNormal + " to Tumor " + chromTumor + " " + posTumor);
-		    		}
-		    	}
-		    	// If they're in sort order, do nothing so that tumor can catch up //
-		    	else if(inSortOrder(chromNormal, chromTumor))
-		    	{
-		    		System.err.println("Not resetting normal file because " + chromNormal + " < " + chromTumor);
-		    	}
-		    	// If we reached the end of the normal file but never saw this chromosome, //
-		    	// fast-forward until tumor chromosome changes and reset normal file //
-		    	else if(flagEOF)
-		    	{
-		    		flagEOF = false;
-
-		    		while(prevChromTumor.equals(chromTumor) && !flagEOF)
-		    		{
-		    			if((lineTumor = tumor.readLine()) != null)
-		    			{
-			    			tumorContents = lineTumor.split("\t");
-
-					    	if(tumorContents.length > 1)
-					    	{
-						    	chromTumor = tumorContents[0];
-						    	posTumor = Integer.parseInt(tumorContents[1]);
-					    	}
-		    			}
-		    			else
-		    			{
-		    				flagEOF = true;
-		    			}
-		    		}
-
-		    		// Reset the normal file if we've already passed this chromosome in normal //
-
-		    		if(!flagEOF && !normalWasReset)
-		    		{
-		    			if(inSortOrder(chromNormal, chromTumor))
-		    			{
-		    				System.err.println("Not resetting normal file because " + chromNormal + " < " + chromTumor);
-		    			}
-		    			else
-		    			{
-		    				System.err.println("Resetting normal file because " + chromNormal + " > " + chromTumor);
-				    		normalWasReset = true;
-			    			normal.close();
-				    		normal = new BufferedReader(new FileReader(normalPileupFile));
-		    			}
-
-		    		}
-		    	}
 
-	    	}
+    			}
+    			else
+    			{
+    				// If minimum coverage was not met, print region //
+	    			// If we had a copyNumber region that met minimum coverage, report it //
+	    			if(copyPositions >= minSegmentSize)
+	    			{
+	    				rawCopySegments++;
+	    				String regionResults = processCopyRegion(copyChrom, copyStart, copyStop, copyPositions, copyPositionsGC, copySumNormal, copySumTumor, minCoverage, dataRatio);
 
+	    				if(regionResults.length() > 0)
+	    				{
+	    					outCopySegments.println(regionResults);
+	    					goodCopySegments++;
+	    				}
+	    			}
+
+	    			// Reset the copyNumber region //
+	    			copyChrom = "";
+	    			copyStart = 0;
+	    			copyStop = 0;
+	    			copyDepthNormal = 0;
+	    			copyDepthTumor = 0;
+	    			copySumNormal = 0;
+	    			copySumTumor = 0;
+	    			copyPositions = 0;
+	    			copyPositionsGC = 0;
+    			}
 
-		    normal.close();
-		    tumor.close();
+	    		// Record this chromosome //
+	    	}
+
+		    tumorPositions = merge.getTumorPositions();
+		    merge.close();
 
 			// If we had a copyNumber region that met minimum coverage, report it //
 			if(copyPositions > minSegmentSize)
@@ -980,6 +755,13 @@ public class Copynumber {
 
 		    System.err.println(rawCopySegments + " raw copynumber segments with size > " + minSegmentSize);
 		    System.err.println(goodCopySegments + " good copynumber segments with depth > " + minCoverage);
+		    if(params.containsKey("verbose"))
+		    	System.err.println("P-value cache: " + VarScan.significanceCache);
+		}
+		catch (PileupMerge.UnsortedException e)
+		{
+			System.err.println("ERROR: " + e.getLocalizedMessage());
+			System.exit(10);
 		}
 		catch (IOException e)
 		{
@@ -1048,60 +830,4 @@ public class Copynumber {
 
 		return("");
 	}
-
-
-	/**
-	 * Determine if tumor chromosome is before normal chromosome in sort order
-	 *
-	 * @param	args	Command-line arguments
-	 * @return			HashMap of parameter names and their values
-	 */
-	static boolean inSortOrder(String chrom1, String chrom2)
-	{
-		String[] testArray = {chrom1, chrom2};
-		Arrays.sort(testArray);
-
-		if(testArray[0].equals(chrom1))
-			return true;
-
-		return false;
-	}
-
-
-
-	/**
-	 * Determines the sort order for chromosomes
-	 *
-	 * @param	args	Command-line arguments
-	 * @return			HashMap of parameter names and their values
-	 */
-	static Boolean chromSorted(String chrom1, String chrom2)
-	{
-		Boolean answer = false;
-
-		chrom1.replace("X", "23");
-		chrom1.replace("Y", "24");
-		chrom1.replace("M", "25");
-
-		chrom2.replace("X", "23");
-		chrom2.replace("Y", "24");
-		chrom2.replace("M", "25");
-
-		String[] unsorted = {chrom1, chrom2};
-		String[] sorted = {chrom1, chrom2};
-		Arrays.sort(sorted);
-		System.err.println("Sorted order is " + sorted[0] + " " + sorted[1]);
-		try{
-			if(sorted[0].equals(unsorted[0]))
-			{
-				answer = true;
-			}
-		}
-		catch(Exception e)
-		{
-
-		}
-
-		return(answer);
-	}
 }
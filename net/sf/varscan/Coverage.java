@@ -35,7 +35,8 @@ public class Coverage {
 		"\tOPTIONS:\n" +
 		"\t--regions-file\tTab-delimited file of regions of interest (required)\n" +
 		"\t--min-base-qual\tMinimum base quality [20]\n" +
-		"\t--output-file\tOutput file for coverage report";
+		"\t--output-file\tOutput file for coverage report\n" +
+		"\t--region\tOnly read chrom:start-end, starting at the position using the index made by the index command";
 
 		// Set default parameters //
 
@@ -94,7 +95,7 @@ public class Coverage {
 
 	    	// Declare file-parsing variables //
 
-	    	BufferedReader in = VarScan.getInfile(args);
+	    	PileupLineReader in = VarScan.getPileupReader(args);
 
 	    	// If no input, print usage //
 
@@ -104,27 +105,6 @@ public class Coverage {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 10)
-			    	{
-			    		System.err.println("Input file was not ready after 10 5-second cycles!");
-			    		return;
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-
-		    	}
-	    	}
-
 	    	// Declare an array to count positions at each depth from 0 to max depth //
 
     	    long[] positionsByDepth = new long[maxDepth + 1];
@@ -133,15 +113,14 @@ public class Coverage {
 
     	    // Prepare to parse the SAM input //
 
-			String line;
 			int lineCounter = 0;
 			int numParsingExceptions = 0;
 
-	    	if(in != null && in.ready())
+	    	if(in != null && in.hasInput())
 	    	{
 	    		// Parse the infile line by line //
 
-	    		while ((line = in.readLine()) != null)
+	    		while (in.next())
 	    		{
 	    			lineCounter++;//stats.put("numBases", (stats.get("numBases") + 1));
 
@@ -153,14 +132,12 @@ public class Coverage {
 
 	    			try
 	    			{
-	    				String[] lineContents = line.split("\t");
-
 	    				// Verify expected pileup format //
 
-	    				if(lineContents.length > 5 && lineContents[0].length() > 0 && lineContents[1].length() > 0 && lineContents[2].length() > 0 && lineContents[3].length() > 0)
+	    				if(in.getNumColumnsTrimmed() > 5 && in.getColumnLength(0) > 0 && in.getColumnLength(1) > 0 && in.getColumnLength(2) > 0 && in.getColumnLength(3) > 0)
 	    				{
-	    					String refName = lineContents[0];
-		    	        	int position = Integer.parseInt(lineContents[1]);
+	    					String refName = in.getColumnString(0);
+		    	        	int position = in.getColumnInt(1);
 
 		    				// Declare a BitSet //
 		    				BitSet refPositions;
@@ -190,12 +167,8 @@ public class Coverage {
 
 		    					try {
 		    						// Parse out the depth and base qualities //
-				    	        	int readDepth = Integer.parseInt(lineContents[3]);
-				    	        	String readQualities = lineContents[5];
-
-				    	        	String mapQualities = "";
-				    	        	if(lineContents.length > 6)			// Get Map Qualities if available //
-				    	        		mapQualities = lineContents[6];
+				    	        	int readDepth = in.getColumnInt(3);
+				    	        	CharSequence readQualities = in.getColumn(5);
 
 				    	        	int qualDepth = VarScan.qualityDepth(readQualities, minBaseQual);
 
@@ -219,13 +192,13 @@ public class Coverage {
 	    				}
 	    				else
 	    				{
-	    					System.err.println("Error: Invalid format for pileup at line " + lineCounter + ":" + line + "\n");
+	    					System.err.println("Error: Invalid format for pileup at line " + lineCounter + ":" + in.getLine() + "\n");
 	    					return;
 	    				}
 	    			}
 	    			catch(Exception e)
 	    		    {
-	    		    	System.err.println("Parsing Exception on line:\n" + line + "\n" + e.getLocalizedMessage());
+	    		    	System.err.println("Parsing Exception on line:\n" + in.getLine() + "\n" + e.getLocalizedMessage());
 	    				numParsingExceptions++;
 	    				if(numParsingExceptions >= 5)
 	    				{
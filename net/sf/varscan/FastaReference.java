@@ -0,0 +1,207 @@
+/**
+ * @(#)FastaReference.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+/**
+ * Reference bases from a FASTA file indexed by samtools faidx
+ *
+ * The .fai index gives each sequence's offset and line layout, so any base can be read without
+ * scanning the file. Bases are read a window at a time, which suits the mostly increasing
+ * positions of a pileup. A reader is not safe to share between threads.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class FastaReference {
+
+	/** Bases read from the file at once */
+	private static final int WINDOW_SIZE = 1 << 16;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final HashMap<String, Sequence> sequences = new HashMap<String, Sequence>();
+
+	// Bases of the current window, in upper case //
+	private Sequence windowSequence = null;
+	private long windowStart = 0;
+	private int windowLength = 0;
+	private byte[] window = new byte[WINDOW_SIZE];
+	private byte[] raw = new byte[0];
+
+
+	/**
+	 * Constructor that reads a FASTA file's .fai index
+	 *
+	 * @param	file	Uncompressed FASTA file, with its index beside it
+	 */
+	public FastaReference(File file) throws IOException
+	{
+		this.file = file;
+
+		File indexFile = new File(file.getPath() + ".fai");
+		if(!indexFile.exists())
+			throw new IOException(indexFile.getPath() + " not found; index the reference with samtools faidx");
+		if(BgzfInputStream.isCompressed(file))
+			throw new IOException(file.getPath() + " is compressed; only uncompressed FASTA references can be read");
+
+		BufferedReader in = new BufferedReader(new FileReader(indexFile));
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				String[] fields = line.split("\t");
+				if(fields.length < 5)
+					throw new IOException("Invalid line in " + indexFile.getPath() + ": " + line);
+
+				Sequence sequence = new Sequence();
+				sequence.length = Long.parseLong(fields[1]);
+				sequence.offset = Long.parseLong(fields[2]);
+				sequence.lineBases = Integer.parseInt(fields[3]);
+				sequence.lineWidth = Integer.parseInt(fields[4]);
+				sequences.put(fields[0], sequence);
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IOException("Invalid number in " + indexFile.getPath() + ": " + e.getLocalizedMessage());
+		}
+		finally
+		{
+			in.close();
+		}
+
+		raf = new RandomAccessFile(file, "r");
+	}
+
+
+	File getFile()
+	{
+		return(file);
+	}
+
+
+	/**
+	 * Returns true if the reference has a sequence
+	 */
+	boolean hasSequence(String name)
+	{
+		return(sequences.containsKey(name));
+	}
+
+
+	/**
+	 * Returns the upper-case base at a position, or N if the position is not in the reference
+	 *
+	 * @param	name		Sequence name
+	 * @param	position	Position, counting from 1
+	 */
+	char getBase(String name, long position) throws IOException
+	{
+		Sequence sequence = sequences.get(name);
+		if(sequence == null || position < 1 || position > sequence.length)
+			return('N');
+
+		long index = position - 1;
+		if(sequence != windowSequence || index < windowStart || index >= windowStart + windowLength)
+			readWindow(sequence, index);
+
+		return((char) window[(int) (index - windowStart)]);
+	}
+
+
+	/**
+	 * Returns the upper-case bases at a run of positions, with N for any not in the reference
+	 *
+	 * @param	name		Sequence name
+	 * @param	position	First position, counting from 1
+	 * @param	length		Number of bases
+	 */
+	String getBases(String name, long position, int length) throws IOException
+	{
+		char[] bases = new char[length];
+		for(int i = 0; i < length; i++)
+			bases[i] = getBase(name, position + i);
+
+		return(new String(bases));
+	}
+
+
+	void close() throws IOException
+	{
+		raf.close();
+	}
+
+
+	/**
+	 * Reads the window of bases that starts at a 0-based index into a sequence
+	 */
+	private void readWindow(Sequence sequence, long start) throws IOException
+	{
+		int length = (int) Math.min(WINDOW_SIZE, sequence.length - start);
+
+		// The bases are spread over lines, so read the bytes they span and drop the line ends //
+		long first = sequence.getFileOffset(start);
+		long last = sequence.getFileOffset(start + length - 1);
+		int rawLength = (int) (last - first + 1);
+		if(raw.length < rawLength)
+			raw = new byte[rawLength];
+
+		raf.seek(first);
+		raf.readFully(raw, 0, rawLength);
+
+		int numBases = 0;
+		for(int i = 0; i < rawLength && numBases < length; i++)
+		{
+			byte b = raw[i];
+			if(b == '\n' || b == '\r')
+				continue;
+			if(b >= 'a' && b <= 'z')
+				b -= 'a' - 'A';
+			window[numBases++] = b;
+		}
+
+		if(numBases < length)
+			throw new IOException("Truncated sequence in " + file.getPath());
+
+		windowSequence = sequence;
+		windowStart = start;
+		windowLength = length;
+	}
+
+
+	/**
+	 * Where one sequence's bases are in the file, from its .fai line
+	 */
+	private static class Sequence
+	{
+		long length;
+		long offset;
+		int lineBases;
+		int lineWidth;
+
+		/**
+		 * Returns the file offset of a 0-based index into the sequence
+		 */
+		long getFileOffset(long index)
+		{
+			return(offset + (index / lineBases) * lineWidth + index % lineBases);
+		}
+	}
+
+}
@@ -158,35 +158,13 @@ public class FilterSomatic {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-		    		System.err.println("Exception while trying to get input" + e.getMessage());
-		    		System.exit(1);
-		    	}
-	    	}
-
 	    	String line;
 	    	int lineCounter = 0;
 	    	boolean isVCF = false;
 
 	    	// Proceed if input stream is ready //
 
-	    	if(in != null && in.ready())
+	    	if(in != null && VarScan.hasInput(in))
 	    	{
 	    		// Parse the infile line by line //
 
@@ -475,7 +453,7 @@ public class FilterSomatic {
     	// Proceed if input stream is ready //
     	try
     	{
-	    	if(in != null && in.ready())
+	    	if(in != null && VarScan.hasInput(in))
 	    	{
 	    		// Parse the infile line by line //
 
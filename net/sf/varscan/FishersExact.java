@@ -8,6 +8,8 @@
 
 package net.sf.varscan;
 
+import java.util.Arrays;
+
 /**
  * A statistical class for performing Fisher's exact test.
  *
@@ -26,6 +28,18 @@ package net.sf.varscan;
  */
 public class FishersExact {
     private static final boolean DEBUG = false;
+    private static final int MIN_TABLE_SIZE = 1024;
+
+    /** Tail terms are kept relative to the first one and rescaled by this factor before they can overflow */
+    private static final double RESCALE = 1.0e200;
+    private static final double LOG_RESCALE = Math.log(RESCALE);
+
+    /** Relative size below which the rest of a decreasing tail cannot change the sum */
+    private static final double NEGLIGIBLE = 1.0e-17;
+
+    /** Log-factorial table shared by every instance; only ever replaced by a longer copy */
+    private static volatile double[] logFactorials = buildLogFactorials(new double[] {0.0}, MIN_TABLE_SIZE);
+
     private double[] f;
     int maxSize;
 
@@ -37,12 +51,49 @@ public class FishersExact {
      */
     public FishersExact(int maxSize) {
         this.maxSize = maxSize;
-        double cf = 1.0;
-        f = new double[maxSize + 1];
-        f[0] = 0.0;
-        for (int i = 1; i <= this.maxSize; i++) {
+        f = getLogFactorials(maxSize);
+    }
+
+    /**
+     * Returns the shared table of log factorials, growing it if it does not reach n.
+     *
+     * The table is filled once and reused by every test in the process, so the per-test cost is only
+     * the tail summation. It grows by at least doubling, and a grown table is published as a new array,
+     * so readers never see a partly-filled one.
+     *
+     * @param n     the largest value whose log factorial is needed
+     * @return table where element i is log(i!), with length greater than n
+     */
+    static double[] getLogFactorials(int n) {
+        double[] table = logFactorials;
+        if (n < table.length) {
+            return table;
+        }
+
+        synchronized (FishersExact.class) {
+            table = logFactorials;
+            if (n >= table.length) {
+                long newLength = Math.max((long) n + 1, (long) table.length * 2);
+                table = buildLogFactorials(table, (int) Math.min(newLength, Integer.MAX_VALUE - 8));
+                logFactorials = table;
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Extends a log-factorial table to a new length, keeping the values already computed.
+     *
+     * @param table     existing table, starting with log(0!) = 0
+     * @param length    length of the new table
+     * @return the extended table
+     */
+    private static double[] buildLogFactorials(double[] table, int length) {
+        double[] f = Arrays.copyOf(table, length);
+        for (int i = table.length; i < length; i++) {
             f[i] = f[i - 1] + Math.log(i);
         }
+        return f;
     }
 
     /**
@@ -57,13 +108,7 @@ public class FishersExact {
     public final double getP(int a, int b, int c, int d) {
     	try
     	{
-	        int n = a + b + c + d;
-	        if (n > maxSize) {
-	            return Double.NaN;
-	        }
-	        double p;
-	        p = (f[a + b] + f[c + d] + f[a + c] + f[b + d]) - (f[a] + f[b] + f[c] + f[d] + f[n]);
-	        return Math.exp(p);
+	        return Math.exp(getLogP(a, b, c, d));
     	}
     	catch(Exception e)
     	{
@@ -72,6 +117,25 @@ public class FishersExact {
 
     }
 
+    /**
+     * calculates the natural log of the P-value for this specific state
+     *
+     * The log-factorial table is extended if the table sum is beyond it, so any valid table has an answer.
+     *
+     * @param a     a, b, c, d are the four (non-negative) cells in a 2x2 matrix
+     * @param b
+     * @param c
+     * @param d
+     * @return log of the P-value
+     */
+    public final double getLogP(int a, int b, int c, int d) {
+        int n = a + b + c + d;
+        if (n >= f.length) {
+            f = getLogFactorials(n);
+        }
+        return (f[a + b] + f[c + d] + f[a + c] + f[b + d]) - (f[a] + f[b] + f[c] + f[d] + f[n]);
+    }
+
     /**
      * Calculates the one-tail P-value for the Fisher Exact test.  Determines whether to calculate the right- or left-
      * tail, thereby always returning the smallest p-value.
@@ -84,10 +148,6 @@ public class FishersExact {
      */
     public final double getCumlativeP(int a, int b, int c, int d) {
         int min, i;
-        int n = a + b + c + d;
-        if (n > maxSize) {
-            return Double.NaN;
-        }
         double p = 0;
 
         p += getP(a, b, c, d);
@@ -126,22 +186,7 @@ public class FishersExact {
      * @return one-tailed P-value (right-tail)
      */
     public final double getRightTailedP(int a, int b, int c, int d) {
-        int min, i;
-        int n = a + b + c + d;
-        if (n > maxSize) {
-            return Double.NaN;
-        }
-        double p = 0;
-
-        p += getP(a, b, c, d);
-        if (DEBUG) {System.out.println("p = " + p);}
-        if (DEBUG) {System.out.println("doing R-tail: a=" + a + " b=" + b + " c=" + c + " d=" + d);}
-        min = (c < b) ? c : b;
-        for (i = 0; i < min; i++) {
-            p += getP(++a, --b, --c, ++d);
-
-        }
-        return p;
+        return getTailP(a, b, c, d, true, Double.POSITIVE_INFINITY);
     }
 
     /**
@@ -154,30 +199,259 @@ public class FishersExact {
      * @return one-tailed P-value (left-tail)
      */
     public final double getLeftTailedP(int a, int b, int c, int d) {
-        int min, i;
-        int n = a + b + c + d;
-        if (n > maxSize) {
+        return getTailP(a, b, c, d, false, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Calculates the right-tail P-value, but stops summing as soon as it exceeds a limit.
+     *
+     * The terms are added exactly as in getRightTailedP, so a result at or below the limit
+     * is the exact right-tail P-value, and a result above it means the exact value is above it too.
+     *
+     * @param a     a, b, c, d are the four cells in a 2x2 matrix
+     * @param b
+     * @param c
+     * @param d
+     * @param limit value beyond which the caller no longer needs the sum
+     * @return right-tail P-value, or a partial sum greater than limit
+     */
+    public final double getRightTailedP(int a, int b, int c, int d, double limit) {
+        return getTailP(a, b, c, d, true, limit);
+    }
+
+    /**
+     * Calculates the left-tail P-value, but stops summing as soon as it exceeds a limit.
+     *
+     * @param a     a, b, c, d are the four cells in a 2x2 matrix
+     * @param b
+     * @param c
+     * @param d
+     * @param limit value beyond which the caller no longer needs the sum
+     * @return left-tail P-value, or a partial sum greater than limit
+     */
+    public final double getLeftTailedP(int a, int b, int c, int d, double limit) {
+        return getTailP(a, b, c, d, false, limit);
+    }
+
+    /**
+     * Calculates right-tail P-values for a batch of tables.
+     *
+     * Table i is (a[i], b[i], c[i], d[i]). Results match getRightTailedP for each table exactly, but
+     * the log-factorial table is checked once per batch and the first terms are computed in a single
+     * straight loop over the arrays, which the JIT can unroll and vectorize.
+     *
+     * @param a     first cell of each table
+     * @param b     second cell of each table
+     * @param c     third cell of each table
+     * @param d     fourth cell of each table
+     * @param p     array to receive the P-values
+     * @param count number of tables
+     */
+    public final void getRightTailedP(int[] a, int[] b, int[] c, int[] d, double[] p, int count) {
+        getTailP(a, b, c, d, p, count, true);
+    }
+
+    /**
+     * Calculates left-tail P-values for a batch of tables; see the right-tail version.
+     *
+     * @param a     first cell of each table
+     * @param b     second cell of each table
+     * @param c     third cell of each table
+     * @param d     fourth cell of each table
+     * @param p     array to receive the P-values
+     * @param count number of tables
+     */
+    public final void getLeftTailedP(int[] a, int[] b, int[] c, int[] d, double[] p, int count) {
+        getTailP(a, b, c, d, p, count, false);
+    }
+
+    /**
+     * Sums one tail for each table in a batch.
+     */
+    private void getTailP(int[] a, int[] b, int[] c, int[] d, double[] p, int count, boolean right) {
+        int maxN = 0;
+        for (int i = 0; i < count; i++) {
+            maxN = Math.max(maxN, a[i] + b[i] + c[i] + d[i]);
+        }
+        if (maxN >= f.length) {
+            f = getLogFactorials(maxN);
+        }
+        double[] f = this.f;
+
+        // log probability of each observed table, the only table lookups the batch needs
+        for (int i = 0; i < count; i++) {
+            int ai = a[i], bi = b[i], ci = c[i], di = d[i];
+            if ((ai | bi | ci | di) < 0) {
+                p[i] = Double.NaN;
+                continue;
+            }
+            p[i] = (f[ai + bi] + f[ci + di] + f[ai + ci] + f[bi + di]) - (f[ai] + f[bi] + f[ci] + f[di] + f[ai + bi + ci + di]);
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!Double.isNaN(p[i])) {
+                p[i] = sumTail(p[i], a[i], b[i], c[i], d[i], right, Double.POSITIVE_INFINITY);
+            }
+        }
+    }
+
+    /**
+     * Sums one tail of the hypergeometric distribution starting from the observed table.
+     *
+     * Only the first term comes from the log-factorial table. Each later term is the previous one times
+     * the ratio of successive probabilities, b*c/((a+1)(d+1)) going right or a*d/((b+1)(c+1)) going left,
+     * and the sum is kept relative to the first term with a running log scale (log-sum-exp), so a single
+     * exp gives the answer. Terms past the mode only shrink, so the sum stops once they no longer matter.
+     * Nothing overflows or underflows to NaN, even at very high depth.
+     *
+     * @param a     a, b, c, d are the four (non-negative) cells in a 2x2 matrix
+     * @param b
+     * @param c
+     * @param d
+     * @param right true for the right tail, false for the left tail
+     * @param limit value beyond which the caller no longer needs the sum
+     * @return tail P-value, or a partial sum greater than limit
+     */
+    private double getTailP(int a, int b, int c, int d, boolean right, double limit) {
+        if (a < 0 || b < 0 || c < 0 || d < 0) {
             return Double.NaN;
         }
-        double p = 0;
 
-        p += getP(a, b, c, d);
-        if (DEBUG) {System.out.println("p = " + p);}
-        if (DEBUG) {System.out.println("doing L-tail: a=" + a + " b=" + b + " c=" + c + " d=" + d);}
-        min = (a < d) ? a : d;
-        for (i = 0; i < min; i++) {
-            if (DEBUG) {System.out.print("doing round " + i);}
-            double pTemp = getP(--a, ++b, ++c, --d);
-            if (DEBUG) {System.out.print("\tpTemp = " + pTemp);}
-            p += pTemp;
-            if (DEBUG) {System.out.println("\ta=" + a + " b=" + b + " c=" + c + " d=" + d);}
+        return sumTail(getLogP(a, b, c, d), a, b, c, d, right, limit);
+    }
+
+    /**
+     * Sums one tail given the log probability of the observed table; see getTailP.
+     */
+    private static double sumTail(double logFirst, int a, int b, int c, int d, boolean right, double limit) {
+        double logScale = 0.0;
+        double term = 1.0;
+        double sum = 1.0;
+        double relativeLimit = limit / Math.exp(logFirst);    // limit in units of the first term; may be infinite
+
+        double x = a, y = b, z = c, w = d;
+        int steps = right ? Math.min(b, c) : Math.min(a, d);
+        boolean stopped = false;
+
+        for (int i = 0; i < steps; i++) {
+            if (sum > relativeLimit) {
+                stopped = true;
+                break;
+            }
+
+            double ratio;
+            if (right) {
+                ratio = (y * z) / ((x + 1) * (w + 1));
+                x++; y--; z--; w++;
+            } else {
+                ratio = (x * w) / ((y + 1) * (z + 1));
+                x--; y++; z++; w--;
+            }
+
+            term *= ratio;
+            sum += term;
+
+            if (sum > RESCALE) {
+                term /= RESCALE;
+                sum /= RESCALE;
+                relativeLimit /= RESCALE;
+                logScale += LOG_RESCALE;
+            }
+
+            if (ratio < 0.5 && term < sum * NEGLIGIBLE) {
+                break;
+            }
         }
 
+        double p = Math.exp(logFirst + logScale + Math.log(sum));
+        if (p > 1.0) {
+            p = 1.0;
+        }
 
+        // a sum that stopped past the limit must still read as past it after rounding
+        if (stopped && p <= limit) {
+            p = Math.nextUp(limit);
+        }
         return p;
     }
 
 
+    /**
+     * Approximates the right-tail P-value with a continuity-corrected normal distribution.
+     *
+     * Cell a of a table with fixed margins is hypergeometric with mean (a+b)(a+c)/n and variance
+     * (a+b)(c+d)(a+c)(b+d)/(n^2 (n-1)), so P(X >= a) is taken as the upper normal tail beyond a - 0.5.
+     * The error is at most getApproxErrorBound for the same table.
+     *
+     * @param a     a, b, c, d are the four cells in a 2x2 matrix
+     * @param b
+     * @param c
+     * @param d
+     * @return approximate right-tail P-value
+     */
+    public static double getApproxRightTailedP(int a, int b, int c, int d) {
+        return normalUpperTail((a - 0.5 - hypergeometricMean(a, b, c, d)) / hypergeometricSd(a, b, c, d));
+    }
+
+    /**
+     * Approximates the left-tail P-value with a continuity-corrected normal distribution.
+     *
+     * @param a     a, b, c, d are the four cells in a 2x2 matrix
+     * @param b
+     * @param c
+     * @param d
+     * @return approximate left-tail P-value
+     */
+    public static double getApproxLeftTailedP(int a, int b, int c, int d) {
+        return normalUpperTail(-(a + 0.5 - hypergeometricMean(a, b, c, d)) / hypergeometricSd(a, b, c, d));
+    }
+
+    /**
+     * Returns a bound on the absolute error of the normal approximations.
+     *
+     * A hypergeometric count is distributed as a sum of independent Bernoulli variables, so the
+     * Berry-Esseen theorem bounds the distance between its distribution function and the normal one by
+     * C * sum(E|X_i - p_i|^3) / sd^3 <= C / sd, with C = 0.56 (Shevtsova 2010). Evaluating at a - 0.5
+     * gives exactly P(X <= a - 1), so the continuity correction does not add to this. A small term is
+     * added for the error of erfc.
+     *
+     * @param a     a, b, c, d are the four cells in a 2x2 matrix
+     * @param b
+     * @param c
+     * @param d
+     * @return largest possible difference between approximate and exact tail P-values
+     */
+    public static double getApproxErrorBound(int a, int b, int c, int d) {
+        return 0.56 / hypergeometricSd(a, b, c, d) + 2.0e-7;
+    }
+
+    private static double hypergeometricMean(int a, int b, int c, int d) {
+        double n = (double) a + b + c + d;
+        return ((double) a + b) * ((double) a + c) / n;
+    }
+
+    private static double hypergeometricSd(int a, int b, int c, int d) {
+        double n = (double) a + b + c + d;
+        double variance = ((double) a + b) * ((double) c + d) / n * ((double) a + c) / n * ((double) b + d) / (n - 1);
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * Returns P(Z > z) for a standard normal Z, with relative error below 1.2e-7.
+     */
+    private static double normalUpperTail(double z) {
+        double x = z / Math.sqrt(2.0);
+        double t = 1.0 / (1.0 + 0.5 * Math.abs(x));
+        double erfc = t * Math.exp(-x * x - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+                + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+                + t * (-0.82215223 + t * 0.17087277)))))))));
+        if (x < 0) {
+            erfc = 2.0 - erfc;
+        }
+        return 0.5 * erfc;
+    }
+
+
     /**
      *   Calculates the two-tailed P-value for the Fisher Exact test.
      *
@@ -196,10 +470,6 @@ public class FishersExact {
      */
     public final double getTwoTailedP(int a, int b, int c, int d) {
         int min, i;
-        int n = a + b + c + d;
-        if (n > maxSize) {
-            return Double.NaN;
-        }
         double p = 0;
 
         double baseP = getP(a, b, c, d);
@@ -51,7 +51,8 @@ public class FpFilter {
 		"\t--max-mmqs-diff\t\tMaximum average mismatch quality sum (var - ref) [50]\n" +
 		"\t--min-ref-mapqual\t\tMinimum average mapping quality for ref allele [30]\n" +
 		"\t--min-var-mapqual\t\tMinimum average mapping quality for var allele [30]\n" +
-		"\t--max-mapqual-diff\tMaximum average mapping quality (ref - var) [50]";
+		"\t--max-mapqual-diff\tMaximum average mapping quality (ref - var) [50]\n" +
+		"\t--output-compression\tnone or bgzf; bgzf output files get a .gz suffix and a tabix index [none]";
 
 
 		// Set parameter defaults //
@@ -217,11 +218,11 @@ public class FpFilter {
     				// Declare output files //
     				PrintStream outFile = null;
     				if(params.containsKey("output-file"))
-    					outFile = new PrintStream( new FileOutputStream(outFileName) );
+    					outFile = BgzfOutputStream.openOutput(outFileName, params);
 
     				PrintStream filteredFile = null;
     				if(params.containsKey("filtered-file"))
-    					filteredFile = new PrintStream( new FileOutputStream(filteredFileName) );
+    					filteredFile = BgzfOutputStream.openOutput(filteredFileName, params);
 
     				String vcfHeaderInfo = "";
     				vcfHeaderInfo = "##FILTER=<ID=VarCount,Description=\"Fewer than " + minVarCount + " variant-supporting reads\">";
@@ -759,6 +760,12 @@ public class FpFilter {
 
     	    		in.close();
 
+    	    		// Close output files, which for compressed output writes their last blocks and indexes //
+    	    		if(outFile != null)
+    	    			outFile.close();
+    	    		if(filteredFile != null)
+    	    			filteredFile.close();
+
     			}
     			else
     			{
@@ -0,0 +1,200 @@
+/**
+ * @(#)MappedPileup.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A pileup file mapped into memory, so that worker threads can take their lines straight from the page cache
+ *
+ * A single mapping cannot exceed 2 GB, so the file is mapped as a series of pieces of at most
+ * MAX_MAPPING_BYTES. Each piece ends just after a newline, so no line is split between two pieces,
+ * and ranges within a piece are addressed by int positions.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class MappedPileup {
+
+	/** Largest piece of the file mapped at once */
+	static final long MAX_MAPPING_BYTES = 1L << 30;
+
+	private final long length;
+	private final MappedByteBuffer[] mappings;
+	private final long[] mappingOffsets;		// File offset of each mapping's first byte
+
+
+	/**
+	 * Constructor that maps a whole file
+	 *
+	 * @param	file	Pileup file
+	 * @throws	IOException	If the file cannot be mapped or has a line longer than MAX_MAPPING_BYTES
+	 */
+	MappedPileup(File file) throws IOException
+	{
+		ArrayList<MappedByteBuffer> pieces = new ArrayList<MappedByteBuffer>();
+		ArrayList<Long> offsets = new ArrayList<Long>();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			length = channel.size();
+
+			long start = 0;
+			while(start < length)
+			{
+				long size = Math.min(MAX_MAPPING_BYTES, length - start);
+				MappedByteBuffer piece = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+
+				// Unless this is the end of the file, stop the piece after its last newline //
+				if(start + size < length)
+				{
+					int last = (int) size - 1;
+					while(last >= 0 && piece.get(last) != '\n')
+						last--;
+
+					if(last < 0)
+						throw new IOException("Line longer than " + MAX_MAPPING_BYTES + " bytes at offset " + start + " of " + file.getPath());
+
+					size = last + 1;
+					piece = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+				}
+
+				pieces.add(piece);
+				offsets.add(start);
+				start += size;
+			}
+		}
+		finally
+		{
+			// Mappings stay valid after the file is closed //
+			raf.close();
+		}
+
+		mappings = pieces.toArray(new MappedByteBuffer[pieces.size()]);
+		mappingOffsets = new long[offsets.size()];
+		for(int i = 0; i < mappingOffsets.length; i++)
+			mappingOffsets[i] = offsets.get(i);
+	}
+
+
+	/**
+	 * Returns the length of the file in bytes
+	 */
+	long length()
+	{
+		return(length);
+	}
+
+
+	/**
+	 * Returns the number of pieces the file is mapped in
+	 */
+	int getNumMappings()
+	{
+		return(mappings.length);
+	}
+
+
+	/**
+	 * Returns the length of one mapped piece in bytes
+	 */
+	int getMappingSize(int mapping)
+	{
+		return(mappings[mapping].capacity());
+	}
+
+
+	/**
+	 * Returns the file offset of a position within a mapped piece
+	 */
+	long getOffset(int mapping, int position)
+	{
+		return(mappingOffsets[mapping] + position);
+	}
+
+
+	/**
+	 * Finds the start of the first line that begins at or after a position
+	 *
+	 * @param	mapping		Mapped piece
+	 * @param	position	Position within the piece
+	 * @return				Start of that line, or the piece size if no line starts at or after position
+	 */
+	int nextLineStart(int mapping, int position)
+	{
+		MappedByteBuffer piece = mappings[mapping];
+		int size = piece.capacity();
+		if(position <= 0)
+			return(0);
+
+		for(int i = position - 1; i < size; i++)
+		{
+			if(piece.get(i) == '\n')
+				return(i + 1);
+		}
+
+		return(size);
+	}
+
+
+	/**
+	 * Copies a range of a mapped piece, which is safe to do from several threads at once
+	 *
+	 * @param	mapping	Mapped piece
+	 * @param	start	First position to copy
+	 * @param	end		Position after the last to copy
+	 * @return			The bytes
+	 */
+	byte[] copy(int mapping, int start, int end)
+	{
+		byte[] bytes = new byte[end - start];
+		ByteBuffer view = mappings[mapping].duplicate();
+		view.position(start);
+		view.get(bytes);
+		return(bytes);
+	}
+
+
+	/**
+	 * Counts the lines in the file before a position, reading everything before it
+	 *
+	 * @param	mapping		Mapped piece
+	 * @param	position	Position within the piece, at the start of a line
+	 * @return				Number of newlines before the position
+	 */
+	long countLines(int mapping, int position)
+	{
+		long count = 0;
+
+		for(int m = 0; m <= mapping; m++)
+		{
+			MappedByteBuffer piece = mappings[m];
+			int end = (m == mapping) ? position : piece.capacity();
+
+			for(int i = 0; i < end; i++)
+			{
+				if(piece.get(i) == '\n')
+					count++;
+			}
+		}
+
+		return(count);
+	}
+
+}
@@ -0,0 +1,335 @@
+/**
+ * @(#)PileupIndex.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A byte-offset index of a sorted pileup or mpileup file, kept in a sidecar file
+ *
+ * For each contig the index records the offset of its first line, and then the position and offset
+ * of every Nth line. To read a region, the input is opened at the last recorded line at or before the
+ * region start, so at most N lines are skipped. The sidecar is a tab-delimited text file named after
+ * the pileup with a .vsi suffix, with a header holding the pileup's size so that a stale index is caught.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class PileupIndex {
+
+	static final String SUFFIX = ".vsi";
+	static final int DEFAULT_INTERVAL = 10000;
+	private static final String HEADER = "#VarScan pileup index";
+
+	private final long fileSize;
+	private final int interval;
+	private final ArrayList<String> contigs = new ArrayList<String>();
+	private final HashMap<String, ContigEntries> entries = new HashMap<String, ContigEntries>();
+
+
+	/**
+	 * Constructor for an empty index
+	 */
+	private PileupIndex(long fileSize, int interval)
+	{
+		this.fileSize = fileSize;
+		this.interval = interval;
+	}
+
+
+	/**
+	 * Runs the index command: builds the index of a pileup file and saves it beside the file
+	 *
+	 * @param	args	Command-line arguments
+	 */
+	static void index(String[] args)
+	{
+		String usage = "USAGE: java -jar VarScan.jar index [pileup file] OPTIONS\n" +
+			"\tpileup file - A SAMtools pileup or mpileup file, sorted by position within each contig\n" +
+			"\n" +
+			"\tOPTIONS:\n" +
+			"\t--index-interval\tLines between sparse position entries [" + DEFAULT_INTERVAL + "]\n" +
+			"\n" +
+			"\tThe index is written to [pileup file]" + SUFFIX + " and used by --region";
+
+		HashMap<String, String> params = VarScan.getParams(args);
+
+		if(args.length < 2 || args[1].startsWith("-") || params.containsKey("help") || params.containsKey("h"))
+		{
+			System.err.println(usage);
+			return;
+		}
+
+		try
+		{
+			int interval = DEFAULT_INTERVAL;
+			if(params.containsKey("index-interval"))
+				interval = Integer.parseInt(params.get("index-interval"));
+
+			if(interval < 1)
+			{
+				System.err.println("Error: --index-interval must be at least 1");
+				System.exit(1);
+			}
+
+			File pileupFile = new File(args[1]);
+			System.err.println("Indexing " + args[1] + " every " + interval + " lines");
+
+			PileupIndex index = build(pileupFile, interval);
+			index.write(new File(args[1] + SUFFIX));
+
+			System.err.println(index.contigs.size() + " contigs indexed to " + args[1] + SUFFIX);
+		}
+		catch(Exception e)
+		{
+			System.err.println("Error: " + e.getLocalizedMessage());
+			System.exit(11);
+		}
+	}
+
+
+	/**
+	 * Builds the index of a pileup file
+	 *
+	 * @param	pileupFile	Pileup or mpileup file, sorted by position within each contig
+	 * @param	interval	Lines between sparse entries
+	 * @return				The index
+	 * @throws	IOException	If the file cannot be read, is compressed, or is not sorted
+	 */
+	static PileupIndex build(File pileupFile, int interval) throws IOException
+	{
+		// Offsets into compressed input could not be seeked to //
+		if(BgzfInputStream.isCompressed(pileupFile))
+			throw new IOException(pileupFile.getPath() + " is compressed; only uncompressed pileup files can be indexed");
+
+		PileupIndex index = new PileupIndex(pileupFile.length(), interval);
+		PileupLineReader in = new PileupLineReader(new FileInputStream(pileupFile));
+
+		try
+		{
+			long lineNumber = 0;
+			String chrom = null;
+			ContigEntries contig = null;
+			int lastPosition = 0;
+			long contigLines = 0;
+
+			while(in.next())
+			{
+				lineNumber++;
+
+				if(in.getNumColumns() < 2 || in.getColumnLength(0) == 0)
+					throw new IOException("Invalid pileup line " + lineNumber + ": " + in.getLine());
+
+				int position = in.getColumnInt(1);
+
+				// A new contig starts a new list of entries //
+				if(chrom == null || !in.getColumn(0).toString().equals(chrom))
+				{
+					chrom = in.getColumnString(0);
+					if(index.entries.containsKey(chrom))
+						throw new IOException("Pileup is not sorted: " + chrom + " appears again at line " + lineNumber);
+
+					contig = new ContigEntries();
+					index.contigs.add(chrom);
+					index.entries.put(chrom, contig);
+					contigLines = 0;
+				}
+				else if(position < lastPosition)
+				{
+					throw new IOException("Pileup is not sorted: " + chrom + " position " + position + " follows " + lastPosition + " at line " + lineNumber);
+				}
+
+				if(contigLines % interval == 0)
+					contig.add(position, in.getLineOffset());
+
+				lastPosition = position;
+				contigLines++;
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return(index);
+	}
+
+
+	/**
+	 * Loads the index saved beside a pileup file
+	 *
+	 * @param	pileupFile	Indexed pileup file
+	 * @return				The index
+	 * @throws	IOException	If the index is missing, unreadable, or older than the file
+	 */
+	static PileupIndex load(File pileupFile) throws IOException
+	{
+		File indexFile = new File(pileupFile.getPath() + SUFFIX);
+		if(!indexFile.exists())
+			throw new IOException("No index for " + pileupFile.getPath() + "; create one with: java -jar VarScan.jar index " + pileupFile.getPath());
+
+		BufferedReader in = new BufferedReader(new FileReader(indexFile));
+		try
+		{
+			String[] header = (in.readLine() + "").split("\t");
+			if(header.length < 3 || !header[0].equals(HEADER))
+				throw new IOException(indexFile.getPath() + " is not a VarScan pileup index");
+
+			PileupIndex index = new PileupIndex(Long.parseLong(header[1]), Integer.parseInt(header[2]));
+			if(index.fileSize != pileupFile.length())
+				throw new IOException("Index " + indexFile.getPath() + " does not match the size of " + pileupFile.getPath() + "; rebuild it with the index command");
+
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				String[] lineContents = line.split("\t");
+				if(lineContents.length < 3)
+					continue;
+
+				ContigEntries contig = index.entries.get(lineContents[0]);
+				if(contig == null)
+				{
+					contig = new ContigEntries();
+					index.contigs.add(lineContents[0]);
+					index.entries.put(lineContents[0], contig);
+				}
+
+				contig.add(Integer.parseInt(lineContents[1]), Long.parseLong(lineContents[2]));
+			}
+
+			return(index);
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IOException(indexFile.getPath() + " is not a valid VarScan pileup index: " + e.getLocalizedMessage());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Saves the index as tab-delimited text
+	 */
+	private void write(File indexFile) throws IOException
+	{
+		PrintStream out = new PrintStream(indexFile);
+		out.println(HEADER + "\t" + fileSize + "\t" + interval);
+
+		for(String chrom : contigs)
+		{
+			ContigEntries contig = entries.get(chrom);
+			for(int i = 0; i < contig.size; i++)
+				out.println(chrom + "\t" + contig.positions[i] + "\t" + contig.offsets[i]);
+		}
+
+		if(out.checkError())
+			throw new IOException("Unable to write " + indexFile.getPath());
+
+		out.close();
+	}
+
+
+	/**
+	 * Returns the offset to start reading from for a position
+	 *
+	 * @param	chrom		Contig name
+	 * @param	position	First position wanted
+	 * @return				Offset of the last indexed line at or before the position, or -1 if the contig is not in the file
+	 */
+	long getOffset(String chrom, int position)
+	{
+		ContigEntries contig = entries.get(chrom);
+		if(contig == null)
+			return(-1);
+
+		// Find the last entry at or before the position, or else the contig's first line //
+		int i = Arrays.binarySearch(contig.positions, 0, contig.size, position);
+		if(i < 0)
+			i = -i - 2;
+		else
+			while(i > 0 && contig.positions[i - 1] == position)
+				i--;
+
+		return(contig.offsets[Math.max(i, 0)]);
+	}
+
+
+	/**
+	 * Opens a pileup file at a region using its index
+	 *
+	 * @param	pileupFile	Indexed pileup file
+	 * @param	region		Region as chrom, chrom:start, or chrom:start-end
+	 * @return				A reader limited to the region's lines
+	 * @throws	IOException	If there is no usable index or the region is invalid
+	 */
+	static PileupLineReader openRegion(File pileupFile, String region) throws IOException
+	{
+		Region parsed = Region.parse(region);
+		String chrom = parsed.chrom;
+		int start = parsed.start;
+		int end = parsed.end;
+
+		PileupIndex index = load(pileupFile);
+		long offset = index.getOffset(chrom, start);
+
+		FileInputStream stream = new FileInputStream(pileupFile);
+		PileupLineReader in = new PileupLineReader(stream, Math.max(offset, 0));
+		in.setRegion(chrom, start, end);
+
+		if(offset < 0)
+		{
+			System.err.println("Warning: " + chrom + " does not appear in " + pileupFile.getPath());
+			in.endRegion();
+		}
+		else
+		{
+			stream.getChannel().position(offset);
+		}
+
+		return(in);
+	}
+
+
+	/**
+	 * Indexed positions and offsets for one contig, in file order
+	 */
+	private static class ContigEntries
+	{
+		int[] positions = new int[16];
+		long[] offsets = new long[16];
+		int size = 0;
+
+		void add(int position, long offset)
+		{
+			if(size == positions.length)
+			{
+				positions = Arrays.copyOf(positions, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2);
+			}
+
+			positions[size] = position;
+			offsets[size] = offset;
+			size++;
+		}
+	}
+
+}
@@ -0,0 +1,719 @@
+/**
+ * @(#)PileupLineReader.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A line reader for pileup files that splits tab-delimited columns without creating Strings
+ *
+ * Lines are read as ASCII bytes into one reusable buffer, and each column is exposed as a slice of
+ * that buffer through CharSequence views that are also reused. A column's view, and anything taken
+ * from it without toString(), is only valid until the next call to next(). Columns are split like
+ * String.split("\t", -1), so empty columns, including trailing ones, are kept.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class PileupLineReader implements PileupSource {
+
+	private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private final InputStream in;
+	private File file = null;			// Input file, if the reader was opened on one
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int bufferStart = 0;		// First byte not yet returned as part of a line
+	private int bufferEnd = 0;			// End of the valid bytes in buffer
+	private long bufferOffset = 0;		// Input offset of the first byte in buffer
+	private boolean endOfInput = false;
+
+	// Region to restrict lines to, if any //
+	private byte[] regionChrom = null;
+	private int regionStart = 0;
+	private int regionEnd = 0;
+	private boolean regionEntered = false;
+	private boolean regionDone = false;
+
+	// Line numbering: lines before this reader's input, and lines returned so far //
+	private long lineBase = 0;
+	private LineBase lineBaseResolver = null;
+	private long linesRead = 0;
+
+	private int lineStart = 0;
+	private int lineEnd = 0;
+	private int numColumns = 0;
+	private int[] columnStarts = new int[64];
+	private int[] columnEnds = new int[64];
+	private Column[] columns = new Column[0];
+
+
+	/**
+	 * Constructor for a reader over a byte stream
+	 *
+	 * @param	in	Pileup input, which is closed by close()
+	 */
+	public PileupLineReader(InputStream in)
+	{
+		this.in = in;
+	}
+
+
+	/**
+	 * Constructor for a reader over a byte stream that starts partway into its input
+	 *
+	 * @param	in			Pileup input, which is closed by close()
+	 * @param	startOffset	Input offset of the stream's first byte, for getLineOffset()
+	 */
+	public PileupLineReader(InputStream in, long startOffset)
+	{
+		this.in = in;
+		this.bufferOffset = startOffset;
+	}
+
+
+	/**
+	 * Constructor for a reader over a file, which is decompressed if it is gzip or BGZF, or else may be
+	 * mapped into memory by PileupPipeline instead of read
+	 *
+	 * @param	file	Pileup file
+	 */
+	public PileupLineReader(File file) throws IOException
+	{
+		this(BgzfInputStream.open(file));
+		if(!BgzfInputStream.isCompressed(file))
+			this.file = file;
+	}
+
+
+	/**
+	 * Constructor for a reader over lines already in memory, such as a block from nextBlock()
+	 *
+	 * @param	lines	Newline-terminated lines, which are read in place
+	 */
+	public PileupLineReader(byte[] lines)
+	{
+		this(lines, 0);
+	}
+
+
+	/**
+	 * Constructor for a reader over lines already in memory that come partway into the input
+	 *
+	 * @param	lines		Newline-terminated lines, which are read in place
+	 * @param	lineBase	Number of input lines before the first of these, for getLineNumber()
+	 */
+	public PileupLineReader(byte[] lines, long lineBase)
+	{
+		this.in = null;
+		this.buffer = lines;
+		this.bufferEnd = lines.length;
+		this.endOfInput = true;
+		this.lineBase = lineBase;
+	}
+
+
+	/**
+	 * Counts the input lines before a reader's first line, for when that is too costly to do up front
+	 */
+	interface LineBase
+	{
+		long get();
+	}
+
+
+	/**
+	 * Sets a reader over lines in memory to work out its line numbers only if one is asked for
+	 *
+	 * @param	resolver	Counts the input lines before this reader's first line, which must be at least one
+	 */
+	void setLineBase(LineBase resolver)
+	{
+		lineBaseResolver = resolver;
+	}
+
+
+	/**
+	 * Returns the input file if nothing has been read from it and no region is set, so that it may be read another way
+	 *
+	 * @return	The file, or null if the input is not a regular file or is already being read
+	 */
+	File getUnreadFile()
+	{
+		if(file == null || !file.isFile() || regionChrom != null || bufferOffset > 0 || bufferEnd > 0 || endOfInput)
+			return(null);
+
+		return(file);
+	}
+
+
+	/**
+	 * Restricts the lines returned to those within a region
+	 *
+	 * Lines of other contigs are skipped until the region's contig is reached, and reading ends at the
+	 * first line past the region, so the input must be sorted within the contig. A line whose position
+	 * cannot be parsed is returned, so that the caller reports it.
+	 *
+	 * @param	chrom	Contig name
+	 * @param	start	First position to return
+	 * @param	end		Last position to return
+	 */
+	public void setRegion(String chrom, int start, int end)
+	{
+		regionChrom = chrom.getBytes(ISO_8859_1);
+		regionStart = start;
+		regionEnd = end;
+		regionEntered = false;
+		regionDone = false;
+	}
+
+
+	/**
+	 * Ends reading, as when the input holds nothing from the region
+	 */
+	void endRegion()
+	{
+		regionDone = true;
+	}
+
+
+	/**
+	 * Waits for the first input, as from a pipe whose producer is slow to start
+	 *
+	 * @return	False only if the input is empty
+	 */
+	public boolean hasInput() throws IOException
+	{
+		if(regionDone || bufferStart < bufferEnd)
+			return(true);
+
+		// A file not read yet may still be mapped, so leave it unread //
+		if(getUnreadFile() != null)
+			return(file.length() > 0);
+
+		if(!endOfInput)
+			fill();
+
+		return(bufferStart < bufferEnd);
+	}
+
+
+	/**
+	 * Advances to the next line and splits it into columns
+	 *
+	 * @return	False at the end of input
+	 */
+	public boolean next() throws IOException
+	{
+		if(!findRegionLine())
+			return(false);
+
+		splitColumns();
+		linesRead++;
+		return(true);
+	}
+
+
+	/**
+	 * Copies the next lines, up to a limit, so that they can be parsed elsewhere
+	 *
+	 * Each line is copied with a single newline at its end. The reader has no current line afterwards.
+	 *
+	 * @param	maxLines	Most lines to copy
+	 * @return				The lines, or null at the end of input
+	 */
+	public byte[] nextBlock(int maxLines) throws IOException
+	{
+		byte[] block = new byte[INITIAL_BUFFER_SIZE];
+		int length = 0;
+		int numLines = 0;
+
+		while(numLines < maxLines && findRegionLine())
+		{
+			int lineLength = lineEnd - lineStart;
+			if(length + lineLength + 1 > block.length)
+				block = Arrays.copyOf(block, Math.max(block.length * 2, length + lineLength + 1));
+
+			System.arraycopy(buffer, lineStart, block, length, lineLength);
+			length += lineLength;
+			block[length++] = '\n';
+			numLines++;
+			linesRead++;
+		}
+
+		numColumns = 0;
+		lineStart = lineEnd = bufferStart;
+
+		if(numLines == 0)
+			return(null);
+
+		return(Arrays.copyOf(block, length));
+	}
+
+
+	/**
+	 * Finds the next line, skipping any outside the region if one is set
+	 *
+	 * @return	False at the end of input or of the region
+	 */
+	private boolean findRegionLine() throws IOException
+	{
+		if(regionDone)
+			return(false);
+
+		while(findLine())
+		{
+			if(regionChrom == null)
+				return(true);
+
+			int compared = compareToRegion();
+			if(compared == 0)
+				return(true);
+
+			if(compared > 0)
+			{
+				regionDone = true;
+				return(false);
+			}
+		}
+
+		return(false);
+	}
+
+
+	/**
+	 * Compares the current line's contig and position to the region
+	 *
+	 * @return	Negative if the line comes before the region, zero if within it, positive if after it
+	 */
+	private int compareToRegion()
+	{
+		// Match the contig name in the first column //
+		int i = lineStart;
+		boolean sameChrom = true;
+		for(int j = 0; j < regionChrom.length; j++, i++)
+		{
+			if(i >= lineEnd || buffer[i] != regionChrom[j])
+			{
+				sameChrom = false;
+				break;
+			}
+		}
+
+		if(!sameChrom || i >= lineEnd || buffer[i] != '\t')
+			return(regionEntered ? 1 : -1);
+
+		regionEntered = true;
+
+		// Parse the position in the second column //
+		long position = 0;
+		int numDigits = 0;
+		for(i++; i < lineEnd && buffer[i] != '\t'; i++)
+		{
+			int digit = buffer[i] - '0';
+			if(digit < 0 || digit > 9 || numDigits >= 10)
+				return(0);
+			position = position * 10 + digit;
+			numDigits++;
+		}
+
+		if(numDigits == 0)
+			return(0);
+		if(position < regionStart)
+			return(-1);
+		if(position > regionEnd)
+			return(1);
+
+		return(0);
+	}
+
+
+	/**
+	 * Finds the bounds of the next line, reading more input as needed
+	 *
+	 * @return	False at the end of input
+	 */
+	private boolean findLine() throws IOException
+	{
+		int newline = -1;
+		int scanFrom = bufferStart;
+
+		while(true)
+		{
+			for(int i = scanFrom; i < bufferEnd; i++)
+			{
+				if(buffer[i] == '\n')
+				{
+					newline = i;
+					break;
+				}
+			}
+
+			if(newline >= 0 || endOfInput)
+				break;
+
+			scanFrom = bufferEnd - bufferStart;
+			fill();
+			scanFrom = bufferStart + scanFrom;
+		}
+
+		if(newline < 0)
+		{
+			// Last line without a newline, or nothing left //
+			if(bufferStart >= bufferEnd)
+			{
+				numColumns = 0;
+				return(false);
+			}
+			newline = bufferEnd;
+		}
+
+		lineStart = bufferStart;
+		lineEnd = newline;
+		if(lineEnd > lineStart && buffer[lineEnd - 1] == '\r')
+			lineEnd--;
+
+		bufferStart = Math.min(newline + 1, bufferEnd);
+
+		return(true);
+	}
+
+
+	/**
+	 * Moves any unread bytes to the front of the buffer and reads more, growing the buffer if a line fills it
+	 */
+	private void fill() throws IOException
+	{
+		int remaining = bufferEnd - bufferStart;
+		if(bufferStart > 0)
+		{
+			bufferOffset += bufferStart;
+			System.arraycopy(buffer, bufferStart, buffer, 0, remaining);
+			bufferStart = 0;
+			bufferEnd = remaining;
+		}
+
+		if(bufferEnd == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+		int numRead = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+		if(numRead < 0)
+			endOfInput = true;
+		else
+			bufferEnd += numRead;
+	}
+
+
+	/**
+	 * Records the start and end of each tab-delimited column of the current line
+	 */
+	private void splitColumns()
+	{
+		numColumns = 0;
+		int start = lineStart;
+		for(int i = lineStart; i <= lineEnd; i++)
+		{
+			if(i == lineEnd || buffer[i] == '\t')
+			{
+				if(numColumns == columnStarts.length)
+				{
+					columnStarts = Arrays.copyOf(columnStarts, numColumns * 2);
+					columnEnds = Arrays.copyOf(columnEnds, numColumns * 2);
+				}
+				columnStarts[numColumns] = start;
+				columnEnds[numColumns] = i;
+				numColumns++;
+				start = i + 1;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of columns on the current line
+	 */
+	public int getNumColumns()
+	{
+		return(numColumns);
+	}
+
+
+	/**
+	 * Returns the number of columns on the current line, not counting empty columns at the end
+	 *
+	 * @return	The length String.split("\t") would give
+	 */
+	public int getNumColumnsTrimmed()
+	{
+		int count = numColumns;
+		while(count > 0 && columnStarts[count - 1] == columnEnds[count - 1])
+			count--;
+
+		// An empty line still splits into one empty column //
+		if(lineStart == lineEnd)
+			return(1);
+
+		return(count);
+	}
+
+
+	/**
+	 * Returns the length of a column in characters
+	 */
+	public int getColumnLength(int column)
+	{
+		return(columnEnds[column] - columnStarts[column]);
+	}
+
+
+	/**
+	 * Returns a view of a column, valid until the next line is read
+	 *
+	 * @param	column	Zero-based column number
+	 * @return			The column's characters
+	 */
+	public CharSequence getColumn(int column)
+	{
+		if(column >= columns.length)
+		{
+			int oldLength = columns.length;
+			columns = Arrays.copyOf(columns, Math.max(column + 1, oldLength * 2));
+			for(int i = oldLength; i < columns.length; i++)
+				columns[i] = new Column(i);
+		}
+
+		return(columns[column]);
+	}
+
+
+	/**
+	 * Returns a column as a new String
+	 */
+	public String getColumnString(int column)
+	{
+		return(new String(buffer, columnStarts[column], getColumnLength(column), ISO_8859_1));
+	}
+
+
+	/**
+	 * Parses a column as a decimal integer without creating a String
+	 *
+	 * @param	column	Zero-based column number
+	 * @return			The integer value
+	 * @throws	NumberFormatException	If the column is not a valid integer
+	 */
+	public int getColumnInt(int column)
+	{
+		int start = columnStarts[column];
+		int end = columnEnds[column];
+		if(start == end)
+			throw new NumberFormatException("For input string: \"\"");
+
+		boolean negative = false;
+		if(buffer[start] == '-' || buffer[start] == '+')
+		{
+			negative = (buffer[start] == '-');
+			start++;
+			if(start == end)
+				throw new NumberFormatException("For input string: \"" + getColumnString(column) + "\"");
+		}
+
+		long value = 0;
+		for(int i = start; i < end; i++)
+		{
+			int digit = buffer[i] - '0';
+			if(digit < 0 || digit > 9)
+				throw new NumberFormatException("For input string: \"" + getColumnString(column) + "\"");
+			value = value * 10 + digit;
+			if(value > (long) Integer.MAX_VALUE + 1)
+				throw new NumberFormatException("For input string: \"" + getColumnString(column) + "\"");
+		}
+
+		if(negative)
+			value = -value;
+		if(value > Integer.MAX_VALUE)
+			throw new NumberFormatException("For input string: \"" + getColumnString(column) + "\"");
+
+		return((int) value);
+	}
+
+
+	/**
+	 * Returns true if the line has a chromosome, position, reference base and at least one sample
+	 */
+	public boolean hasPosition()
+	{
+		return(numColumns > 5 && getColumnLength(0) > 0 && getColumnLength(1) > 0 && getColumnLength(2) > 0 && getColumnLength(3) > 0);
+	}
+
+
+	/**
+	 * Returns true if the line is one samtools writes for a position with no coverage
+	 */
+	public boolean isUncovered()
+	{
+		return(numColumns >= 4 && getColumnLength(3) == 1 && buffer[columnStarts[3]] == '0');
+	}
+
+
+	public String getChrom()
+	{
+		return(getColumnString(0));
+	}
+
+
+	public int getPosition()
+	{
+		return(getColumnInt(1));
+	}
+
+
+	public String getRefBase()
+	{
+		return(getColumnString(2).toUpperCase());
+	}
+
+
+	/**
+	 * Returns the number of samples, each of which has depth, bases and qualities columns
+	 */
+	public int getNumSamples()
+	{
+		return(Math.max(0, (numColumns - 3) / 3));
+	}
+
+
+	/**
+	 * Returns the columns of one sample, which are parsed only when its counts are needed
+	 */
+	public PileupSample getSample(int sample)
+	{
+		int column = 3 + 3 * sample;
+		return(new PileupSample(getColumnInt(column), getColumn(column + 1), getColumn(column + 2), ""));
+	}
+
+
+	/**
+	 * Returns the sample of a single-sample pileup line, with an optional mapping qualities column, or of a CNS line
+	 *
+	 * @return	The sample, with no reads if the line has neither layout
+	 */
+	public PileupSample getLineSample()
+	{
+		// Pileup lines have the sample from column 4, and CNS lines from column 8 //
+		int length = getNumColumnsTrimmed();
+		int first = 0;
+		if(length >= 6 && length <= 7)
+			first = 3;
+		else if(length >= 10 && length <= 11)
+			first = 7;
+
+		if(first == 0)
+			return(new PileupSample(0, "", "", ""));
+
+		CharSequence mapQuals = (length == first + 4) ? getColumn(first + 3) : "";
+		return(new PileupSample(getColumnInt(first), getColumn(first + 1), getColumn(first + 2), mapQuals));
+	}
+
+
+	/**
+	 * Returns the one-based input line number of the current line, counting only lines in the region if one is set
+	 */
+	public long getLineNumber()
+	{
+		if(lineBaseResolver != null)
+		{
+			lineBase = lineBaseResolver.get();
+			lineBaseResolver = null;
+		}
+
+		return(lineBase + linesRead);
+	}
+
+
+	/**
+	 * Returns true if the current line is the first line of the input, without working out any other line number
+	 */
+	public boolean isFirstLine()
+	{
+		// A reader whose line base is not yet known never starts the input //
+		return(lineBaseResolver == null && lineBase + linesRead == 1);
+	}
+
+
+	/**
+	 * Returns the input offset of the current line's first byte
+	 */
+	public long getLineOffset()
+	{
+		return(bufferOffset + lineStart);
+	}
+
+
+	/**
+	 * Returns the current line as a String, for messages and legacy parsing
+	 */
+	public String getLine()
+	{
+		return(new String(buffer, lineStart, lineEnd - lineStart, ISO_8859_1));
+	}
+
+
+	/**
+	 * Closes the underlying stream
+	 */
+	public void close() throws IOException
+	{
+		if(in != null)
+			in.close();
+	}
+
+
+	/**
+	 * A reusable view of one column of the current line
+	 */
+	private final class Column implements CharSequence
+	{
+		private final int column;
+
+		Column(int column)
+		{
+			this.column = column;
+		}
+
+		public int length()
+		{
+			return(columnEnds[column] - columnStarts[column]);
+		}
+
+		public char charAt(int index)
+		{
+			if(index < 0 || index >= columnEnds[column] - columnStarts[column])
+				throw new StringIndexOutOfBoundsException(index);
+			return((char) (buffer[columnStarts[column] + index] & 0xFF));
+		}
+
+		public CharSequence subSequence(int start, int end)
+		{
+			return(toString().subSequence(start, end));
+		}
+
+		public String toString()
+		{
+			return(getColumnString(column));
+		}
+	}
+
+}
@@ -0,0 +1,385 @@
+/**
+ * @(#)PileupMerge.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Finds the positions that a normal and a tumor pileup have in common, in one pass over each
+ *
+ * Both files must be sorted by position within each contig and must not come back to a contig once
+ * they have left it. Contigs are taken in the order of the ContigOrder, and a contig that is in only
+ * one file is skipped, so that neither file is ever read twice. A contig that the files put in
+ * different places cannot be compared, and is reported with a warning. Each file is read ahead on
+ * its own thread a block of raw lines at a time. The thread does not split them: the merge thread
+ * splits each line it reaches into column slices with PileupLineReader, rather than into Strings.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class PileupMerge {
+
+	/** Lines that a reader thread hands over at a time */
+	private static final int BLOCK_LINES = 4096;
+
+	/** Blocks that may be read ahead of the merge, per file */
+	private static final int BLOCKS_AHEAD = 4;
+
+	private final Input normal;
+	private final Input tumor;
+	private final ContigOrder order;
+	private boolean started = false;
+	private boolean matched = false;
+
+
+	/**
+	 * Constructor that starts reading both files
+	 *
+	 * @param	normal		Normal pileup
+	 * @param	normalName	Normal pileup's name, for messages
+	 * @param	tumor		Tumor pileup
+	 * @param	tumorName	Tumor pileup's name, for messages
+	 * @param	order		Order of the contigs in both files
+	 */
+	public PileupMerge(PileupLineReader normal, String normalName, PileupLineReader tumor, String tumorName, ContigOrder order)
+	{
+		this.normal = new Input(normal, normalName, order);
+		this.tumor = new Input(tumor, tumorName, order);
+		this.order = order;
+	}
+
+
+	/**
+	 * Moves on to the next position found in both files
+	 *
+	 * @return	False once either file has ended
+	 */
+	boolean next() throws IOException
+	{
+		if(!started)
+		{
+			started = true;
+			normal.advance();
+			tumor.advance();
+		}
+		else if(matched)
+		{
+			normal.advance();
+			tumor.advance();
+		}
+
+		matched = false;
+
+		while(!normal.ended && !tumor.ended)
+		{
+			if(normal.newContig)
+				checkContig(normal, tumor);
+			if(tumor.newContig)
+				checkContig(tumor, normal);
+
+			if(normal.contig.equals(tumor.contig))
+			{
+				if(normal.position < tumor.position)
+					normal.advance();
+				else if(tumor.position < normal.position)
+					tumor.advance();
+				else
+				{
+					matched = true;
+					return(true);
+				}
+			}
+			// The rest of a contig that the other file has already left cannot be matched //
+			else if(normal.passed.contains(tumor.contig))
+				tumor.advance();
+			else if(tumor.passed.contains(normal.contig))
+				normal.advance();
+			// Otherwise skip the contig that comes first, which the other file should not have //
+			else if(order.compare(normal.contig, tumor.contig) < 0)
+			{
+				normal.skipped.add(normal.contig);
+				normal.advance();
+			}
+			else
+			{
+				tumor.skipped.add(tumor.contig);
+				tumor.advance();
+			}
+		}
+
+		// Count the rest of the tumor positions, and read on in the normal only to report contigs the tumor skipped //
+
+		while(!tumor.ended)
+		{
+			if(tumor.newContig)
+				checkContig(tumor, normal);
+			tumor.advance();
+		}
+
+		while(!normal.ended && !tumor.skipped.isEmpty())
+		{
+			if(normal.newContig)
+				checkContig(normal, tumor);
+			normal.advance();
+		}
+
+		return(false);
+	}
+
+
+	/**
+	 * Reports a contig that one file has just reached but that the other has already left, which
+	 * means that the two files order their contigs differently and the contig cannot be compared
+	 */
+	private void checkContig(Input reached, Input other)
+	{
+		reached.newContig = false;
+
+		if(other.skipped.contains(reached.contig))
+			System.err.println("Warning: Skipped " + reached.contig + " in " + other.name + " before " + reached.name + " reached it; if the pileups are not in " + order + ", give their contig order with --sequence-dictionary");
+		else if(other.passed.contains(reached.contig))
+			System.err.println("Warning: Skipping " + reached.contig + " in " + reached.name + " because " + other.name + " left it first; if the pileups are not in " + order + ", give their contig order with --sequence-dictionary");
+	}
+
+
+	/**
+	 * Returns the contig of the current position
+	 */
+	String getContig()
+	{
+		return(tumor.contig);
+	}
+
+
+	/**
+	 * Returns the current position
+	 */
+	int getPosition()
+	{
+		return(tumor.position);
+	}
+
+
+	/**
+	 * Returns the normal pileup's line at the current position, whose columns are valid until the next call to next()
+	 */
+	PileupLineReader getNormal()
+	{
+		return(normal.line);
+	}
+
+
+	/**
+	 * Returns the tumor pileup's line at the current position, whose columns are valid until the next call to next()
+	 */
+	PileupLineReader getTumor()
+	{
+		return(tumor.line);
+	}
+
+
+	/**
+	 * Returns the number of positions read from the tumor pileup so far
+	 */
+	long getTumorPositions()
+	{
+		return(tumor.positions);
+	}
+
+
+	/**
+	 * Stops reading and closes both files
+	 */
+	void close() throws IOException
+	{
+		normal.close();
+		tumor.close();
+	}
+
+
+	/**
+	 * One pileup file, whose thread queues blocks of raw lines; advance() splits them on the merge thread and checks the sort order
+	 */
+	private static class Input
+	{
+		private static final byte[] END_OF_INPUT = new byte[0];
+
+		final String name;
+		final HashSet<String> passed = new HashSet<String>();		// Contigs the file has left
+		final HashSet<String> skipped = new HashSet<String>();		// Contigs skipped because the other file did not seem to have them
+		PileupLineReader line = null;		// Current line, read from the current block
+		String contig = "";
+		int position = 0;
+		long positions = 0;
+		boolean newContig = false;
+		boolean ended = false;
+
+		private final PileupLineReader in;
+		private final ContigOrder order;
+		private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(BLOCKS_AHEAD);
+		private final Thread reader;
+		private volatile boolean stopped = false;
+		private volatile IOException readError = null;
+
+		Input(PileupLineReader input, String inputName, ContigOrder contigOrder)
+		{
+			this.in = input;
+			this.name = inputName;
+			this.order = contigOrder;
+
+			reader = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						byte[] block;
+						while(!stopped && (block = in.nextBlock(BLOCK_LINES)) != null)
+							blocks.put(block);
+					}
+					catch(IOException e)
+					{
+						readError = e;
+					}
+					catch(InterruptedException e)
+					{
+						// The merge has stopped //
+						return;
+					}
+
+					try
+					{
+						blocks.put(END_OF_INPUT);
+					}
+					catch(InterruptedException e)
+					{
+						// Nothing is waiting for more blocks //
+					}
+				}
+			}, "pileup-merge-reader");
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+
+		/**
+		 * Moves to the next line that has a contig, position and reference base, setting ended at the end of the file
+		 */
+		void advance() throws IOException
+		{
+			while(!ended)
+			{
+				if(line == null || !line.next())
+				{
+					byte[] block = takeBlock();
+					if(block == END_OF_INPUT)
+					{
+						ended = true;
+						line = null;
+					}
+					else
+						line = new PileupLineReader(block);
+				}
+				else if(line.getNumColumnsTrimmed() > 2)
+				{
+					setPosition();
+					break;
+				}
+			}
+		}
+
+
+		private byte[] takeBlock() throws IOException
+		{
+			byte[] next;
+			try
+			{
+				next = blocks.take();
+			}
+			catch(InterruptedException e)
+			{
+				throw new IOException("Interrupted while reading " + name);
+			}
+
+			if(next == END_OF_INPUT && readError != null)
+				throw readError;
+
+			return(next);
+		}
+
+
+		/**
+		 * Takes the current line's contig and position, making sure that the file is still in order
+		 */
+		private void setPosition() throws IOException
+		{
+			int nextPosition;
+			try
+			{
+				nextPosition = line.getColumnInt(1);
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IOException("Invalid position in " + name + ": " + line.getColumnString(0) + "\t" + line.getColumnString(1));
+			}
+
+			// The contig is only made a String when it changes //
+			if(positions > 0 && contig.contentEquals(line.getColumn(0)))
+			{
+				if(nextPosition < position)
+					throw new UnsortedException(name + " is not sorted: " + contig + ":" + nextPosition + " comes after " + contig + ":" + position + "; sort it by position, as samtools sort does");
+			}
+			else
+			{
+				String nextContig = line.getColumnString(0);
+				if(positions > 0)
+				{
+					passed.add(contig);
+					if(passed.contains(nextContig))
+						throw new UnsortedException(name + " is not sorted: " + nextContig + " comes back after " + contig + "; each contig's positions must be together and in order");
+					if(order.hasDictionary() && order.compare(contig, nextContig) > 0)
+						throw new UnsortedException(name + " is not sorted in the order of " + order + ": " + nextContig + " comes after " + contig);
+				}
+				contig = nextContig;
+				newContig = true;
+			}
+
+			position = nextPosition;
+			positions++;
+		}
+
+
+		void close() throws IOException
+		{
+			stopped = true;
+			reader.interrupt();
+			blocks.clear();
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Thrown when a pileup is not in the order that the merge needs
+	 */
+	static class UnsortedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		UnsortedException(String message)
+		{
+			super(message);
+		}
+	}
+
+}
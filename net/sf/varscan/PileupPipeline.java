@@ -0,0 +1,413 @@
+/**
+ * @(#)PileupPipeline.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs pileup input through a pool of worker threads a block of lines at a time
+ *
+ * A reader thread copies the input into numbered blocks of BLOCK_LINES lines and submits each one
+ * to the workers. The calling thread takes the results back strictly in block order and passes them
+ * to a writer, so anything the writer prints comes out in input order, exactly as it would if every
+ * line were processed on one thread. Only a bounded number of blocks are in flight at once.
+ *
+ * A file that has not been read yet is instead mapped into memory and cut into segments of about
+ * SEGMENT_BYTES at line boundaries. Each segment is a fork/join task that halves itself at a newline
+ * until its pieces are small, so idle workers steal the halves of a slow, dense stretch of the file
+ * rather than waiting on the thread that has it. Pieces are written in file order as before.
+ *
+ * Indexed BAM input is split into windows of the reference instead, each piled up by a worker that
+ * seeks to the window's reads, and the windows are written in reference order.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class PileupPipeline {
+
+	/** Lines given to a worker at a time */
+	static final int BLOCK_LINES = 4096;
+
+	/** Blocks that may be read ahead of the writer, per worker thread */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	/** Bytes of a mapped file in each top-level fork/join task */
+	private static final int SEGMENT_BYTES = 1 << 25;
+
+	/** Segments that may be processed ahead of the writer */
+	private static final int SEGMENTS_IN_FLIGHT = 3;
+
+	/** Bounds on the size of the pieces that segments are split into */
+	private static final int MIN_PIECE_BYTES = 1 << 14;
+	private static final int MAX_PIECE_BYTES = 1 << 18;
+
+	/** BAM windows that may be piled up ahead of the writer, per worker thread */
+	private static final int WINDOWS_PER_THREAD = 2;
+
+
+	/**
+	 * Processes the lines of one block on a worker thread
+	 */
+	interface Worker<T>
+	{
+		/**
+		 * @param	lines	The block's positions, numbered as in the whole input
+		 * @return			Result to hand to the writer
+		 */
+		T process(PileupSource lines) throws Exception;
+	}
+
+
+	/**
+	 * Receives block results on the calling thread, in input order
+	 */
+	interface Writer<T>
+	{
+		/**
+		 * @param	result	Result of the next block
+		 * @return			False to stop without writing any later blocks
+		 */
+		boolean write(T result) throws Exception;
+	}
+
+
+	/**
+	 * Returns true if input can be split between threads: pileup text, or BAM files that all have indexes
+	 */
+	static boolean canSplit(PileupSource in)
+	{
+		return(in instanceof PileupLineReader || (in instanceof BamPileup && ((BamPileup) in).isIndexed()));
+	}
+
+
+	/**
+	 * Processes all remaining input that canSplit() accepts and writes the results in order
+	 *
+	 * @param	in			Pileup text or indexed BAM input
+	 * @param	numThreads	Number of worker threads
+	 * @param	worker		Work to do for each block
+	 * @param	writer		Receiver of each block's result
+	 * @return				False if the writer stopped before the end of the input
+	 */
+	static <T> boolean run(PileupSource in, int numThreads, Worker<T> worker, Writer<T> writer) throws Exception
+	{
+		if(in instanceof BamPileup)
+			return(runWindows((BamPileup) in, numThreads, worker, writer));
+
+		return(run((PileupLineReader) in, numThreads, worker, writer));
+	}
+
+
+	/**
+	 * Processes all remaining input and writes the results in order
+	 *
+	 * @param	in			Pileup input
+	 * @param	numThreads	Number of worker threads
+	 * @param	worker		Work to do for each block
+	 * @param	writer		Receiver of each block's result
+	 * @return				False if the writer stopped before the end of the input
+	 */
+	static <T> boolean run(final PileupLineReader in, int numThreads, final Worker<T> worker, Writer<T> writer) throws Exception
+	{
+		File file = in.getUnreadFile();
+		if(file != null)
+			return(runMapped(file, numThreads, worker, writer));
+
+		final ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		final BlockingQueue<Future<T>> pending = new ArrayBlockingQueue<Future<T>>(numThreads * BLOCKS_PER_THREAD);
+		final Future<T> endOfInput = CompletableFuture.completedFuture(null);
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		final Exception[] readError = new Exception[1];
+
+		Thread reader = new Thread(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					long lineBase = 0;
+					byte[] block;
+
+					while(!stopped.get() && (block = in.nextBlock(BLOCK_LINES)) != null)
+					{
+						final byte[] lines = block;
+						final long blockBase = lineBase;
+						pending.put(workers.submit(new Callable<T>() {
+							public T call() throws Exception
+							{
+								return(worker.process(new PileupLineReader(lines, blockBase)));
+							}
+						}));
+						lineBase += BLOCK_LINES;
+					}
+				}
+				catch(Exception e)
+				{
+					readError[0] = e;
+				}
+
+				try
+				{
+					pending.put(endOfInput);
+				}
+				catch(InterruptedException e)
+				{
+					// Nothing is waiting for more blocks //
+				}
+			}
+		}, "pileup-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		try
+		{
+			while(true)
+			{
+				Future<T> next = pending.take();
+				if(next == endOfInput)
+					break;
+
+				if(!writer.write(next.get()))
+					return(false);
+			}
+
+			if(readError[0] != null)
+				throw readError[0];
+		}
+		finally
+		{
+			// Let the reader finish if it is waiting on a full queue //
+			stopped.set(true);
+			pending.clear();
+			workers.shutdownNow();
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Piles up indexed BAM files a window at a time on worker threads
+	 *
+	 * @param	in			BAM pileup that has not started, whose regions are split into windows
+	 * @param	numThreads	Number of worker threads
+	 * @param	worker		Work to do for each window
+	 * @param	writer		Receiver of each window's result
+	 * @return				False if the writer stopped before the last window
+	 */
+	private static <T> boolean runWindows(final BamPileup in, int numThreads, final Worker<T> worker, Writer<T> writer) throws Exception
+	{
+		final List<List<Region>> windows = in.getWindows();
+		final BamPileup.WindowOrder order = new BamPileup.WindowOrder(windows.size());
+
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+		int nextWindow = 0;
+
+		try
+		{
+			while(true)
+			{
+				// Windows start in order, so each one's earlier windows are under way before it //
+				while(pending.size() < numThreads * WINDOWS_PER_THREAD && nextWindow < windows.size())
+				{
+					final int index = nextWindow++;
+					pending.add(workers.submit(new Callable<T>() {
+						public T call() throws Exception
+						{
+							BamPileup window = null;
+							try
+							{
+								window = in.openWindow(windows.get(index), order, index);
+								return(worker.process(window));
+							}
+							finally
+							{
+								order.reached(index, false);
+								if(window != null)
+									window.close();
+							}
+						}
+					}));
+				}
+
+				if(pending.isEmpty())
+					break;
+
+				if(!writer.write(pending.poll().get()))
+					return(false);
+			}
+		}
+		finally
+		{
+			for(Future<T> future : pending)
+				future.cancel(true);
+			workers.shutdownNow();
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Processes a whole file by mapping it into memory and splitting it with fork/join tasks
+	 *
+	 * @param	file		Pileup file
+	 * @param	numThreads	Number of worker threads
+	 * @param	worker		Work to do for each piece of the file
+	 * @param	writer		Receiver of each piece's result
+	 * @return				False if the writer stopped before the end of the file
+	 */
+	private static <T> boolean runMapped(File file, int numThreads, Worker<T> worker, Writer<T> writer) throws Exception
+	{
+		MappedPileup input = new MappedPileup(file);
+
+		// Aim for several pieces per thread even in a small file //
+		int pieceBytes = (int) Math.max(MIN_PIECE_BYTES, Math.min(MAX_PIECE_BYTES, input.length() / (numThreads * 8L)));
+
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		ArrayDeque<ForkJoinTask<ArrayList<T>>> pending = new ArrayDeque<ForkJoinTask<ArrayList<T>>>();
+
+		try
+		{
+			int mapping = 0;
+			int segmentStart = 0;
+
+			while(true)
+			{
+				// Keep the next segments queued so workers are not idle while results are written //
+				while(pending.size() < SEGMENTS_IN_FLIGHT && mapping < input.getNumMappings())
+				{
+					int size = input.getMappingSize(mapping);
+					int segmentEnd = size;
+					if(size - segmentStart > SEGMENT_BYTES)
+						segmentEnd = input.nextLineStart(mapping, segmentStart + SEGMENT_BYTES);
+
+					pending.add(pool.submit(new MappedTask<T>(input, mapping, segmentStart, segmentEnd, pieceBytes, worker)));
+
+					segmentStart = segmentEnd;
+					if(segmentStart >= size)
+					{
+						mapping++;
+						segmentStart = 0;
+					}
+				}
+
+				if(pending.isEmpty())
+					break;
+
+				for(T result : pending.poll().get())
+				{
+					if(!writer.write(result))
+						return(false);
+				}
+			}
+		}
+		finally
+		{
+			for(ForkJoinTask<ArrayList<T>> task : pending)
+				task.cancel(true);
+			pool.shutdownNow();
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * A range of lines in a mapped file, which splits itself in two at a newline until it is small enough to process
+	 */
+	private static class MappedTask<T> extends RecursiveTask<ArrayList<T>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final MappedPileup input;
+		private final int mapping;
+		private final int start;
+		private final int end;
+		private final int pieceBytes;
+		private final Worker<T> worker;
+
+		MappedTask(MappedPileup input, int mapping, int start, int end, int pieceBytes, Worker<T> worker)
+		{
+			this.input = input;
+			this.mapping = mapping;
+			this.start = start;
+			this.end = end;
+			this.pieceBytes = pieceBytes;
+			this.worker = worker;
+		}
+
+		/**
+		 * @return	Results of the range's pieces, in file order
+		 */
+		protected ArrayList<T> compute()
+		{
+			if(end - start > pieceBytes)
+			{
+				int middle = input.nextLineStart(mapping, start + (end - start) / 2);
+				if(middle < end)
+				{
+					MappedTask<T> first = new MappedTask<T>(input, mapping, start, middle, pieceBytes, worker);
+					first.fork();
+					ArrayList<T> second = new MappedTask<T>(input, mapping, middle, end, pieceBytes, worker).compute();
+
+					ArrayList<T> results = first.join();
+					results.addAll(second);
+					return(results);
+				}
+			}
+
+			PileupLineReader lines = new PileupLineReader(input.copy(mapping, start, end));
+
+			// Only count the lines before this piece if a line number is needed, as for an error message //
+			if(input.getOffset(mapping, start) > 0)
+			{
+				lines.setLineBase(new PileupLineReader.LineBase() {
+					public long get()
+					{
+						return(input.countLines(mapping, start));
+					}
+				});
+			}
+
+			ArrayList<T> results = new ArrayList<T>(1);
+			try
+			{
+				results.add(worker.process(lines));
+			}
+			catch(RuntimeException e)
+			{
+				throw e;
+			}
+			catch(Exception e)
+			{
+				throw new RuntimeException(e.getLocalizedMessage(), e);
+			}
+
+			return(results);
+		}
+	}
+
+}
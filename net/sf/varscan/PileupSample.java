@@ -0,0 +1,337 @@
+/**
+ * @(#)PileupSample.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+/**
+ * The reads of one sample at one pileup position, counted into AlleleCounts when a caller asks
+ *
+ * A sample from mpileup text keeps its depth, read bases and qualities columns, which are only
+ * parsed if they are needed. A sample piled up from a BAM holds each read's allele, qualities,
+ * strand and any indel after the position as arrays, so no pileup text is ever written or parsed.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class PileupSample {
+
+	/** Allele of a read that has no countable base here, such as an N or a deletion */
+	static final byte NO_ALLELE = -1;
+
+	private final int depth;
+
+	// Columns of mpileup text, or null for a BAM pileup //
+	private final CharSequence bases;
+	private final CharSequence qualities;
+	private final CharSequence mapQualities;
+
+	// Reads of a BAM pileup //
+	private final int numReads;
+	private final byte[] alleles;			// AlleleCounts slot of the read's base, or NO_ALLELE
+	private final byte[] baseQualities;
+	private final byte[] mapQualityValues;
+	private final boolean[] reverse;
+	private final boolean[] insertion;
+	private final String[] indels;			// Upper-case bases of an indel after the position, or null
+
+
+	/**
+	 * Constructor for a sample's mpileup columns
+	 *
+	 * @param	depth			Read depth column
+	 * @param	bases			Read bases column
+	 * @param	qualities		Base qualities column
+	 * @param	mapQualities	Mapping qualities column, or an empty string if there is none
+	 */
+	public PileupSample(int depth, CharSequence bases, CharSequence qualities, CharSequence mapQualities)
+	{
+		this.depth = depth;
+		this.bases = bases;
+		this.qualities = qualities;
+		this.mapQualities = mapQualities;
+		this.numReads = 0;
+		this.alleles = null;
+		this.baseQualities = null;
+		this.mapQualityValues = null;
+		this.reverse = null;
+		this.insertion = null;
+		this.indels = null;
+	}
+
+
+	/**
+	 * Constructor for the reads of a BAM pileup, which are used in place rather than copied
+	 *
+	 * @param	numReads		Number of reads, which is also the depth
+	 * @param	alleles			AlleleCounts slot of each read's base, or NO_ALLELE
+	 * @param	baseQualities	Base quality of each read at the position
+	 * @param	mapQualities	Mapping quality of each read
+	 * @param	reverse			True for reads on the minus strand
+	 * @param	insertion		True if the read's indel is an insertion
+	 * @param	indels			Upper-case bases of an indel that follows the position in each read, or null
+	 */
+	PileupSample(int numReads, byte[] alleles, byte[] baseQualities, byte[] mapQualities, boolean[] reverse, boolean[] insertion, String[] indels)
+	{
+		this.depth = numReads;
+		this.bases = null;
+		this.qualities = null;
+		this.mapQualities = null;
+		this.numReads = numReads;
+		this.alleles = alleles;
+		this.baseQualities = baseQualities;
+		this.mapQualityValues = mapQualities;
+		this.reverse = reverse;
+		this.insertion = insertion;
+		this.indels = indels;
+	}
+
+
+	/**
+	 * Returns the read depth, as samtools reports it
+	 */
+	int getDepth()
+	{
+		return(depth);
+	}
+
+
+	/**
+	 * Returns true if the sample has any base qualities
+	 */
+	boolean hasQualities()
+	{
+		if(bases != null)
+			return(qualities.length() > 0);
+
+		return(numReads > 0);
+	}
+
+
+	/**
+	 * Counts the reads whose base quality meets a minimum
+	 *
+	 * @param	minQual	Minimum base quality
+	 * @return			Number of reads
+	 */
+	int getQualityDepth(int minQual)
+	{
+		if(bases != null)
+			return(VarScan.qualityDepth(qualities, minQual));
+
+		int qualityDepth = 0;
+		for(int i = 0; i < numReads; i++)
+		{
+			if(baseQualities[i] >= minQual)
+				qualityDepth++;
+		}
+
+		return(qualityDepth);
+	}
+
+
+	/**
+	 * Returns true if every read has the reference base here, or no base, and no indel follows
+	 */
+	boolean isReferenceOnly()
+	{
+		if(bases != null)
+			return(VarScan.isReferenceOnly(bases));
+
+		for(int i = 0; i < numReads; i++)
+		{
+			if(indels[i] != null || (alleles[i] != AlleleCounts.REF && alleles[i] != NO_ALLELE))
+				return(false);
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Returns false if a consensus call of the sample is sure to be N, without counting its alleles
+	 *
+	 * A call needs more than minReads2 reference reads, or minReads2 reads of one variant allele,
+	 * counting bases that meet the quality and indels of any quality. For pileup text the reads are
+	 * bounded from above by their characters, so a column is only ruled out if it cannot have them.
+	 *
+	 * @param	minReads2	Minimum variant-supporting reads for a call
+	 * @param	minAvgQual	Minimum base quality to count a base
+	 * @return				True if getCounts and callPosition might make a call
+	 */
+	boolean mayBeCalled(int minReads2, int minAvgQual)
+	{
+		int refReads = 0;
+		int baseReads = 0;
+		int indelReads = 0;
+
+		if(bases != null)
+		{
+			// Counted bases take one of the column's qualities, so none count if none are high enough //
+			boolean hasQuality = (minAvgQual <= 0);
+			for(int i = 0; i < qualities.length() && !hasQuality; i++)
+				hasQuality = (qualities.charAt(i) - 33 >= minAvgQual);
+
+			int numBases = bases.length();
+			for(int i = 0; i < numBases; i++)
+			{
+				char base = bases.charAt(i);
+				switch(base)
+				{
+					case '^':
+						i++;
+						break;
+					case '.':
+					case ',':
+						if(hasQuality)
+							refReads++;
+						break;
+					case 'A': case 'C': case 'G': case 'T':
+					case 'a': case 'c': case 'g': case 't':
+						// Bases of indels are included, which only loosens the bound //
+						if(hasQuality)
+							baseReads++;
+						break;
+					case '+':
+					case '-':
+						// Leave a malformed indel for getReadCounts to report //
+						if(i + 1 >= numBases || bases.charAt(i + 1) < '0' || bases.charAt(i + 1) > '9')
+							return(true);
+						indelReads++;
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		else
+		{
+			for(int i = 0; i < numReads; i++)
+			{
+				if(indels[i] != null)
+					indelReads++;
+				else if(alleles[i] == AlleleCounts.REF && baseQualities[i] >= minAvgQual)
+					refReads++;
+
+				if(alleles[i] != AlleleCounts.REF && alleles[i] != NO_ALLELE && baseQualities[i] >= minAvgQual)
+					baseReads++;
+			}
+		}
+
+		return((refReads > 0 && refReads > minReads2) || baseReads >= minReads2 || indelReads >= minReads2);
+	}
+
+
+	/**
+	 * Counts the reads for each allele, as VarScan.getReadCounts does for pileup text
+	 *
+	 * @param	refBase		Reference base at this position
+	 * @param	minAvgQual	Minimum base quality to count a base
+	 * @return				Counts for each allele
+	 */
+	AlleleCounts getCounts(String refBase, int minAvgQual)
+	{
+		if(bases != null)
+			return(VarScan.getReadCounts(refBase, bases, qualities, minAvgQual, mapQualities));
+
+		AlleleCounts counts = new AlleleCounts(refBase);
+		char[] indelBuffer = new char[16];
+
+		for(int i = 0; i < numReads; i++)
+		{
+			int slot = alleles[i];
+			int baseQuality = baseQualities[i];
+			int mapQuality = mapQualityValues[i] & 0xFF;
+			boolean plusStrand = !reverse[i];
+
+			if(indels[i] == null)
+			{
+				if(slot != NO_ALLELE && baseQuality >= minAvgQual)
+					counts.count(slot, plusStrand, baseQuality, mapQuality);
+				continue;
+			}
+
+			// A reference base before an indel counts towards the indel instead //
+			if(slot == AlleleCounts.REF)
+			{
+				if(baseQuality >= minAvgQual)
+					counts.reads1indel++;
+			}
+			else if(slot != NO_ALLELE && baseQuality >= minAvgQual)
+			{
+				counts.count(slot, plusStrand, baseQuality, mapQuality);
+			}
+
+			// Indel reads are counted regardless of base quality //
+			String indel = indels[i];
+			int length = indel.length();
+			if(length > indelBuffer.length)
+				indelBuffer = new char[length];
+			indel.getChars(0, length, indelBuffer, 0);
+
+			int indelSlot = counts.indelSlot(insertion[i], length, indelBuffer, length);
+			counts.count(indelSlot, plusStrand, baseQuality, mapQuality);
+		}
+
+		return(counts);
+	}
+
+
+	/**
+	 * Pools the reads of several samples, as the cross-sample call of mpileup2cns does
+	 *
+	 * @param	samples	Samples at one position, all from text or all from a BAM pileup
+	 * @return			A sample with all of their reads
+	 */
+	static PileupSample combine(PileupSample[] samples)
+	{
+		int depth = 0;
+		int numReads = 0;
+		for(PileupSample sample : samples)
+		{
+			depth += sample.depth;
+			numReads += sample.numReads;
+		}
+
+		if(samples.length > 0 && samples[0].bases != null)
+		{
+			StringBuilder bases = new StringBuilder();
+			StringBuilder qualities = new StringBuilder();
+			for(PileupSample sample : samples)
+			{
+				bases.append(sample.bases);
+				qualities.append(sample.qualities);
+			}
+
+			return(new PileupSample(depth, bases, qualities, ""));
+		}
+
+		byte[] alleles = new byte[numReads];
+		byte[] baseQualities = new byte[numReads];
+		byte[] mapQualities = new byte[numReads];
+		boolean[] reverse = new boolean[numReads];
+		boolean[] insertion = new boolean[numReads];
+		String[] indels = new String[numReads];
+
+		int offset = 0;
+		for(PileupSample sample : samples)
+		{
+			System.arraycopy(sample.alleles, 0, alleles, offset, sample.numReads);
+			System.arraycopy(sample.baseQualities, 0, baseQualities, offset, sample.numReads);
+			System.arraycopy(sample.mapQualityValues, 0, mapQualities, offset, sample.numReads);
+			System.arraycopy(sample.reverse, 0, reverse, offset, sample.numReads);
+			System.arraycopy(sample.insertion, 0, insertion, offset, sample.numReads);
+			System.arraycopy(sample.indels, 0, indels, offset, sample.numReads);
+			offset += sample.numReads;
+		}
+
+		return(new PileupSample(numReads, alleles, baseQualities, mapQualities, reverse, insertion, indels));
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ * @(#)PileupSource.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.IOException;
+
+/**
+ * Pileup positions in order, each with its reads for one or more samples
+ *
+ * Implemented by PileupLineReader for mpileup text and by BamPileup for positions piled up
+ * from BAM files, so that the calling code reads either in the same way. Samples and anything
+ * taken from them are only valid until the next call to next().
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public interface PileupSource {
+
+	/**
+	 * Waits for the first input, returning false only if there is none
+	 */
+	boolean hasInput() throws IOException;
+
+	/**
+	 * Advances to the next position
+	 *
+	 * @return	False at the end of input
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * Returns true if the position has a chromosome, position, reference base and at least one sample
+	 */
+	boolean hasPosition();
+
+	/**
+	 * Returns true if the position is one reported with no coverage rather than invalid, when hasPosition() is false
+	 */
+	boolean isUncovered();
+
+	String getChrom();
+
+	int getPosition();
+
+	/**
+	 * Returns the reference base in upper case
+	 */
+	String getRefBase();
+
+	int getNumSamples();
+
+	/**
+	 * Returns the reads of one sample at the position, counting samples from 0
+	 */
+	PileupSample getSample(int sample);
+
+	/**
+	 * Returns true if the position is the first of the input
+	 */
+	boolean isFirstLine();
+
+	/**
+	 * Returns the number of the position within the input, counting from 1, for messages
+	 */
+	long getLineNumber();
+
+	/**
+	 * Returns the position as text, for messages
+	 */
+	String getLine();
+
+	void close() throws IOException;
+
+}
@@ -0,0 +1,206 @@
+/**
+ * @(#)PositionCall.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.text.DecimalFormat;
+
+/**
+ * A base call (SNP, indel, or consensus) made at one position by VarScan.callPosition
+ *
+ * The fields are kept as numbers and only turned into text when a caller prints them.
+ * When SNP or indel calling yields more than one variant allele, the extra calls are
+ * chained through next in the order they were made.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class PositionCall {
+
+	private static final ThreadLocal<DecimalFormat> freqFormat = new ThreadLocal<DecimalFormat>() {
+		protected DecimalFormat initialValue()
+		{
+			return(new DecimalFormat("###.##"));
+		}
+	};
+
+	String genotype;		// Genotype code, the reference base, or N for no call
+	int reads1;				// Reference-supporting reads
+	int reads2;				// Variant-supporting reads
+	double varFreq;			// Variant allele frequency as a percentage
+	int strands1;			// Strands observed for reference-supporting reads
+	int strands2;			// Strands observed for variant-supporting reads
+	int avgQual1;			// Average base quality of reference-supporting reads
+	int avgQual2;			// Average base quality of variant-supporting reads
+	double pValue;			// Significance of the call, or NaN until computed
+	int avgMap1;			// Average mapping quality of reference-supporting reads
+	int avgMap2;			// Average mapping quality of variant-supporting reads
+	int reads1plus;			// Reference-supporting reads on plus strand
+	int reads1minus;		// Reference-supporting reads on minus strand
+	int reads2plus;			// Variant-supporting reads on plus strand
+	int reads2minus;		// Variant-supporting reads on minus strand
+	String varAllele;		// Most-observed variant allele, or empty if none
+
+	/** Next call at this position, for SNP or indel calling of multiple alleles */
+	PositionCall next = null;
+
+	// Read counts to test when the p-value is only computed on demand //
+	private int pValueReads1 = -1;
+	private int pValueReads2 = -1;
+
+
+	/**
+	 * Constructor taking every field in output order
+	 */
+	PositionCall(String genotype, int reads1, int reads2, double varFreq, int strands1, int strands2, int avgQual1, int avgQual2, double pValue,
+			int avgMap1, int avgMap2, int reads1plus, int reads1minus, int reads2plus, int reads2minus, String varAllele)
+	{
+		this.genotype = genotype;
+		this.reads1 = reads1;
+		this.reads2 = reads2;
+		this.varFreq = varFreq;
+		this.strands1 = strands1;
+		this.strands2 = strands2;
+		this.avgQual1 = avgQual1;
+		this.avgQual2 = avgQual2;
+		this.pValue = pValue;
+		this.avgMap1 = avgMap1;
+		this.avgMap2 = avgMap2;
+		this.reads1plus = reads1plus;
+		this.reads1minus = reads1minus;
+		this.reads2plus = reads2plus;
+		this.reads2minus = reads2minus;
+		this.varAllele = varAllele;
+	}
+
+
+	/**
+	 * Defers the p-value until it is asked for, recording the read counts to test
+	 *
+	 * @param	reads1	Reference-supporting reads
+	 * @param	reads2	Variant-supporting reads
+	 */
+	void setPendingPValue(int reads1, int reads2)
+	{
+		pValue = Double.NaN;
+		pValueReads1 = reads1;
+		pValueReads2 = reads2;
+	}
+
+
+	/**
+	 * Returns the p-value of the call, computing it first if it was deferred
+	 *
+	 * @return	P-value from VarScan.getSignificance
+	 */
+	double getPValue()
+	{
+		if(pValueReads1 >= 0)
+		{
+			pValue = VarScan.getSignificance(pValueReads1, pValueReads2);
+			pValueReads1 = -1;
+		}
+
+		return(pValue);
+	}
+
+
+	/**
+	 * Computes every deferred p-value in a set of calls, and the calls chained to them, in one batch
+	 *
+	 * @param	calls	Calls to resolve; null entries are skipped
+	 */
+	static void computePValues(PositionCall[] calls)
+	{
+		int numPending = 0;
+		for(PositionCall first : calls)
+		{
+			for(PositionCall call = first; call != null; call = call.next)
+			{
+				if(call.pValueReads1 >= 0)
+					numPending++;
+			}
+		}
+
+		if(numPending == 0)
+			return;
+
+		int[] reads1 = new int[numPending];
+		int[] reads2 = new int[numPending];
+		double[] pValues = new double[numPending];
+		int index = 0;
+		for(PositionCall first : calls)
+		{
+			for(PositionCall call = first; call != null; call = call.next)
+			{
+				if(call.pValueReads1 >= 0)
+				{
+					reads1[index] = call.pValueReads1;
+					reads2[index] = call.pValueReads2;
+					index++;
+				}
+			}
+		}
+
+		VarScan.getSignificance(reads1, reads2, pValues, numPending);
+
+		index = 0;
+		for(PositionCall first : calls)
+		{
+			for(PositionCall call = first; call != null; call = call.next)
+			{
+				if(call.pValueReads1 >= 0)
+				{
+					call.pValue = pValues[index++];
+					call.pValueReads1 = -1;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns true if a variant allele was recorded for this call
+	 */
+	boolean hasVarAllele()
+	{
+		return(varAllele.length() > 0);
+	}
+
+
+	/**
+	 * Formats the variant allele frequency as a percentage string such as 12.5%
+	 *
+	 * @return	Formatted frequency
+	 */
+	String getVarFreq()
+	{
+		return(freqFormat.get().format(varFreq) + "%");
+	}
+
+
+	/**
+	 * Formats the call as a tab-delimited line of native VarScan output
+	 *
+	 * @return	genotype, reads1, reads2, freq, strands1, strands2, qual1, qual2, pvalue, map1, map2, reads1plus, reads1minus, reads2plus, reads2minus, varAllele
+	 */
+	public String toString()
+	{
+		StringBuilder line = new StringBuilder(96);
+		line.append(genotype).append('\t').append(reads1).append('\t').append(reads2).append('\t').append(getVarFreq());
+		line.append('\t').append(strands1).append('\t').append(strands2).append('\t').append(avgQual1).append('\t').append(avgQual2);
+		line.append('\t').append(getPValue());
+		line.append('\t').append(avgMap1).append('\t').append(avgMap2);
+		line.append('\t').append(reads1plus).append('\t').append(reads1minus).append('\t').append(reads2plus).append('\t').append(reads2minus);
+		line.append('\t').append(varAllele);
+		return(line.toString());
+	}
+
+}
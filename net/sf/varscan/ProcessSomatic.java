@@ -24,7 +24,8 @@ public class ProcessSomatic {
 		"\tOPTIONS\n" +
 		"\t--min-tumor-freq - Minimum variant allele frequency in tumor [0.10]\n" +
 		"\t--max-normal-freq - Maximum variant allele frequency in normal [0.05]\n" +
-		"\t--p-value - P-value for high-confidence calling [0.07]";
+		"\t--p-value - P-value for high-confidence calling [0.07]\n" +
+		"\t--output-compression - none or bgzf; bgzf output files get a .gz suffix and a tabix index [none]";
 
 		// Parse command-line parameters //
 		HashMap<String, String> params = VarScan.getParams(args);
@@ -72,31 +73,13 @@ public class ProcessSomatic {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!infile.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-		    		System.err.println("Exception while trying to get input" + e.getMessage());
-		    		System.exit(1);
-		    	}
-	    	}
-
 			if(args.length > 1)
 				statusFile = args[1];
 
+			// Name the outputs after a compressed status file as if it were not compressed //
+			if(statusFile.endsWith(".gz"))
+				statusFile = statusFile.substring(0, statusFile.length() - 3);
+
 
 			// Declare output files //
 			PrintStream outSomatic = null;
@@ -115,23 +98,23 @@ public class ProcessSomatic {
 				isVCF = true;
 				String nameString = statusFile.replace(".vcf", "");
 				System.err.println("Opening output files: " + nameString + ".Somatic.vcf " + nameString + ".Germline.vcf " + nameString + ".LOH.vcf ");
-				outSomatic = new PrintStream( new FileOutputStream(nameString + ".Somatic.vcf") );
-				outSomaticHC = new PrintStream( new FileOutputStream(nameString + ".Somatic.hc.vcf") );
-				outGermline = new PrintStream( new FileOutputStream(nameString + ".Germline.vcf") );
-				outGermlineHC = new PrintStream( new FileOutputStream(nameString + ".Germline.hc.vcf") );
-				outLOH = new PrintStream( new FileOutputStream(nameString + ".LOH.vcf") );
-				outLOHHC = new PrintStream( new FileOutputStream(nameString + ".LOH.hc.vcf") );
+				outSomatic = BgzfOutputStream.openOutput(nameString + ".Somatic.vcf", params);
+				outSomaticHC = BgzfOutputStream.openOutput(nameString + ".Somatic.hc.vcf", params);
+				outGermline = BgzfOutputStream.openOutput(nameString + ".Germline.vcf", params);
+				outGermlineHC = BgzfOutputStream.openOutput(nameString + ".Germline.hc.vcf", params);
+				outLOH = BgzfOutputStream.openOutput(nameString + ".LOH.vcf", params);
+				outLOHHC = BgzfOutputStream.openOutput(nameString + ".LOH.hc.vcf", params);
 
 			}
 			else
 			{
 				System.err.println("Opening output files: " + statusFile + ".Somatic " + statusFile + ".Germline " + statusFile + ".LOH ");
-				outSomatic = new PrintStream( new FileOutputStream(statusFile + ".Somatic") );
-				outSomaticHC = new PrintStream( new FileOutputStream(statusFile + ".Somatic.hc") );
-				outGermline = new PrintStream( new FileOutputStream(statusFile + ".Germline") );
-				outGermlineHC = new PrintStream( new FileOutputStream(statusFile + ".Germline.hc") );
-				outLOH = new PrintStream( new FileOutputStream(statusFile + ".LOH") );
-				outLOHHC = new PrintStream( new FileOutputStream(statusFile + ".LOH.hc") );
+				outSomatic = BgzfOutputStream.openOutput(statusFile + ".Somatic", params);
+				outSomaticHC = BgzfOutputStream.openOutput(statusFile + ".Somatic.hc", params);
+				outGermline = BgzfOutputStream.openOutput(statusFile + ".Germline", params);
+				outGermlineHC = BgzfOutputStream.openOutput(statusFile + ".Germline.hc", params);
+				outLOH = BgzfOutputStream.openOutput(statusFile + ".LOH", params);
+				outLOHHC = BgzfOutputStream.openOutput(statusFile + ".LOH.hc", params);
 
 			}
 
@@ -12,7 +12,6 @@ import java.io.BufferedReader;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.PrintStream;
-import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 
@@ -33,7 +32,8 @@ public class ReadCounts {
 		"\t--variants-file\tA list of variants at which to report readcounts\n" +
 		"\t--output-file\tOutput file to contain the readcounts\n" +
 		"\t--min-coverage\tMinimum read depth at a position to make a call [1]\n" +
-		"\t--min-base-qual\tMinimum base quality at a position to count a read [20]\n";
+		"\t--min-base-qual\tMinimum base quality at a position to count a read [20]\n" +
+		"\t--region\tOnly read chrom:start-end, starting at the position using the index made by the index command\n";
 
 		// Set parameter defaults //
 
@@ -107,8 +107,7 @@ public class ReadCounts {
 
 	    	// Declare file-parsing variables //
 
-	    	BufferedReader in = VarScan.getInfile(args);
-	    	String line;
+	    	PileupLineReader in = VarScan.getPileupReader(args);
 
 	    	// If no input, print usage //
 
@@ -118,31 +117,11 @@ public class ReadCounts {
 	    		System.exit(10);
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	if(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-	    		}
-		    	catch(Exception e)
-		    	{
-
-		    	}
-	    	}
-
 	    	// If pileup input was provided, begin parsing it //
 
-	    	if(in.ready())
+	    	if(in.hasInput())
 	    	{
-	    		while ((line = in.readLine()) != null)
+	    		while (in.next())
 	    		{
 	    			stats.put("numPositions", (stats.get("numPositions") + 1));
 
@@ -154,21 +133,19 @@ public class ReadCounts {
 
 	    			try
 	    			{
-	    				String[] lineContents = line.split("\t");
-
 	    				// Verify expected pileup format //
 
-	    				if(lineContents.length > 5 && lineContents[0].length() > 0 && lineContents[1].length() > 0 && lineContents[2].length() > 0 && lineContents[3].length() > 0)
+	    				if(in.getNumColumnsTrimmed() > 5 && in.getColumnLength(0) > 0 && in.getColumnLength(1) > 0 && in.getColumnLength(2) > 0 && in.getColumnLength(3) > 0)
 	    				{
-	    					String refName = lineContents[0];
-		    	        	String position = lineContents[1];
-		    	        	String refBase = lineContents[2].toUpperCase();
-		    	        	int readDepth = Integer.parseInt(lineContents[3]);
-		    	        	String readBases = lineContents[4];
-		    	        	String readQualities = lineContents[5];
-		    	        	String mapQualities = "";
-		    	        	if(lineContents.length > 6)			// Get Map Qualities if available //
-		    	        		mapQualities = lineContents[6];
+	    					String refName = in.getColumnString(0);
+		    	        	String position = in.getColumnString(1);
+		    	        	String refBase = in.getColumnString(2).toUpperCase();
+		    	        	int readDepth = in.getColumnInt(3);
+		    	        	CharSequence readBases = in.getColumn(4);
+		    	        	CharSequence readQualities = in.getColumn(5);
+		    	        	CharSequence mapQualities = "";
+		    	        	if(in.getNumColumnsTrimmed() > 6)			// Get Map Qualities if available //
+		    	        		mapQualities = in.getColumn(6);
 
 		    	        	// If variant file was provided, verify that this position matches one in list //
 
@@ -185,11 +162,7 @@ public class ReadCounts {
 
 			    	        		// Obtain the readcounts //
 
-			    	        		HashMap<String, String> readCounts = VarScan.getReadCounts(refBase, readBases, readQualities, minBaseQual, mapQualities);
-
-			    	        		// Build array of allele keys observed and sort it //
-			    	        		String[] alleleKeys = (String[]) readCounts.keySet().toArray(new String[0]);
-			    	    			Arrays.sort(alleleKeys);
+			    	        		AlleleCounts readCounts = VarScan.getReadCounts(refBase, readBases, readQualities, minBaseQual, mapQualities);
 
 			    	    			// Calculate the # of reads that met quality threshold //
 			    	    			int readDepthQual = VarScan.qualityDepth(readQualities, minBaseQual);
@@ -201,9 +174,7 @@ public class ReadCounts {
 
 			    	        		// First, get the ref result //
 			    	    			//reads2 strands2 qual2 map2 readsPlus readsMinus
-			    	        		String refResult = "0\t0\t0\t0\t0\t0";
-			    	        		if(readCounts.containsKey(refBase))
-			    	        			refResult = readCounts.get(refBase);
+			    	        		String refResult = readCounts.format(readCounts.refSlot());
 
 			    	        		// Replace tabs with colons for ref base //
 			    	        		refResult = refBase + ":" + refResult.replace("\t", ":");
@@ -223,8 +194,9 @@ public class ReadCounts {
 				    	        				desiredAllele = varContents[1];
 
 				    	        				String varResult = "0\t0\t0\t0\t0\t0";
-						    	        		if(readCounts.containsKey(desiredAllele))
-						    	        			varResult = readCounts.get(desiredAllele);
+				    	        				int desiredSlot = readCounts.findAllele(desiredAllele);
+						    	        		if(desiredSlot >= 0)
+						    	        			varResult = readCounts.format(desiredSlot);
 
 						    	        		outputLine += desiredAllele + "\t" + varResult + "\t";
 				    	        			}
@@ -238,31 +210,17 @@ public class ReadCounts {
 
 			    	        		// Go through all bases observed //
 
-			    	    			for(String allele : alleleKeys)
+			    	    			for(int slot : readCounts.variantSlots())
 			    	    			{
-			    	    				String[] alleleContents = readCounts.get(allele).split("\t");
-			    	    				if(allele.equals(refBase) || allele.equals(desiredAllele))
+			    	    				String allele = readCounts.getAllele(slot);
+			    	    				if(allele.equals(desiredAllele))
 			    	    				{
-			    	    					// Skip the reference base and desired base //
+			    	    					// Skip the desired base //
 			    	    				}
 			    	    				else
 			    	    				{
-			    	    					try {
-				    	    					int thisReads2 = Integer.parseInt(alleleContents[0]);
-				    	    					int thisStrands2 = Integer.parseInt(alleleContents[1]);
-				    	    					int thisAvgQual2 = Integer.parseInt(alleleContents[2]);
-				    	    					int thisMapQual2 = Integer.parseInt(alleleContents[3]);
-				    	    					int thisReads2plus = Integer.parseInt(alleleContents[4]);
-				    	    					int thisReads2minus = Integer.parseInt(alleleContents[5]);
-
-				    	    					String varResult = allele + ":" + thisReads2 + ":" + thisStrands2 + ":" + thisAvgQual2 + ":" + thisMapQual2 + ":" + thisReads2plus + ":" + thisReads2minus;
-				    	    					outputLine += varResult + "\t";
-			    	    					}
-			    	    					catch(Exception e)
-			    	    					{
-
-			    	    					}
-
+			    	    					String varResult = allele + ":" + readCounts.format(slot).replace("\t", ":");
+			    	    					outputLine += varResult + "\t";
 			    	    				}
 			    	    			}
 
@@ -295,13 +253,13 @@ public class ReadCounts {
 	    				}
 	    				else
 	    				{
-	    					System.err.println("Error: Invalid format for pileup at line " + stats.get("numBases") + "\n" + line + "\n");
+	    					System.err.println("Error: Invalid format for pileup at line " + stats.get("numBases") + "\n" + in.getLine() + "\n");
 	    					return;
 	    				}
 	    			}
 	    			catch(Exception e)
 	    		    {
-	    		    	System.err.println("Parsing Exception on line:\n" + line + "\n" + e.getLocalizedMessage());
+	    		    	System.err.println("Parsing Exception on line:\n" + in.getLine() + "\n" + e.getLocalizedMessage());
 	    				stats.put("numParsingExceptions", (stats.get("numParsingExceptions") + 1));
 	    				if(stats.get("numParsingExceptions") >= 5)
 	    				{
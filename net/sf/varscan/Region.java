@@ -0,0 +1,141 @@
+/**
+ * @(#)Region.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of positions on one contig, counting from 1 and including both ends
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class Region {
+
+	final String chrom;
+	final int start;
+	final int end;
+
+
+	/**
+	 * Constructor for a region
+	 *
+	 * @param	chrom	Contig name
+	 * @param	start	First position
+	 * @param	end		Last position
+	 */
+	public Region(String chrom, int start, int end)
+	{
+		this.chrom = chrom;
+		this.start = start;
+		this.end = end;
+	}
+
+
+	/**
+	 * Parses a region given as chrom, chrom:start, or chrom:start-end
+	 *
+	 * @param	region	Region text
+	 * @return			The region
+	 * @throws	IOException	If the region is invalid
+	 */
+	static Region parse(String region) throws IOException
+	{
+		String chrom = region;
+		int start = 1;
+		int end = Integer.MAX_VALUE;
+
+		// Contig names may contain colons, so only a numeric range after the last one is a range //
+		int colon = region.lastIndexOf(':');
+		if(colon > 0)
+		{
+			String range = region.substring(colon + 1).replace(",", "");
+			if(range.matches("[0-9]+(-[0-9]*)?"))
+			{
+				chrom = region.substring(0, colon);
+				String[] bounds = range.split("-", -1);
+				try
+				{
+					start = Integer.parseInt(bounds[0]);
+					if(bounds.length > 1 && bounds[1].length() > 0)
+						end = Integer.parseInt(bounds[1]);
+				}
+				catch(NumberFormatException e)
+				{
+					throw new IOException("Invalid region " + region);
+				}
+			}
+		}
+
+		if(chrom.length() == 0 || start > end)
+			throw new IOException("Invalid region " + region);
+
+		return(new Region(chrom, start, end));
+	}
+
+
+	/**
+	 * Reads the regions of a BED file, whose 0-based, half-open intervals become 1-based ranges
+	 *
+	 * @param	file	BED file, which may be compressed
+	 * @return			The regions, in file order
+	 * @throws	IOException	If the file cannot be read or has an invalid line
+	 */
+	static List<Region> readBed(File file) throws IOException
+	{
+		List<Region> regions = new ArrayList<Region>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(BgzfInputStream.open(file)));
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				if(line.length() == 0 || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser"))
+					continue;
+
+				String[] fields = line.split("\t");
+				if(fields.length < 3)
+					throw new IOException("Invalid line in " + file.getPath() + ": " + line);
+
+				try
+				{
+					int start = Integer.parseInt(fields[1]) + 1;
+					int end = Integer.parseInt(fields[2]);
+					if(start < 1 || start > end)
+						throw new IOException("Invalid interval in " + file.getPath() + ": " + line);
+					regions.add(new Region(fields[0], start, end));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new IOException("Invalid number in " + file.getPath() + ": " + line);
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return(regions);
+	}
+
+
+	public String toString()
+	{
+		return(chrom + ":" + start + "-" + end);
+	}
+
+}
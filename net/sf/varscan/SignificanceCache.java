@@ -0,0 +1,288 @@
+/**
+ * @(#)SignificanceCache.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A bounded cache of Fisher's exact test p-values keyed on the 2x2 table
+ *
+ * The four cell counts are packed into one long, so lookups allocate nothing. Entries live in
+ * fixed arrays with an open-addressed index, and CLOCK eviction gives each entry a second chance
+ * if it was used since the hand last passed. Tables with any count of 65535 or more are not cached.
+ *
+ * A cache is not locked, so it must not be shared between threads. PerThread gives each thread its
+ * own, so that worker threads never wait on one another to look up a p-value.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class SignificanceCache {
+
+	static final int DEFAULT_CAPACITY = 65536;
+	private static final long EMPTY = -1L;
+	private static final int MAX_COUNT = 0xFFFF;
+
+	private final int capacity;
+	private final long[] keys;
+	private final double[] values;
+	private final boolean[] referenced;
+	private final int[] index;		// Open-addressed hash of key to entry, -1 if empty
+	private final int indexMask;
+	private int numEntries = 0;
+	private int hand = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+
+
+	/**
+	 * Constructor for a cache holding up to a given number of tables
+	 *
+	 * @param	capacity	Maximum number of p-values to keep
+	 */
+	public SignificanceCache(int capacity)
+	{
+		this.capacity = Math.max(capacity, 1);
+		keys = new long[this.capacity];
+		values = new double[this.capacity];
+		referenced = new boolean[this.capacity];
+
+		int indexSize = Integer.highestOneBit(this.capacity) << 2;
+		index = new int[indexSize];
+		indexMask = indexSize - 1;
+		Arrays.fill(index, -1);
+	}
+
+
+	/**
+	 * Packs a 2x2 table into a single key
+	 *
+	 * @return	Packed key, or EMPTY if any count is too large to cache
+	 */
+	static long pack(int a, int b, int c, int d)
+	{
+		if(a >= MAX_COUNT || b >= MAX_COUNT || c >= MAX_COUNT || d >= MAX_COUNT)
+			return(EMPTY);
+
+		return(((long) a << 48) | ((long) b << 32) | ((long) c << 16) | (long) d);
+	}
+
+
+	/**
+	 * Returns the first index position to probe for a key
+	 */
+	private int home(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return((int) (h >>> 32) & indexMask);
+	}
+
+
+	/**
+	 * Returns the entry number holding a key, or -1 if it is not cached
+	 */
+	private int find(long key)
+	{
+		for(int i = home(key); ; i = (i + 1) & indexMask)
+		{
+			int entry = index[i];
+			if(entry < 0)
+				return(-1);
+			if(keys[entry] == key)
+				return(entry);
+		}
+	}
+
+
+	/**
+	 * Looks up a cached p-value for a 2x2 table
+	 *
+	 * @param	key		Packed table from pack()
+	 * @return			The p-value, or NaN if it is not cached
+	 */
+	double get(long key)
+	{
+		if(key != EMPTY)
+		{
+			int entry = find(key);
+			if(entry >= 0)
+			{
+				referenced[entry] = true;
+				hits++;
+				return(values[entry]);
+			}
+		}
+
+		misses++;
+		return(Double.NaN);
+	}
+
+
+	/**
+	 * Stores the p-value for a 2x2 table, evicting an entry if the cache is full
+	 *
+	 * @param	key		Packed table from pack()
+	 * @param	pValue	P-value for the table
+	 */
+	void put(long key, double pValue)
+	{
+		if(key == EMPTY || find(key) >= 0)
+			return;
+
+		int entry;
+		if(numEntries < capacity)
+		{
+			entry = numEntries++;
+		}
+		else
+		{
+			// Advance the clock hand past recently-used entries //
+			while(referenced[hand])
+			{
+				referenced[hand] = false;
+				hand = (hand + 1) % capacity;
+			}
+
+			entry = hand;
+			hand = (hand + 1) % capacity;
+			removeFromIndex(keys[entry]);
+		}
+
+		keys[entry] = key;
+		values[entry] = pValue;
+		referenced[entry] = false;
+
+		int i = home(key);
+		while(index[i] >= 0)
+			i = (i + 1) & indexMask;
+		index[i] = entry;
+	}
+
+
+	/**
+	 * Removes a key from the open-addressed index, shifting later probes back into the gap
+	 */
+	private void removeFromIndex(long key)
+	{
+		int gap = home(key);
+		while(keys[index[gap]] != key)
+			gap = (gap + 1) & indexMask;
+
+		index[gap] = -1;
+
+		for(int i = (gap + 1) & indexMask; index[i] >= 0; i = (i + 1) & indexMask)
+		{
+			int entry = index[i];
+			int want = home(keys[entry]);
+
+			// Move the entry into the gap unless its home lies cyclically between the gap and here //
+			boolean between = (gap <= i) ? (gap < want && want <= i) : (gap < want || want <= i);
+			if(!between)
+			{
+				index[gap] = entry;
+				index[i] = -1;
+				gap = i;
+			}
+		}
+	}
+
+
+	long getHits()
+	{
+		return(hits);
+	}
+
+	long getMisses()
+	{
+		return(misses);
+	}
+
+
+	/**
+	 * Summarizes cache usage for verbose output
+	 *
+	 * @return	A string such as "12345 hits, 678 misses (94.8% hit rate)"
+	 */
+	public String toString()
+	{
+		return(describe(hits, misses));
+	}
+
+
+	private static String describe(long hits, long misses)
+	{
+		long lookups = hits + misses;
+		double hitRate = (lookups > 0) ? (100.0 * hits / lookups) : 0.0;
+		return(hits + " hits, " + misses + " misses (" + new DecimalFormat("0.0").format(hitRate) + "% hit rate)");
+	}
+
+
+	/**
+	 * A cache for each thread that looks up p-values, whose hits and misses are summed for verbose output
+	 */
+	static class PerThread
+	{
+		private final int capacity;
+		private final ArrayList<SignificanceCache> caches = new ArrayList<SignificanceCache>();
+		private final ThreadLocal<SignificanceCache> local = new ThreadLocal<SignificanceCache>() {
+			protected SignificanceCache initialValue()
+			{
+				SignificanceCache cache = new SignificanceCache(capacity);
+				synchronized(caches)
+				{
+					caches.add(cache);
+				}
+				return(cache);
+			}
+		};
+
+		/**
+		 * @param	capacity	Maximum number of p-values each thread keeps
+		 */
+		PerThread(int capacity)
+		{
+			this.capacity = capacity;
+		}
+
+		double get(long key)
+		{
+			return(local.get().get(key));
+		}
+
+		void put(long key, double pValue)
+		{
+			local.get().put(key, pValue);
+		}
+
+		/**
+		 * Summarizes the usage of every thread's cache, once the threads have finished
+		 */
+		public String toString()
+		{
+			long hits = 0;
+			long misses = 0;
+			synchronized(caches)
+			{
+				for(SignificanceCache cache : caches)
+				{
+					hits += cache.getHits();
+					misses += cache.getMisses();
+				}
+			}
+
+			return(describe(hits, misses));
+		}
+	}
+
+}
@@ -25,8 +25,33 @@ import java.lang.Math.*;
  */
 public class Somatic {
 
+	private static final String NEWLINE = System.getProperty("line.separator");
 
-
+	private static final ThreadLocal<DecimalFormat> pvalueFormat = new ThreadLocal<DecimalFormat>() {
+		protected DecimalFormat initialValue()
+		{
+			return(new DecimalFormat("0.####E0"));
+		}
+	};
+
+	// Settings for mpileup input, which are only read once comparison begins //
+
+	HashMap<String, String> params;
+	int minCoverage = 	8;
+	int minCoverageNormal = 8;
+	int minCoverageTumor = 6;
+	int minReads2 = 	2;
+	int minStrands2 = 	1;
+	int minAvgQual = 	15;
+	double normalPurity = 1.00;
+	double tumorPurity = 1.00;
+	double dataRatio = 1.00;
+	double minVarFreq = 0.20;
+	double pValueThreshold = 0.99;
+	double somaticPvalue = 0.05; //1.0e-04;
+	double minFreqForHom = 0.75;
+	boolean doStrandFilter = true;
+	int numThreads = 1;
 
 	////////////////////////////////////////////////////////////////////////////////////////////////////
 	// Constructor with two arguments (string[], boolean) expects mpileup input 					  //
@@ -34,8 +59,9 @@ public class Somatic {
 
 	public Somatic(String[] args, boolean isMpileup)
 	{
-		String usage = "USAGE: java -jar VarScan.jar somatic [normal-tumor.mpileup] [Opt: output] OPTIONS\n" +
+		String usage = "USAGE: java -jar VarScan.jar somatic [normal-tumor.mpileup | normal.bam tumor.bam] [Opt: output] OPTIONS\n" +
 			"\tnormal-tumor.pileup - The SAMtools mpileup file for Normal and Tumor BAMs\n" +
+			"\tnormal.bam tumor.bam - Or the Normal and Tumor BAMs themselves, sorted by coordinate and piled up directly\n" +
 			"\toutput - Output base name for SNP and indel output\n" +
 			"\nOPTIONS:\n" +
 			"\t--output-snp - Output file for SNP calls [output.snp]\n" +
@@ -52,7 +78,14 @@ public class Somatic {
 			"\t--somatic-p-value - P-value threshold to call a somatic site [0.05]\n" +
 			"\t--strand-filter - If set to 1, removes variants with >90% strand bias\n" +
 			"\t--validation - If set to 1, outputs all compared positions even if non-variant\n" +
-			"\t--output-vcf - If set to 1, output VCF instead of VarScan native format\n";
+			"\t--output-vcf - If set to 1, output VCF instead of VarScan native format\n" +
+			"\t--fisher-approx-margin - Use a normal approximation for significance tests whose margins all reach this, with exact tests near thresholds [0]\n" +
+			"\t--threads - Number of threads for comparing positions; output stays in input order [1]\n" +
+			"\t--region - Only compare chrom:start-end, reading from the position using the index made by the index command\n" +
+			"\t--regions-file - Only compare the intervals of a BED file; BAM input, read from each interval using .bai indexes if present\n" +
+			"\t--reference - Indexed FASTA reference, needed for BAM input\n" +
+			"\t--min-map-qual - Minimum mapping quality of reads piled up from BAM input [0]\n" +
+			"\t--output-compression - none or bgzf; bgzf output files get a .gz suffix and a tabix index [none]\n";
 
 		String vcfHeader = "##fileformat=VCFv4.1";
 		vcfHeader += "\n" + "##source=VarScan2";
@@ -75,10 +108,9 @@ public class Somatic {
 
 		// Set parameter defaults //
 
-		HashMap<String, String> params = VarScan.getParams(args);
+		params = VarScan.getParams(args);
 
 		// Set up formatting for p-values //
-		DecimalFormat pvalueFormat = new DecimalFormat("0.####E0");
 	    DecimalFormat oneDigit = new DecimalFormat("#0.0");
 	    DecimalFormat threeDigits = new DecimalFormat("#0.000");
 
@@ -88,30 +120,23 @@ public class Somatic {
 		String outputIndel = "";
 		String outputCopy = "";
 
-		if(args.length >= 3 && !args[2].startsWith("-"))
+		// The output name follows the input, which may be a normal and a tumor BAM //
+		int numBams = VarScan.getBamFiles(args).size();
+		int outputIndex = 1 + Math.max(1, numBams);
+
+		if(numBams == 1 || numBams > 2)
 		{
-			outputName = args[2];
+			System.err.println("ERROR: BAM input needs a normal BAM and a tumor BAM\n" + usage);
+			System.exit(10);
+		}
+
+		if(args.length > outputIndex && !args[outputIndex].startsWith("-"))
+		{
+			outputName = args[outputIndex];
 			outputSnp = outputName + ".snp";
 			outputIndel = outputName + ".indel";
 		}
 
-//		Set parameter defaults //
-
-		int minCoverage = 	8;
-		int minCoverageNormal = 8;
-		int minCoverageTumor = 6;
-		int minReads2 = 	2;
-		int minStrands2 = 	1;
-		int minAvgQual = 	15;
-		double normalPurity = 1.00;
-		double tumorPurity = 1.00;
-		double dataRatio = 1.00;
-		double minVarFreq = 0.20;
-		double pValueThreshold = 0.99;
-		double somaticPvalue = 0.05; //1.0e-04;
-		double minFreqForHom = 0.75;
-		boolean doStrandFilter = true;
-
 		// Try adjusting any provided parameters based on user inut //
 		try
 		{
@@ -181,6 +206,9 @@ public class Somatic {
 					doStrandFilter = false;
 			}
 
+			if(params.containsKey("threads"))
+				 numThreads = Integer.parseInt(params.get("threads"));
+
 //			System.err.println("Min coverage:\t" + minCoverage);
 			System.err.println("Min coverage:\t" + minCoverageNormal + "x for Normal, " + minCoverageTumor + "x for Tumor");
 			System.err.println("Min reads2:\t" + minReads2);
@@ -194,6 +222,10 @@ public class Somatic {
 			System.err.println("Somatic p-value:\t" + somaticPvalue);
 			if(params.containsKey("validation"))
 				System.err.println("Validation mode: on");
+			if(numThreads > 1)
+				System.err.println("Threads:\t" + numThreads);
+
+			VarScan.setApproximation(params);
 
 		}
 		catch(Exception e)
@@ -219,26 +251,11 @@ public class Somatic {
 			 System.exit(1);
 		}
 
-		// Statistics counters //
-		long tumorPositions = 0;
-		long sharedPositions = 0;
-		long comparedPositions = 0;
-		long calledReference = 0;
-		long indelFilter = 0;
-		long strandFilter = 0;
-		long calledGermline = 0;
-		long calledLOH = 0;
-		long calledSomatic = 0;
-		long calledUnknown = 0;
-		long calledVariant = 0;
-
-
 		try
 		{
 	    	// Declare file-parsing variables //
 
-	    	BufferedReader in = VarScan.getInfile(args);
-	    	String line;
+	    	PileupSource in = VarScan.getPileupSource(args);
 
 	    	// If no input, print usage //
 
@@ -248,41 +265,10 @@ public class Somatic {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-		    		System.err.println("Exception while trying to get input" + e.getMessage());
-		    		System.exit(1);
-		    	}
-	    	}
-
 	    	// Proceed if input stream is ready //
 
-	    	if(in != null && in.ready())
+	    	if(in != null && in.hasInput())
 	    	{
-	    		// Declare some file-parsing variables //
-			    String lineNormal;
-			    String lineTumor;
-			    String chromNormal = "";
-			    String chromTumor = "";
-			    String refBase = "";
-			    int posNormal = 0;
-			    int posTumor = 0;
-
 				// Declare output file //
 		 	 	PrintStream outSnp = null; // declare a print stream object for SNPs
 		 	 	PrintStream outIndel = null; // declare a print stream object for Indels
@@ -296,8 +282,8 @@ public class Somatic {
 		 	 		if(!outputIndel.contains(".vcf"))
 		 	 			outputIndel += ".vcf";
 		 	 	}
-		 		outSnp = new PrintStream( new FileOutputStream(outputSnp) );
-		 		outIndel = new PrintStream( new FileOutputStream(outputIndel) );
+		 		outSnp = BgzfOutputStream.openOutput(outputSnp, params);
+		 		outIndel = BgzfOutputStream.openOutput(outputIndel, params);
 
 		 		if(!params.containsKey("no-headers") && !params.containsKey("output-vcf"))
 		 		{
@@ -314,7 +300,7 @@ public class Somatic {
 
 		 		if(params.containsKey("validation"))
 		 		{
-			 		outValidation = new PrintStream( new FileOutputStream(outputName + ".validation") );
+			 		outValidation = BgzfOutputStream.openOutput(outputName + ".validation", params);
 			 		if(!params.containsKey("no-headers") && !params.containsKey("output-vcf"))
 			 			outValidation.println("chrom\tposition\tref\tvar\tnormal_reads1\tnormal_reads2\tnormal_var_freq\tnormal_gt\ttumor_reads1\ttumor_reads2\ttumor_var_freq\ttumor_gt\tsomatic_status\tvariant_p_value\tsomatic_p_value\ttumor_reads1_plus\ttumor_reads1_minus\ttumor_reads2_plus\ttumor_reads2_minus");
 			 		if(params.containsKey("output-vcf"))
@@ -324,375 +310,42 @@ public class Somatic {
 					}
 		 		}
 
-	    		// Parse the infile line by line //
+	    		// Parse the infile line by line, on several threads if requested //
 	    		System.err.println("Reading mpileup input...");
-	    		int numParsingExceptions = 0;
-
-	    		while ((line = in.readLine()) != null)
-	    		{
-
-	    			// Begin try-catch for line parsing //
-
-	    			try
-	    			{
-	    				String[] lineContents = line.split("\t", -1);
-
-	    				// Verify expected pileup format //
-
-	    				if(lineContents.length > 5 && lineContents[0].length() > 0 && lineContents[1].length() > 0 && lineContents[2].length() > 0 && lineContents[3].length() > 0)
-	    				{
-	    					sharedPositions++;
-
-	    					// Parse common fields from line //
-	    					String refName = lineContents[0];
-	    					int position = Integer.parseInt(lineContents[1]);
-	    					refBase = lineContents[2].toUpperCase();
 
-	    					chromNormal = refName;
-	    					chromTumor = refName;
-	    					posNormal = position;
-	    					posTumor = position;
+	    		SomaticResults totals = new SomaticResults();
+	    		boolean completed = false;
 
-	    					// Parse normal, which should be first sample //
-	    					int normalOffset = 3;
-	    					int pileupDepthNormal = Integer.parseInt(lineContents[normalOffset]);
-		    	        	String normalBases = lineContents[normalOffset + 1];
-		    	        	String normalQualities = lineContents[normalOffset + 2];
+	    		if(numThreads > 1 && PileupPipeline.canSplit(in))
+	    			completed = compareParallel(in, totals, outSnp, outIndel, outValidation);
+	    		else
+	    			completed = compareSerial(in, totals, outSnp, outIndel, outValidation);
 
-	    					// Parse tumor, which should be second sample //
-	    					int tumorOffset = 6;
-	    					int pileupDepthTumor = Integer.parseInt(lineContents[tumorOffset]);
-		    	        	String tumorBases = lineContents[tumorOffset + 1];
-		    	        	String tumorQualities = lineContents[tumorOffset + 2];
-
-	    					lineNormal = refName + "\t" + position + "\t" + refBase + "\t" + pileupDepthNormal + "\t" + normalBases + "\t" + normalQualities;
-	    					lineTumor = refName + "\t" + position + "\t" + refBase + "\t" + pileupDepthTumor + "\t" + tumorBases + "\t" + tumorQualities;
-
-	    					String compareResult = comparePositions(lineNormal, lineTumor, minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity);
-
-			    			if(compareResult.length() > 0)
-			    			{
-			    				// Get the alleles to determine type //
-			    				String[] compareContents = compareResult.split("\t");
-				    			String allele1 = compareContents[0];
-				    			String allele2 = compareContents[1];
-
-				    			double strandedness1 = 0.50;
-				    			double strandedness2 = 0.50;
-				    			double strandednessDiff = 0.00;
-
-				    			if(compareContents.length >= 17)
-				    			{
-				    				try
-				    				{
-				    					int tumorReads1plus = Integer.parseInt(compareContents[13]);
-				    					int tumorReads1minus = Integer.parseInt(compareContents[14]);
-				    					int tumorReads2plus = Integer.parseInt(compareContents[15]);
-				    					int tumorReads2minus = Integer.parseInt(compareContents[16]);
-
-				    					if(tumorReads1plus > 0 || tumorReads1minus > 0)
-				    					{
-				    						strandedness1 = (double) tumorReads1plus / (double) (tumorReads1plus + tumorReads1minus);
-				    					}
-
-				    					if(tumorReads2plus > 0 || tumorReads2minus > 0)
-				    					{
-				    						strandedness2 = (double) tumorReads2plus / (double) (tumorReads2plus + tumorReads2minus);
-				    						if(tumorReads1plus > 0 || tumorReads1minus > 0)
-				    						{
-				    							strandednessDiff = java.lang.Math.abs(strandedness1 - strandedness2);
-				    						}
-				    					}
-				    				}
-				    				catch(Exception e)
-				    				{
-				    					// Exception parsing info from compareResult //
-				    				}
-				    			}
-
-			    				//stats.put("comparedPositions", (stats.get("comparedPositions") + 1));
-				    			comparedPositions++;
-
-			    				if(params.containsKey("verbose") && !compareResult.contains("Reference"))
-			    					System.err.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
-
-			    				// If VCF format specified, supply it //
-
-			    				if(params.containsKey("output-vcf"))
-			    				{
-			    					int normalReads1 = Integer.parseInt(compareContents[2]);
-			    					int normalReads2 = Integer.parseInt(compareContents[3]);
-			    					String normalFreq = compareContents[4];
-			    					String normalCall = compareContents[5];
-			    					int tumorReads1 = Integer.parseInt(compareContents[6]);
-			    					int tumorReads2 = Integer.parseInt(compareContents[7]);
-			    					String tumorFreq = compareContents[8];
-			    					String tumorCall = compareContents[9];
-			    					String somStatus = compareContents[10];
-			    					Double germlineP = Double.parseDouble(compareContents[11]);
-			    					Double somaticP = Double.parseDouble(compareContents[12]);
-
-			    					int totalDepth = pileupDepthNormal + pileupDepthTumor;
-
-			    					if(allele2.startsWith("+"))
-			    					{
-			    						// INSERTION //
-			    						// Ref = ref base; Var = ref base followed by inserted bases //
-			    						String varColumn = allele1 + allele2.replace("+", "");
-			    						compareResult = "." + "\t" + allele1 + "\t" + varColumn + "\t" + ".";
-			    					}
-			    					else if(allele2.startsWith("-"))
-			    					{
-			    						// DELETION //
-			    						// Ref = ref base followed by deleted bases; var = ref base //
-			    						String refColumn = allele1 + allele2.replace("-", "");
-			    						compareResult = "." + "\t" + refColumn + "\t" + allele1 + "\t" + ".";
-			    					}
-			    					else
-			    					{
-				    					compareResult = "." + "\t" + allele1 + "\t" + allele2 + "\t" + ".";
-			    					}
-
-
-			    					// Decide on filter field //
-			    					if(doStrandFilter && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
-			    					{
-			    						compareResult += "\t" + "str10";
-			    					}
-			    					else if(somStatus.equals("IndelFilter"))
-			    					{
-			    						compareResult += "\t" + "indelError";
-			    					}
-			    					else
-			    					{
-			    						compareResult += "\t" + "PASS";
-			    					}
-
-			    					// Determine somatic status id and score //
-			    					int ssCode = 0;
-			    					double somScore = 0;
-
-			    					if(somStatus.equals("Reference"))
-			    					{
-			    						// Wildtype //
-			    						ssCode = 0;
-			    						calledReference++;
-			    					}
-			    					else if(somStatus.equals("Germline"))
-			    					{
-			    						// Germline //
-			    						ssCode = 1;
-			    						calledGermline++;
-			    						if(somaticP == 0)
-			    						{
-			    							somScore = 0;
-			    						}
-			    						else
-			    						{
-			    							somScore = 0 - (10 * java.lang.Math.log10(somaticP));
-			    						}
-			    					}
-			    					else if(somStatus.equals("Somatic"))
-			    					{
-			    						// Somatic //
-			    						ssCode = 2;
-			    						calledSomatic++;
-			    						if(somaticP == 0)
-			    						{
-			    							somScore = 255;
-			    						}
-			    						else
-			    						{
-			    							somScore = 0 - (10 * java.lang.Math.log10(somaticP));
-			    						}
-			    					}
-			    					else if(somStatus.equals("LOH"))
-			    					{
-			    						// LOH //
-			    						ssCode = 3;
-			    						calledLOH++;
-			    						if(somaticP == 0)
-			    						{
-			    							somScore = 255;
-			    						}
-			    						else
-			    						{
-			    							somScore = 0 - (10 * java.lang.Math.log10(somaticP));
-			    						}
-			    					}
-			    					else
-			    					{
-			    						// Unknown //
-			    						calledUnknown++;
-			    						ssCode = 5;
-			    					}
-
-			    					// Adjust somatic score //
-			    					if(somScore > 255)
-			    						somScore = 255;
-
-			    					// Print the info field //
-
-			    					compareResult += "\t" + "DP=" + totalDepth;
-			    					if(somStatus.equals("Somatic"))
-			    						compareResult += ";SOMATIC";
-			    					compareResult += ";" + "SS=" + ssCode;
-			    					compareResult += ";" + "SSC=" + (int) somScore;
-			    					compareResult += ";" + "GPV=" + pvalueFormat.format(germlineP);
-			    					compareResult += ";" + "SPV=" + pvalueFormat.format(somaticP);
-
-			    					// Print the format field //
-
-			    					String tumorDP4 = "";
-			    					String normalDP4 = "";
-
-					    			if(compareContents.length >= 17)
-					    			{
-					    				try
-					    				{
-					    					tumorDP4 = compareContents[13] + "," + compareContents[14] + "," + compareContents[15] + "," + compareContents[16];
-					    					normalDP4 = compareContents[17] + "," + compareContents[18] + "," + compareContents[19] + "," + compareContents[20];
-					    				}
-					    				catch(Exception e)
-					    				{
-					    					// Exception parsing info from compareResult //
-					    					tumorDP4 = "";
-					    					normalDP4 = "";
-					    				}
-					    			}
-
-					    			if(tumorDP4.length() > 0)
-					    				compareResult += "\tGT:GQ:DP:RD:AD:FREQ:DP4";
-					    			else
-					    				compareResult += "\tGT:GQ:DP:RD:AD:FREQ";
-
-			    					// Determine normal genotype //
-			    					String normalGt = ".";
-			    					String tumorGt = ".";
-			    					if(normalCall.equals(refBase))
-			    					{
-			    						normalGt = "0/0";
-			    					}
-			    					else if(VarScan.isHeterozygous(normalCall))
-			    					{
-			    						normalGt = "0/1";
-			    					}
-			    					else
-			    					{
-			    						normalGt = "1/1";
-			    					}
-
-			    					if(tumorCall.equals(refBase))
-			    					{
-			    						tumorGt = "0/0";
-			    					}
-			    					else if(VarScan.isHeterozygous(tumorCall))
-			    					{
-			    						tumorGt = "0/1";
-			    					}
-			    					else
-			    					{
-			    						tumorGt = "1/1";
-			    					}
-
-			    					if(tumorDP4.length() > 0)
-			    					{
-				    					compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq + ":" + normalDP4;
-				    					compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq + ":" + tumorDP4;
-			    					}
-			    					else
-			    					{
-				    					compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq;
-				    					compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq;
-			    					}
-			    				}
-
-			    				// Print to master file for validation //
+	    		// Close output files, which for compressed output writes their last blocks and indexes //
+			    outSnp.close();
+			    outIndel.close();
+			    if(outValidation != null)
+			    	outValidation.close();
 
-			    				if(params.containsKey("validation"))
-			    				{
-			    					outValidation.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
-			    				}
+	    		if(!completed)
+	    			return;
 
-			    				if(!params.containsKey("validation") && (compareResult.contains("Reference") || compareResult.contains("SS=0")  || compareResult.contains("Filter")))
-			    				{
-			    					// Don't print reference/indelfilter positions unless doing validation //
-			    				}
-			    				else if(doStrandFilter && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
-			    				{
-			    					// If filter is set, ignore variants that are supported largely by one strand //
-			    					if(!params.containsKey("output-vcf"))
-			    						compareResult = "StrandFilter";
-			    				}
-			    				else if(allele1.contains("-") || allele1.contains("+") || allele2.contains("-") || allele2.contains("+"))//if(compareResult.contains("INS") || compareResult.contains("DEL"))
-			    				{
-			    					outIndel.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
-			    				}
-			    				else
-			    				{
-				    				outSnp.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
-			    				}
-			    			}
-			    			else
-			    			{
-//			    				System.err.println("Uncalled" + chromNormal + "\t" + posNormal + "\t" + compareResult);
-			    			}
-
-			    			if(compareResult.contains("Reference"))
-			    				calledReference++; //stats.put("calledReference", (stats.get("calledReference") + 1));
-			    			else if(compareResult.contains("IndelFilter"))
-			    				indelFilter++;	//stats.put("indelFilter", (stats.get("indelFilter") + 1));
-			    			else if(compareResult.contains("StrandFilter"))
-			    				strandFilter++;
-			    			else if(compareResult.contains("Germline"))
-			    				calledGermline++;	//stats.put("calledGermline", (stats.get("calledGermline") + 1));
-			    			else if(compareResult.contains("Somatic"))
-			    				calledSomatic++;	//stats.put("calledSomatic", (stats.get("calledSomatic") + 1));
-			    			else if(compareResult.contains("LOH"))
-			    				calledLOH++;	//stats.put("calledLOH", (stats.get("calledLOH") + 1));
-			    			else if(compareResult.contains("Unknown"))
-			    				calledUnknown++;	//stats.put("calledUnknown", (stats.get("calledUnknown") + 1));
-			    			else if(compareResult.contains("Variant"))
-			    				calledVariant++;	//stats.put("calledVariant", (stats.get("calledVariant") + 1));
-
-
-
-	    				}
-	    				else
-	    				{
-	    					System.err.println("Error: Invalid format or not enough samples in mpileup: " + line + "\n");
-	    					return;
-	    				}
-	    			}
-	    			catch(Exception e)
-	    		    {
-	    		    	System.err.println("Parsing Exception on line:\n" + line + "\n" + e.getLocalizedMessage());
-	    				numParsingExceptions++;
-	    				if(numParsingExceptions >= 5)
-	    				{
-	    					System.err.println("Too many parsing exceptions encountered; exiting");
-	    					return;
-	    				}
-	    		    	return;
-	    		    }
-	    		}
-
-	    		// Close input/output files //
+	    		// Close input file //
 	    		in.close();
-			    outSnp.close();
-			    outIndel.close();
 
-			    System.err.println(sharedPositions + " positions in mpileup file"); //stats.get("sharedPositions")
-			    System.err.println(comparedPositions + " had sufficient coverage for comparison"); //stats.get("comparedPositions")
-			    System.err.println(calledReference + " were called Reference"); //stats.get("calledReference")
-			    System.err.println(indelFilter + " were mixed SNP-indel calls and filtered");
+			    System.err.println(totals.sharedPositions + " positions in mpileup file"); //stats.get("sharedPositions")
+			    System.err.println(totals.comparedPositions + " had sufficient coverage for comparison"); //stats.get("comparedPositions")
+			    System.err.println(totals.calledReference + " were called Reference"); //stats.get("calledReference")
+			    System.err.println(totals.indelFilter + " were mixed SNP-indel calls and filtered");
 			    if(doStrandFilter)
-			    	System.err.println(strandFilter + " were removed by the strand filter");
-			    System.err.println(calledGermline + " were called Germline");
-			    System.err.println(calledLOH + " were called LOH");
-			    System.err.println(calledSomatic + " were called Somatic");
-			    System.err.println(calledUnknown + " were called Unknown");
-			    System.err.println(calledVariant + " were called Variant");
+			    	System.err.println(totals.strandFilter + " were removed by the strand filter");
+			    System.err.println(totals.calledGermline + " were called Germline");
+			    System.err.println(totals.calledLOH + " were called LOH");
+			    System.err.println(totals.calledSomatic + " were called Somatic");
+			    System.err.println(totals.calledUnknown + " were called Unknown");
+			    System.err.println(totals.calledVariant + " were called Variant");
+			    if(params.containsKey("verbose"))
+			    	System.err.println("P-value cache: " + VarScan.significanceCache);
 	    	}
 	    	else
 	    	{
@@ -700,7 +353,7 @@ public class Somatic {
 	    		System.exit(10);
 	    	}
 		}
-		catch (IOException e)
+		catch (Exception e)
 		{
 			System.err.println("File Parsing Exception: " + e.getLocalizedMessage());
 			e.printStackTrace(System.err);
@@ -709,6 +362,483 @@ public class Somatic {
 
 	}
 
+
+	/**
+	 * Compares each pileup position in turn on this thread
+	 *
+	 * @param	in		Mpileup text or BAM pileup input
+	 * @param	totals	Counts to add every line to
+	 * @return			False if comparison stopped on an invalid line
+	 */
+	boolean compareSerial(PileupSource in, SomaticResults totals, PrintStream outSnp, PrintStream outIndel, PrintStream outValidation) throws IOException
+	{
+		while (in.next())
+		{
+			String error = compareLine(in, totals);
+			totals.flush(outSnp, outIndel, outValidation);
+
+			if(error != null)
+			{
+				System.err.println(error);
+				return(false);
+			}
+		}
+
+		return(true);
+	}
+
+
+	/**
+	 * Compares mpileup lines on a pool of worker threads, a block at a time, and writes the blocks in input order
+	 *
+	 * Each output file gets the same lines in the same order as comparing on one thread, including where
+	 * comparison stops on an invalid line.
+	 *
+	 * @param	in		Mpileup input
+	 * @param	totals	Counts to add every line to
+	 * @return			False if comparison stopped on an invalid line
+	 */
+	boolean compareParallel(PileupSource in, final SomaticResults totals, final PrintStream outSnp, final PrintStream outIndel, final PrintStream outValidation) throws Exception
+	{
+		PileupPipeline.Worker<SomaticResults> worker = new PileupPipeline.Worker<SomaticResults>() {
+			public SomaticResults process(PileupSource lines) throws Exception
+			{
+				SomaticResults block = new SomaticResults();
+
+				// Stop at the first invalid line, as comparing on one thread would //
+				while(block.error == null && lines.next())
+					block.error = compareLine(lines, block);
+
+				return(block);
+			}
+		};
+
+		PileupPipeline.Writer<SomaticResults> writer = new PileupPipeline.Writer<SomaticResults>() {
+			public boolean write(SomaticResults block)
+			{
+				block.flush(outSnp, outIndel, outValidation);
+				totals.add(block);
+
+				if(block.error != null)
+				{
+					System.err.println(block.error);
+					return(false);
+				}
+
+				return(true);
+			}
+		};
+
+		return(PileupPipeline.run(in, numThreads, worker, writer));
+	}
+
+
+	/**
+	 * Compares normal and tumor at one pileup position and buffers any output for it
+	 *
+	 * @param	in		Pileup input at the position
+	 * @param	results	Buffers and counts to add the line to
+	 * @return			An error message if comparison should stop at this line, otherwise null
+	 */
+	String compareLine(PileupSource in, SomaticResults results)
+	{
+		String chromNormal = "";
+		String chromTumor = "";
+		String refBase = "";
+		int posNormal = 0;
+		int posTumor = 0;
+
+		try
+		{
+			// Verify expected pileup format //
+
+			if(in.hasPosition())
+			{
+				results.sharedPositions++;
+
+				// Parse common fields from line //
+				String refName = in.getChrom();
+				int position = in.getPosition();
+				refBase = in.getRefBase();
+
+				chromNormal = refName;
+				chromTumor = refName;
+				posNormal = position;
+				posTumor = position;
+
+				// Normal should be the first sample, and tumor the second //
+				PileupSample normal = in.getSample(0);
+				PileupSample tumor = in.getSample(1);
+				int pileupDepthNormal = normal.getDepth();
+				int pileupDepthTumor = tumor.getDepth();
+
+				String compareResult = comparePositions(refBase, normal, tumor, minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity, params.containsKey("validation"));
+
+				if(compareResult.length() > 0)
+				{
+					// Get the alleles to determine type //
+					String[] compareContents = compareResult.split("\t");
+					String allele1 = compareContents[0];
+					String allele2 = compareContents[1];
+
+					double strandedness1 = 0.50;
+					double strandedness2 = 0.50;
+					double strandednessDiff = 0.00;
+
+					if(compareContents.length >= 17)
+					{
+						try
+						{
+							int tumorReads1plus = Integer.parseInt(compareContents[13]);
+							int tumorReads1minus = Integer.parseInt(compareContents[14]);
+							int tumorReads2plus = Integer.parseInt(compareContents[15]);
+							int tumorReads2minus = Integer.parseInt(compareContents[16]);
+
+							if(tumorReads1plus > 0 || tumorReads1minus > 0)
+							{
+								strandedness1 = (double) tumorReads1plus / (double) (tumorReads1plus + tumorReads1minus);
+							}
+
+							if(tumorReads2plus > 0 || tumorReads2minus > 0)
+							{
+								strandedness2 = (double) tumorReads2plus / (double) (tumorReads2plus + tumorReads2minus);
+								if(tumorReads1plus > 0 || tumorReads1minus > 0)
+								{
+									strandednessDiff = java.lang.Math.abs(strandedness1 - strandedness2);
+								}
+							}
+						}
+						catch(Exception e)
+						{
+							// Exception parsing info from compareResult //
+						}
+					}
+
+					//stats.put("comparedPositions", (stats.get("comparedPositions") + 1));
+					results.comparedPositions++;
+
+					if(params.containsKey("verbose") && !compareResult.contains("Reference"))
+						results.log.append(chromNormal + "\t" + posNormal + "\t" + compareResult).append(NEWLINE);
+
+					// If VCF format specified, supply it //
+
+					if(params.containsKey("output-vcf"))
+					{
+						int normalReads1 = Integer.parseInt(compareContents[2]);
+						int normalReads2 = Integer.parseInt(compareContents[3]);
+						String normalFreq = compareContents[4];
+						String normalCall = compareContents[5];
+						int tumorReads1 = Integer.parseInt(compareContents[6]);
+						int tumorReads2 = Integer.parseInt(compareContents[7]);
+						String tumorFreq = compareContents[8];
+						String tumorCall = compareContents[9];
+						String somStatus = compareContents[10];
+						Double germlineP = Double.parseDouble(compareContents[11]);
+						Double somaticP = Double.parseDouble(compareContents[12]);
+
+						int totalDepth = pileupDepthNormal + pileupDepthTumor;
+
+						if(allele2.startsWith("+"))
+						{
+							// INSERTION //
+							// Ref = ref base; Var = ref base followed by inserted bases //
+							String varColumn = allele1 + allele2.replace("+", "");
+							compareResult = "." + "\t" + allele1 + "\t" + varColumn + "\t" + ".";
+						}
+						else if(allele2.startsWith("-"))
+						{
+							// DELETION //
+							// Ref = ref base followed by deleted bases; var = ref base //
+							String refColumn = allele1 + allele2.replace("-", "");
+							compareResult = "." + "\t" + refColumn + "\t" + allele1 + "\t" + ".";
+						}
+						else
+						{
+							compareResult = "." + "\t" + allele1 + "\t" + allele2 + "\t" + ".";
+						}
+
+
+						// Decide on filter field //
+						if(doStrandFilter && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
+						{
+							compareResult += "\t" + "str10";
+						}
+						else if(somStatus.equals("IndelFilter"))
+						{
+							compareResult += "\t" + "indelError";
+						}
+						else
+						{
+							compareResult += "\t" + "PASS";
+						}
+
+						// Determine somatic status id and score //
+						int ssCode = 0;
+						double somScore = 0;
+
+						if(somStatus.equals("Reference"))
+						{
+							// Wildtype //
+							ssCode = 0;
+							results.calledReference++;
+						}
+						else if(somStatus.equals("Germline"))
+						{
+							// Germline //
+							ssCode = 1;
+							results.calledGermline++;
+							if(somaticP == 0)
+							{
+								somScore = 0;
+							}
+							else
+							{
+								somScore = 0 - (10 * java.lang.Math.log10(somaticP));
+							}
+						}
+						else if(somStatus.equals("Somatic"))
+						{
+							// Somatic //
+							ssCode = 2;
+							results.calledSomatic++;
+							if(somaticP == 0)
+							{
+								somScore = 255;
+							}
+							else
+							{
+								somScore = 0 - (10 * java.lang.Math.log10(somaticP));
+							}
+						}
+						else if(somStatus.equals("LOH"))
+						{
+							// LOH //
+							ssCode = 3;
+							results.calledLOH++;
+							if(somaticP == 0)
+							{
+								somScore = 255;
+							}
+							else
+							{
+								somScore = 0 - (10 * java.lang.Math.log10(somaticP));
+							}
+						}
+						else
+						{
+							// Unknown //
+							results.calledUnknown++;
+							ssCode = 5;
+						}
+
+						// Adjust somatic score //
+						if(somScore > 255)
+							somScore = 255;
+
+						// Print the info field //
+
+						compareResult += "\t" + "DP=" + totalDepth;
+						if(somStatus.equals("Somatic"))
+							compareResult += ";SOMATIC";
+						compareResult += ";" + "SS=" + ssCode;
+						compareResult += ";" + "SSC=" + (int) somScore;
+						compareResult += ";" + "GPV=" + pvalueFormat.get().format(germlineP);
+						compareResult += ";" + "SPV=" + pvalueFormat.get().format(somaticP);
+
+						// Print the format field //
+
+						String tumorDP4 = "";
+						String normalDP4 = "";
+
+						if(compareContents.length >= 17)
+						{
+							try
+							{
+								tumorDP4 = compareContents[13] + "," + compareContents[14] + "," + compareContents[15] + "," + compareContents[16];
+								normalDP4 = compareContents[17] + "," + compareContents[18] + "," + compareContents[19] + "," + compareContents[20];
+							}
+							catch(Exception e)
+							{
+								// Exception parsing info from compareResult //
+								tumorDP4 = "";
+								normalDP4 = "";
+							}
+						}
+
+						if(tumorDP4.length() > 0)
+							compareResult += "\tGT:GQ:DP:RD:AD:FREQ:DP4";
+						else
+							compareResult += "\tGT:GQ:DP:RD:AD:FREQ";
+
+						// Determine normal genotype //
+						String normalGt = ".";
+						String tumorGt = ".";
+						if(normalCall.equals(refBase))
+						{
+							normalGt = "0/0";
+						}
+						else if(VarScan.isHeterozygous(normalCall))
+						{
+							normalGt = "0/1";
+						}
+						else
+						{
+							normalGt = "1/1";
+						}
+
+						if(tumorCall.equals(refBase))
+						{
+							tumorGt = "0/0";
+						}
+						else if(VarScan.isHeterozygous(tumorCall))
+						{
+							tumorGt = "0/1";
+						}
+						else
+						{
+							tumorGt = "1/1";
+						}
+
+						if(tumorDP4.length() > 0)
+						{
+							compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq + ":" + normalDP4;
+							compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq + ":" + tumorDP4;
+						}
+						else
+						{
+							compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq;
+							compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq;
+						}
+					}
+
+					// Print to master file for validation //
+
+					if(params.containsKey("validation"))
+					{
+						results.validation.append(chromNormal + "\t" + posNormal + "\t" + compareResult).append(NEWLINE);
+					}
+
+					if(!params.containsKey("validation") && (compareResult.contains("Reference") || compareResult.contains("SS=0")  || compareResult.contains("Filter")))
+					{
+						// Don't print reference/indelfilter positions unless doing validation //
+					}
+					else if(doStrandFilter && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
+					{
+						// If filter is set, ignore variants that are supported largely by one strand //
+						if(!params.containsKey("output-vcf"))
+							compareResult = "StrandFilter";
+					}
+					else if(allele1.contains("-") || allele1.contains("+") || allele2.contains("-") || allele2.contains("+"))//if(compareResult.contains("INS") || compareResult.contains("DEL"))
+					{
+						results.indel.append(chromNormal + "\t" + posNormal + "\t" + compareResult).append(NEWLINE);
+					}
+					else
+					{
+						results.snp.append(chromNormal + "\t" + posNormal + "\t" + compareResult).append(NEWLINE);
+					}
+				}
+				else
+				{
+//					System.err.println("Uncalled" + chromNormal + "\t" + posNormal + "\t" + compareResult);
+				}
+
+				if(compareResult.contains("Reference"))
+					results.calledReference++; //stats.put("calledReference", (stats.get("calledReference") + 1));
+				else if(compareResult.contains("IndelFilter"))
+					results.indelFilter++;	//stats.put("indelFilter", (stats.get("indelFilter") + 1));
+				else if(compareResult.contains("StrandFilter"))
+					results.strandFilter++;
+				else if(compareResult.contains("Germline"))
+					results.calledGermline++;	//stats.put("calledGermline", (stats.get("calledGermline") + 1));
+				else if(compareResult.contains("Somatic"))
+					results.calledSomatic++;	//stats.put("calledSomatic", (stats.get("calledSomatic") + 1));
+				else if(compareResult.contains("LOH"))
+					results.calledLOH++;	//stats.put("calledLOH", (stats.get("calledLOH") + 1));
+				else if(compareResult.contains("Unknown"))
+					results.calledUnknown++;	//stats.put("calledUnknown", (stats.get("calledUnknown") + 1));
+				else if(compareResult.contains("Variant"))
+					results.calledVariant++;	//stats.put("calledVariant", (stats.get("calledVariant") + 1));
+
+
+
+			}
+			else
+			{
+				return("Error: Invalid format or not enough samples in mpileup: " + in.getLine() + "\n");
+			}
+		}
+		catch(Exception e)
+		{
+			return("Parsing Exception on line:\n" + in.getLine() + "\n" + e.getLocalizedMessage());
+		}
+
+		return(null);
+	}
+
+
+	/**
+	 * Output and counts from comparing mpileup lines, and the error that stopped them if any
+	 */
+	static class SomaticResults
+	{
+		final StringBuilder snp = new StringBuilder();
+		final StringBuilder indel = new StringBuilder();
+		final StringBuilder validation = new StringBuilder();
+		final StringBuilder log = new StringBuilder();		// Verbose messages for standard error
+
+		long sharedPositions = 0;
+		long comparedPositions = 0;
+		long calledReference = 0;
+		long indelFilter = 0;
+		long strandFilter = 0;
+		long calledGermline = 0;
+		long calledLOH = 0;
+		long calledSomatic = 0;
+		long calledUnknown = 0;
+		long calledVariant = 0;
+
+		String error = null;
+
+		/**
+		 * Adds the counts from another set of results
+		 */
+		void add(SomaticResults other)
+		{
+			sharedPositions += other.sharedPositions;
+			comparedPositions += other.comparedPositions;
+			calledReference += other.calledReference;
+			indelFilter += other.indelFilter;
+			strandFilter += other.strandFilter;
+			calledGermline += other.calledGermline;
+			calledLOH += other.calledLOH;
+			calledSomatic += other.calledSomatic;
+			calledUnknown += other.calledUnknown;
+			calledVariant += other.calledVariant;
+		}
+
+		/**
+		 * Prints and clears the buffered output
+		 *
+		 * @param	outValidation	Validation output, or null if validation is off
+		 */
+		void flush(PrintStream outSnp, PrintStream outIndel, PrintStream outValidation)
+		{
+			if(log.length() > 0)
+				System.err.print(log);
+			if(validation.length() > 0)
+				outValidation.print(validation);
+			if(indel.length() > 0)
+				outIndel.print(indel);
+			if(snp.length() > 0)
+				outSnp.print(snp);
+
+			log.setLength(0);
+			validation.setLength(0);
+			indel.setLength(0);
+			snp.setLength(0);
+		}
+	}
+
 	////////////////////////////////////////////////////////////////////////////////////////////////////
 	// Constructor with one argument (string[]) expects two-pileup input 					  //
 	////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -733,7 +863,10 @@ public class Somatic {
 			"\t--somatic-p-value - P-value threshold to call a somatic site [0.05]\n" +
 			"\t--strand-filter - If set to 1, removes variants with >90% strand bias [0]\n" +
 			"\t--validation - If set to 1, outputs all compared positions even if non-variant\n" +
-			"\t--output-vcf - If set to 1, output VCF instead of VarScan native format\n";
+			"\t--output-vcf - If set to 1, output VCF instead of VarScan native format\n" +
+			"\t--fisher-approx-margin - Use a normal approximation for significance tests whose margins all reach this, with exact tests near thresholds [0]\n" +
+			"\t--output-compression - none or bgzf; bgzf output files get a .gz suffix and a tabix index [none]\n" +
+			"\t--sequence-dictionary - .fai, .dict or VCF file listing the contigs in the order the pileups are sorted [lexical order]\n";
 
 		String vcfHeader = "##fileformat=VCFv4.1";
 		vcfHeader += "\n" + "##source=VarScan2";
@@ -799,6 +932,12 @@ public class Somatic {
 		// Parse command-line parameters //
 		HashMap<String, String> params = VarScan.getParams(args);
 
+		if(params.containsKey("region"))
+		{
+			System.err.println("Error: --region needs a single indexed mpileup input (--mpileup 1), not separate normal and tumor pileups");
+			System.exit(1);
+		}
+
 		// Try adjusting any provided parameters based on user inut //
 		try
 		{
@@ -873,6 +1012,8 @@ public class Somatic {
 			if(params.containsKey("validation"))
 				System.err.println("Validation mode: on");
 
+			VarScan.setApproximation(params);
+
 		}
 		catch(Exception e)
 		{
@@ -928,8 +1069,8 @@ public class Somatic {
 	 	 			outputIndel += ".vcf";
 	 	 	}
 
-	 		outSnp = new PrintStream( new FileOutputStream(outputSnp) );
-	 		outIndel = new PrintStream( new FileOutputStream(outputIndel) );
+	 		outSnp = BgzfOutputStream.openOutput(outputSnp, params);
+	 		outIndel = BgzfOutputStream.openOutput(outputIndel, params);
 	 		if(!params.containsKey("no-headers") && !params.containsKey("output-vcf"))
 	 		{
 	 			outSnp.println("chrom\tposition\tref\tvar\tnormal_reads1\tnormal_reads2\tnormal_var_freq\tnormal_gt\ttumor_reads1\ttumor_reads2\ttumor_var_freq\ttumor_gt\tsomatic_status\tvariant_p_value\tsomatic_p_value\ttumor_reads1_plus\ttumor_reads1_minus\ttumor_reads2_plus\ttumor_reads2_minus\tnormal_reads1_plus\tnormal_reads1_minus\tnormal_reads2_plus\tnormal_reads2_minus");
@@ -944,7 +1085,7 @@ public class Somatic {
 
 	 		if(params.containsKey("validation"))
 	 		{
-		 		outValidation = new PrintStream( new FileOutputStream(outputName + ".validation") );
+		 		outValidation = BgzfOutputStream.openOutput(outputName + ".validation", params);
 		 		if(!params.containsKey("no-headers") && !params.containsKey("output-vcf"))
 		 			outValidation.println("chrom\tposition\tref\tvar\tnormal_reads1\tnormal_reads2\tnormal_var_freq\tnormal_gt\ttumor_reads1\ttumor_reads2\ttumor_var_freq\ttumor_gt\tsomatic_status\tvariant_p_value\tsomatic_p_value\ttumor_reads1_plus\ttumor_reads1_minus\ttumor_reads2_plus\ttumor_reads2_minus\tnormal_reads1_plus\tnormal_reads1_minus\tnormal_reads2_plus\tnormal_reads2_minus");
 		 		if(params.containsKey("output-vcf"))
@@ -954,43 +1095,20 @@ public class Somatic {
 	 		}
 
 
-	 		BufferedReader normal = new BufferedReader(new FileReader(normalPileupFile));
-		    BufferedReader tumor = new BufferedReader(new FileReader(tumorPileupFile));
-
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!(normal.ready() && tumor.ready()))
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
+	 		PileupLineReader normal = new PileupLineReader(new File(normalPileupFile));
+		    PileupLineReader tumor = new PileupLineReader(new File(tumorPileupFile));
 
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file(s) were not ready for parsing after 100 5-second cycles! Pileup output may be invalid or too slow");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
+		    // Reading waits for the pileups to start, as when they come from a running samtools //
 
-		    	}
-	    	}
-
-
-		    if(!(normal.ready() && tumor.ready()))
+		    if(!(normal.hasInput() && tumor.hasInput()))
 		    {
-		    	System.err.println("ERROR: Input file(s) not ready for parsing! Pileup output may be invalid or too slow.");
+		    	System.err.println("ERROR: Input file(s) are empty; no pileup output to parse.");
 		    	System.exit(10);
 		    }
 
-		    String lineNormal;
-		    String lineTumor;
+		    ContigOrder contigOrder = VarScan.getContigOrder(params);
 		    String chromNormal = "";
 		    String chromTumor = "";
-		    String prevChromNormal = "";
-		    String prevChromTumor = "";
 		    String refBase = "";
 		    int posNormal = 0;
 		    int posTumor = 0;
@@ -1000,453 +1118,321 @@ public class Somatic {
 		    DecimalFormat threeDigits = new DecimalFormat("#0.000");
 
 
-		    // Get first line of Normal //
+		    // Loop through the positions found in both pileups, reading each file once //
 
-		    if((lineNormal = normal.readLine()) != null)
-		    {
-		    	String[] normalContents = lineNormal.split("\t");
+		    PileupMerge merge = new PileupMerge(normal, normalPileupFile, tumor, tumorPileupFile, contigOrder);
 
-		    	if(normalContents.length > 1)
-		    	{
-			    	chromNormal = normalContents[0];
-			    	posNormal = Integer.parseInt(normalContents[1]);
-		    	}
-		    }
-
-		    // Loop through lines in tumor //
-
-	    	while ((lineTumor = tumor.readLine()) != null)
+	    	while(merge.next())
 	    	{
-	    		tumorPositions++;
-	    		String[] tumorContents = lineTumor.split("\t");
+	    		PileupLineReader normalLine = merge.getNormal();
+	    		PileupLineReader tumorLine = merge.getTumor();
+	    		chromNormal = chromTumor = merge.getContig();
+	    		posNormal = posTumor = merge.getPosition();
 
-		    	if(tumorContents.length > 1)
-		    	{
-			    	chromTumor = tumorContents[0];
-			    	posTumor = Integer.parseInt(tumorContents[1]);
-		    	}
+		    	//stats.put("sharedPositions", (stats.get("sharedPositions") + 1));
+		    	sharedPositions++;
+		    	if(params.containsKey("verbose"))
+		    			System.err.println("Comparing calls at " + chromTumor + ":" + posTumor);
 
-		    	// Parse normal lines until we get the same chromosome //
-		    	boolean flagEOF = false;
-		    	boolean normalWasReset = false;
+		    	refBase = tumorLine.getColumnString(2);
+		    	String compareResult = comparePositions(normalLine, tumorLine, minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity, params.containsKey("validation"));
 
-		    	//	Advance in normal file if tumor is changed but normal is not, or if tumor is higher //
-		    	while(!chromNormal.equals(chromTumor) && !chromTumor.equals(prevChromTumor) && !flagEOF && (chromNormal.equals(prevChromTumor) || inSortOrder(chromNormal, chromTumor)))
+		    	if(compareResult.length() > 0)
 		    	{
-		    		//System.err.println("Normal (" + chromNormal + ") catching up to " + chromTumor);
-		    		// Get next line from normal pileup //
-		    		if((lineNormal = normal.readLine()) != null)
-		    		{
-		    			String[] normalContents = lineNormal.split("\t");
-
-				    	if(normalContents.length > 1)
-				    	{
-					    	chromNormal = normalContents[0];
-					    	posNormal = Integer.parseInt(normalContents[1]);
-				    	}
-		    		}
-		    		else
-		    		{
-		    			flagEOF = true;
-		    		}
+		    		// Get the alleles to determine type //
+		    		String[] compareContents = compareResult.split("\t");
+			    	String allele1 = compareContents[0];
+			    	String allele2 = compareContents[1];
 
+			    	double strandedness1 = 0.50;
+			    	double strandedness2 = 0.50;
+			    	double strandednessDiff = 0.00;
 
-		    	}
-
-		    	// If chromosomes match and are non-blank, attempt to get matching positions //
-		    	if(chromNormal.equals(chromTumor) && !chromNormal.equals(""))
-		    	{
-		    		normalWasReset = false;
-		    		// Seek to matching Normal Position //
+			    	if(compareContents.length >= 17)
+			    	{
+			    		try
+			    		{
+			    			int tumorReads1plus = Integer.parseInt(compareContents[13]);
+			    			int tumorReads1minus = Integer.parseInt(compareContents[14]);
+			    			int tumorReads2plus = Integer.parseInt(compareContents[15]);
+			    			int tumorReads2minus = Integer.parseInt(compareContents[16]);
+
+			    			if(tumorReads1plus > 0 || tumorReads1minus > 0)
+			    			{
+			    				strandedness1 = (double) tumorReads1plus / (double) (tumorReads1plus + tumorReads1minus);
+			    			}
 
-		    		while(chromNormal.equals(chromTumor) && posNormal < posTumor && ((lineNormal = normal.readLine()) != null))
-		    		{
-		    			String[] normalContents = lineNormal.split("\t");
-				    	if(normalContents.length > 1)
-				    	{
-					    	chromNormal = normalContents[0];
-					    	posNormal = Integer.parseInt(normalContents[1]);
-				    	}
-		    		}
+			    			if(tumorReads2plus > 0 || tumorReads2minus > 0)
+			    			{
+			    				strandedness2 = (double) tumorReads2plus / (double) (tumorReads2plus + tumorReads2minus);
+			    				if(tumorReads1plus > 0 || tumorReads1minus > 0)
+			    				{
+			    					strandednessDiff = java.lang.Math.abs(strandedness1 - strandedness2);
+			    				}
+			    			}
+			    		}
+			    		catch(Exception e)
+			    		{
+			    			// Exception parsing info from compareResult //
+			    		}
+			    	}
 
-		    		// Seek to matching Tumor Position //
+		    		//stats.put("comparedPositions", (stats.get("comparedPositions") + 1));
+			    	comparedPositions++;
 
-		    		while(chromNormal.equals(chromTumor) && posTumor < posNormal && ((lineTumor = tumor.readLine()) != null))
-		    		{
-		    			tumorContents = lineTumor.split("\t");
-				    	if(tumorContents.length > 1)
-				    	{
-					    	chromTumor = tumorContents[0];
-					    	posTumor = Integer.parseInt(tumorContents[1]);
-				    	}
-		    		}
+		    		if(params.containsKey("verbose") && !compareResult.contains("Reference"))
+		    			System.err.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
 
-		    		// Proceed if normal and tumor positions match //
+		    		// If VCF format specified, supply it //
 
-		    		if(chromNormal.equals(chromTumor) && chromNormal.equals(chromTumor) && posNormal == posTumor)
+		    		if(params.containsKey("output-vcf"))
 		    		{
-		    			//stats.put("sharedPositions", (stats.get("sharedPositions") + 1));
-		    			sharedPositions++;
-		    			if(params.containsKey("verbose"))
-		    					System.err.println("Comparing calls at " + chromTumor + ":" + posTumor);
-
-		    			refBase = tumorContents[2];
-		    			String compareResult = comparePositions(lineNormal, lineTumor, minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity);
-
-		    			if(compareResult.length() > 0)
+		    			int normalReads1 = Integer.parseInt(compareContents[2]);
+		    			int normalReads2 = Integer.parseInt(compareContents[3]);
+		    			String normalFreq = compareContents[4];
+		    			String normalCall = compareContents[5];
+		    			int tumorReads1 = Integer.parseInt(compareContents[6]);
+		    			int tumorReads2 = Integer.parseInt(compareContents[7]);
+		    			String tumorFreq = compareContents[8];
+		    			String tumorCall = compareContents[9];
+		    			String somStatus = compareContents[10];
+		    			Double germlineP = Double.parseDouble(compareContents[11]);
+		    			Double somaticP = Double.parseDouble(compareContents[12]);
+
+		    			int pileupDepthNormal = normalLine.getColumnInt(3);
+		    			int pileupDepthTumor = tumorLine.getColumnInt(3);
+
+		    			int totalDepth = pileupDepthNormal + pileupDepthTumor;
+
+		    			if(allele2.startsWith("+"))
 		    			{
-		    				// Get the alleles to determine type //
-		    				String[] compareContents = compareResult.split("\t");
-			    			String allele1 = compareContents[0];
-			    			String allele2 = compareContents[1];
-
-			    			double strandedness1 = 0.50;
-			    			double strandedness2 = 0.50;
-			    			double strandednessDiff = 0.00;
-
-			    			if(compareContents.length >= 17)
-			    			{
-			    				try
-			    				{
-			    					int tumorReads1plus = Integer.parseInt(compareContents[13]);
-			    					int tumorReads1minus = Integer.parseInt(compareContents[14]);
-			    					int tumorReads2plus = Integer.parseInt(compareContents[15]);
-			    					int tumorReads2minus = Integer.parseInt(compareContents[16]);
-
-			    					if(tumorReads1plus > 0 || tumorReads1minus > 0)
-			    					{
-			    						strandedness1 = (double) tumorReads1plus / (double) (tumorReads1plus + tumorReads1minus);
-			    					}
-
-			    					if(tumorReads2plus > 0 || tumorReads2minus > 0)
-			    					{
-			    						strandedness2 = (double) tumorReads2plus / (double) (tumorReads2plus + tumorReads2minus);
-			    						if(tumorReads1plus > 0 || tumorReads1minus > 0)
-			    						{
-			    							strandednessDiff = java.lang.Math.abs(strandedness1 - strandedness2);
-			    						}
-			    					}
-			    				}
-			    				catch(Exception e)
-			    				{
-			    					// Exception parsing info from compareResult //
-			    				}
-			    			}
+		    				// INSERTION //
+		    				// Ref = ref base; Var = ref base followed by inserted bases //
+		    				String varColumn = allele1 + allele2.replace("+", "");
+		    				compareResult = "." + "\t" + allele1 + "\t" + varColumn + "\t" + ".";
+		    			}
+		    			else if(allele2.startsWith("-"))
+		    			{
+		    				// DELETION //
+		    				// Ref = ref base followed by deleted bases; var = ref base //
+		    				String refColumn = allele1 + allele2.replace("-", "");
+		    				compareResult = "." + "\t" + refColumn + "\t" + allele1 + "\t" + ".";
+		    			}
+		    			else
+		    			{
+			    			compareResult = "." + "\t" + allele1 + "\t" + allele2 + "\t" + ".";
+		    			}
 
-		    				//stats.put("comparedPositions", (stats.get("comparedPositions") + 1));
-			    			comparedPositions++;
 
-		    				if(params.containsKey("verbose") && !compareResult.contains("Reference"))
-		    					System.err.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
+		    			// Decide on filter field //
+		    			if(params.containsKey("strand-filter") && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
+		    			{
+		    				compareResult += "\t" + "str10";
+		    			}
+		    			else if(somStatus.equals("IndelFilter"))
+		    			{
+		    				compareResult += "\t" + "indelError";
+		    			}
+		    			else
+		    			{
+		    				compareResult += "\t" + "PASS";
+		    			}
 
-		    				// If VCF format specified, supply it //
+		    			// Determine somatic status id and score //
+		    			int ssCode = 0;
+		    			double somScore = 0;
 
-		    				if(params.containsKey("output-vcf"))
+		    			if(somStatus.equals("Reference"))
+		    			{
+		    				// Wildtype //
+		    				ssCode = 0;
+		    				calledReference++;
+		    			}
+		    			else if(somStatus.equals("Germline"))
+		    			{
+		    				// Germline //
+		    				ssCode = 1;
+		    				calledGermline++;
+		    				if(somaticP == 0)
 		    				{
-		    					int normalReads1 = Integer.parseInt(compareContents[2]);
-		    					int normalReads2 = Integer.parseInt(compareContents[3]);
-		    					String normalFreq = compareContents[4];
-		    					String normalCall = compareContents[5];
-		    					int tumorReads1 = Integer.parseInt(compareContents[6]);
-		    					int tumorReads2 = Integer.parseInt(compareContents[7]);
-		    					String tumorFreq = compareContents[8];
-		    					String tumorCall = compareContents[9];
-		    					String somStatus = compareContents[10];
-		    					Double germlineP = Double.parseDouble(compareContents[11]);
-		    					Double somaticP = Double.parseDouble(compareContents[12]);
-
-		    					String[] normalContents = lineNormal.split("\t");
-		    					//tumorContents = lineTumor.split("\t");
-		    					int pileupDepthNormal = Integer.parseInt(normalContents[3]);
-		    					int pileupDepthTumor = Integer.parseInt(tumorContents[3]);
-
-		    					int totalDepth = pileupDepthNormal + pileupDepthTumor;
-
-		    					if(allele2.startsWith("+"))
-		    					{
-		    						// INSERTION //
-		    						// Ref = ref base; Var = ref base followed by inserted bases //
-		    						String varColumn = allele1 + allele2.replace("+", "");
-		    						compareResult = "." + "\t" + allele1 + "\t" + varColumn + "\t" + ".";
-		    					}
-		    					else if(allele2.startsWith("-"))
-		    					{
-		    						// DELETION //
-		    						// Ref = ref base followed by deleted bases; var = ref base //
-		    						String refColumn = allele1 + allele2.replace("-", "");
-		    						compareResult = "." + "\t" + refColumn + "\t" + allele1 + "\t" + ".";
-		    					}
-		    					else
-		    					{
-			    					compareResult = "." + "\t" + allele1 + "\t" + allele2 + "\t" + ".";
-		    					}
-
-
-		    					// Decide on filter field //
-		    					if(params.containsKey("strand-filter") && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
-		    					{
-		    						compareResult += "\t" + "str10";
-		    					}
-		    					else if(somStatus.equals("IndelFilter"))
-		    					{
-		    						compareResult += "\t" + "indelError";
-		    					}
-		    					else
-		    					{
-		    						compareResult += "\t" + "PASS";
-		    					}
-
-		    					// Determine somatic status id and score //
-		    					int ssCode = 0;
-		    					double somScore = 0;
-
-		    					if(somStatus.equals("Reference"))
-		    					{
-		    						// Wildtype //
-		    						ssCode = 0;
-		    						calledReference++;
-		    					}
-		    					else if(somStatus.equals("Germline"))
-		    					{
-		    						// Germline //
-		    						ssCode = 1;
-		    						calledGermline++;
-		    						if(somaticP == 0)
-		    						{
-		    							somScore = 0;
-		    						}
-		    						else
-		    						{
-		    							somScore = 0 - (10 * java.lang.Math.log10(somaticP));
-		    						}
-		    					}
-		    					else if(somStatus.equals("Somatic"))
-		    					{
-		    						// Somatic //
-		    						ssCode = 2;
-		    						calledSomatic++;
-		    						if(somaticP == 0)
-		    						{
-		    							somScore = 255;
-		    						}
-		    						else
-		    						{
-		    							somScore = 0 - (10 * java.lang.Math.log10(somaticP));
-		    						}
-		    					}
-		    					else if(somStatus.equals("LOH"))
-		    					{
-		    						// LOH //
-		    						ssCode = 3;
-		    						calledLOH++;
-		    						if(somaticP == 0)
-		    						{
-		    							somScore = 255;
-		    						}
-		    						else
-		    						{
-		    							somScore = 0 - (10 * java.lang.Math.log10(somaticP));
-		    						}
-		    					}
-		    					else
-		    					{
-		    						// Unknown //
-		    						calledUnknown++;
-		    						ssCode = 5;
-		    					}
-
-		    					// Adjust somatic score //
-		    					if(somScore > 255)
-		    						somScore = 255;
-
-		    					// Print the info field //
-
-		    					compareResult += "\t" + "DP=" + totalDepth;
-		    					if(somStatus.equals("Somatic"))
-		    						compareResult += ";SOMATIC";
-		    					compareResult += ";" + "SS=" + ssCode;
-		    					compareResult += ";" + "SSC=" + (int) somScore;
-		    					compareResult += ";" + "GPV=" + pvalueFormat.format(germlineP);
-		    					compareResult += ";" + "SPV=" + pvalueFormat.format(somaticP);
-
-		    					// Print the format field //
-
-		    					String tumorDP4 = "";
-		    					String normalDP4 = "";
-
-				    			if(compareContents.length >= 17)
-				    			{
-				    				try
-				    				{
-				    					tumorDP4 = compareContents[13] + "," + compareContents[14] + "," + compareContents[15] + "," + compareContents[16];
-				    					normalDP4 = compareContents[17] + "," + compareContents[18] + "," + compareContents[19] + "," + compareContents[20];
-				    				}
-				    				catch(Exception e)
-				    				{
-				    					// Exception parsing info from compareResult //
-				    					tumorDP4 = "";
-				    					normalDP4 = "";
-				    				}
-				    			}
-
-				    			if(tumorDP4.length() > 0)
-				    				compareResult += "\tGT:GQ:DP:RD:AD:FREQ:DP4";
-				    			else
-				    				compareResult += "\tGT:GQ:DP:RD:AD:FREQ";
-
-		    					// Determine normal genotype //
-		    					String normalGt = ".";
-		    					String tumorGt = ".";
-		    					if(normalCall.equals(refBase))
-		    					{
-		    						normalGt = "0/0";
-		    					}
-		    					else if(VarScan.isHeterozygous(normalCall))
-		    					{
-		    						normalGt = "0/1";
-		    					}
-		    					else
-		    					{
-		    						normalGt = "1/1";
-		    					}
-
-		    					if(tumorCall.equals(refBase))
-		    					{
-		    						tumorGt = "0/0";
-		    					}
-		    					else if(VarScan.isHeterozygous(tumorCall))
-		    					{
-		    						tumorGt = "0/1";
-		    					}
-		    					else
-		    					{
-		    						tumorGt = "1/1";
-		    					}
-
-		    					if(tumorDP4.length() > 0)
-		    					{
-			    					compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq + ":" + normalDP4;
-			    					compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq + ":" + tumorDP4;
-		    					}
-		    					else
-		    					{
-			    					compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq;
-			    					compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq;
-		    					}
+		    					somScore = 0;
 		    				}
-		    				// Print to master file for validation //
-
-		    				if(params.containsKey("validation"))
+		    				else
 		    				{
-		    					outValidation.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
+		    					somScore = 0 - (10 * java.lang.Math.log10(somaticP));
 		    				}
-
-		    				if(!params.containsKey("validation") && (compareResult.contains("Reference") || compareResult.contains("SS=0") || compareResult.contains("Filter")))
+		    			}
+		    			else if(somStatus.equals("Somatic"))
+		    			{
+		    				// Somatic //
+		    				ssCode = 2;
+		    				calledSomatic++;
+		    				if(somaticP == 0)
 		    				{
-		    					// Don't print reference/indelfilter positions unless doing validation //
+		    					somScore = 255;
 		    				}
-		    				else if(params.containsKey("strand-filter") && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
+		    				else
 		    				{
-		    					// If filter is set, ignore variants that are supported largely by one strand //
-		    					compareResult = "StrandFilter";
+		    					somScore = 0 - (10 * java.lang.Math.log10(somaticP));
 		    				}
-		    				else if(allele1.contains("-") || allele1.contains("+") || allele2.contains("-") || allele2.contains("+"))//if(compareResult.contains("INS") || compareResult.contains("DEL"))
+		    			}
+		    			else if(somStatus.equals("LOH"))
+		    			{
+		    				// LOH //
+		    				ssCode = 3;
+		    				calledLOH++;
+		    				if(somaticP == 0)
 		    				{
-		    					outIndel.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
+		    					somScore = 255;
 		    				}
 		    				else
 		    				{
-			    				outSnp.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
+		    					somScore = 0 - (10 * java.lang.Math.log10(somaticP));
 		    				}
 		    			}
 		    			else
 		    			{
-//		    				System.err.println("Uncalled" + chromNormal + "\t" + posNormal + "\t" + compareResult);
+		    				// Unknown //
+		    				calledUnknown++;
+		    				ssCode = 5;
 		    			}
 
-		    			if(compareResult.contains("Reference"))
-		    				calledReference++; //stats.put("calledReference", (stats.get("calledReference") + 1));
-		    			else if(compareResult.contains("IndelFilter"))
-		    				indelFilter++;	//stats.put("indelFilter", (stats.get("indelFilter") + 1));
-		    			else if(compareResult.contains("StrandFilter"))
-		    				strandFilter++;
-		    			else if(compareResult.contains("Germline"))
-		    				calledGermline++;	//stats.put("calledGermline", (stats.get("calledGermline") + 1));
-		    			else if(compareResult.contains("Somatic"))
-		    				calledSomatic++;	//stats.put("calledSomatic", (stats.get("calledSomatic") + 1));
-		    			else if(compareResult.contains("LOH"))
-		    				calledLOH++;	//stats.put("calledLOH", (stats.get("calledLOH") + 1));
-		    			else if(compareResult.contains("Unknown"))
-		    				calledUnknown++;	//stats.put("calledUnknown", (stats.get("calledUnknown") + 1));
-		    			else if(compareResult.contains("Variant"))
-		    				calledVariant++;	//stats.put("calledVariant", (stats.get("calledVariant") + 1));
-
-				    	prevChromNormal = chromNormal;
-				    	prevChromTumor = chromTumor;
-		    		}
-		    		else
-		    		{
-		    			//System.err.println("Failed to match positions " + chromNormal + " " + posNormal + " to Tumor " + chromTumor + " " + posTumor);
-		    		}
-		    	}
-		    	// If they're in sort order, do nothing so that tumor can catch up //
-		    	else if(inSortOrder(chromNormal, chromTumor))
-		    	{
-		    		System.err.println("Not resetting normal file because " + chromNormal + " < " + chromTumor);
-		    	}
-		    	// If we reached the end of the normal file but never saw this chromosome, //
-		    	// fast-forward until tumor chromosome changes and reset normal file //
-		    	else if(flagEOF)
-		    	{
-		    		flagEOF = false;
+		    			// Adjust somatic score //
+		    			if(somScore > 255)
+		    				somScore = 255;
 
-		    		while(prevChromTumor.equals(chromTumor) && !flagEOF)
-		    		{
-		    			if((lineTumor = tumor.readLine()) != null)
-		    			{
-			    			tumorContents = lineTumor.split("\t");
+		    			// Print the info field //
+
+		    			compareResult += "\t" + "DP=" + totalDepth;
+		    			if(somStatus.equals("Somatic"))
+		    				compareResult += ";SOMATIC";
+		    			compareResult += ";" + "SS=" + ssCode;
+		    			compareResult += ";" + "SSC=" + (int) somScore;
+		    			compareResult += ";" + "GPV=" + pvalueFormat.format(germlineP);
+		    			compareResult += ";" + "SPV=" + pvalueFormat.format(somaticP);
 
-					    	if(tumorContents.length > 1)
-					    	{
-						    	chromTumor = tumorContents[0];
-						    	posTumor = Integer.parseInt(tumorContents[1]);
-					    	}
+		    			// Print the format field //
+
+		    			String tumorDP4 = "";
+		    			String normalDP4 = "";
+
+				    	if(compareContents.length >= 17)
+				    	{
+				    		try
+				    		{
+				    			tumorDP4 = compareContents[13] + "," + compareContents[14] + "," + compareContents[15] + "," + compareContents[16];
+				    			normalDP4 = compareContents[17] + "," + compareContents[18] + "," + compareContents[19] + "," + compareContents[20];
+				    		}
+				    		catch(Exception e)
+				    		{
+				    			// Exception parsing info from compareResult //
+				    			tumorDP4 = "";
+				    			normalDP4 = "";
+				    		}
+				    	}
+
+				    	if(tumorDP4.length() > 0)
+				    		compareResult += "\tGT:GQ:DP:RD:AD:FREQ:DP4";
+				    	else
+				    		compareResult += "\tGT:GQ:DP:RD:AD:FREQ";
+
+		    			// Determine normal genotype //
+		    			String normalGt = ".";
+		    			String tumorGt = ".";
+		    			if(normalCall.equals(refBase))
+		    			{
+		    				normalGt = "0/0";
+		    			}
+		    			else if(VarScan.isHeterozygous(normalCall))
+		    			{
+		    				normalGt = "0/1";
 		    			}
 		    			else
 		    			{
-		    				flagEOF = true;
+		    				normalGt = "1/1";
 		    			}
-		    		}
 
-		    		// Reset the normal file if we've already passed this chromosome in normal //
+		    			if(tumorCall.equals(refBase))
+		    			{
+		    				tumorGt = "0/0";
+		    			}
+		    			else if(VarScan.isHeterozygous(tumorCall))
+		    			{
+		    				tumorGt = "0/1";
+		    			}
+		    			else
+		    			{
+		    				tumorGt = "1/1";
+		    			}
 
-		    		if(!flagEOF && !normalWasReset)
-		    		{
-		    			if(inSortOrder(chromNormal, chromTumor))
+		    			if(tumorDP4.length() > 0)
 		    			{
-		    				System.err.println("Not resetting normal file because " + chromNormal + " < " + chromTumor);
+			    			compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq + ":" + normalDP4;
+			    			compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq + ":" + tumorDP4;
 		    			}
 		    			else
 		    			{
-		    				System.err.println("Resetting normal file because " + chromNormal + " > " + chromTumor);
-				    		normalWasReset = true;
-			    			normal.close();
-				    		normal = new BufferedReader(new FileReader(normalPileupFile));
+			    			compareResult += "\t" + normalGt + ":.:" + pileupDepthNormal + ":" + normalReads1 + ":" + normalReads2 + ":" + normalFreq;
+			    			compareResult += "\t" + tumorGt + ":.:" + pileupDepthTumor + ":" + tumorReads1 + ":" + tumorReads2 + ":" + tumorFreq;
 		    			}
+		    		}
+		    		// Print to master file for validation //
 
+		    		if(params.containsKey("validation"))
+		    		{
+		    			outValidation.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
 		    		}
+
+		    		if(!params.containsKey("validation") && (compareResult.contains("Reference") || compareResult.contains("SS=0") || compareResult.contains("Filter")))
+		    		{
+		    			// Don't print reference/indelfilter positions unless doing validation //
+		    		}
+		    		else if(params.containsKey("strand-filter") && strandednessDiff > 0.10 && (strandedness2 < 0.10 || strandedness2 > 0.90))
+		    		{
+		    			// If filter is set, ignore variants that are supported largely by one strand //
+		    			compareResult = "StrandFilter";
+		    		}
+		    		else if(allele1.contains("-") || allele1.contains("+") || allele2.contains("-") || allele2.contains("+"))//if(compareResult.contains("INS") || compareResult.contains("DEL"))
+		    		{
+		    			outIndel.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
+		    		}
+		    		else
+		    		{
+			    		outSnp.println(chromNormal + "\t" + posNormal + "\t" + compareResult);
+		    		}
+		    	}
+		    	else
+		    	{
+//		    				System.err.println("Uncalled" + chromNormal + "\t" + posNormal + "\t" + compareResult);
 		    	}
 
+		    	if(compareResult.contains("Reference"))
+		    		calledReference++; //stats.put("calledReference", (stats.get("calledReference") + 1));
+		    	else if(compareResult.contains("IndelFilter"))
+		    		indelFilter++;	//stats.put("indelFilter", (stats.get("indelFilter") + 1));
+		    	else if(compareResult.contains("StrandFilter"))
+		    		strandFilter++;
+		    	else if(compareResult.contains("Germline"))
+		    		calledGermline++;	//stats.put("calledGermline", (stats.get("calledGermline") + 1));
+		    	else if(compareResult.contains("Somatic"))
+		    		calledSomatic++;	//stats.put("calledSomatic", (stats.get("calledSomatic") + 1));
+		    	else if(compareResult.contains("LOH"))
+		    		calledLOH++;	//stats.put("calledLOH", (stats.get("calledLOH") + 1));
+		    	else if(compareResult.contains("Unknown"))
+		    		calledUnknown++;	//stats.put("calledUnknown", (stats.get("calledUnknown") + 1));
+		    	else if(compareResult.contains("Variant"))
+		    		calledVariant++;	//stats.put("calledVariant", (stats.get("calledVariant") + 1));
 	    	}
 
-
-		    normal.close();
-		    tumor.close();
+		    tumorPositions = merge.getTumorPositions();
+		    merge.close();
 
 
 
 		    outSnp.close();
 		    outIndel.close();
+		    if(outValidation != null)
+		    	outValidation.close();
 
 		    System.err.println(tumorPositions + " positions in tumor");
 		    System.err.println(sharedPositions + " positions shared in normal"); //stats.get("sharedPositions")
@@ -1460,8 +1446,15 @@ public class Somatic {
 		    System.err.println(calledSomatic + " were called Somatic");
 		    System.err.println(calledUnknown + " were called Unknown");
 		    System.err.println(calledVariant + " were called Variant");
+		    if(params.containsKey("verbose"))
+		    	System.err.println("P-value cache: " + VarScan.significanceCache);
 
 		}
+		catch (PileupMerge.UnsortedException e)
+		{
+			System.err.println("ERROR: " + e.getLocalizedMessage());
+			System.exit(10);
+		}
 		catch (IOException e)
 		{
 			System.err.println("File Parsing Exception: " + e.getLocalizedMessage());
@@ -1472,104 +1465,137 @@ public class Somatic {
 
 
 	/**
-	 * Determine if tumor chromosome is before normal chromosome in sort order
+	 * Parses and verifies any command-line parameters
 	 *
 	 * @param	args	Command-line arguments
 	 * @return			HashMap of parameter names and their values
 	 */
-	static boolean inSortOrder(String chrom1, String chrom2)
+	static String comparePositions(String lineNormal, String lineTumor, int minCoverage, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double somaticPvalue, double minFreqForHom, double normalPurity, double tumorPurity)
 	{
-		String[] testArray = {chrom1, chrom2};
-		Arrays.sort(testArray);
+		return(comparePositions(lineNormal, lineTumor, minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity, true));
+	}
 
-		if(testArray[0].equals(chrom1))
-			return true;
 
-		return false;
+	/**
+	 * Compares normal and tumor pileup lines at one position and classifies the difference
+	 *
+	 * Each line may be a pileup line, with an optional mapping qualities column, or a CNS line.
+	 *
+	 * @param	reportReference	True if p-values are needed for Reference results (validation output)
+	 * @return	Tab-delimited comparison result, or empty string if coverage was not met
+	 */
+	static String comparePositions(String lineNormal, String lineTumor, int minCoverage, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double somaticPvalue, double minFreqForHom, double normalPurity, double tumorPurity, boolean reportReference)
+	{
+		return(comparePositions(lineNormal.split("\t"), lineTumor.split("\t"), minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity, reportReference));
 	}
 
+
 	/**
-	 * Parses and verifies any command-line parameters
+	 * Compares normal and tumor pileup lines that have already been split into columns
 	 *
-	 * @param	args	Command-line arguments
-	 * @return			HashMap of parameter names and their values
+	 * @param	normalContents	Columns of the normal's pileup or CNS line
+	 * @param	tumorContents	Columns of the tumor's pileup or CNS line
+	 * @param	reportReference	True if p-values are needed for Reference results (validation output)
+	 * @return	Tab-delimited comparison result, or empty string if coverage was not met
 	 */
-	static String comparePositions(String lineNormal, String lineTumor, int minCoverage, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double somaticPvalue, double minFreqForHom, double normalPurity, double tumorPurity)
+	static String comparePositions(String[] normalContents, String[] tumorContents, int minCoverage, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double somaticPvalue, double minFreqForHom, double normalPurity, double tumorPurity, boolean reportReference)
 	{
+		String refBase = "";
+		PileupSample normal = null;
+		PileupSample tumor = null;
+
 		try
 		{
-			 DecimalFormat df = new DecimalFormat("###.##");
-			 // Set default parameters //
-
-			 String refBase = "";
-			 int normalDepth = 0;
-			 String normalBases = "";
-			 String normalQualities = "";
-			 String normalMapQuals = "";
+			refBase = normalContents[2].toUpperCase();
+			normal = parseSample(normalContents);
+			tumor = parseSample(tumorContents);
+		}
+		catch(Exception e)
+		{
+			System.err.println("Warning:");
+			e.printStackTrace(System.err);
+			return("");
+		}
 
-			 int tumorDepth = 0;
-			 String tumorBases = "";
-			 String tumorQualities = "";
-			 String tumorMapQuals = "";
+		return(comparePositions(refBase, normal, tumor, minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity, reportReference));
+	}
 
-			 // Parse out normal info //
-			 String[] normalContents = lineNormal.split("\t");
-			 refBase = normalContents[2].toUpperCase();
-			 // Parse out tumor info //
-			 String[] tumorContents = lineTumor.split("\t");
 
-			 // Parse out normal from pileup or CNS file //
+	/**
+	 * Compares normal and tumor pileup lines whose columns are slices of a PileupLineReader's buffer
+	 *
+	 * @param	normalLine		The normal's pileup or CNS line
+	 * @param	tumorLine		The tumor's pileup or CNS line
+	 * @param	reportReference	True if p-values are needed for Reference results (validation output)
+	 * @return	Tab-delimited comparison result, or empty string if coverage was not met
+	 */
+	static String comparePositions(PileupLineReader normalLine, PileupLineReader tumorLine, int minCoverage, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double somaticPvalue, double minFreqForHom, double normalPurity, double tumorPurity, boolean reportReference)
+	{
+		String refBase = "";
+		PileupSample normal = null;
+		PileupSample tumor = null;
 
-			 if(normalContents.length >= 6 && normalContents.length <= 7)
-			 {
-				 normalDepth = Integer.parseInt(normalContents[3]);
-				 normalBases = normalContents[4];
-				 normalQualities = normalContents[5];
-				 normalMapQuals = "";
-				 if(normalContents.length == 7)
-				 {
-					 normalMapQuals = normalContents[6];
-				 }
+		try
+		{
+			refBase = normalLine.getRefBase();
+			normal = normalLine.getLineSample();
+			tumor = tumorLine.getLineSample();
+		}
+		catch(Exception e)
+		{
+			System.err.println("Warning:");
+			e.printStackTrace(System.err);
+			return("");
+		}
 
-			 }
-			 else if(normalContents.length >= 10 && normalContents.length <= 11)
-			 {
-				 normalDepth = Integer.parseInt(normalContents[7]);
-				 normalBases = normalContents[8];
-				 normalQualities = normalContents[9];
-				 normalMapQuals = "";
-				 if(normalContents.length == 11)
-				 {
-					 normalMapQuals = normalContents[10];
-				 }
-			 }
+		return(comparePositions(refBase, normal, tumor, minCoverage, minReads2, minVarFreq, minAvgQual, pValueThreshold, somaticPvalue, minFreqForHom, normalPurity, tumorPurity, reportReference));
+	}
 
-			 // Parse out tumor from pileup or CNS file //
 
-			 if(tumorContents.length >= 6 && tumorContents.length <= 7)
-			 {
-				 tumorDepth = Integer.parseInt(tumorContents[3]);
-				 tumorBases = tumorContents[4];
-				 tumorQualities = tumorContents[5];
-				 tumorMapQuals = "";
-				 if(tumorContents.length == 7)
-				 {
-					 tumorMapQuals = tumorContents[6];
-				 }
+	/**
+	 * Gets one sample's reads from the columns of a pileup line, with an optional mapping qualities column, or of a CNS line
+	 *
+	 * @param	contents	Columns of the line
+	 * @return				The sample, with no reads if the line has neither layout
+	 */
+	static PileupSample parseSample(String[] contents)
+	{
+		// Pileup lines have the sample from column 4, and CNS lines from column 8 //
+		int first = 0;
+		if(contents.length >= 6 && contents.length <= 7)
+			first = 3;
+		else if(contents.length >= 10 && contents.length <= 11)
+			first = 7;
+
+		if(first == 0)
+			return(new PileupSample(0, "", "", ""));
+
+		String mapQuals = (contents.length == first + 4) ? contents[first + 3] : "";
+		return(new PileupSample(Integer.parseInt(contents[first]), contents[first + 1], contents[first + 2], mapQuals));
+	}
 
-			 }
-			 else if(tumorContents.length >= 10 && tumorContents.length <= 11)
-			 {
-				 tumorDepth = Integer.parseInt(tumorContents[7]);
-				 tumorBases = tumorContents[8];
-				 tumorQualities = tumorContents[9];
-				 tumorMapQuals = "";
-				 if(tumorContents.length == 11)
-				 {
-					 tumorMapQuals = tumorContents[10];
-				 }
-			 }
 
+	/**
+	 * Compares the reads of normal and tumor at one position and classifies the difference
+	 *
+	 * The tumor is called first, after a scan that rules out tumors with too few reads for any call,
+	 * and the normal's reads are only counted if the tumor gets a call.
+	 * Decisions use VarScan.isSignificant, so exact p-values are only computed for the result line.
+	 * When reportReference is false, Reference positions get p-values of 1 since they will not be printed.
+	 *
+	 * @param	refBase			Reference base in upper case
+	 * @param	normal			Normal sample's reads
+	 * @param	tumor			Tumor sample's reads
+	 * @param	reportReference	True if p-values are needed for Reference results (validation output)
+	 * @return	Tab-delimited comparison result, or empty string if coverage was not met
+	 */
+	static String comparePositions(String refBase, PileupSample normal, PileupSample tumor, int minCoverage, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double somaticPvalue, double minFreqForHom, double normalPurity, double tumorPurity, boolean reportReference)
+	{
+		try
+		{
+			DecimalFormat df = new DecimalFormat("###.##");
+			int normalDepth = normal.getDepth();
+			int tumorDepth = tumor.getDepth();
 
 			String somaticStatus = "";
 			String allele2 = "";
@@ -1587,11 +1613,14 @@ public class Somatic {
 					 tumorMinVarFreq = (minVarFreq * tumorPurity);
 				 }
 
-				 HashMap<String, String> readCountsTumor = VarScan.getReadCounts(refBase, tumorBases, tumorQualities, minAvgQual, tumorMapQuals);
+				 // Without enough reads of any allele the tumor gets no call, and the normal is never looked at //
+				 if(!tumor.mayBeCalled(minReads2, minAvgQual))
+					 return("");
+
+				 AlleleCounts readCountsTumor = tumor.getCounts(refBase, minAvgQual);
 	//			 String tumorConsensusLine = callConsensus(refBase, tumorPileup, min_reads2, min_var_freq, min_avg_qual, pValue, purityNormal);
-				 String tumorConsensusLine = VarScan.callPosition(refBase, readCountsTumor, "CNS", minReads2, tumorMinVarFreq, minAvgQual, 0.99, minFreqForHom);
-				 String[] tumorConsensusContents = tumorConsensusLine.split("\t");
-				 String tumorConsensus = tumorConsensusContents[0];
+				 PositionCall tumorCall = VarScan.callPosition(refBase, readCountsTumor, "CNS", minReads2, tumorMinVarFreq, minAvgQual, 0.99, minFreqForHom);
+				 String tumorConsensus = tumorCall.genotype;
 
 				 if(tumorConsensus.equals("N"))
 				 {
@@ -1615,11 +1644,9 @@ public class Somatic {
 						 normalMinVarFreq = (normalMinVarFreq / normalPurity);
 					 }
 
-					 HashMap<String, String> readCountsNormal = VarScan.getReadCounts(refBase, normalBases, normalQualities, minAvgQual, normalMapQuals);
-					 String normalConsensusLine = VarScan.callPosition(refBase, readCountsNormal, "CNS", minReads2, normalMinVarFreq, minAvgQual, 0.99, minFreqForHom); //pValueThreshold, minFreqForHom);
-
-					 String[] normalConsensusContents = normalConsensusLine.split("\t");
-					 String normalConsensus = normalConsensusContents[0];
+					 AlleleCounts readCountsNormal = normal.getCounts(refBase, minAvgQual);
+					 PositionCall normalCall = VarScan.callPosition(refBase, readCountsNormal, "CNS", minReads2, normalMinVarFreq, minAvgQual, 0.99, minFreqForHom); //pValueThreshold, minFreqForHom);
+					 String normalConsensus = normalCall.genotype;
 
 					 if(normalConsensus.equals("N"))
 					 {
@@ -1628,44 +1655,30 @@ public class Somatic {
 					 }
 					 else
 					 {
-						 //	Parse out the read counts in tumor //
-							int tumorReads1 = Integer.parseInt(tumorConsensusContents[1]);
-							int tumorReads2 = Integer.parseInt(tumorConsensusContents[2]);
+						 //	Get the read counts in tumor //
+							int tumorReads1 = tumorCall.reads1;
+							int tumorReads2 = tumorCall.reads2;
 							int tumorCoverage = tumorReads1 + tumorReads2;
-							String tumorAllele2 = VarScan.getVarAllele(refBase, tumorConsensusContents[0]);
-
-							// Parse out strand support in tumor //
-							int tumorReads1plus = 0;
-							int tumorReads1minus = 0;
-							int tumorReads2plus = 0;
-							int tumorReads2minus = 0;
-							if(tumorConsensusContents.length > 14)
-							{
-								tumorReads1plus = Integer.parseInt(tumorConsensusContents[11]);
-								tumorReads1minus = Integer.parseInt(tumorConsensusContents[12]);
-								tumorReads2plus = Integer.parseInt(tumorConsensusContents[13]);
-								tumorReads2minus = Integer.parseInt(tumorConsensusContents[14]);
-							}
+							String tumorAllele2 = VarScan.getVarAllele(refBase, tumorConsensus);
 
-							// Parse out strand support in normal //
-							int normalReads1plus = 0;
-							int normalReads1minus = 0;
-							int normalReads2plus = 0;
-							int normalReads2minus = 0;
-							if(normalConsensusContents.length > 14)
-							{
-								normalReads1plus = Integer.parseInt(normalConsensusContents[11]);
-								normalReads1minus = Integer.parseInt(normalConsensusContents[12]);
-								normalReads2plus = Integer.parseInt(normalConsensusContents[13]);
-								normalReads2minus = Integer.parseInt(normalConsensusContents[14]);
-							}
+							// Get strand support in tumor //
+							int tumorReads1plus = tumorCall.reads1plus;
+							int tumorReads1minus = tumorCall.reads1minus;
+							int tumorReads2plus = tumorCall.reads2plus;
+							int tumorReads2minus = tumorCall.reads2minus;
+
+							// Get strand support in normal //
+							int normalReads1plus = normalCall.reads1plus;
+							int normalReads1minus = normalCall.reads1minus;
+							int normalReads2plus = normalCall.reads2plus;
+							int normalReads2minus = normalCall.reads2minus;
 
-							// Parse out the read counts in normal //
+							// Get the read counts in normal //
 
-							int normalReads1 = Integer.parseInt(normalConsensusContents[1]);
-							int normalReads2 = Integer.parseInt(normalConsensusContents[2]);
+							int normalReads1 = normalCall.reads1;
+							int normalReads2 = normalCall.reads2;
 							int normalCoverage = normalReads1 + normalReads2;
-							String normalAllele2 = VarScan.getVarAllele(refBase, normalConsensusContents[0]);
+							String normalAllele2 = VarScan.getVarAllele(refBase, normalConsensus);
 
 
 							// Get the Normal Read counts for the tumor variant allele //
@@ -1673,10 +1686,10 @@ public class Somatic {
 							if(!tumorAllele2.equals(refBase)) // normalAllele2.equals(refBase) &&
 							{
 								allele2 = tumorAllele2;
-								if(readCountsNormal.containsKey(tumorAllele2))
+								int normalSlot = readCountsNormal.findAllele(tumorAllele2);
+								if(normalSlot >= 0)
 								{
-									String[] alleleContents = readCountsNormal.get(tumorAllele2).split("\t");
-									normalReads2 = Integer.parseInt(alleleContents[0]);
+									normalReads2 = readCountsNormal.getReads(normalSlot);
 									normalCoverage = normalReads1 + normalReads2;
 								}
 							}
@@ -1693,21 +1706,13 @@ public class Somatic {
 							else
 							{
 								// Neither consensus contained a variant allele, so get most-observed tumor variant //
-								if(tumorConsensusContents.length > 15)
-								{
-									allele2 = tumorConsensusContents[15];
-								}
-								else if(tumorConsensusContents.length == 10)
-								{
-									allele2 = tumorConsensusContents[9];
-								}
-								else if(normalConsensusContents.length > 15)
+								if(tumorCall.hasVarAllele())
 								{
-									allele2 = normalConsensusContents[15];
+									allele2 = tumorCall.varAllele;
 								}
-								else if(normalConsensusContents.length == 10)
+								else if(normalCall.hasVarAllele())
 								{
-									allele2 = normalConsensusContents[9];
+									allele2 = normalCall.varAllele;
 								}
 							}
 
@@ -1729,8 +1734,9 @@ public class Somatic {
 							}
 							// End --ypu //
 
-							 // P-value of significant difference //
-							diffPvalue = VarScan.getSignificance(normalReads1, normalReads2, tumorReads1, tumorReads2);
+							 // Significance of difference; the p-value itself is computed for the report //
+							boolean diffSignificant = VarScan.isSignificant(normalReads1, normalReads2, tumorReads1, tumorReads2, somaticPvalue);
+							boolean germlineTested = false;
 
 							// Format allele frequencies for printing //
 							String normalFreqPrint = df.format(normalFreq * 100) + "%";
@@ -1738,7 +1744,7 @@ public class Somatic {
 
 							 // If Normal matches Tumor it's either reference or Germline //
 
-							 if(normalConsensus.equals(tumorConsensus) && (normalConsensus.equals(refBase) || diffPvalue > somaticPvalue))
+							 if(normalConsensus.equals(tumorConsensus) && (normalConsensus.equals(refBase) || !diffSignificant))
 							 {
 								 // CASE 0: Normal and Tumor Match //
 
@@ -1753,8 +1759,8 @@ public class Somatic {
 									 int totalReads2 = normalReads2 + tumorReads2;
 									 int totalCoverage = totalReads1 + totalReads2;
 									 // P-value of Germline variant //
-									 pValue = VarScan.getSignificance(totalCoverage, 0, totalReads1, totalReads2);
-									 if(pValue <= somaticPvalue) //Changed from if(pValue <= pValueThreshold) 11-jun-2012
+									 germlineTested = true;
+									 if(VarScan.isSignificant(totalCoverage, 0, totalReads1, totalReads2, somaticPvalue)) //Changed from if(pValue <= pValueThreshold) 11-jun-2012
 									 {
 										 somaticStatus = "Germline";
 										 allele2 = tumorAllele2;
@@ -1791,7 +1797,7 @@ public class Somatic {
 								 {
 				//					 CASE 2: Somatic indel or SNP events, where difference in read counts is significant or else coverage is low //
 
-										if(diffPvalue <= somaticPvalue || normalFreq == 0.00) // || tumorCoverage < 30 || normalCoverage < 15)
+										if(diffSignificant || normalFreq == 0.00) // || tumorCoverage < 30 || normalCoverage < 15)
 										{
 											// CASE 2A: Perfect Somatic Het //
 											if(normalConsensus.equals(refBase) && VarScan.isHeterozygous(tumorConsensus) && tumorFreq > normalFreq)
@@ -1839,11 +1845,8 @@ public class Somatic {
 												else// if(freqDiff < 0.50)
 												{
 													somaticStatus = "Germline"; // Should this be GOH? //
-													// Recalculate p-value //
-													int totalReads1 = normalReads1 + tumorReads1;
-													int totalReads2 = normalReads2 + tumorReads2;
-													int totalCoverage = totalReads1 + totalReads2;
-													pValue = VarScan.getSignificance(totalCoverage, 0, totalReads1, totalReads2);
+													// Recalculate p-value for the report //
+													germlineTested = true;
 												}
 												// debug --ypu//
 												// System.err.println("[DEBUG] lineNormal:\t" + lineNormal + "lineTumor:\t" + lineNormal + "somaticStatus:\t" + somaticStatus + "freqQuot:\t" + freqQuot);
@@ -1882,8 +1885,8 @@ public class Somatic {
 												int totalReads1 = normalReads1 + tumorReads1;
 												int totalReads2 = normalReads2 + tumorReads2;
 												int totalCoverage = totalReads1 + totalReads2;
-												pValue = VarScan.getSignificance(totalCoverage, 0, totalReads1, totalReads2);
-												if(pValue <= pValueThreshold)
+												germlineTested = true;
+												if(VarScan.isSignificant(totalCoverage, 0, totalReads1, totalReads2, pValueThreshold))
 												{
 													somaticStatus = "Germline";
 													allele2 = tumorAllele2;
@@ -1921,6 +1924,20 @@ public class Somatic {
 								 }
 
 
+							 // Compute the p-values for the report //
+
+							 if(!somaticStatus.equals("Reference") || reportReference)
+							 {
+								 diffPvalue = VarScan.getSignificance(normalReads1, normalReads2, tumorReads1, tumorReads2);
+
+								 if(germlineTested)
+								 {
+									 int totalReads1 = normalReads1 + tumorReads1;
+									 int totalReads2 = normalReads2 + tumorReads2;
+									 pValue = VarScan.getSignificance(totalReads1 + totalReads2, 0, totalReads1, totalReads2);
+								 }
+							 }
+
 							 // Compile the report //
 
 							 String resultLine = refBase + "\t" + allele2 + "\t";
@@ -1956,42 +1973,4 @@ public class Somatic {
 		 return("");	// No call
 	}
 
-
-
-	/**
-	 * Determines the sort order for chromosomes
-	 *
-	 * @param	args	Command-line arguments
-	 * @return			HashMap of parameter names and their values
-	 */
-	static Boolean chromSorted(String chrom1, String chrom2)
-	{
-		Boolean answer = false;
-
-		chrom1.replace("X", "23");
-		chrom1.replace("Y", "24");
-		chrom1.replace("M", "25");
-
-		chrom2.replace("X", "23");
-		chrom2.replace("Y", "24");
-		chrom2.replace("M", "25");
-
-		String[] unsorted = {chrom1, chrom2};
-		String[] sorted = {chrom1, chrom2};
-		Arrays.sort(sorted);
-		System.err.println("Sorted order is " + sorted[0] + " " + sorted[1]);
-		try{
-			if(sorted[0].equals(unsorted[0]))
-			{
-				answer = true;
-			}
-		}
-		catch(Exception e)
-		{
-
-		}
-
-		return(answer);
-	}
-
 }
@@ -0,0 +1,424 @@
+/**
+ * @(#)TabixIndex.java
+ *
+ * Copyright (c) 2009-2013 Daniel C. Koboldt and Washington University in St. Louis
+ *
+ * COPYRIGHT
+ */
+
+package net.sf.varscan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A tabix (.tbi) index of tab-delimited output with the contig in column 1 and the position in column 2
+ *
+ * Lines are added as they are written to a BgzfOutputStream, by their offsets in the uncompressed output,
+ * and turned into BGZF virtual offsets when the index is saved. The index uses the same bins, linear
+ * index and per-contig metadata as tabix itself. VCF output is recognized by its ##fileformat line and
+ * indexed with the VCF preset; other output uses the generic preset, with any leading lines that have
+ * no position, such as a column header, counted as lines to skip. Output that is not sorted by
+ * position within each contig cannot be indexed, so no index is saved for it.
+ *
+ * @version	2.3
+ *
+ * @author Daniel C. Koboldt <dkoboldt@genome.wustl.edu>
+ *
+ */
+public class TabixIndex {
+
+	static final String SUFFIX = ".tbi";
+
+	private static final int MIN_SHIFT = 14;
+	private static final int META_BIN = 37450;
+	private static final int FORMAT_GENERIC = 0;
+	private static final int FORMAT_VCF = 2;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private final ArrayList<String> names = new ArrayList<String>();
+	private final HashMap<String, ContigIndex> contigs = new HashMap<String, ContigIndex>();
+	private ContigIndex contig = null;
+	private boolean isVCF = false;
+	private boolean dataStarted = false;
+	private int numSkipped = 0;
+	private long numLines = 0;
+	private String problem = null;		// Why the output cannot be indexed, if it cannot
+
+	// The line being written, which may arrive in pieces //
+	private byte[] line = new byte[1024];
+	private int lineLength = 0;
+	private long lineStart = 0;
+
+
+	/**
+	 * Scans bytes as they are written, adding each complete line to the index
+	 *
+	 * @param	bytes		Bytes written
+	 * @param	offset		Start of the bytes in the array
+	 * @param	length		Number of bytes
+	 * @param	position	Offset of the first byte in the uncompressed output
+	 */
+	void scan(byte[] bytes, int offset, int length, long position)
+	{
+		int start = offset;
+		int end = offset + length;
+
+		for(int i = offset; i < end; i++)
+		{
+			if(bytes[i] == '\n')
+			{
+				append(bytes, start, i - start);
+				long lineEnd = position + (i - offset) + 1;
+				addLine(lineStart, lineEnd);
+				lineStart = lineEnd;
+				lineLength = 0;
+				start = i + 1;
+			}
+		}
+
+		append(bytes, start, end - start);
+	}
+
+
+	/**
+	 * Adds bytes to the line being written
+	 */
+	private void append(byte[] bytes, int offset, int length)
+	{
+		if(lineLength + length > line.length)
+			line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+
+		System.arraycopy(bytes, offset, line, lineLength, length);
+		lineLength += length;
+	}
+
+
+	/**
+	 * Adds the complete line in the line buffer to the index
+	 *
+	 * @param	start	Offset of the line in the uncompressed output
+	 * @param	end		Offset just past the line's newline
+	 */
+	private void addLine(long start, long end)
+	{
+		numLines++;
+		int length = lineLength;
+		if(length > 0 && line[length - 1] == '\r')
+			length--;
+
+		if(problem != null || length == 0)
+			return;
+
+		if(numLines == 1 && startsWith(line, length, "##fileformat=VCF"))
+			isVCF = true;
+
+		// Meta lines are skipped by tabix wherever they are //
+		if(line[0] == '#')
+			return;
+
+		int chromEnd = nextTab(line, 0, length);
+		int positionEnd = nextTab(line, chromEnd + 1, length);
+		int position = parsePosition(line, chromEnd + 1, positionEnd);
+
+		if(chromEnd == 0 || position < 1)
+		{
+			if(!dataStarted)
+				numSkipped++;
+			else
+				problem = "line " + numLines + " has no position";
+			return;
+		}
+
+		dataStarted = true;
+
+		int beg = position - 1;
+		int featureEnd = beg + 1;
+
+		// A VCF record covers its reference allele //
+		if(isVCF)
+		{
+			int idEnd = nextTab(line, positionEnd + 1, length);
+			int refEnd = nextTab(line, idEnd + 1, length);
+			featureEnd = beg + Math.max(1, refEnd - idEnd - 1);
+		}
+
+		String chrom = new String(line, 0, chromEnd, ISO_8859_1);
+		if(contig == null || !contig.name.equals(chrom))
+		{
+			if(contigs.containsKey(chrom))
+			{
+				problem = "output is not sorted; " + chrom + " appears again at line " + numLines;
+				return;
+			}
+
+			contig = new ContigIndex(chrom);
+			names.add(chrom);
+			contigs.put(chrom, contig);
+		}
+		else if(beg < contig.lastBeg)
+		{
+			problem = "output is not sorted; " + chrom + " position " + position + " follows " + (contig.lastBeg + 1) + " at line " + numLines;
+			return;
+		}
+
+		contig.add(beg, featureEnd, start, end);
+	}
+
+
+	/**
+	 * Saves the index, or warns that the output could not be indexed
+	 *
+	 * @param	indexFile	Index file
+	 * @param	output		The indexed output, closed, for converting offsets
+	 */
+	void write(File indexFile, BgzfOutputStream output) throws IOException
+	{
+		// A last line without a newline //
+		if(lineLength > 0)
+		{
+			addLine(lineStart, lineStart + lineLength);
+			lineLength = 0;
+		}
+
+		if(problem != null)
+		{
+			System.err.println("Warning: " + indexFile.getPath() + " was not written: " + problem);
+			indexFile.delete();
+			return;
+		}
+
+		OutputStream out = new BgzfOutputStream(new FileOutputStream(indexFile));
+		byte[] number = new byte[8];
+
+		out.write(new byte[] {'T', 'B', 'I', 1});
+		writeInt(out, number, names.size());
+		writeInt(out, number, isVCF ? FORMAT_VCF : FORMAT_GENERIC);
+		writeInt(out, number, 1);		// Contig column
+		writeInt(out, number, 2);		// Start column
+		writeInt(out, number, 0);		// No end column
+		writeInt(out, number, '#');
+		writeInt(out, number, numSkipped);
+
+		int namesLength = 0;
+		for(String name : names)
+			namesLength += name.getBytes(ISO_8859_1).length + 1;
+		writeInt(out, number, namesLength);
+		for(String name : names)
+		{
+			out.write(name.getBytes(ISO_8859_1));
+			out.write(0);
+		}
+
+		for(String name : names)
+			contigs.get(name).write(out, number, output);
+
+		out.close();
+	}
+
+
+	/**
+	 * Returns the tabix bin of a 0-based, half-open interval
+	 */
+	static int reg2bin(int beg, int end)
+	{
+		end--;
+		if(beg >> 14 == end >> 14)
+			return(((1 << 15) - 1) / 7 + (beg >> 14));
+		if(beg >> 17 == end >> 17)
+			return(((1 << 12) - 1) / 7 + (beg >> 17));
+		if(beg >> 20 == end >> 20)
+			return(((1 << 9) - 1) / 7 + (beg >> 20));
+		if(beg >> 23 == end >> 23)
+			return(((1 << 6) - 1) / 7 + (beg >> 23));
+		if(beg >> 26 == end >> 26)
+			return(((1 << 3) - 1) / 7 + (beg >> 26));
+		return(0);
+	}
+
+
+	/**
+	 * Returns the index of the next tab at or after a position, or the length if there is none
+	 */
+	private static int nextTab(byte[] bytes, int from, int length)
+	{
+		int i = from;
+		while(i < length && bytes[i] != '\t')
+			i++;
+		return(i);
+	}
+
+
+	/**
+	 * Parses a positive decimal position, returning -1 if the bytes are not one
+	 */
+	private static int parsePosition(byte[] bytes, int start, int end)
+	{
+		if(start >= end || end - start > 10)
+			return(-1);
+
+		long value = 0;
+		for(int i = start; i < end; i++)
+		{
+			int digit = bytes[i] - '0';
+			if(digit < 0 || digit > 9)
+				return(-1);
+			value = value * 10 + digit;
+		}
+
+		return(value > Integer.MAX_VALUE ? -1 : (int) value);
+	}
+
+
+	private static boolean startsWith(byte[] bytes, int length, String prefix)
+	{
+		if(length < prefix.length())
+			return(false);
+		for(int i = 0; i < prefix.length(); i++)
+			if(bytes[i] != prefix.charAt(i))
+				return(false);
+		return(true);
+	}
+
+
+	private static void writeInt(OutputStream out, byte[] number, long value) throws IOException
+	{
+		BgzfOutputStream.writeInt(number, 0, value);
+		out.write(number, 0, 4);
+	}
+
+
+	private static void writeLong(OutputStream out, byte[] number, long value) throws IOException
+	{
+		BgzfOutputStream.writeInt(number, 0, value);
+		BgzfOutputStream.writeInt(number, 4, value >>> 32);
+		out.write(number, 0, 8);
+	}
+
+
+	/**
+	 * Bins and linear index of one contig, by offsets in the uncompressed output
+	 */
+	private static class ContigIndex
+	{
+		final String name;
+		final TreeMap<Integer, Bin> bins = new TreeMap<Integer, Bin>();
+		long[] linear = new long[16];
+		int numWindows = 0;
+		int lastBeg = 0;
+		long firstOffset = -1;
+		long lastOffset = 0;
+		long numRecords = 0;
+
+		ContigIndex(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Adds a record covering [beg, end) that was written at [start, stop) of the output
+		 */
+		void add(int beg, int end, long start, long stop)
+		{
+			int bin = reg2bin(beg, end);
+			Bin chunks = bins.get(bin);
+			if(chunks == null)
+			{
+				chunks = new Bin();
+				bins.put(bin, chunks);
+			}
+			chunks.add(start, stop);
+
+			// Each 16 kb window the record overlaps starts no later than the first such record //
+			int lastWindow = (end - 1) >> MIN_SHIFT;
+			if(lastWindow >= linear.length)
+				linear = Arrays.copyOf(linear, Math.max(linear.length * 2, lastWindow + 1));
+			for(int w = numWindows; w <= lastWindow; w++)
+				linear[w] = -1;
+			numWindows = Math.max(numWindows, lastWindow + 1);
+			for(int w = beg >> MIN_SHIFT; w <= lastWindow; w++)
+				if(linear[w] < 0)
+					linear[w] = start;
+
+			if(firstOffset < 0)
+				firstOffset = start;
+			lastOffset = stop;
+			lastBeg = beg;
+			numRecords++;
+		}
+
+		/**
+		 * Writes the contig's part of the index, with offsets converted to virtual offsets
+		 */
+		void write(OutputStream out, byte[] number, BgzfOutputStream output) throws IOException
+		{
+			writeInt(out, number, bins.size() + 1);
+
+			for(Map.Entry<Integer, Bin> entry : bins.entrySet())
+			{
+				Bin chunks = entry.getValue();
+
+				writeInt(out, number, entry.getKey());
+				writeInt(out, number, chunks.numChunks);
+				for(int i = 0; i < chunks.numChunks * 2; i++)
+					writeLong(out, number, output.getVirtualOffset(chunks.offsets[i]));
+			}
+
+			// Pseudo-bin with the contig's extent in the file and its record counts //
+			writeInt(out, number, META_BIN);
+			writeInt(out, number, 2);
+			writeLong(out, number, output.getVirtualOffset(firstOffset));
+			writeLong(out, number, output.getVirtualOffset(lastOffset));
+			writeLong(out, number, numRecords);
+			writeLong(out, number, 0);
+
+			// Windows before the first record start at it, and empty windows at the one before //
+			writeInt(out, number, numWindows);
+			long previous = firstOffset;
+			for(int w = 0; w < numWindows; w++)
+			{
+				if(linear[w] >= 0)
+					previous = linear[w];
+				writeLong(out, number, output.getVirtualOffset(previous));
+			}
+		}
+	}
+
+
+	/**
+	 * Chunks of the output holding one bin's records
+	 */
+	private static class Bin
+	{
+		long[] offsets = new long[4];		// Start and end of each chunk, in turn
+		int numChunks = 0;
+
+		/**
+		 * Adds a record written at [start, stop), extending the last chunk if the record follows straight on from it
+		 */
+		void add(long start, long stop)
+		{
+			if(numChunks > 0 && offsets[numChunks * 2 - 1] == start)
+			{
+				offsets[numChunks * 2 - 1] = stop;
+				return;
+			}
+
+			if(numChunks * 2 == offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+			offsets[numChunks * 2] = start;
+			offsets[numChunks * 2 + 1] = stop;
+			numChunks++;
+		}
+	}
+
+}
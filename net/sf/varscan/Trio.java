@@ -246,32 +246,10 @@ public class Trio {
 				return;
 	    	}
 
-	    	// If input file not ready, give it a few seconds //
-	    	int numNaps = 0;
-
-	    	while(!in.ready())
-	    	{
-	    		try {
-			    	Thread.sleep(5000);
-			    	numNaps++;
-
-			    	if(numNaps > 100)
-			    	{
-			    		System.err.println("Input file was not ready after 100 5-second cycles!");
-			    		System.exit(10);
-			    	}
-		    	}
-		    	catch(Exception e)
-		    	{
-		    		System.err.println("Exception while trying to get input" + e.getMessage());
-		    		System.exit(1);
-		    	}
-	    	}
-
 	    	// Proceed if input stream is ready //
 			String vcfHeader = "##fileformat=VCFv4.1";
 
-	    	if(in != null && in.ready())
+	    	if(in != null && VarScan.hasInput(in))
 	    	{
 				// Declare output file //
 		 	 	PrintStream outSnp = null; // declare a print stream object for SNPs
@@ -405,63 +383,50 @@ public class Trio {
 	    						// Perform strand filter test //
 	    						String allBases = fatherBases + motherBases + childBases;
 			    	        	String allQualities = fatherQualities + motherQualities + childQualities;
-			    	        	HashMap<String, String> allCounts = VarScan.getReadCounts(refBase, allBases, allQualities, minAvgQual, "");
-			    	        	String positionCall = VarScan.callPosition(refBase, allCounts, "CNS", minReads2, 0.01, minAvgQual, 0.95, minFreqForHom);
-			    	        	String[] callContents = positionCall.split("\t");
-			    	        	if(callContents.length >= 15)
-			    	        	{
-			        				int reads1plus = Integer.parseInt(callContents[11]);
-			        				int reads1minus = Integer.parseInt(callContents[12]);
-			        				int reads2plus = Integer.parseInt(callContents[13]);
-			        				int reads2minus = Integer.parseInt(callContents[14]);
-			        				strandFilterStatus = VarScan.strandFilter(reads1plus, reads1minus, reads2plus, reads2minus, strandPvalueThreshold);
-			    	        	}
+			    	        	AlleleCounts allCounts = VarScan.getReadCounts(refBase, allBases, allQualities, minAvgQual, "");
+			    	        	PositionCall positionCall = VarScan.callPosition(refBase, allCounts, "CNS", minReads2, 0.01, minAvgQual, 0.95, minFreqForHom);
+			    	        	strandFilterStatus = VarScan.strandFilter(positionCall.reads1plus, positionCall.reads1minus, positionCall.reads2plus, positionCall.reads2minus, strandPvalueThreshold);
 //		        				System.err.println(strandFilterStatus);
 
 
-	    	        			HashMap<String, String> fatherCounts = VarScan.getReadCounts(refBase, fatherBases, fatherQualities, minAvgQual, "");
-		    	        		HashMap<String, String> motherCounts = VarScan.getReadCounts(refBase, motherBases, motherQualities, minAvgQual, "");
-		    	        		HashMap<String, String> childCounts = VarScan.getReadCounts(refBase, childBases, childQualities, minAvgQual, "");
+	    	        			AlleleCounts fatherCounts = VarScan.getReadCounts(refBase, fatherBases, fatherQualities, minAvgQual, "");
+		    	        		AlleleCounts motherCounts = VarScan.getReadCounts(refBase, motherBases, motherQualities, minAvgQual, "");
+		    	        		AlleleCounts childCounts = VarScan.getReadCounts(refBase, childBases, childQualities, minAvgQual, "");
 
 		    	        		// Prepare Strings for Results //
-		    	        		String fatherCall = "";
-		    	        		String motherCall = "";
-		    	        		String childCall = "";
+		    	        		PositionCall fatherCall = null;
+		    	        		PositionCall motherCall = null;
+		    	        		PositionCall childCall = null;
 		    	        		String trioStatus = "";
 
 		    	        		// Try trio calling //
-		    	        		String trioCall = callTrio(refBase, fatherCounts, motherCounts, childCounts, minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
-		    	        		String[] trioCallContents = trioCall.split("\t");
+		    	        		TrioCall trioCall = callTrio(refBase, fatherCounts, motherCounts, childCounts, minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
 
-		    	        		if(trioCallContents.length >= 4)
+		    	        		if(trioCall != null)
 		    	        		{
-		    	        			fatherCall = trioCallContents[0];
-		    	        			motherCall = trioCallContents[1];
-		    	        			childCall = trioCallContents[2];
+		    	        			fatherCall = trioCall.father;
+		    	        			motherCall = trioCall.mother;
+		    	        			childCall = trioCall.child;
 
-		    	        			trioStatus = trioCallContents[3];
+		    	        			trioStatus = trioCall.status;
 	    	        				boolean recallTrio = false;
 
 		    	        			// Consider re-calling de novo mutations, MIEs, and untransmitted //
 		    	        			if(trioStatus.equals("DeNovo") || trioStatus.contains("MIE") || trioStatus.equals("Untransmitted"))
 		    	        			{
-		    	        				// Parse out the variant allele from each sample //
-		    	        				String[] fatherContents = fatherCall.split(":");
-		    	        				String[] motherContents = motherCall.split(":");
-		    	        				String[] childContents = childCall.split(":");
-
+		    	        				// Get the variant allele from each sample //
 		    	        				String fatherAllele = refBase;
 		    	        				String motherAllele = refBase;
 		    	        				String childAllele = refBase;
 
-		    	        				if(fatherContents.length >= 16)
-		    	        					fatherAllele = fatherContents[15];
+		    	        				if(fatherCall.hasVarAllele())
+		    	        					fatherAllele = fatherCall.varAllele;
 
-		    	        				if(motherContents.length >= 16)
-		    	        					motherAllele = motherContents[15];
+		    	        				if(motherCall.hasVarAllele())
+		    	        					motherAllele = motherCall.varAllele;
 
-		    	        				if(childContents.length >= 16)
-		    	        					childAllele = childContents[15];
+		    	        				if(childCall.hasVarAllele())
+		    	        					childAllele = childCall.varAllele;
 
 		    	        				// Evaluate if we should re-call the trio with reduced thresholds //
 
@@ -490,12 +455,11 @@ public class Trio {
 //			    	        				double adjustedpValueThreshold = 0.20;
 
 			    	        				trioCall = callTrio(refBase, fatherCounts, motherCounts, childCounts, adjustedMinReads2, adjustedMinVarFreq, minAvgQual, adjustedpValueThreshold, minFreqForHom);
-			    	        				trioCallContents = trioCall.split("\t");
 
 			    	        				// Determine if something changed //
-			    	        				if(!trioStatus.equals(trioCallContents[3]))
+			    	        				if(!trioStatus.equals(trioCall.status))
 			    	        				{
-			    	        					String change = "initially " + trioStatus + " were re-called " + trioCallContents[3];
+			    	        					String change = "initially " + trioStatus + " were re-called " + trioCall.status;
 					    						if(!stats.containsKey(change))
 					    						{
 //					    							System.err.println("CHANGED FROM " + trioStatus + "\t" + trioCall);
@@ -507,7 +471,7 @@ public class Trio {
 					    						}
 			    	        				}
 
-			    	        				trioStatus = trioCallContents[3];
+			    	        				trioStatus = trioCall.status;
 
 		    	        				}	// Otherwise don't re-call //
 
@@ -519,14 +483,9 @@ public class Trio {
 
 		    	        			String variantType = "SNP";
 
-		    	        			fatherCall = trioCallContents[0];
-		    	        			motherCall = trioCallContents[1];
-		    	        			childCall = trioCallContents[2];
-
-	    	        				// Parse out the variant allele from each sample //
-	    	        				String[] fatherContents = fatherCall.split(":");
-	    	        				String[] motherContents = motherCall.split(":");
-	    	        				String[] childContents = childCall.split(":");
+		    	        			fatherCall = trioCall.father;
+		    	        			motherCall = trioCall.mother;
+		    	        			childCall = trioCall.child;
 
 	    	        				String fatherAllele = refBase;
 	    	        				String motherAllele = refBase;
@@ -536,21 +495,21 @@ public class Trio {
 
 	    	        				String fatherVCF = "./.:.:" + fatherQualityDepth;
 
-	    	        				if(fatherContents.length >= 15)
+	    	        				if(fatherCall != null)
 	    	        				{
-	    	        					if(fatherContents.length >= 16)
-	    	        						fatherAllele = fatherContents[15];
-	    	        					String consBase = fatherContents[0];
-		    	        				int reads1 = Integer.parseInt(fatherContents[1]);
-		    	        				int reads2 = Integer.parseInt(fatherContents[2]);
-		    	        				String varFreq = fatherContents[3];
-		    	        				int qual1 = Integer.parseInt(fatherContents[6]);
-		    	        				int qual2 = Integer.parseInt(fatherContents[7]);
-		    	        				double pValue = Double.parseDouble(fatherContents[8]);
-		    	        				int reads1plus = Integer.parseInt(fatherContents[11]);
-		    	        				int reads1minus = Integer.parseInt(fatherContents[12]);
-		    	        				int reads2plus = Integer.parseInt(fatherContents[13]);
-		    	        				int reads2minus = Integer.parseInt(fatherContents[14]);
+	    	        					if(fatherCall.hasVarAllele())
+	    	        						fatherAllele = fatherCall.varAllele;
+	    	        					String consBase = fatherCall.genotype;
+		    	        				int reads1 = fatherCall.reads1;
+		    	        				int reads2 = fatherCall.reads2;
+		    	        				String varFreq = fatherCall.getVarFreq();
+		    	        				int qual1 = fatherCall.avgQual1;
+		    	        				int qual2 = fatherCall.avgQual2;
+		    	        				double pValue = fatherCall.getPValue();
+		    	        				int reads1plus = fatherCall.reads1plus;
+		    	        				int reads1minus = fatherCall.reads1minus;
+		    	        				int reads2plus = fatherCall.reads2plus;
+		    	        				int reads2minus = fatherCall.reads2minus;
 
 		    	        				double logP = 0;
 		    	        				try {
@@ -605,22 +564,19 @@ public class Trio {
 			    	        					varAlleles.put(fatherAllele, varAlleleNumber);
 			    	        				}
 
-			    	        				if(fatherContents.length >= 1)
-			    	        				{
-			    	        					if(VarScan.isHomozygous(consBase))
-			    	        					{
-			    	        						fatherVCF = varAlleleNumber + "/" + varAlleleNumber;
-			    	        					}
-			    	        					else
-			    	        					{
-			    	        						fatherVCF = "0" + "/" + varAlleleNumber;
-			    	        					}
-
-			    	        					fatherVCF += ":" + (int) logP + ":" + fatherDepth + ":" + fatherQualityDepth;
-		    	        						fatherVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
-		    	        						fatherVCF += ":" + qual1 + ":" + qual2;
-		    	        						fatherVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
-			    	        				}
+		    	        					if(VarScan.isHomozygous(consBase))
+		    	        					{
+		    	        						fatherVCF = varAlleleNumber + "/" + varAlleleNumber;
+		    	        					}
+		    	        					else
+		    	        					{
+		    	        						fatherVCF = "0" + "/" + varAlleleNumber;
+		    	        					}
+
+		    	        					fatherVCF += ":" + (int) logP + ":" + fatherDepth + ":" + fatherQualityDepth;
+	    	        						fatherVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
+	    	        						fatherVCF += ":" + qual1 + ":" + qual2;
+	    	        						fatherVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
 
 		    	        					if(fatherAllele.length() > 1)
 		    	        						variantType = "Indel";
@@ -632,21 +588,21 @@ public class Trio {
 
 	    	        				String motherVCF = "./.:.:" + motherQualityDepth;
 
-	    	        				if(motherContents.length >= 15)
+	    	        				if(motherCall != null)
 	    	        				{
-	    	        					if(motherContents.length >= 16)
-	    	        						motherAllele = motherContents[15];
-	    	        					String consBase = motherContents[0];
-		    	        				int reads1 = Integer.parseInt(motherContents[1]);
-		    	        				int reads2 = Integer.parseInt(motherContents[2]);
-		    	        				String varFreq = motherContents[3];
-		    	        				int qual1 = Integer.parseInt(motherContents[6]);
-		    	        				int qual2 = Integer.parseInt(motherContents[7]);
-		    	        				double pValue = Double.parseDouble(motherContents[8]);
-		    	        				int reads1plus = Integer.parseInt(motherContents[11]);
-		    	        				int reads1minus = Integer.parseInt(motherContents[12]);
-		    	        				int reads2plus = Integer.parseInt(motherContents[13]);
-		    	        				int reads2minus = Integer.parseInt(motherContents[14]);
+	    	        					if(motherCall.hasVarAllele())
+	    	        						motherAllele = motherCall.varAllele;
+	    	        					String consBase = motherCall.genotype;
+		    	        				int reads1 = motherCall.reads1;
+		    	        				int reads2 = motherCall.reads2;
+		    	        				String varFreq = motherCall.getVarFreq();
+		    	        				int qual1 = motherCall.avgQual1;
+		    	        				int qual2 = motherCall.avgQual2;
+		    	        				double pValue = motherCall.getPValue();
+		    	        				int reads1plus = motherCall.reads1plus;
+		    	        				int reads1minus = motherCall.reads1minus;
+		    	        				int reads2plus = motherCall.reads2plus;
+		    	        				int reads2minus = motherCall.reads2minus;
 
 		    	        				double logP = 0;
 		    	        				try {
@@ -701,22 +657,19 @@ public class Trio {
 			    	        					varAlleles.put(motherAllele, varAlleleNumber);
 			    	        				}
 
-			    	        				if(motherContents.length >= 1)
-			    	        				{
-			    	        					if(VarScan.isHomozygous(consBase))
-			    	        					{
-			    	        						motherVCF = varAlleleNumber + "/" + varAlleleNumber;
-			    	        					}
-			    	        					else
-			    	        					{
-			    	        						motherVCF = "0" + "/" + varAlleleNumber;
-			    	        					}
-
-			    	        					motherVCF += ":" + (int) logP + ":" + motherDepth + ":" + motherQualityDepth;
-		    	        						motherVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
-		    	        						motherVCF += ":" + qual1 + ":" + qual2;
-		    	        						motherVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
-			    	        				}
+		    	        					if(VarScan.isHomozygous(consBase))
+		    	        					{
+		    	        						motherVCF = varAlleleNumber + "/" + varAlleleNumber;
+		    	        					}
+		    	        					else
+		    	        					{
+		    	        						motherVCF = "0" + "/" + varAlleleNumber;
+		    	        					}
+
+		    	        					motherVCF += ":" + (int) logP + ":" + motherDepth + ":" + motherQualityDepth;
+	    	        						motherVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
+	    	        						motherVCF += ":" + qual1 + ":" + qual2;
+	    	        						motherVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
 
 		    	        					if(motherAllele.length() > 1)
 		    	        						variantType = "Indel";
@@ -728,21 +681,21 @@ public class Trio {
 
 	    	        				String childVCF = "./.:.:" + childQualityDepth;
 
-	    	        				if(childContents.length >= 15)
+	    	        				if(childCall != null)
 	    	        				{
-	    	        					if(childContents.length >= 16)
-	    	        						childAllele = childContents[15];
-	    	        					String consBase = childContents[0];
-		    	        				int reads1 = Integer.parseInt(childContents[1]);
-		    	        				int reads2 = Integer.parseInt(childContents[2]);
-		    	        				String varFreq = childContents[3];
-		    	        				int qual1 = Integer.parseInt(childContents[6]);
-		    	        				int qual2 = Integer.parseInt(childContents[7]);
-		    	        				double pValue = Double.parseDouble(childContents[8]);
-		    	        				int reads1plus = Integer.parseInt(childContents[11]);
-		    	        				int reads1minus = Integer.parseInt(childContents[12]);
-		    	        				int reads2plus = Integer.parseInt(childContents[13]);
-		    	        				int reads2minus = Integer.parseInt(childContents[14]);
+	    	        					if(childCall.hasVarAllele())
+	    	        						childAllele = childCall.varAllele;
+	    	        					String consBase = childCall.genotype;
+		    	        				int reads1 = childCall.reads1;
+		    	        				int reads2 = childCall.reads2;
+		    	        				String varFreq = childCall.getVarFreq();
+		    	        				int qual1 = childCall.avgQual1;
+		    	        				int qual2 = childCall.avgQual2;
+		    	        				double pValue = childCall.getPValue();
+		    	        				int reads1plus = childCall.reads1plus;
+		    	        				int reads1minus = childCall.reads1minus;
+		    	        				int reads2plus = childCall.reads2plus;
+		    	        				int reads2minus = childCall.reads2minus;
 
 		    	        				double logP = 0;
 		    	        				try {
@@ -797,22 +750,19 @@ public class Trio {
 			    	        					varAlleles.put(childAllele, varAlleleNumber);
 			    	        				}
 
-			    	        				if(childContents.length >= 1)
-			    	        				{
-			    	        					if(VarScan.isHomozygous(consBase))
-			    	        					{
-			    	        						childVCF = varAlleleNumber + "/" + varAlleleNumber;
-			    	        					}
-			    	        					else
-			    	        					{
-			    	        						childVCF = "0" + "/" + varAlleleNumber;
-			    	        					}
-
-			    	        					childVCF += ":" + (int) logP + ":" + childDepth + ":" + childQualityDepth;
-		    	        						childVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
-		    	        						childVCF += ":" + qual1 + ":" + qual2;
-		    	        						childVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
-			    	        				}
+		    	        					if(VarScan.isHomozygous(consBase))
+		    	        					{
+		    	        						childVCF = varAlleleNumber + "/" + varAlleleNumber;
+		    	        					}
+		    	        					else
+		    	        					{
+		    	        						childVCF = "0" + "/" + varAlleleNumber;
+		    	        					}
+
+		    	        					childVCF += ":" + (int) logP + ":" + childDepth + ":" + childQualityDepth;
+	    	        						childVCF += ":" + reads1 + ":" + reads2 + ":" + varFreq + ":" + pvalueFormat.format(pValue);
+	    	        						childVCF += ":" + qual1 + ":" + qual2;
+	    	        						childVCF += ":" + reads1plus + ":" + reads1minus + ":" + reads2plus + ":" + reads2minus;
 
 		    	        					if(childAllele.length() > 1)
 		    	        						variantType = "Indel";
@@ -1068,7 +1018,7 @@ public class Trio {
 		    	        		}
 		    	        		else
 		    	        		{
-		    	        			// The trioCallContents was less than 4 fields, so that's a problem //
+		    	        			// No trio call could be made, so that's a problem //
 		    	        			System.err.println("No status for " + numBases);
 		    	        		}
 
@@ -1149,36 +1099,49 @@ public class Trio {
 
 
 
-	public String callTrio(String refBase, HashMap<String, String> fatherCounts, HashMap<String, String> motherCounts, HashMap<String, String> childCounts, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double minFreqForHom)
+	/**
+	 * Consensus calls for each member of a trio along with the trio status
+	 */
+	static class TrioCall
 	{
-		String fatherCall = VarScan.callPosition(refBase, fatherCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
-		String motherCall = VarScan.callPosition(refBase, motherCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
-		String childCall = VarScan.callPosition(refBase, childCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
+		PositionCall father;
+		PositionCall mother;
+		PositionCall child;
+		String status;
+	}
+
+
+	/**
+	 * Calls each member of a trio and determines the inheritance status
+	 *
+	 * @return	TrioCall with the three sample calls and trio status, or null on error
+	 */
+	public TrioCall callTrio(String refBase, AlleleCounts fatherCounts, AlleleCounts motherCounts, AlleleCounts childCounts, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double minFreqForHom)
+	{
+		PositionCall fatherCall = VarScan.callPosition(refBase, fatherCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
+		PositionCall motherCall = VarScan.callPosition(refBase, motherCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
+		PositionCall childCall = VarScan.callPosition(refBase, childCounts, "CNS", minReads2, minVarFreq, minAvgQual, pValueThreshold, minFreqForHom);
 
 		// Determine the father, mother, and child genotypes //
 		String trioStatus = "unknown";
 
 		try
 		{
-			String[] fatherContents = fatherCall.split("\t");
-			String[] motherContents = motherCall.split("\t");
-			String[] childContents = childCall.split("\t");
-
-			String father = fatherContents[0];
-			String mother = motherContents[0];
-			String child = childContents[0];
+			String father = fatherCall.genotype;
+			String mother = motherCall.genotype;
+			String child = childCall.genotype;
 			String fatherAllele = refBase;
 			String motherAllele = refBase;
 			String childAllele = refBase;
 
-			if(fatherContents.length >= 16)
-				fatherAllele = fatherContents[15];
+			if(fatherCall.hasVarAllele())
+				fatherAllele = fatherCall.varAllele;
 
-			if(motherContents.length >= 16)
-				motherAllele = motherContents[15];
+			if(motherCall.hasVarAllele())
+				motherAllele = motherCall.varAllele;
 
-			if(childContents.length >= 16)
-				childAllele = childContents[15];
+			if(childCall.hasVarAllele())
+				childAllele = childCall.varAllele;
 
 			// Uninteresting case 1: Any Sample called N //
 			if(child.equals("N") || father.equals("N") || mother.equals("N"))
@@ -1275,7 +1238,12 @@ public class Trio {
 			// CASE 4: IMPOSSIBLE HOMOZYGOTE
 			// CASE 5: SHOULD BE HET //
 
-			return(fatherCall.replace("\t", ":") + "\t" + motherCall.replace("\t", ":") + "\t" + childCall.replace("\t", ":") + "\t" + trioStatus);
+			TrioCall trioCall = new TrioCall();
+			trioCall.father = fatherCall;
+			trioCall.mother = motherCall;
+			trioCall.child = childCall;
+			trioCall.status = trioStatus;
+			return(trioCall);
 
 		}
 		catch(Exception e)
@@ -1285,7 +1253,7 @@ public class Trio {
 
 		}
 
-		return("");
+		return(null);
 	}
 
 }
@@ -40,9 +40,9 @@ import java.text.*;
  * 			Input: 	Pileup file and parameters
  * 			Output: Consensus file with genotypes, read counts and p-values
  *
- * mpileup2cns [pileup file] OPTIONS
+ * mpileup2cns [pileup file | BAM files] OPTIONS
  * 			Call consensus genotypes (reference or variant) across one or more samples
- * 			Input: 	SAMtools mpileup file and parameters
+ * 			Input: 	SAMtools mpileup file, or BAM files with --reference, and parameters
  * 			Output: Consensus file with genotypes, read counts and p-values, or VCF file
  *
  * somatic [normal_pileup] [tumor_pileup] [output] OPTIONS
@@ -94,6 +94,11 @@ import java.text.*;
  * 			**Experimental** Calculate Q>20 coverage depth/breadth for a set of target regions
  * 			Input:	Pileup file and tab-delimited regions-file
  * 			Output: Coverage report at various Q>20 depths (1x,10x,20x...)
+ *
+ * index [pileup-file] OPTIONS
+ * 			Index a sorted pileup or mpileup file so that commands can read one --region of it
+ * 			Input:	Pileup or mpileup file sorted by position within each contig
+ * 			Output: Byte-offset index beside the input (pileup-file.vsi)
 
  *
  * </pre>
@@ -104,6 +109,15 @@ public class VarScan {
 
 	final static double MIN_FREQ_FOR_HOM = 0.70;
 
+	/** P-values of recently tested 2x2 tables, kept by each thread that calls getSignificance */
+	static final SignificanceCache.PerThread significanceCache = new SignificanceCache.PerThread(SignificanceCache.DEFAULT_CAPACITY);
+
+	/** Optional precomputed p-values versus baseline error, set up by loadBaselineTable */
+	static volatile BaselineSignificanceTable baselineTable = null;
+
+	/** Smallest table margin at which isSignificant may use the normal approximation, or 0 if it never does */
+	static volatile int approxMinMargin = 0;
+
 	/**
 	 * Runs the main execution logic
 	 * @param args		Command-line arguments
@@ -118,7 +132,8 @@ public class VarScan {
 
 				"\tmpileup2snp\t\tIdentify SNPs from an mpileup file\n" +
 				"\tmpileup2indel\t\tIdentify indels an mpileup file\n" +
-				"\tmpileup2cns\t\tCall consensus and variants from an mpileup file\n\n" +
+				"\tmpileup2cns\t\tCall consensus and variants from an mpileup file\n" +
+				"\t\t\t\tmpileup2*, somatic and copynumber also pile up BAM files given with --reference\n\n" +
 
 				"\tsomatic\t\t\tCall germline/somatic variants from tumor-normal pileups\n" +
 				"\tcopynumber\t\t\tDetermine relative tumor copy number from tumor-normal pileups\n" +
@@ -132,6 +147,7 @@ public class VarScan {
 
 				"\tcompare\t\t\tCompare two lists of positions/variants\n" +
 				"\tlimit\t\t\tRestrict pileup/snps/indels to ROI positions\n" +
+				"\tindex\t\t\tIndex a sorted pileup/mpileup file for --region access\n" +
 				"\n";
 
 		if(args.length > 0)
@@ -217,6 +233,10 @@ public class VarScan {
 			{
 				coverage(args, params);
 			}
+			else if(args[0].equals("index"))
+			{
+				index(args, params);
+			}
 			else if(args[0].equals("test"))
 			{
 				System.err.println("Testing...");
@@ -289,7 +309,8 @@ public class VarScan {
 	 */
 	public static void somatic(String[] args, HashMap<String, String> params)
 	{
-		if(params.containsKey("mpileup"))
+		// BAM input is piled up as one mpileup with a normal and a tumor sample //
+		if(params.containsKey("mpileup") || getBamFiles(args).size() > 0)
 		{
 			Somatic mySomatic = new Somatic(args, true);
 		}
@@ -319,7 +340,8 @@ public class VarScan {
 	 */
 	public static void copynumber(String[] args, HashMap<String, String> params)
 	{
-		if(params.containsKey("mpileup"))
+		// BAM input is piled up as one mpileup with a normal and a tumor sample //
+		if(params.containsKey("mpileup") || getBamFiles(args).size() > 0)
 		{
 			 Copynumber myCopynumber = new Copynumber(args, true);
 		}
@@ -414,6 +436,17 @@ public class VarScan {
 	}
 
 
+	/**
+	 * Builds a byte-offset index of a pileup file for --region access
+	 *
+	 * @param	args			Command-line arguments and parameters
+	 */
+	public static void index(String[] args, HashMap<String, String> params)
+	{
+		PileupIndex.index(args);
+	}
+
+
 
 	/**
 	 * Parses and verifies any command-line parameters
@@ -489,54 +522,99 @@ public class VarScan {
 
 	    	// Check for file on command line //
 
-	    	if(args.length > 1 && !args[1].startsWith("-"))
+	    	if(hasInputFile(args))
 	    	{
 	    		File infile = new File(args[1]);
 	    		if(infile.exists())
 	    		{
 	    			// Parse the infile //
 	    			System.err.println("Reading input from " + args[1]);
-	    			in = new BufferedReader(new FileReader(args[1]));
+	    			in = new BufferedReader(new InputStreamReader(BgzfInputStream.open(infile)));
 	    		}
 	    		else
 	    		{
-//    				System.err.println("File not found: " + args[1] + "\n");
-//    				System.exit(10);
+    				System.err.println("ERROR: File not found: " + args[1] + "\n");
+    				System.exit(10);
 	    		}
 	    	}
 
-	    	// If no file from command line was parsed, try for piped input //
+	    	// Without a file on the command line, or with "-" in its place, read piped input //
 
-	    	if(in == null)
+	    	else
 	    	{
-		    	// Check the input stream //
-		    	InputStreamReader instream = new InputStreamReader(System.in);
-		    	Thread.sleep(1000);
+	    		// Reads block until the producer writes, however long it takes to start //
+	    		System.err.println("Reading input from STDIN");
+		    	in = new BufferedReader(new InputStreamReader(BgzfInputStream.open(System.in)));
+	    	}
+	    }
+	    catch(Exception e)
+	    {
+	    	System.err.println("ERROR: Unable to open input stream\n");
+	    	System.exit(10);
+	    }
+
+		return(in);
+	}
 
-		    	int num_naps = 0;
 
-	    		while(!instream.ready())
+	/**
+	 * Gets a pileup reader for the input file or piped input, as getInfile does for text
+	 *
+	 * With --region chrom:start-end, the input file is opened at the region using its index
+	 * and only the region's lines are read.
+	 *
+	 * @param	args			Command-line arguments; args[1] may name the input file
+	 * @return	PileupLineReader	Column-splitting reader for the input file, or for STDIN if none is named or args[1] is "-"
+	 */
+	static PileupLineReader getPileupReader(String[] args)
+	{
+		PileupLineReader in = null;
+		HashMap<String, String> params = getParams(args);
+
+	    try
+	    {
+	    	// Check for file on command line //
+
+	    	if(hasInputFile(args))
+	    	{
+	    		File infile = new File(args[1]);
+	    		if(!infile.exists())
+	    		{
+	    			System.err.println("ERROR: File not found: " + args[1] + "\n");
+	    			System.exit(10);
+	    		}
+	    		else if(params.containsKey("region"))
+	    		{
+	    			System.err.println("Reading input from " + args[1] + " in region " + params.get("region"));
+	    			in = PileupIndex.openRegion(infile, params.get("region"));
+	    		}
+	    		else
 	    		{
-	    			System.err.println("Input stream not ready, waiting for 5 seconds...");
-	    			Thread.sleep(5000);
-	    			num_naps++;
-
-	    			if(num_naps >= 100)
-	    			{
-	    				System.err.println("ERROR: Gave up waiting after 500 seconds...\n");
-	    				System.exit(10);
-	    			}
+	    			System.err.println("Reading input from " + args[1]);
+	    			in = new PileupLineReader(infile);
 	    		}
+	    	}
+
+	    	else if(params.containsKey("region"))
+	    	{
+	    		System.err.println("ERROR: --region needs an indexed input file rather than piped input\n");
+	    		System.exit(10);
+	    	}
 
-		    	// If we have piped input, proceed with it //
+	    	// Without a file on the command line, or with "-" in its place, read piped input //
 
-		    	if(instream.ready())
-		    	{
-		    		System.err.println("Reading input from STDIN");
-			    	in = new BufferedReader(instream);
-		    	}
+	    	else
+	    	{
+	    		// Reads block until the producer writes, however long it takes to start //
+	    		System.err.println("Reading input from STDIN");
+		    	in = new PileupLineReader(BgzfInputStream.open(System.in));
 	    	}
 	    }
+	    catch(IOException e)
+	    {
+	    	System.err.println("ERROR: " + e.getLocalizedMessage() + "\n");
+	    	System.exit(10);
+	    }
 	    catch(Exception e)
 	    {
 	    	System.err.println("ERROR: Unable to open input stream\n");
@@ -547,493 +625,482 @@ public class VarScan {
 	}
 
 
+	/**
+	 * Finds the BAM files given as input, one for each sample, which follow the command
+	 *
+	 * @param	args	Command-line arguments
+	 * @return			The BAM files, or an empty list if the input is not BAM
+	 */
+	static List<File> getBamFiles(String[] args)
+	{
+		List<File> bamFiles = new ArrayList<File>();
+		for(int i = 1; i < args.length && !args[i].startsWith("-"); i++)
+		{
+			File file = new File(args[i]);
+			if(!BamReader.isBam(file))
+				break;
+			bamFiles.add(file);
+		}
+
+		return(bamFiles);
+	}
+
+
+	/**
+	 * Gets the pileup input: positions piled up from BAM files if they follow the command, otherwise mpileup text as getPileupReader reads it
+	 *
+	 * BAM input needs the --reference the reads were aligned to, and is filtered by --min-map-qual.
+	 * With --region chrom:start-end, only that region is piled up, and with --regions-file only the
+	 * intervals of a BED file are. BAM files with .bai indexes are read from each region's first reads.
+	 *
+	 * @param	args			Command-line arguments
+	 * @return	PileupSource	Pileup input, or null if there is none
+	 */
+	static PileupSource getPileupSource(String[] args)
+	{
+		List<File> bamFiles = getBamFiles(args);
+		HashMap<String, String> params = getParams(args);
+		if(bamFiles.size() == 0 && params.containsKey("regions-file"))
+		{
+			System.err.println("ERROR: --regions-file needs BAM input; use --region with an indexed pileup file\n");
+			System.exit(10);
+		}
+		if(bamFiles.size() == 0)
+			return(getPileupReader(args));
+
+		if(!params.containsKey("reference") || params.get("reference").equals("true"))
+		{
+			System.err.println("ERROR: BAM input needs --reference, the indexed FASTA file the reads were aligned to\n");
+			System.exit(10);
+		}
+
+		BamPileup pileup = null;
+
+		try
+		{
+			int minMapQual = 0;
+			if(params.containsKey("min-map-qual"))
+				minMapQual = Integer.parseInt(params.get("min-map-qual"));
+
+			FastaReference reference = new FastaReference(new File(params.get("reference")));
+			pileup = new BamPileup(bamFiles, reference, minMapQual);
+
+			String names = "";
+			for(File bamFile : bamFiles)
+				names += (names.length() > 0 ? ", " : "") + bamFile.getPath();
+
+			if(params.containsKey("regions-file"))
+			{
+				List<Region> regions = Region.readBed(new File(params.get("regions-file")));
+				pileup.setRegions(regions);
+				System.err.println("Reading BAM input from " + names + " in " + regions.size() + " regions from " + params.get("regions-file"));
+			}
+			else if(params.containsKey("region"))
+			{
+				Region region = Region.parse(params.get("region"));
+				pileup.setRegions(Collections.singletonList(region));
+				System.err.println("Reading BAM input from " + names + " in region " + params.get("region"));
+			}
+			else
+			{
+				System.err.println("Reading BAM input from " + names);
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("ERROR: " + e.getLocalizedMessage() + "\n");
+			System.exit(10);
+		}
+		catch(NumberFormatException e)
+		{
+			System.err.println("ERROR: Invalid --min-map-qual " + params.get("min-map-qual") + "\n");
+			System.exit(10);
+		}
+
+		return(pileup);
+	}
+
+
+	/**
+	 * Gets the order of contigs that sorted input follows, from --sequence-dictionary if it is given
+	 *
+	 * @param	params	Command-line parameters
+	 * @return			Dictionary order, or lexical order if there is no dictionary
+	 */
+	static ContigOrder getContigOrder(HashMap<String, String> params)
+	{
+		if(!params.containsKey("sequence-dictionary"))
+			return(new ContigOrder());
+
+		ContigOrder order = null;
+
+		try
+		{
+			order = new ContigOrder(new File(params.get("sequence-dictionary")));
+			System.err.println("Contig order:\t" + order);
+		}
+		catch(IOException e)
+		{
+			System.err.println("ERROR: " + e.getLocalizedMessage() + "\n");
+			System.exit(10);
+		}
+
+		return(order);
+	}
+
+
+	/**
+	 * Returns true if an input file follows the command; with none, or with "-", input is read from STDIN
+	 *
+	 * @param	args	Command-line arguments
+	 * @return			True if args[1] names a file
+	 */
+	static boolean hasInputFile(String[] args)
+	{
+		return(args.length > 1 && !args[1].startsWith("-"));
+	}
+
+
+	/**
+	 * Waits for the first input from a reader, as from a pipe whose producer is slow to start
+	 *
+	 * @param	in	Input reader
+	 * @return		False only if the input is empty
+	 */
+	static boolean hasInput(BufferedReader in) throws IOException
+	{
+		in.mark(1);
+		boolean hasInput = (in.read() >= 0);
+		in.reset();
+		return(hasInput);
+	}
+
+
 
 	/**
 	 * Counts the number, quality, and strands of each allele from a pileup
 	 *
+	 * The read bases are walked once as characters, with a small state machine for read starts (^),
+	 * read ends ($), indels (+N/-N) and pads (*). Counts go straight into the fixed allele slots
+	 * of an AlleleCounts so that nothing is allocated per base. Columns with only reference bases,
+	 * which are most of them, are counted by a simpler loop that only looks for those.
+	 *
 	 * @param	refBase		Reference base at this position
 	 * @param	readBases	String of read bases from pileup
 	 * @param	readQuals	String of read base qualities from pileup
 	 * @param	minAvgQual	Integer of minimum required base quality to count a base.
-	 * @return	results		HashMap<String, String> of results for each allele
+	 * @return	counts		AlleleCounts with the results for each allele
 	 */
-	static HashMap<String, String> getReadCounts(String refBase, String readBases, String readQuals, int minAvgQual, String mapQuals)
+	static AlleleCounts getReadCounts(String refBase, CharSequence readBases, CharSequence readQuals, int minAvgQual, CharSequence mapQuals)
 	{
-		HashMap<String, Integer> readCounts = new HashMap<String, Integer>();
-		HashMap<String, Integer> readCountsPlus = new HashMap<String, Integer>();
-		HashMap<String, Integer> readCountsMinus = new HashMap<String, Integer>();
-		HashMap<String, Integer> qualitySum = new HashMap<String, Integer>();
-		HashMap<String, Integer> mapQualitySum = new HashMap<String, Integer>();
-		HashMap<String, String> strandsSeen = new HashMap<String, String>();
+		if(isReferenceOnly(readBases))
+			return(getReferenceCounts(refBase, readBases, readQuals, minAvgQual, mapQuals));
+
+		AlleleCounts counts = new AlleleCounts(refBase);
+
+		// Scratch buffer for the bases of the indel being parsed //
+		char[] indelBuffer = new char[16];
+		int indelLength = 0;
 
-		int reads1 = 0;
-		int reads1indel = 0;
-		String readBase = "";
-		String prevBase = "";
-		String nextBase = "";
 		int baseQuality = 0;
 		int prevBaseQuality = 0;
 		int mapQuality = 1;
-		String strand = "";
-
-		String[] arrBases = readBases.split("");
-//		char[] arrBases = readBases.toCharArray();
-		char[] arrQualities = readQuals.toCharArray();
-		char[] mapQualities = mapQuals.toCharArray();
 
-		// Set booleans for read Start //
-
-		boolean readStart = false;
+		int numBases = readBases.length();
+		int numQuals = readQuals.length();
+		int numMapQuals = mapQuals.length();
 
 		// Set quality position offset //
 		int j = 0;
 
 		// Go through each base //
 
-		for(int i = 0; i < arrBases.length; i++)
+		for(int i = 0; i < numBases; i++)
 		{
-			readBase = arrBases[i];
-			if(i == 0 && readBase.length() == 0)
-			{
-				i++;
-				readBase = arrBases[i];
-			}
-
-			// Record previous and next base //
-			prevBase = "";
-			if(i > 1 && i < (arrBases.length - 1))
-				prevBase = arrBases[i - 1];
-
-			if(j > 1 && j < (arrQualities.length - 1))
-				prevBaseQuality = arrQualities[j - 1] - 33;
+			char readBase = readBases.charAt(i);
 
-			nextBase = "";
-			if(i < (arrBases.length - 1))
-				nextBase = arrBases[i + 1];
+			// Record previous base quality, current base quality and map quality //
 
-			// Get the quality score //
-			if(j < arrQualities.length)
-				baseQuality = arrQualities[j] - 33;
+			if(j > 1 && j < (numQuals - 1))
+				prevBaseQuality = readQuals.charAt(j - 1) - 33;
 
-			// Get the map quality score //
-			if(j < mapQualities.length)
-				mapQuality = mapQualities[j] - 33;
+			if(j < numQuals)
+				baseQuality = readQuals.charAt(j) - 33;
 
-//			System.err.println("Got " + readBase + " with quality " + arrQualities[j] + "=" + baseQuality + " Next " + nextBase);
-			// A period or comma NOT followed by indel represents a reference base //
-			if((readBase.equals(".") || readBase.equals(",")) && !(nextBase.equals("-") || nextBase.equals("+")))
-			{
-				strand = "+";
-				if(readBase.equals(","))
-					strand = "-";
+			if(j < numMapQuals)
+				mapQuality = mapQuals.charAt(j) - 33;
 
-				if(baseQuality >= minAvgQual)
-				{
-					reads1++;
+			char nextBase = 0;
+			if(i < (numBases - 1))
+				nextBase = readBases.charAt(i + 1);
 
-					// Count the strands seen //
+			int slot = -1;
+			boolean plusStrand = true;
 
-					if(strandsSeen.containsKey("ref"))
-					{
-						String alreadySeen = strandsSeen.get("ref");
-						if(!(alreadySeen.length() >= 2 || alreadySeen.equals(strand)))
-						{
-							strandsSeen.put("ref", (strandsSeen.get("ref") + strand));
-						}
-					}
-					else
+			switch(readBase)
+			{
+				case '.':
+				case ',':
+					// A period or comma NOT followed by indel represents a reference base //
+					if(nextBase != '-' && nextBase != '+')
 					{
-						strandsSeen.put("ref", strand);
+						slot = AlleleCounts.REF;
+						plusStrand = (readBase == '.');
+						j++;
 					}
+					// Otherwise it's the reference base that precedes an indel. Don't advance quality //
+					break;
+
+				case 'A': slot = 1; j++; break;
+				case 'C': slot = 2; j++; break;
+				case 'G': slot = 3; j++; break;
+				case 'T': slot = 4; j++; break;
+				case 'a': slot = 1; plusStrand = false; j++; break;
+				case 'c': slot = 2; plusStrand = false; j++; break;
+				case 'g': slot = 3; plusStrand = false; j++; break;
+				case 't': slot = 4; plusStrand = false; j++; break;
+
+				case '^':
+					// Read start - skip the next base, which is mapping quality //
+					i++;
+					break;
+
+				case '$':
+					// End of read //
+					break;
+
+				case '+':
+				case '-':
+				{
+					// If the previous base was a reference, count this read as reference but with indel //
 
-					// Count strand-based read count //
-					if(strand.equals("+"))
+					if(i > 1 && i < (numBases - 1))
 					{
-						// Plus strand //
-						if(readCountsPlus.containsKey("ref"))
-						{
-							readCountsPlus.put("ref", (readCountsPlus.get("ref") + 1));
-						}
-						else
-						{
-							readCountsPlus.put("ref", 1);
-						}
+						char prevBase = readBases.charAt(i - 1);
+						if((prevBase == '.' || prevBase == ',') && prevBaseQuality >= minAvgQual)
+							counts.reads1indel++;
 					}
-					else
+
+					// Get indel size from the digits among the next three characters //
+					int thisSize = 0;
+					int sizeDigits = 0;
+					boolean parsed = false;
+					indelLength = 0;
+
+					if(i + 3 < numBases)
 					{
-						// Minus Strand //
-						if(readCountsMinus.containsKey("ref"))
-						{
-							readCountsMinus.put("ref", (readCountsMinus.get("ref") + 1));
-						}
-						else
+						for(int k = i + 1; k <= i + 3; k++)
 						{
-							readCountsMinus.put("ref", 1);
+							char sizeChar = readBases.charAt(k);
+							if(sizeChar >= '0' && sizeChar <= '9')
+							{
+								thisSize = thisSize * 10 + (sizeChar - '0');
+								sizeDigits++;
+							}
 						}
 					}
 
-					// Add the quality to the sum //
-
-					if(qualitySum.containsKey("ref"))
+					if(sizeDigits > 0)
 					{
-						qualitySum.put("ref", (qualitySum.get("ref") + baseQuality));
-						mapQualitySum.put("ref", (mapQualitySum.get("ref") + mapQuality));
-					}
-					else
-					{
-						qualitySum.put("ref", baseQuality);
-						mapQualitySum.put("ref", mapQuality);
-					}
-				}
-
-				j++;
-
-				readStart = false;
-			}
-			// SNP Processing //
-			else if(readBase.toUpperCase().equals("A") || readBase.toUpperCase().equals("C") || readBase.toUpperCase().equals("G") || readBase.toUpperCase().equals("T"))
-			{
-				strand = "+";
+						int maxParse = thisSize + ((thisSize < 10) ? 1 : (thisSize < 100) ? 2 : 3);
+						parsed = true;
 
-				if(readBase.equals("a") || readBase.equals("c") || readBase.equals("g") || readBase.equals("t"))
-					strand = "-";
+						for(int basesParsed = 0; basesParsed < maxParse; basesParsed++)
+						{
+							int k = i + 1 + basesParsed;
+							if(k >= numBases)
+							{
+								// Ran off the end of the column; fall back to a single-digit size //
+								parsed = false;
+								break;
+							}
 
-				readBase = readBase.toUpperCase();
+							char thisBase = readBases.charAt(k);
+							if(thisBase >= '0' && thisBase <= '9')
+							{
+								// Part of the indel size //
+							}
+							else if(thisBase == '.' || thisBase == ',')
+							{
+								break;
+							}
+							else if(isIndelBase(thisBase))
+							{
+								if(indelLength == indelBuffer.length)
+									indelBuffer = Arrays.copyOf(indelBuffer, indelLength * 2);
+								indelBuffer[indelLength++] = thisBase;
+							}
+						}
 
-				// Check that we're not at start or end of read //
-				if(baseQuality >= minAvgQual)// && !readStart && !nextBase.equals("$"))
-				{
-					// Count the read //
-					if(readCounts.containsKey(readBase))
-					{
-						readCounts.put(readBase, (readCounts.get(readBase) + 1));
-					}
-					else
-					{
-						readCounts.put(readBase, 1);
+						// Adjust i to beyond this indel //
+						if(parsed)
+							i = i + maxParse;
 					}
 
-					// Count strand-based read count //
-					if(strand.equals("+"))
+					if(!parsed)
 					{
-						// Plus strand //
-						if(readCountsPlus.containsKey(readBase))
-						{
-							readCountsPlus.put(readBase, (readCountsPlus.get(readBase) + 1));
-						}
-						else
+						char sizeChar = readBases.charAt(i + 1);
+						if(sizeChar < '0' || sizeChar > '9')
+							throw new NumberFormatException("For input string: \"" + sizeChar + "\"");
+
+						thisSize = sizeChar - '0';
+						for(int basesParsed = 0; basesParsed < thisSize; basesParsed++)
 						{
-							readCountsPlus.put(readBase, 1);
+							if(indelLength == indelBuffer.length)
+								indelBuffer = Arrays.copyOf(indelBuffer, indelLength * 2);
+							indelBuffer[indelLength++] = readBases.charAt(i + 2 + basesParsed);
 						}
+
+						// Adjust i to beyond this indel //
+						i = i + 1 + thisSize;
 					}
-					else
+
+					// Determine strand and correct case of alleles //
+					for(int k = 0; k < indelLength; k++)
 					{
-						// Minus Strand //
-						if(readCountsMinus.containsKey(readBase))
-						{
-							readCountsMinus.put(readBase, (readCountsMinus.get(readBase) + 1));
-						}
-						else
+						char upper = Character.toUpperCase(indelBuffer[k]);
+						if(upper != indelBuffer[k])
 						{
-							readCountsMinus.put(readBase, 1);
+							plusStrand = false;
+							indelBuffer[k] = upper;
 						}
 					}
 
-					// Count the strands seen //
+					// Find the slot for this indel allele, or add one //
+					slot = counts.indelSlot(readBase == '+', thisSize, indelBuffer, indelLength);
 
-					if(strandsSeen.containsKey(readBase))
-					{
-						String alreadySeen = strandsSeen.get(readBase);
-						if(!(alreadySeen.length() >= 2 || alreadySeen.equals(strand)))
-						{
-							strandsSeen.put(readBase, (strandsSeen.get(readBase) + strand));
-						}
-					}
-					else
+					// Indels take the quality of the base that preceded them //
+					if(j < numQuals)
 					{
-						strandsSeen.put(readBase, strand);
+						baseQuality = readQuals.charAt(j) - 33;
+						j++;
 					}
+					if(j < numMapQuals)
+						mapQuality = mapQuals.charAt(j) - 33;
 
-					if(qualitySum.containsKey(readBase))
-					{
-						qualitySum.put(readBase, (qualitySum.get(readBase) + baseQuality));
-						mapQualitySum.put(readBase, (mapQualitySum.get(readBase) + mapQuality));
-					}
-					else
-					{
-						qualitySum.put(readBase, baseQuality);
-						mapQualitySum.put(readBase, mapQuality);
-					}
-				}
-				else
-				{
-					// Base did not meet quality //
-//					System.err.println("Low quality base: " + readBase + " " + baseQuality);
+					// Indel reads are counted regardless of base quality //
+					counts.count(slot, plusStrand, baseQuality, mapQuality);
+
+					slot = -1;
+					break;
 				}
 
-				j++;
-				readStart = false;
+				default:
+					// Ignore N and characters like * which indicates a pad, but keep moving forward for qualities //
+					j++;
+					break;
 			}
-			// INDEL Processing //
-			else if(readBase.equals("+") || readBase.equals("-"))
-			{
-				String indelType = "";
 
-				if(readBase.equals("+"))
-				{
-    				indelType = "INS";
-				}
-				else
-				{
-    				indelType = "DEL";
-				}
+			// Count the base if it met the quality threshold //
 
-				// If the previous base was a reference, count this read as reference but with indel //
+			if(slot >= 0 && baseQuality >= minAvgQual)
+				counts.count(slot, plusStrand, baseQuality, mapQuality);
+		}
 
-				if(prevBase.equals(".") || prevBase.equals(","))
-				{
-					if(prevBaseQuality >= minAvgQual)
-						reads1indel++;
-				}
+		return(counts);
+	}
 
-				// Get deletion size and bases //
-				int indel_size = 0;
-				int max_parse = 1;
-				String indelBases = "";
-				try {
-					String stringWithSize = arrBases[i + 1] + arrBases[i + 2] + arrBases[i + 3];
-					stringWithSize = stringWithSize.replaceAll("[^0-9]", "");
-					indel_size = Integer.parseInt(stringWithSize);
-					max_parse = indel_size + Integer.toString(indel_size).length();
-
-    				for(int bases_parsed = 0; bases_parsed < max_parse; bases_parsed++)
-    				{
-    					String thisBase = arrBases[i + 1 + bases_parsed];
-    					try {
-    						Integer.parseInt(thisBase);	// Try to parse an integer from this string, which would be part of indel size
-    					}
-    					catch (Exception e)
-    					{
-    						// If no integer, count it.
-    						if(thisBase.equals(".") || thisBase.equals(","))
-    							bases_parsed = max_parse;
-    						else if (thisBase.toUpperCase().equals("A") || thisBase.toUpperCase().equals("C") || thisBase.toUpperCase().equals("G") || thisBase.toUpperCase().equals("T") || thisBase.toUpperCase().equals("N"))
-    							indelBases += thisBase;
-    					}
-    					//indelBases += arrBases[i + 3 + bases_parsed];
-    				}
-    				// Adjust i to beyond this indel //
-    				i = i + max_parse;
-				}
-				catch (Exception e)
-				{
-					indel_size = Integer.parseInt(arrBases[i + 1]);
-    				for(int bases_parsed = 0; bases_parsed < indel_size; bases_parsed++)
-    				{
-    					indelBases += arrBases[i + 2 + bases_parsed];
-    				}
-    				// Adjust i to beyond this indel //
-    				i = i + 1 + indel_size;
-				}
 
-				// Determine strand //
-				if(indelBases.equals(indelBases.toUpperCase()))
-				{
-					strand = "+";
-				}
-				else
-				{
-					strand = "-";
-				}
+	/**
+	 * Returns true if a pileup character is a base that belongs in an indel allele
+	 *
+	 * @param	base	Character from the read bases column
+	 * @return			True for A, C, G, T or N in either case
+	 */
+	static boolean isIndelBase(char base)
+	{
+		switch(base)
+		{
+			case 'A': case 'C': case 'G': case 'T': case 'N':
+			case 'a': case 'c': case 'g': case 't': case 'n':
+				return(true);
+			default:
+				return(false);
+		}
+	}
 
-				// Correct case of alleles //
-				indelBases = indelBases.toUpperCase();
 
-				// Build an indel key //
+	/**
+	 * Returns true if a pileup column holds only reference bases, Ns, pads, read starts and read ends
+	 *
+	 * @param	readBases	String of read bases from pileup
+	 */
+	static boolean isReferenceOnly(CharSequence readBases)
+	{
+		int numBases = readBases.length();
+		for(int i = 0; i < numBases; i++)
+		{
+			switch(readBases.charAt(i))
+			{
+				case '^':
+					i++;
+					break;
+				case '.':
+				case ',':
+				case '$':
+				case '*':
+				case 'N':
+				case 'n':
+					break;
+				default:
+					return(false);
+			}
+		}
 
-				String indelKey = indelType + "-" + indel_size + "-" + indelBases;
+		return(true);
+	}
 
-				// Count the read //
-				if(readCounts.containsKey(indelKey))
-				{
-					readCounts.put(indelKey, (readCounts.get(indelKey) + 1));
-				}
-				else
-				{
-					readCounts.put(indelKey, 1);
-				}
 
-				// Count strand-based read count //
-				if(strand.equals("+"))
-				{
-					// Plus strand //
-					if(readCountsPlus.containsKey(indelKey))
-					{
-						readCountsPlus.put(indelKey, (readCountsPlus.get(indelKey) + 1));
-					}
-					else
-					{
-						readCountsPlus.put(indelKey, 1);
-					}
-				}
-				else
-				{
-					// Minus Strand //
-					if(readCountsMinus.containsKey(indelKey))
-					{
-						readCountsMinus.put(indelKey, (readCountsMinus.get(indelKey) + 1));
-					}
-					else
-					{
-						readCountsMinus.put(indelKey, 1);
-					}
-				}
-
-				// Count the strands seen //
-
-				if(strandsSeen.containsKey(indelKey))
-				{
-					String alreadySeen = strandsSeen.get(indelKey);
-					if(!(alreadySeen.length() >= 2 || alreadySeen.equals(strand)))
-					{
-						strandsSeen.put(indelKey, (strandsSeen.get(indelKey) + strand));
-					}
-				}
-				else
-				{
-					strandsSeen.put(indelKey, strand);
-				}
-
-				if(j < arrQualities.length)
-				{
-					baseQuality = arrQualities[j] - 33;
-					j++;
-				}
-				if(j < mapQualities.length)
-					mapQuality = mapQualities[j] - 33;
-
-				if(qualitySum.containsKey(indelKey))
-				{
-					qualitySum.put(indelKey, (qualitySum.get(indelKey) + baseQuality));
-					mapQualitySum.put(indelKey, (mapQualitySum.get(indelKey) + mapQuality));
-				}
-				else
-				{
-					qualitySum.put(indelKey, baseQuality);
-					mapQualitySum.put(indelKey, mapQuality);
-				}
-
-				readStart = false;
-			}
-			else if(readBase.toUpperCase().equals("N"))
-			{
-				// Ignore the base, but keep moving forward for qualities //
-				j++;
-			}
-			else if(readBase.equals("^"))
-			{
-				// Read start - skip the next base, which is mapping quality //
-				i++;
-				readStart = true;
-			}
-			else if(readBase.equals("$"))
-			{
-				// End of read //
-//				i++;
-				readStart = false;
-
-			}
-			else
-			{
-				if(readBase.equals(".") || readBase.equals(","))
-				{
-					// This is the reference base that precedes an indel. Don't advance quality //
-				}
-				else
-				{
-					// Ignore characters like * which indicates a pad //
-					j++;
-				}
-
-			}
-		}
-
-		// Declare results hash //
-		HashMap<String, String> results = new HashMap<String, String>();
-
-		// Get ref base read counts //
-
-		int strands1 = 0;
-		if(strandsSeen.containsKey("ref"))
-			strands1 = strandsSeen.get("ref").length();
-
-		// Get average quality //
-
-		int avgQual1 = 0;
-		if(reads1 > 0)
-			avgQual1 = qualitySum.get("ref") / reads1;
-
-		// Get average map quality //
-
-		int avgMapQual1 = 0;
-		if(reads1 > 0)
-			avgMapQual1 = mapQualitySum.get("ref") / reads1;
-
-		// Get strand-specific read counts //
-		int reads1plus = 0;
-		int reads1minus = 0;
-		if(readCountsPlus.containsKey("ref"))
-			reads1plus = readCountsPlus.get("ref");
-		if(readCountsMinus.containsKey("ref"))
-			reads1minus = readCountsMinus.get("ref");
-
-		// Append ref info to read counts //
-		if(reads1 < 0)
-			reads1 = 0;
-		results.put(refBase, reads1 + "\t" + strands1 + "\t" + avgQual1 + "\t" + avgMapQual1 + "\t" + reads1plus + "\t" + reads1minus + "\t" + reads1indel);
+	/**
+	 * Counts the reference reads of a column that isReferenceOnly, as getReadCounts would
+	 *
+	 * Each reference base, N or pad takes the next base quality, and only the reference bases
+	 * are counted, so only the reference slot's reads, strands and qualities are filled in.
+	 *
+	 * @param	refBase		Reference base at this position
+	 * @param	readBases	String of read bases from pileup
+	 * @param	readQuals	String of read base qualities from pileup
+	 * @param	minAvgQual	Minimum base quality to count a base
+	 * @param	mapQuals	String of mapping qualities from pileup, or an empty string
+	 * @return	counts		AlleleCounts with reads in the reference slot only
+	 */
+	static AlleleCounts getReferenceCounts(String refBase, CharSequence readBases, CharSequence readQuals, int minAvgQual, CharSequence mapQuals)
+	{
+		AlleleCounts counts = new AlleleCounts(refBase);
 
-		// GO through all possible variant keys //
+		int numBases = readBases.length();
+		int numQuals = readQuals.length();
+		int numMapQuals = mapQuals.length();
+		int baseQuality = 0;
+		int mapQuality = 1;
+		int j = 0;
 
-		String[] variantKeys = (String[]) readCounts.keySet().toArray(new String[0]);
-		Arrays.sort(variantKeys);
-		for(String key : variantKeys)
+		for(int i = 0; i < numBases; i++)
 		{
-			int reads2 =  readCounts.get(key);
-
-			// Get strand-specific read counts //
-			int reads2plus = 0;
-			int reads2minus = 0;
-			if(readCountsPlus.containsKey(key))
-				reads2plus = readCountsPlus.get(key);
-			if(readCountsMinus.containsKey(key))
-				reads2minus = readCountsMinus.get(key);
-
-			// Count number of variant-supporting strands //
-
-			int strands2 = 0;
-			if(strandsSeen.containsKey(key))
-				strands2 = strandsSeen.get(key).length();
-
-			// Get average quality //
-
-			int avg_qual2 = qualitySum.get(key) / reads2;
-
-			// Get average mapping quality //
-
-			int avg_map_qual2 = mapQualitySum.get(key) / reads2;
-
-			if(reads2 > 0)
+			char readBase = readBases.charAt(i);
+			if(readBase == '^')
 			{
-//				System.err.println("Saving " + key + ": " + reads2 + "\t" + strands2 + "\t" + avg_qual2 + "\t" + avg_map_qual2 + "\t" + reads2plus + "\t" + reads2minus);
-				results.put(key, reads2 + "\t" + strands2 + "\t" + avg_qual2 + "\t" + avg_map_qual2 + "\t" + reads2plus + "\t" + reads2minus);
+				i++;
+				continue;
 			}
+			if(readBase == '$')
+				continue;
+
+			// Past the end of the qualities, the last one read is kept //
+			if(j < numQuals)
+				baseQuality = readQuals.charAt(j) - 33;
+			if(j < numMapQuals)
+				mapQuality = mapQuals.charAt(j) - 33;
+			j++;
+
+			if((readBase == '.' || readBase == ',') && baseQuality >= minAvgQual)
+				counts.count(AlleleCounts.REF, readBase == '.', baseQuality, mapQuality);
 		}
 
-		return(results);
+		return(counts);
 	}
 
 
-
 	/**
 	 * Counts the depth of read bases meeting a minimum quality
 	 *
@@ -1043,21 +1110,21 @@ public class VarScan {
 	 * @param	minAvgQual	Integer of minimum required base quality to count a base.
 	 * @return	results		HashMap<String, String> of results for each allele
 	 */
-	static int qualityDepth(String readQuals, int minAvgQual)
+	static int qualityDepth(CharSequence readQuals, int minAvgQual)
 	{
 		int baseQuality = 0;
 		int qualityDepth = 0;
 
-		char[] arrQualities = readQuals.toCharArray();
+		int numQuals = readQuals.length();
 
 		// Set quality position offset //
 		int j = 0;
 
 		// Go through each base //
 
-		for(j = 0; j < arrQualities.length; j++)
+		for(j = 0; j < numQuals; j++)
 		{
-				baseQuality = arrQualities[j] - 33;
+				baseQuality = readQuals.charAt(j) - 33;
 				if(baseQuality >= minAvgQual)
 				{
 					qualityDepth++;
@@ -1071,18 +1138,18 @@ public class VarScan {
 	 * Makes the base call (SNP, indel, or consensus) based on read counts
 	 *
 	 * @param	refBase		Reference base at this position
-	 * @param	readCounts	HashMap of read counts for each base observed
+	 * @param	readCounts	AlleleCounts of read counts for each base observed
 	 * @param	callType	Type of call to make (SNP, indel, or consensus)
 	 * @param	minReads2	Minimum number of supporting reads to call a variant
 	 * @param	minVarFreq	Minimum observed variant frequency to call a variant
 	 * @param	minAvgQual	Integer of minimum required base quality to count a base.
 	 * @param	pValueThreshold	Significance threshold below which variants will be called
-	 * @return	call		The base call made at this position
+	 * @return	call		The base call made at this position, or null if SNP/indel calling found none
 	 */
-	static String callPosition(String refBase, HashMap<String, String> readCounts, String callType, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double minFreqForHom)
+	static PositionCall callPosition(String refBase, AlleleCounts readCounts, String callType, int minReads2, double minVarFreq, int minAvgQual, double pValueThreshold, double minFreqForHom)
 	{
-		String callResult = "";
-		DecimalFormat df = new DecimalFormat("###.##");
+		PositionCall callResult = null;
+		PositionCall lastCall = null;
 
 		int reads1 = 0;
 		int reads2 = 0;
@@ -1099,270 +1166,233 @@ public class VarScan {
 		int reads2plus = 0;		// Variant-supporting reads on plus strand
 		int reads2minus = 0;	// Variant-supporting reads on minus strand
 		double pValue = 1;
+		int pValueReads2 = -1;	// Variant reads behind pValue when its computation is deferred
 		double varFreq = 0.00;
 		String varAllele = "";
 
+		// Unless the p-value is bypassed, only test it against the threshold and compute it when printed //
+		boolean deferPvalue = (pValueThreshold != 0.99);
+
 		try
 		{
-			if(readCounts.containsKey(refBase))
-			{
-				try
-				{
-					String[] refBaseContents = readCounts.get(refBase).split("\t");
-					reads1 = Integer.parseInt(refBaseContents[0]);
-					strands1 = Integer.parseInt(refBaseContents[1]);
-					avgQual1 = Integer.parseInt(refBaseContents[2]);
-					avgMap1 = Integer.parseInt(refBaseContents[3]);
-					reads1plus = Integer.parseInt(refBaseContents[4]);
-					reads1minus = Integer.parseInt(refBaseContents[5]);
-
-					if(refBaseContents.length > 6)
-						reads1indel = Integer.parseInt(refBaseContents[6]);
-				}
-				catch(Exception e)
-				{
-					System.err.println("Error parsing refBase readcounts from " + readCounts.get(refBase));
-				}
-			}
-
-			String[] alleleKeys = (String[]) readCounts.keySet().toArray(new String[0]);
-
-			Arrays.sort(alleleKeys);
+			int refSlot = readCounts.refSlot();
+			reads1 = readCounts.getReads(refSlot);
+			strands1 = readCounts.getStrands(refSlot);
+			avgQual1 = readCounts.getAvgQual(refSlot);
+			avgMap1 = readCounts.getAvgMapQual(refSlot);
+			reads1plus = readCounts.getReadsPlus(refSlot);
+			reads1minus = readCounts.getReadsMinus(refSlot);
+			reads1indel = readCounts.getReads1indel();
 
 			// Get the total number of reads at this position //
-			int totalReadCounts = 0;
-			for(String allele : alleleKeys)
-			{
-				String[] alleleContents = readCounts.get(allele).split("\t");
-				try {
-					int thisReads = Integer.parseInt(alleleContents[0]);
-					totalReadCounts += thisReads;
-				}
-				catch(Exception e)
-				{
-				}
-			}
+			int totalReadCounts = readCounts.getTotalReads();
 
-			for(String allele : alleleKeys)
+			for(int slot : readCounts.variantSlots())
 			{
-				String[] alleleContents = readCounts.get(allele).split("\t");
+				String allele = readCounts.getAllele(slot);
 
-				if(allele.equals(refBase))
-				{
-					// Skip the reference base; we got that already //
-				}
-				else
-				{
-					// Reset variables //
-
-					int thisReads1 = reads1;
-					int thisReads2 = 0;
-					int thisStrands2 = 0;
-					int thisAvgQual2 = 0;
-					int thisAvgMap2 = 0;
-					int thisReads2plus = 0;
-					int thisReads2minus = 0;
-
-					// Parse the information //
-
-					try {
-						thisReads2 = Integer.parseInt(alleleContents[0]);
-						thisStrands2 = Integer.parseInt(alleleContents[1]);
-						thisAvgQual2 = Integer.parseInt(alleleContents[2]);
-						thisAvgMap2 = Integer.parseInt(alleleContents[3]);
-						thisReads2plus = Integer.parseInt(alleleContents[4]);
-						thisReads2minus = Integer.parseInt(alleleContents[5]);
-						// If this is an indel, make note of it //
-
-						if(allele.contains("INS") || allele.contains("DEL"))
-						{
-							readsWithIndels += thisReads2;
-						}
-					}
-					catch (Exception e)
-					{
+				// Reset variables //
 
-					}
+				int thisReads1 = reads1;
+				int thisReads2 = readCounts.getReads(slot);
+				int thisStrands2 = readCounts.getStrands(slot);
+				int thisAvgQual2 = readCounts.getAvgQual(slot);
+				int thisAvgMap2 = readCounts.getAvgMapQual(slot);
+				int thisReads2plus = readCounts.getReadsPlus(slot);
+				int thisReads2minus = readCounts.getReadsMinus(slot);
+
+				// If this is an indel, make note of it //
 
+				if(readCounts.isIndel(slot))
+				{
+					readsWithIndels += thisReads2;
+				}
 
-					if(!callType.equals("CNS") || thisReads2 > reads2)
+				if(!callType.equals("CNS") || thisReads2 > reads2)
+				{
+					//double thisVarFreq = (double) thisReads2 / (double) (reads1 + thisReads2);
+					double thisVarFreq = (double) thisReads2 / (double) totalReadCounts;
+					double thisPvalue = 1;
+					// For indels, adjust the read1 count //
+					if(readCounts.isIndel(slot))
 					{
-						//double thisVarFreq = (double) thisReads2 / (double) (reads1 + thisReads2);
-						double thisVarFreq = (double) thisReads2 / (double) totalReadCounts;
-						double thisPvalue = 1;
-						// For indels, adjust the read1 count //
-						if(allele.contains("INS") || allele.contains("DEL"))
-						{
-							//System.err.println(allele + " gets " + thisReads2 + " " + thisVarFreq);
-							// Adjust the reads1 counts which include reads supporting indels //
+						//System.err.println(allele + " gets " + thisReads2 + " " + thisVarFreq);
+						// Adjust the reads1 counts which include reads supporting indels //
 //							thisReads1 = reads1 - reads1indel;
 //							if(thisReads1 < 0)
 //								thisReads1 = 0;
 
 //							thisVarFreq = (double) thisReads2 / (double) (thisReads1 + thisReads2);
 
-							// Correct for indel-containing reads, but ensure we don't overcorrect //
-							int thisTotalReadCounts = totalReadCounts - reads1indel;
-							if(thisTotalReadCounts < thisReads2)
-								thisTotalReadCounts = thisReads2;
+						// Correct for indel-containing reads, but ensure we don't overcorrect //
+						int thisTotalReadCounts = totalReadCounts - reads1indel;
+						if(thisTotalReadCounts < thisReads2)
+							thisTotalReadCounts = thisReads2;
 
-							// Compute new variant allele frequency //
-							thisVarFreq = (double) thisReads2 / (double) totalReadCounts;
-						}
+						// Compute new variant allele frequency //
+						thisVarFreq = (double) thisReads2 / (double) totalReadCounts;
+					}
 
-						// Calculate the p-value //
-						if(pValueThreshold == 0.99)
-						{
-							thisPvalue = 0.98;
-						}
-						else
-						{
-							thisPvalue = getSignificance(reads1, thisReads2);
-						}
+					// Calculate the p-value //
+					if(pValueThreshold == 0.99)
+					{
+						thisPvalue = 0.98;
+					}
+					else
+					{
+						thisPvalue = Double.NaN;
+					}
 
 
-						// Save the most frequent variant allele, even if we won't use it //
-						if(thisReads2 > reads2 && thisAvgQual2 >= minAvgQual)
-						{
+					// Save the most frequent variant allele, even if we won't use it //
+					if(thisReads2 > reads2 && thisAvgQual2 >= minAvgQual)
+					{
 //							System.err.println(allele + " passed with " + thisReads2);
-							if(allele.contains("INS") || allele.contains("DEL"))
-							{
-								varAllele = getShortIndel(allele);
-							}
-							else
-							{
-								varAllele = allele;
-							}
-
-							reads2 = thisReads2;
-							strands2 = thisStrands2;
-							avgQual2 = thisAvgQual2;
-							avgMap2 = thisAvgMap2;
-							reads2plus = thisReads2plus;
-							reads2minus = thisReads2minus;
-							varFreq = thisVarFreq * 100;
-							pValue = thisPvalue;
+						if(readCounts.isIndel(slot))
+						{
+							varAllele = getShortIndel(allele);
 						}
 						else
 						{
-							//System.err.println(allele + " failed with " + thisReads2 + " " + thisAvgQual2);
+							varAllele = allele;
 						}
 
-						// Call the variant if it meets calling criteria //
+						reads2 = thisReads2;
+						strands2 = thisStrands2;
+						avgQual2 = thisAvgQual2;
+						avgMap2 = thisAvgMap2;
+						reads2plus = thisReads2plus;
+						reads2minus = thisReads2minus;
+						varFreq = thisVarFreq * 100;
+						pValue = thisPvalue;
+						pValueReads2 = thisReads2;
+					}
+					else
+					{
+						//System.err.println(allele + " failed with " + thisReads2 + " " + thisAvgQual2);
+					}
 
-						if(thisReads2 >= minReads2 && thisAvgQual2 >= minAvgQual && thisVarFreq >= minVarFreq)
+					// Call the variant if it meets calling criteria //
+
+					if(thisReads2 >= minReads2 && thisAvgQual2 >= minAvgQual && thisVarFreq >= minVarFreq)
+					{
+						thisReads1 = reads1;
+						thisVarFreq = thisVarFreq * 100;
+
+						// Determine type of variant //
+						String thisVarType = "SNP";
+						if(readCounts.isIndel(slot))
 						{
+							thisVarType = "INDEL";
 							thisReads1 = reads1;
-							thisVarFreq = thisVarFreq * 100;
-
-							// Determine type of variant //
-							String thisVarType = "SNP";
-							if(allele.contains("INS") || allele.contains("DEL"))
-							{
-								thisVarType = "INDEL";
-								thisReads1 = reads1;
-								if(thisReads1 < 0)
-									thisReads1 = 0;
-								// Change allele to short indel version //
-								allele = getShortIndel(allele);
-							}
+							if(thisReads1 < 0)
+								thisReads1 = 0;
+							// Change allele to short indel version //
+							allele = getShortIndel(allele);
+						}
 
-							if(thisPvalue <= pValueThreshold)
+						if(deferPvalue ? isSignificant(reads1, thisReads2, pValueThreshold) : thisPvalue <= pValueThreshold)
+						{
+							// Call the variant if we're variant calling //
+							if(callType.equals("SNP") || callType.equals("INDEL"))
 							{
-								// Call the variant if we're variant calling //
-								if(callType.equals("SNP") || callType.equals("INDEL"))
+								reads2 = thisReads2;
+								strands2 = thisStrands2;
+								avgQual2 = thisAvgQual2;
+								avgMap2 = thisAvgMap2;
+								reads2plus = thisReads2plus;
+								reads2minus = thisReads2minus;
+								pValue = thisPvalue;
+								pValueReads2 = thisReads2;
+
+								// Convert to consensus-like genotype //
+
+								String genotype = "";
+								if(thisVarFreq >= (minFreqForHom * 100))
 								{
-									reads2 = thisReads2;
-									strands2 = thisStrands2;
-									avgQual2 = thisAvgQual2;
-									avgMap2 = thisAvgMap2;
-									reads2plus = thisReads2plus;
-									reads2minus = thisReads2minus;
-									pValue = thisPvalue;
-
-									// Convert to consensus-like genotype //
-
-									String genotype = "";
-									if(thisVarFreq >= (minFreqForHom * 100))
-									{
-										genotype = allele + allele;
-										if(thisVarType.equals("INDEL"))
-											genotype = allele + "/" + allele;
-									}
-									else
-									{
-										genotype = refBase + allele;
-										if(thisVarType.equals("INDEL"))
-											genotype = "*/" + allele;
-									}
-
-									// Only report the desired variant type //
+									genotype = allele + allele;
+									if(thisVarType.equals("INDEL"))
+										genotype = allele + "/" + allele;
+								}
+								else
+								{
+									genotype = refBase + allele;
+									if(thisVarType.equals("INDEL"))
+										genotype = "*/" + allele;
+								}
 
-									if(thisVarType.equals(callType))
-									{
-										// Report the variant regardless //
-										if(callResult.length() > 0)
-											callResult += "\n";
+								// Only report the desired variant type //
 
-										if(thisReads1 < 0)
-											thisReads1 = 0;
+								if(thisVarType.equals(callType))
+								{
+									if(thisReads1 < 0)
+										thisReads1 = 0;
 
-										if(reads2 < 0)
-											reads2 = 0;
+									if(reads2 < 0)
+										reads2 = 0;
 
-										//callResult += allele + "\t" + reads1 + "\t" + reads2 + "\t" + df.format(thisVarFreq) + "%\t" + strands1 + "\t" + strands2 + "\t" + avgQual1 + "\t" + avgQual2 + "\t" + pValue;
-										callResult += genotypeToCode(genotype) + "\t" + thisReads1 + "\t" + reads2 + "\t" + df.format(thisVarFreq) + "%\t" + strands1 + "\t" + strands2 + "\t" + avgQual1 + "\t" + avgQual2 + "\t" + pValue;
-										callResult += "\t" + avgMap1 + "\t" + avgMap2;
-										callResult += "\t" + reads1plus + "\t" + reads1minus + "\t" + reads2plus + "\t" + reads2minus + "\t" + varAllele;
-									}
+									// Report the variant regardless, after any already called here //
+									PositionCall thisCall = new PositionCall(genotypeToCode(genotype), thisReads1, reads2, thisVarFreq, strands1, strands2, avgQual1, avgQual2, pValue,
+											avgMap1, avgMap2, reads1plus, reads1minus, reads2plus, reads2minus, varAllele);
+									if(deferPvalue)
+										thisCall.setPendingPValue(reads1, pValueReads2);
 
-								}
-								else if(callType.equals("CNS") && thisReads2 >= reads2)
-								{
-									reads2 = thisReads2;
-									strands2 = thisStrands2;
-									avgQual2 = thisAvgQual2;
-									avgMap2 = thisAvgMap2;
-									reads2plus = thisReads2plus;
-									reads2minus = thisReads2minus;
-									pValue = thisPvalue;
-
-									String genotype = "";
-									if(thisVarFreq >= (minFreqForHom * 100))
-									{
-										genotype = allele + allele;
-										if(thisVarType.equals("INDEL"))
-											genotype = allele + "/" + allele;
-									}
+									if(lastCall == null)
+										callResult = thisCall;
 									else
-									{
-										genotype = refBase + allele;
-										if(thisVarType.equals("INDEL"))
-											genotype = "*/" + allele;
-									}
-
-									callResult = genotypeToCode(genotype) + "\t" + thisReads1 + "\t" + reads2 + "\t" + df.format(thisVarFreq) + "%\t" + strands1 + "\t" + strands2 + "\t" + avgQual1 + "\t" + avgQual2 + "\t" + pValue;
-									callResult += "\t" + avgMap1 + "\t" + avgMap2;
-									callResult += "\t" + reads1plus + "\t" + reads1minus + "\t" + reads2plus + "\t" + reads2minus + "\t" + varAllele;
+										lastCall.next = thisCall;
+
+									lastCall = thisCall;
 								}
 
 							}
-							else
+							else if(callType.equals("CNS") && thisReads2 >= reads2)
 							{
-								// Somehow p-value not less than threshold //
+								reads2 = thisReads2;
+								strands2 = thisStrands2;
+								avgQual2 = thisAvgQual2;
+								avgMap2 = thisAvgMap2;
+								reads2plus = thisReads2plus;
+								reads2minus = thisReads2minus;
+								pValue = thisPvalue;
+								pValueReads2 = thisReads2;
+
+								String genotype = "";
+								if(thisVarFreq >= (minFreqForHom * 100))
+								{
+									genotype = allele + allele;
+									if(thisVarType.equals("INDEL"))
+										genotype = allele + "/" + allele;
+								}
+								else
+								{
+									genotype = refBase + allele;
+									if(thisVarType.equals("INDEL"))
+										genotype = "*/" + allele;
+								}
 
+								callResult = new PositionCall(genotypeToCode(genotype), thisReads1, reads2, thisVarFreq, strands1, strands2, avgQual1, avgQual2, pValue,
+										avgMap1, avgMap2, reads1plus, reads1minus, reads2plus, reads2minus, varAllele);
+								if(deferPvalue)
+									callResult.setPendingPValue(reads1, pValueReads2);
 							}
+
 						}
 						else
 						{
-							// Did not meet reads2, variant allele frequency, base quality, or p-value thresholds //
-						}
+							// Somehow p-value not less than threshold //
 
+						}
+					}
+					else
+					{
+						// Did not meet reads2, variant allele frequency, base quality, or p-value thresholds //
 					}
 
+				}
+
 
 
-				}
 			}
 		}
 		catch(Exception e)
@@ -1372,23 +1402,17 @@ public class VarScan {
 		}
 
 		// If we must have a call result for CNS calling, decide on reference or NO call //
-		if(callResult.length() == 0 && callType.equals("CNS"))
+		if(callResult == null && callType.equals("CNS"))
 		{
-
+			// Call reference if enough reads supporting ref base were observed //
+			String consensus = "N";
 			if(reads1 > 0 && reads1 > minReads2)
-			{
-				// Call reference because enough reads supporting ref base were observed //
-				callResult = refBase + "\t" + reads1 + "\t" + reads2 + "\t" + df.format(varFreq) + "%\t" + strands1 + "\t" + strands2 + "\t" + avgQual1 + "\t" + avgQual2 + "\t" + pValue;
-				callResult += "\t" + avgMap1 + "\t" + avgMap2;
-				callResult += "\t" + reads1plus + "\t" + reads1minus + "\t" + reads2plus + "\t" + reads2minus + "\t" + varAllele;
-			}
-			else
-			{
-				callResult = "N" + "\t" + reads1 + "\t" + reads2 + "\t" + df.format(varFreq) + "%\t" + strands1 + "\t" + strands2 + "\t" + avgQual1 + "\t" + avgQual2 + "\t" + pValue;
-				callResult += "\t" + avgMap1 + "\t" + avgMap2;
-				callResult += "\t" + reads1plus + "\t" + reads1minus + "\t" + reads2plus + "\t" + reads2minus + "\t" + varAllele;
-			}
+				consensus = refBase;
 
+			callResult = new PositionCall(consensus, reads1, reads2, varFreq, strands1, strands2, avgQual1, avgQual2, pValue,
+					avgMap1, avgMap2, reads1plus, reads1minus, reads2plus, reads2minus, varAllele);
+			if(deferPvalue && pValueReads2 >= 0)
+				callResult.setPendingPValue(reads1, pValueReads2);
 		}
 
 		return(callResult);
@@ -1466,6 +1490,16 @@ public class VarScan {
 		double pValue = 1;
 		double baseline_error = 0.001;
 
+		// Look up the p-value if a table covers this depth //
+
+		BaselineSignificanceTable table = baselineTable;
+		if(table != null && obsReads1 >= 0 && obsReads2 >= 0)
+		{
+			pValue = table.get(obsReads1, obsReads2);
+			if(!Double.isNaN(pValue))
+				return(pValue);
+		}
+
 		int coverage = obsReads1 + obsReads2;
 
 		int expReads2 = (int) (coverage * baseline_error);
@@ -1476,6 +1510,46 @@ public class VarScan {
 	}
 
 
+	/**
+	 * Calculates significance of read counts versus baseline error without the cache or table
+	 *
+	 * @param	obsReads1	Reads supporting allele 1
+	 * @param	obsReads2	Reads supporting allele 2
+	 * @return	p-value	P-value from Fisher's Exact Test
+	 */
+	static double computeSignificance(int obsReads1, int obsReads2)
+	{
+		double baseline_error = 0.001;
+
+		int coverage = obsReads1 + obsReads2;
+
+		int expReads2 = (int) (coverage * baseline_error);
+		int expReads1 = coverage - expReads2;
+
+		return(computeSignificance(expReads1, expReads2, obsReads1, obsReads2));
+	}
+
+
+	/**
+	 * Sets up the precomputed baseline-error p-value table if it was requested
+	 *
+	 * @param	params	Command-line parameters; uses pvalue-table-depth and pvalue-table-file
+	 */
+	static void loadBaselineTable(HashMap<String, String> params)
+	{
+		if(!params.containsKey("pvalue-table-depth"))
+			return;
+
+		int maxDepth = Integer.parseInt(params.get("pvalue-table-depth"));
+		if(maxDepth <= 0)
+			return;
+
+		long startTime = System.currentTimeMillis();
+		baselineTable = BaselineSignificanceTable.loadOrBuild(maxDepth, params.get("pvalue-table-file"));
+		System.err.println("P-value table:	depth up to " + maxDepth + " (" + (System.currentTimeMillis() - startTime) + " ms)");
+	}
+
+
 	/**
 	 * Calculates significance of read counts between two samples
 	 *
@@ -1501,6 +1575,188 @@ public class VarScan {
 		if(obsReads2 < 0)
 			obsReads2 = 0;
 
+		// Identical tables recur constantly, so answer from the cache if we can //
+
+		long cacheKey = SignificanceCache.pack(expReads1, expReads2, obsReads1, obsReads2);
+		pValue = significanceCache.get(cacheKey);
+		if(!Double.isNaN(pValue))
+			return(pValue);
+
+		pValue = computeSignificance(expReads1, expReads2, obsReads1, obsReads2);
+
+		significanceCache.put(cacheKey, pValue);
+		return(pValue);
+	}
+
+
+	/**
+	 * Turns on the normal approximation for significance decisions if it was requested
+	 *
+	 * @param	params	Command-line parameters; uses fisher-approx-margin
+	 */
+	static void setApproximation(HashMap<String, String> params)
+	{
+		if(!params.containsKey("fisher-approx-margin"))
+			return;
+
+		approxMinMargin = Math.max(Integer.parseInt(params.get("fisher-approx-margin")), 0);
+		if(approxMinMargin > 0)
+			System.err.println("Approximate tests:	all margins " + approxMinMargin + "+");
+	}
+
+
+	/**
+	 * Calculates significance of read counts versus baseline error for a batch of positions
+	 *
+	 * @param	obsReads1	Reads supporting allele 1 at each position
+	 * @param	obsReads2	Reads supporting allele 2 at each position
+	 * @param	pValues		Array to receive the p-values
+	 * @param	count		Number of positions
+	 */
+	public static void getSignificance(int[] obsReads1, int[] obsReads2, double[] pValues, int count)
+	{
+		double baseline_error = 0.001;
+
+		int[] expReads1 = new int[count];
+		int[] expReads2 = new int[count];
+		int[] testReads1 = new int[count];
+		int[] testReads2 = new int[count];
+		int[] testIndex = new int[count];
+		int numTests = 0;
+
+		BaselineSignificanceTable table = baselineTable;
+
+		for(int i = 0; i < count; i++)
+		{
+			if(table != null && obsReads1[i] >= 0 && obsReads2[i] >= 0)
+			{
+				pValues[i] = table.get(obsReads1[i], obsReads2[i]);
+				if(!Double.isNaN(pValues[i]))
+					continue;
+			}
+
+			int coverage = obsReads1[i] + obsReads2[i];
+			expReads2[numTests] = (int) (coverage * baseline_error);
+			expReads1[numTests] = coverage - expReads2[numTests];
+			testReads1[numTests] = obsReads1[i];
+			testReads2[numTests] = obsReads2[i];
+			testIndex[numTests] = i;
+			numTests++;
+		}
+
+		if(numTests == 0)
+			return;
+
+		double[] testPvalues = new double[numTests];
+		getSignificance(expReads1, expReads2, testReads1, testReads2, testPvalues, numTests);
+
+		for(int k = 0; k < numTests; k++)
+			pValues[testIndex[k]] = testPvalues[k];
+	}
+
+
+	/**
+	 * Calculates significance of read counts for a batch of 2x2 tables
+	 *
+	 * The p-values are the same as calling getSignificance on each table, but the tables that are not
+	 * in the cache go through FishersExact together, with no per-table setup.
+	 *
+	 * @param	expReads1	Reads supporting allele 1 (expected) for each table
+	 * @param	expReads2	Reads supporting allele 2 (expected) for each table
+	 * @param	obsReads1	Reads supporting allele 1 (observed) for each table
+	 * @param	obsReads2	Reads supporting allele 2 (observed) for each table
+	 * @param	pValues		Array to receive the p-values
+	 * @param	count		Number of tables
+	 */
+	public static void getSignificance(int[] expReads1, int[] expReads2, int[] obsReads1, int[] obsReads2, double[] pValues, int count)
+	{
+		int[] a = new int[count];
+		int[] b = new int[count];
+		int[] c = new int[count];
+		int[] d = new int[count];
+		long[] cacheKeys = new long[count];
+		int[] missIndex = new int[count];
+		int numMisses = 0;
+
+		// Answer what we can from the cache and gather the rest //
+
+		for(int i = 0; i < count; i++)
+		{
+			int thisA = Math.max(expReads1[i], 0);
+			int thisB = Math.max(expReads2[i], 0);
+			int thisC = Math.max(obsReads1[i], 0);
+			int thisD = Math.max(obsReads2[i], 0);
+
+			long cacheKey = SignificanceCache.pack(thisA, thisB, thisC, thisD);
+			double pValue = significanceCache.get(cacheKey);
+			if(!Double.isNaN(pValue))
+			{
+				pValues[i] = pValue;
+				continue;
+			}
+
+			a[numMisses] = thisA;
+			b[numMisses] = thisB;
+			c[numMisses] = thisC;
+			d[numMisses] = thisD;
+			cacheKeys[numMisses] = cacheKey;
+			missIndex[numMisses] = i;
+			numMisses++;
+		}
+
+		if(numMisses == 0)
+			return;
+
+		FishersExact fisher = new FishersExact(100);
+		double[] missPvalues = new double[numMisses];
+		fisher.getRightTailedP(a, b, c, d, missPvalues, numMisses);
+
+		// If p-value is 1, do left-sided test //
+
+		int numLeft = 0;
+		int[] leftIndex = new int[numMisses];
+		for(int k = 0; k < numMisses; k++)
+		{
+			if(missPvalues[k] >= 0.999)
+			{
+				a[numLeft] = a[k];
+				b[numLeft] = b[k];
+				c[numLeft] = c[k];
+				d[numLeft] = d[k];
+				leftIndex[numLeft] = k;
+				numLeft++;
+			}
+		}
+
+		if(numLeft > 0)
+		{
+			double[] leftPvalues = new double[numLeft];
+			fisher.getLeftTailedP(a, b, c, d, leftPvalues, numLeft);
+			for(int k = 0; k < numLeft; k++)
+				missPvalues[leftIndex[k]] = leftPvalues[k];
+		}
+
+		for(int k = 0; k < numMisses; k++)
+		{
+			pValues[missIndex[k]] = missPvalues[k];
+			significanceCache.put(cacheKeys[k], missPvalues[k]);
+		}
+	}
+
+
+	/**
+	 * Calculates significance of read counts between two samples without the cache
+	 *
+	 * @param	expReads1	Reads supporting allele 1 (expected), non-negative
+	 * @param	expReads2	Reads supporting allele 2 (expected), non-negative
+	 * @param	obsReads1	Reads supporting allele 1 (observed), non-negative
+	 * @param	obsReads2	Reads supporting allele 2 (observed), non-negative
+	 * @return	p-value 	P-value from Fisher's Exact Test
+	 */
+	static double computeSignificance(int expReads1, int expReads2, int obsReads1, int obsReads2)
+	{
+		double pValue = 1;
+
 		// Set up fisher's exact test //
 
 		FishersExact fisher = new FishersExact(expReads1 + expReads2 + obsReads1 + obsReads2 + 100);
@@ -1508,37 +1764,127 @@ public class VarScan {
 		// Calculate a p-value //
 
 		pValue = fisher.getRightTailedP(expReads1, expReads2, obsReads1, obsReads2);
-		int fisher_max = 1000;
-		int num_tries = 0;
 
-		while(Double.isNaN(pValue) && num_tries < 10)
+		// If p-value is 1, do left-sided test //
+
+		if(pValue >= 0.999)
 		{
-			fisher = new FishersExact(expReads1 + expReads2 + obsReads1 + obsReads2 + fisher_max);
-			//pValue = fisher.getTwoTailedP(expReads1, expReads2, obsReads1, obsReads2);
-			pValue = fisher.getRightTailedP(expReads1, expReads2, obsReads1, obsReads2);
-			fisher_max = fisher_max + 1000;
-			num_tries++;
+			pValue = fisher.getLeftTailedP(expReads1, expReads2, obsReads1, obsReads2);
 		}
 
-		if(num_tries >= 10)
-			System.err.println("Warning: unable to calculate p-value failure: " + expReads1 + "," + expReads2 + "," + obsReads1 + "," + obsReads2);
+		return(pValue);
+	}
 
-		// If p-value is 1, do left-sided test //
 
-		if(pValue >= 0.999)
+	/**
+	 * Determines whether read counts are significant against the baseline error rate
+	 *
+	 * @param	obsReads1	Reads supporting allele 1 (observed)
+	 * @param	obsReads2	Reads supporting allele 2 (observed)
+	 * @param	threshold	P-value threshold
+	 * @return	true if getSignificance(obsReads1, obsReads2) would be at or below the threshold
+	 */
+	public static boolean isSignificant(int obsReads1, int obsReads2, double threshold)
+	{
+		double baseline_error = 0.001;
+
+		BaselineSignificanceTable table = baselineTable;
+		if(table != null && obsReads1 >= 0 && obsReads2 >= 0)
 		{
-			pValue = fisher.getLeftTailedP(expReads1, expReads2, obsReads1, obsReads2);
+			double pValue = table.get(obsReads1, obsReads2);
+			if(!Double.isNaN(pValue))
+				return(pValue <= threshold);
+		}
 
-			while(Double.isNaN(pValue))
-			{
-				fisher = new FishersExact(expReads1 + expReads2 + obsReads1 + obsReads2 + fisher_max);
-				//pValue = fisher.getTwoTailedP(expReads1, expReads2, obsReads1, obsReads2);
-				pValue = fisher.getLeftTailedP(expReads1, expReads2, obsReads1, obsReads2);
-				fisher_max = fisher_max + 1000;
-			}
+		int coverage = obsReads1 + obsReads2;
+
+		int expReads2 = (int) (coverage * baseline_error);
+		int expReads1 = coverage - expReads2;
+
+		return(isSignificant(expReads1, expReads2, obsReads1, obsReads2, threshold));
+	}
+
+
+	/**
+	 * Determines whether read counts differ significantly, without always computing the exact p-value
+	 *
+	 * The right tail is summed only until it passes the threshold. Since getSignificance switches to the
+	 * left tail when the right tail is 0.999 or more, a failing table is then checked for that case by
+	 * summing the other side until it shows the right tail must be smaller. Anything undecided falls
+	 * back to the exact p-value, so the answer always matches getSignificance(...) <= threshold.
+	 *
+	 * If approxMinMargin is set and every margin of the table reaches it, a normal approximation is
+	 * tried first. Its error is bounded by FishersExact.getApproxErrorBound, and it only decides when
+	 * the whole error interval lies on one side of the threshold, so the answer is still the same.
+	 *
+	 * @param	expReads1	Reads supporting allele 1 (expected)
+	 * @param	expReads2	Reads supporting allele 2 (expected)
+	 * @param	obsReads1	Reads supporting allele 1 (observed)
+	 * @param	obsReads2	Reads supporting allele 2 (observed)
+	 * @param	threshold	P-value threshold
+	 * @return	true if the p-value is at or below the threshold
+	 */
+	public static boolean isSignificant(int expReads1, int expReads2, int obsReads1, int obsReads2, double threshold)
+	{
+		if(expReads1 < 0)
+			expReads1 = 0;
+
+		if(expReads2 < 0)
+			expReads2 = 0;
+
+		if(obsReads1 < 0)
+			obsReads1 = 0;
+
+		if(obsReads2 < 0)
+			obsReads2 = 0;
+
+		long cacheKey = SignificanceCache.pack(expReads1, expReads2, obsReads1, obsReads2);
+		double pValue = significanceCache.get(cacheKey);
+		if(!Double.isNaN(pValue))
+			return(pValue <= threshold);
+
+		// With very deep coverage, a normal approximation settles all but borderline tables //
+
+		int minMargin = approxMinMargin;
+		if(minMargin > 0 && Math.min(Math.min(expReads1 + expReads2, obsReads1 + obsReads2), Math.min(expReads1 + obsReads1, expReads2 + obsReads2)) >= minMargin)
+		{
+			double errorBound = FishersExact.getApproxErrorBound(expReads1, expReads2, obsReads1, obsReads2);
+			double approxP = FishersExact.getApproxRightTailedP(expReads1, expReads2, obsReads1, obsReads2);
+
+			// Only trust the approximation when the bound keeps it on one side of 0.999 and of the threshold //
+			if(approxP - errorBound >= 0.999)
+				approxP = FishersExact.getApproxLeftTailedP(expReads1, expReads2, obsReads1, obsReads2);
+			else if(approxP + errorBound >= 0.999)
+				approxP = Double.NaN;
+
+			if(approxP + errorBound <= threshold)
+				return(true);
+			else if(approxP - errorBound > threshold)
+				return(false);
 		}
 
-		return(pValue);
+		FishersExact fisher = new FishersExact(expReads1 + expReads2 + obsReads1 + obsReads2 + 100);
+		double rightP = fisher.getRightTailedP(expReads1, expReads2, obsReads1, obsReads2, threshold);
+
+		if(rightP <= threshold && rightP < 0.999)
+		{
+			// The whole tail was summed, so this is the exact p-value //
+			significanceCache.put(cacheKey, rightP);
+			return(true);
+		}
+		else if(rightP > threshold)
+		{
+			// The right tail is 1 minus everything strictly to its left; if that is clearly above 0.001 the right tail is below 0.999 //
+			double strictLeftP = 0;
+			if(expReads1 > 0 && obsReads2 > 0)
+				strictLeftP = fisher.getLeftTailedP(expReads1 - 1, expReads2 + 1, obsReads1 + 1, obsReads2 - 1, 0.002);
+
+			if(strictLeftP > 0.002)
+				return(false);
+		}
+
+		// Undecided, so compute the exact p-value //
+		return(getSignificance(expReads1, expReads2, obsReads1, obsReads2) <= threshold);
 	}
 
 